@@ -0,0 +1,135 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * AtomMessageCorpus creates Fedora APIM messages (Atom entries) shaped like the ones Fedora sends
+ * to the messenger, together with their JMS headers. The logMessage of each message is padded so
+ * that the body is about the requested size, and each message in a corpus has its own pid.
+ */
+public final class AtomMessageCorpus {
+	private static final String PADDING_WORD = "Lorem ipsum dolor sit amet ";
+
+	public enum MessageKind {
+		IRRELEVANT_PID("diva2:", "modifyDatastreamByReference", null),
+		AUTHORITY_PERSON_UPDATE("authority-person:", "modifyDatastreamByReference", null),
+		MODIFY_OBJECT_DELETE("authority-person:", "modifyObject", "D"),
+		MODIFY_OBJECT_ACTIVE("authority-person:", "modifyObject", "A"),
+		PURGE_OBJECT("authority-person:", "purgeObject", null);
+
+		private final String pidPrefix;
+		private final String methodName;
+		private final String state;
+
+		MessageKind(String pidPrefix, String methodName, String state) {
+			this.pidPrefix = pidPrefix;
+			this.methodName = methodName;
+			this.state = state;
+		}
+	}
+
+	private final List<Map<String, String>> headers = new ArrayList<>();
+	private final List<String> bodies = new ArrayList<>();
+
+	private AtomMessageCorpus() {
+	}
+
+	public static AtomMessageCorpus create(MessageKind messageKind, int bodySize,
+			int noOfMessages) {
+		AtomMessageCorpus corpus = new AtomMessageCorpus();
+		for (int i = 0; i < noOfMessages; i++) {
+			String pid = messageKind.pidPrefix + (100000 + i);
+			corpus.headers.add(Map.of("pid", pid, "methodName", messageKind.methodName));
+			corpus.bodies.add(createBody(messageKind, pid, bodySize));
+		}
+		return corpus;
+	}
+
+	private static String createBody(MessageKind messageKind, String pid, int bodySize) {
+		String start = createStart(messageKind, pid);
+		String end = createEnd(pid);
+		int paddingSize = Math.max(0, bodySize - start.length() - end.length());
+		return start + createPadding(paddingSize) + end;
+	}
+
+	private static String createStart(MessageKind messageKind, String pid) {
+		StringBuilder start = new StringBuilder();
+		start.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		start.append("<entry xmlns=\"http://www.w3.org/2005/Atom\"");
+		start.append(" xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\"");
+		start.append(" xmlns:fedora-types=\"http://www.fedora.info/definitions/1/0/types/\">\n");
+		start.append("<id>urn:uuid:a3a24e16-2747-4d78-bf7c-023ee669dfb3</id>\n");
+		start.append("<updated>2021-04-19T08:52:21.593Z</updated>\n");
+		start.append("<author>\n<name>fedoraAdmin</name>\n");
+		start.append("<uri>http://localhost:8088/fedora</uri>\n</author>\n");
+		start.append("<title type=\"text\">").append(messageKind.methodName).append("</title>\n");
+		appendCategory(start, pid, "fedora-types:pid", "xsd:string");
+		if (messageKind.state != null) {
+			appendCategory(start, messageKind.state, "fedora-types:state", "xsd:string");
+			appendCategory(start, "null", "fedora-types:label", "xsd:string");
+		} else {
+			appendCategory(start, "METADATA", "fedora-types:dsID", "xsd:string");
+			appendCategory(start, "uploaded://214320", "fedora-types:dsLocation", "xsd:string");
+			appendCategory(start, "SHA-512", "fedora-types:checksumType", "xsd:string");
+		}
+		start.append("<category term=\"");
+		return start.toString();
+	}
+
+	private static void appendCategory(StringBuilder body, String term, String scheme,
+			String label) {
+		body.append("<category term=\"").append(term).append("\" scheme=\"").append(scheme)
+				.append("\" label=\"").append(label).append("\"></category>\n");
+	}
+
+	private static String createEnd(String pid) {
+		return "\" scheme=\"fedora-types:logMessage\" label=\"xsd:string\"></category>\n"
+				+ "<summary type=\"text\">" + pid + "</summary>\n"
+				+ "<content type=\"text\">2021-04-19T08:52:21.593Z</content>\n"
+				+ "<category term=\"32.1\" scheme=\"info:fedora/fedora-system:def/view#version\">"
+				+ "</category>\n<category term=\"info:fedora/fedora-system:ATOM-APIM-1.0\""
+				+ " scheme=\"http://www.fedora.info/definitions/1/0/types/formatURI\">"
+				+ "</category>\n</entry>";
+	}
+
+	private static String createPadding(int paddingSize) {
+		StringBuilder padding = new StringBuilder(paddingSize);
+		while (padding.length() < paddingSize) {
+			padding.append(PADDING_WORD);
+		}
+		padding.setLength(paddingSize);
+		return padding.toString();
+	}
+
+	public int size() {
+		return bodies.size();
+	}
+
+	public Map<String, String> getHeaders(int index) {
+		return headers.get(index);
+	}
+
+	public String getBody(int index) {
+		return bodies.get(index);
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.uu.ub.cora.diva.indexmessenger.DivaMessageParser;
+import se.uu.ub.cora.diva.indexmessenger.benchmark.AtomMessageCorpus.MessageKind;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+/**
+ * DivaMessageParserBenchmark measures the throughput of {@link DivaMessageParser} for each kind of
+ * message and body size. Each invocation parses the next message of a corpus, so that the same
+ * message is not parsed over and over.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class DivaMessageParserBenchmark {
+	private static final int CORPUS_SIZE = 64;
+
+	@Param
+	public MessageKind messageKind;
+
+	@Param({ "2048", "16384", "131072" })
+	public int bodySize;
+
+	private DivaMessageParser parser;
+	private Map<String, String>[] headers;
+	private String[] bodies;
+	private int next = 0;
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setUp() {
+		LoggerProvider.setLoggerFactory(new NoOpLoggerFactory());
+		parser = new DivaMessageParser();
+		AtomMessageCorpus corpus = AtomMessageCorpus.create(messageKind, bodySize, CORPUS_SIZE);
+		headers = new Map[CORPUS_SIZE];
+		bodies = new String[CORPUS_SIZE];
+		for (int i = 0; i < CORPUS_SIZE; i++) {
+			headers[i] = corpus.getHeaders(i);
+			bodies[i] = corpus.getBody(i);
+		}
+	}
+
+	@Benchmark
+	public boolean parseHeadersAndMessage() {
+		int index = nextIndex();
+		parser.parseHeadersAndMessage(headers[index], bodies[index]);
+		return parser.shouldWorkOrderBeCreatedForMessage();
+	}
+
+	private int nextIndex() {
+		int index = next;
+		next = (next + 1) % CORPUS_SIZE;
+		return index;
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.benchmark;
+
+import java.util.function.Supplier;
+
+import se.uu.ub.cora.logger.Logger;
+import se.uu.ub.cora.logger.LoggerFactory;
+
+/**
+ * NoOpLoggerFactory creates loggers that discard everything, so that logging does not affect the
+ * benchmarks.
+ */
+public class NoOpLoggerFactory implements LoggerFactory {
+	private static final Logger NO_OP_LOGGER = new NoOpLogger();
+
+	@Override
+	public Logger factorForClass(Class<? extends Object> javaClass) {
+		return NO_OP_LOGGER;
+	}
+
+	private static class NoOpLogger implements Logger {
+
+		@Override
+		public void logFatalUsingMessage(String message) {
+			// discarded
+		}
+
+		@Override
+		public void logFatalUsingMessageAndException(String message, Exception exception) {
+			// discarded
+		}
+
+		@Override
+		public void logErrorUsingMessage(String message) {
+			// discarded
+		}
+
+		@Override
+		public void logErrorUsingMessageAndException(String message, Exception exception) {
+			// discarded
+		}
+
+		@Override
+		public void logWarnUsingMessage(String message) {
+			// discarded
+		}
+
+		@Override
+		public void logWarnUsingMessageAndException(String message, Exception exception) {
+			// discarded
+		}
+
+		@Override
+		public void logInfoUsingMessage(String message) {
+			// discarded
+		}
+
+		@Override
+		public void logDebugUsingMessage(String message) {
+			// discarded
+		}
+
+		@Override
+		public void logDebugUsingMessageSupplier(Supplier<String> messageSupplier) {
+			// discarded
+		}
+
+		@Override
+		public void logTraceUsingMessage(String message) {
+			// discarded
+		}
+
+		@Override
+		public void logTraceUsingMessageSupplier(Supplier<String> messageSupplier) {
+			// discarded
+		}
+	}
+}
@@ -1,3 +1,8 @@
 module se.uu.ub.cora.divaindexmessenger {
 	requires se.uu.ub.cora.indexmessenger;
-}
\ No newline at end of file
+	requires java.management;
+	requires java.net.http;
+	requires jdk.httpserver;
+
+	exports se.uu.ub.cora.diva.indexmessenger.metrics;
+}
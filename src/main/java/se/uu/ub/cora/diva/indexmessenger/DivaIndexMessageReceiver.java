@@ -0,0 +1,165 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import se.uu.ub.cora.diva.indexmessenger.metrics.MessageSourceMetrics;
+import se.uu.ub.cora.diva.indexmessenger.metrics.PipelineMetrics;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrder;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderExecutors;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSender;
+import se.uu.ub.cora.indexmessenger.IndexMessageException;
+import se.uu.ub.cora.logger.Logger;
+import se.uu.ub.cora.logger.LoggerProvider;
+import se.uu.ub.cora.messaging.MessageReceiver;
+
+/**
+ * DivaIndexMessageReceiver parses received messages and sends a work order for each relevant one.
+ * <p>
+ * When stopped, messages received from then on are held without being handled, so they are not
+ * acknowledged and the broker delivers them again after a restart.
+ * <p>
+ * When the listening for messages ends, on failure or otherwise, no more messages are received
+ * and the receiver is marked as ended, so health checks can report it.
+ */
+public class DivaIndexMessageReceiver implements MessageReceiver {
+	private Logger logger = LoggerProvider.getLoggerForClass(DivaIndexMessageReceiver.class);
+	private DivaMessageParser messageParser;
+	private WorkOrderSender workOrderSender;
+	private PipelineMetrics pipelineMetrics;
+	private MessageSourceMetrics sourceMetrics;
+	private volatile boolean stopped = false;
+	private volatile boolean listeningEnded = false;
+	private final AtomicInteger messagesInProgress = new AtomicInteger();
+	private final CountDownLatch neverReleased = new CountDownLatch(1);
+
+	public DivaIndexMessageReceiver(DivaMessageParser messageParser,
+			WorkOrderSender workOrderSender, PipelineMetrics pipelineMetrics,
+			MessageSourceMetrics sourceMetrics) {
+		this.messageParser = messageParser;
+		this.workOrderSender = workOrderSender;
+		this.pipelineMetrics = pipelineMetrics;
+		this.sourceMetrics = sourceMetrics;
+	}
+
+	@Override
+	public void receiveMessage(Map<String, String> headers, String message) {
+		messagesInProgress.incrementAndGet();
+		if (stopped) {
+			messagesInProgress.decrementAndGet();
+			holdWithoutAcknowledging();
+		}
+		try {
+			handleMessage(headers, message);
+		} finally {
+			messagesInProgress.decrementAndGet();
+		}
+	}
+
+	private void holdWithoutAcknowledging() {
+		try {
+			neverReleased.await();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+		throw IndexMessageException.withMessage("Message not handled, receiver is stopped");
+	}
+
+	private void handleMessage(Map<String, String> headers, String message) {
+		sourceMetrics.recordMessageReceived();
+		long parseStart = System.nanoTime();
+		DivaParseResult parseResult = messageParser.parse(headers, message);
+		pipelineMetrics.recordParseLatency(System.nanoTime() - parseStart);
+		if (parseResult.shouldWorkOrderBeCreated()) {
+			tryToSendWorkOrder(parseResult);
+		}
+	}
+
+	private void tryToSendWorkOrder(DivaParseResult parseResult) {
+		WorkOrder workOrder = new WorkOrder(parseResult.getRecordType(),
+				parseResult.getRecordId(), parseResult.getModificationType());
+		sourceMetrics.recordWorkOrderCreated();
+		try {
+			workOrderSender.send(workOrder);
+		} catch (RuntimeException exception) {
+			sourceMetrics.recordWorkOrderNotSent();
+			logger.logErrorUsingMessageAndException(
+					"Error sending work order: " + workOrder.toString(), exception);
+		}
+	}
+
+	/**
+	 * Stops handling messages and waits for the messages being handled to finish, at most until
+	 * the deadline, given as a {@link System#nanoTime()} value.
+	 *
+	 * @return true if no message was being handled at the deadline
+	 */
+	public boolean stopReceivingBefore(long deadlineInNanos) {
+		stopped = true;
+		while (messagesInProgress.get() > 0 && WorkOrderExecutors.nanosUntil(deadlineInNanos) > 0
+				&& !Thread.currentThread().isInterrupted()) {
+			sleepOneMilli();
+		}
+		return messagesInProgress.get() == 0;
+	}
+
+	private void sleepOneMilli() {
+		try {
+			Thread.sleep(1);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	public void markListeningEnded() {
+		listeningEnded = true;
+	}
+
+	public boolean hasListeningEnded() {
+		return listeningEnded;
+	}
+
+	@Override
+	public void topicClosed() {
+		logger.logErrorUsingMessage("Topic closed");
+	}
+
+	public DivaMessageParser getMessageParser() {
+		return messageParser;
+	}
+
+	public WorkOrderSender getWorkOrderSender() {
+		return workOrderSender;
+	}
+
+	public PipelineMetrics getPipelineMetrics() {
+		return pipelineMetrics;
+	}
+
+	public MessageSourceMetrics getSourceMetrics() {
+		return sourceMetrics;
+	}
+}
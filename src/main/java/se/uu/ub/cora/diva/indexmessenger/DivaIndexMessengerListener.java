@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+import se.uu.ub.cora.diva.indexmessenger.metrics.MessageSourceMetrics;
+import se.uu.ub.cora.diva.indexmessenger.metrics.PipelineMetrics;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSender;
+import se.uu.ub.cora.indexmessenger.CoraCredentials;
+import se.uu.ub.cora.javaclient.cora.CoraClientFactory;
+import se.uu.ub.cora.messaging.MessageListener;
+import se.uu.ub.cora.messaging.MessageRoutingInfo;
+import se.uu.ub.cora.messaging.MessagingProvider;
+
+/**
+ * DivaIndexMessengerListener connects a {@link DivaIndexMessageReceiver} to one message source.
+ * Receiving starts when {@link #listen()} is called, which blocks for as long as the messaging
+ * library keeps receiving, so each listener is run on a thread of its own. When listen returns or
+ * throws, the receiver is marked as having ended listening.
+ */
+public class DivaIndexMessengerListener {
+	private CoraClientFactory coraClientFactory;
+	private DivaMessageParserFactory messageParserFactory;
+	private MessageRoutingInfo messageRoutingInfo;
+	private CoraCredentials credentials;
+	private DivaIndexMessageReceiver messageReceiver;
+	private MessageListener topicMessageListener;
+
+	public DivaIndexMessengerListener(CoraClientFactory coraClientFactory,
+			DivaMessageParserFactory messageParserFactory, MessageRoutingInfo messageRoutingInfo,
+			CoraCredentials credentials, WorkOrderSender workOrderSender,
+			PipelineMetrics pipelineMetrics, MessageSourceMetrics sourceMetrics) {
+		this.coraClientFactory = coraClientFactory;
+		this.messageParserFactory = messageParserFactory;
+		this.messageRoutingInfo = messageRoutingInfo;
+		this.credentials = credentials;
+		messageReceiver = new DivaIndexMessageReceiver(messageParserFactory.getMessageParser(),
+				workOrderSender, pipelineMetrics, sourceMetrics);
+		topicMessageListener = MessagingProvider.getTopicMessageListener(messageRoutingInfo);
+	}
+
+	public void listen() {
+		try {
+			topicMessageListener.listen(messageReceiver);
+		} finally {
+			messageReceiver.markListeningEnded();
+		}
+	}
+
+	public CoraClientFactory getCoraClientFactory() {
+		return coraClientFactory;
+	}
+
+	public DivaMessageParserFactory getMessageParserFactory() {
+		return messageParserFactory;
+	}
+
+	public MessageRoutingInfo getMessageRoutingInfo() {
+		return messageRoutingInfo;
+	}
+
+	public CoraCredentials getCredentials() {
+		return credentials;
+	}
+
+	public DivaIndexMessageReceiver getMessageReceiver() {
+		return messageReceiver;
+	}
+}
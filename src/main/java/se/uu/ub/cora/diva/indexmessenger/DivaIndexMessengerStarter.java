@@ -20,12 +20,36 @@ package se.uu.ub.cora.diva.indexmessenger;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Path;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
 
+import se.uu.ub.cora.diva.indexmessenger.bulk.BulkInput;
+import se.uu.ub.cora.diva.indexmessenger.bulk.BulkReindexer;
+import se.uu.ub.cora.diva.indexmessenger.bulk.BulkReindexerFactory;
+import se.uu.ub.cora.diva.indexmessenger.health.HealthCheck;
+import se.uu.ub.cora.diva.indexmessenger.health.HealthEndpoint;
+import se.uu.ub.cora.diva.indexmessenger.health.MetricsExposition;
+import se.uu.ub.cora.diva.indexmessenger.metrics.MessageSourceMetrics;
+import se.uu.ub.cora.diva.indexmessenger.metrics.MetricsRegistrar;
+import se.uu.ub.cora.diva.indexmessenger.metrics.PipelineMetrics;
+import se.uu.ub.cora.diva.indexmessenger.retry.RetryScheduler;
+import se.uu.ub.cora.diva.indexmessenger.workorder.ReloadableWorkOrderSender;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderExecutors;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSender;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSenderFactory;
 import se.uu.ub.cora.indexmessenger.CoraCredentials;
-import se.uu.ub.cora.indexmessenger.IndexMessengerListener;
-import se.uu.ub.cora.indexmessenger.parser.MessageParserFactory;
 import se.uu.ub.cora.javaclient.cora.CoraClientFactory;
 import se.uu.ub.cora.javaclient.cora.CoraClientFactoryImp;
 import se.uu.ub.cora.logger.Logger;
@@ -33,8 +57,21 @@ import se.uu.ub.cora.logger.LoggerProvider;
 import se.uu.ub.cora.messaging.JmsMessageRoutingInfo;
 
 public class DivaIndexMessengerStarter {
-
-	protected static IndexMessengerListener indexMessengerListener;
+	private static final String BULK_ARGUMENT = "--bulk";
+	private static final String DEFAULT_SOURCE_NAME = "default";
+	private static final String RELOAD_INTERVAL = "reload.intervalInMillis";
+	private static final Pattern SOURCE_NAME_PATTERN = Pattern.compile("[A-Za-z0-9_-]+");
+	protected static DivaIndexMessengerListener indexMessengerListener;
+	protected static List<DivaIndexMessengerListener> indexMessengerListeners;
+	protected static List<Thread> listenerThreads;
+	protected static BulkReindexer bulkReindexer;
+	protected static PropertiesReloader propertiesReloader;
+	protected static PropertiesFileWatcher propertiesFileWatcher;
+	protected static WorkOrderSender workOrderSender;
+	protected static GracefulShutdown gracefulShutdown;
+	protected static Thread shutdownHook;
+	protected static HealthEndpoint healthEndpoint;
+	protected static RetryScheduler retryScheduler;
 
 	private static Logger logger = LoggerProvider
 			.getLoggerForClass(DivaIndexMessengerStarter.class);
@@ -43,14 +80,45 @@ public class DivaIndexMessengerStarter {
 	}
 
 	public static void main(String[] args) {
-		logger.logInfoUsingMessage("DivaIndexMessengerStarter starting...");
-		tryToCreateIndexMessengerListener(args);
+		logger = LoggerProvider.getLoggerForClass(DivaIndexMessengerStarter.class);
+		if (bulkReindexRequested(args)) {
+			logger.logInfoUsingMessage("DivaIndexMessengerStarter starting bulk reindex...");
+			tryToRunBulkReindex(args);
+		} else {
+			logger.logInfoUsingMessage("DivaIndexMessengerStarter starting...");
+			tryToCreateIndexMessengerListener(args);
+		}
+	}
+
+	private static boolean bulkReindexRequested(String[] args) {
+		return args.length > 0 && BULK_ARGUMENT.equals(args[0]);
+	}
+
+	private static void tryToRunBulkReindex(String[] args) {
+		try {
+			throwErrorIfNoInputFile(args);
+			String propertiesFileName = args.length > 2 ? args[2] : "divaIndexer.properties";
+			Properties properties = readPropertiesFromFile(propertiesFileName);
+			runBulkReindex(properties, Path.of(args[1]));
+		} catch (Exception ex) {
+			logger.logFatalUsingMessageAndException("Unable to run bulk reindex ", ex);
+		}
+	}
+
+	private static void throwErrorIfNoInputFile(String[] args) {
+		if (args.length < 2) {
+			throw new RuntimeException(
+					"Bulk reindex needs arguments: --bulk inputFile [propertiesFile]");
+		}
 	}
 
 	private static void tryToCreateIndexMessengerListener(String[] args) {
 		try {
 			Properties properties = loadProperties(args);
 			createIndexMessengerListener(properties);
+			possiblyWatchPropertiesFile(args, properties);
+			registerShutdownHook(properties);
+			possiblyStartHealthEndpoint(properties);
 			logger.logInfoUsingMessage("DivaIndexMessengerStarter started");
 		} catch (Exception ex) {
 			logger.logFatalUsingMessageAndException("Unable to start DivaIndexMessengerStarter ",
@@ -88,6 +156,107 @@ public class DivaIndexMessengerStarter {
 		}
 	}
 
+	private static void possiblyWatchPropertiesFile(String[] args, Properties properties) {
+		propertiesFileWatcher = null;
+		if (propertiesReloader == null || !propertiesShouldBeReadFromFile(args)) {
+			return;
+		}
+		String propertiesFileName = getFilenameFromArgsOrDefault(args);
+		Path propertiesFile = findPropertiesFile(propertiesFileName);
+		if (propertiesFile == null) {
+			logger.logErrorUsingMessage("Unable to watch properties: " + propertiesFileName
+					+ " for changes, it is not a file");
+			return;
+		}
+		long intervalInMillis = extractOptionalLongProperty(properties, RELOAD_INTERVAL, 0);
+		logger.logInfoUsingMessage(
+				MessageFormat.format("Watching properties file: {0} for changes every: {1} ms",
+						propertiesFile, String.valueOf(intervalInMillis)));
+		propertiesFileWatcher = new PropertiesFileWatcher(propertiesFile, intervalInMillis,
+				Executors.newSingleThreadScheduledExecutor(
+						WorkOrderExecutors.createDaemonThreadFactory("propertiesWatcher")),
+				propertiesReloader);
+		propertiesFileWatcher.start();
+	}
+
+	/**
+	 * Replaces the shutdown hook registered by an earlier start, so starting again in the same
+	 * process does not leave a hook for the replaced listeners.
+	 */
+	private static void registerShutdownHook(Properties properties) {
+		long timeoutInMillis = extractOptionalLongProperty(properties,
+				"shutdown.timeoutInMillis", 30000);
+		gracefulShutdown = new GracefulShutdown(collectMessageReceivers(), workOrderSender,
+				propertiesFileWatcher, retryScheduler, timeoutInMillis);
+		if (shutdownHook != null) {
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		}
+		shutdownHook = new Thread(gracefulShutdown, "gracefulShutdown");
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	private static List<DivaIndexMessageReceiver> collectMessageReceivers() {
+		List<DivaIndexMessageReceiver> messageReceivers = new ArrayList<>();
+		for (DivaIndexMessengerListener listener : indexMessengerListeners) {
+			messageReceivers.add(listener.getMessageReceiver());
+		}
+		return messageReceivers;
+	}
+
+	/**
+	 * With health.port set, serves health and metrics over HTTP. The endpoint of an earlier start
+	 * is stopped first. Failing to start the endpoint is logged, as it should never stop the
+	 * messenger from starting.
+	 */
+	private static void possiblyStartHealthEndpoint(Properties properties) {
+		if (healthEndpoint != null) {
+			healthEndpoint.stop();
+			healthEndpoint = null;
+		}
+		String port = properties.getProperty("health.port");
+		if (port == null) {
+			return;
+		}
+		String host = properties.getProperty("health.host", "0.0.0.0");
+		try {
+			tryToStartHealthEndpoint(properties, new InetSocketAddress(host,
+					Integer.parseInt(port.trim())));
+		} catch (IOException | RuntimeException exception) {
+			logger.logErrorUsingMessageAndException(
+					"Unable to serve health on: " + host + ":" + port, exception);
+		}
+	}
+
+	private static void tryToStartHealthEndpoint(Properties properties,
+			InetSocketAddress address) throws IOException {
+		long maxMessageAgeInMillis = extractOptionalLongProperty(properties,
+				"health.maxMessageAgeInMillis", 0);
+		long errorRateWindowInMillis = extractOptionalLongProperty(properties,
+				"health.errorRateWindowInMillis", 60000);
+		List<DivaIndexMessageReceiver> messageReceivers = collectMessageReceivers();
+		HealthCheck healthCheck = new HealthCheck(messageReceivers,
+				messageReceivers.get(0).getPipelineMetrics(),
+				ManagementFactory.getPlatformMBeanServer(), maxMessageAgeInMillis,
+				errorRateWindowInMillis);
+		healthEndpoint = HealthEndpoint.startOnAddress(address, healthCheck,
+				new MetricsExposition(ManagementFactory.getPlatformMBeanServer()));
+		logger.logInfoUsingMessage(MessageFormat.format(
+				"Serving health on: {0}:{1} at /health/live, /health/ready and /metrics",
+				address.getHostString(), String.valueOf(healthEndpoint.getPort())));
+	}
+
+	private static Path findPropertiesFile(String propertiesFileName) {
+		URL url = DivaIndexMessengerStarter.class.getClassLoader().getResource(propertiesFileName);
+		if (url == null || !"file".equals(url.getProtocol())) {
+			return null;
+		}
+		try {
+			return Path.of(url.toURI());
+		} catch (URISyntaxException exception) {
+			return null;
+		}
+	}
+
 	private static String getFilenameFromArgsOrDefault(String[] args) {
 		if (args.length > 0) {
 			return args[0];
@@ -117,20 +286,165 @@ public class DivaIndexMessengerStarter {
 		return properties;
 	}
 
-	private static void createIndexMessengerListener(Properties properties) {
+	/**
+	 * Creates one listener per message source. All sources share the parser and the work order
+	 * pipeline, so with workOrder.concurrency set they share one bounded pool of workers sending
+	 * to Cora.
+	 */
+	static void createIndexMessengerListener(Properties properties) {
+		CoraClientFactory coraClientFactory = createCoraClientFactoryFromProperties(properties);
+		RoutingTable routingTable = RoutingTable.fromProperties(properties);
+		DivaMessageParserFactory messageParserFactory = new DivaMessageParserFactory(
+				routingTable);
+		Map<String, JmsMessageRoutingInfo> routingInfos = createMessageRoutingInfosFromProperties(
+				properties);
+		CoraCredentials credentials = createCoraCredentialsFromProperties(properties);
+
+		logMessageSources(routingInfos);
+		logMessageSelector(messageParserFactory);
+		PipelineMetrics pipelineMetrics = new PipelineMetrics(
+				messageParserFactory.getMessageParser().getParseCounters());
+		MetricsRegistrar metricsRegistrar = new MetricsRegistrar();
+		metricsRegistrar.registerPipelineMetrics(pipelineMetrics);
+		possiblyStartRetryScheduler(properties, metricsRegistrar);
+		workOrderSender = createWorkOrderSender(properties, coraClientFactory, credentials,
+				messageParserFactory.getMessageParser(), pipelineMetrics, metricsRegistrar);
+
+		indexMessengerListeners = new ArrayList<>();
+		for (Entry<String, JmsMessageRoutingInfo> source : routingInfos.entrySet()) {
+			MessageSourceMetrics sourceMetrics = new MessageSourceMetrics(source.getKey());
+			metricsRegistrar.registerMessageSourceMetrics(sourceMetrics);
+			indexMessengerListeners.add(new DivaIndexMessengerListener(coraClientFactory,
+					messageParserFactory, source.getValue(), credentials, workOrderSender,
+					pipelineMetrics, sourceMetrics));
+		}
+		indexMessengerListener = indexMessengerListeners.get(0);
+		startListening(new ArrayList<>(routingInfos.keySet()));
+	}
+
+	/**
+	 * Starts each listener on a thread of its own, as listening blocks for as long as messages are
+	 * received. The threads are not daemons, so they keep the process running.
+	 */
+	private static void startListening(List<String> sourceNames) {
+		listenerThreads = new ArrayList<>();
+		for (int i = 0; i < sourceNames.size(); i++) {
+			String sourceName = sourceNames.get(i);
+			DivaIndexMessengerListener listener = indexMessengerListeners.get(i);
+			Thread listenerThread = new Thread(() -> listenAndLogIfFailing(sourceName, listener),
+					"messageListener-" + sourceName);
+			listenerThreads.add(listenerThread);
+			listenerThread.start();
+		}
+	}
+
+	private static void listenAndLogIfFailing(String sourceName,
+			DivaIndexMessengerListener listener) {
+		try {
+			listener.listen();
+		} catch (RuntimeException exception) {
+			logger.logErrorUsingMessageAndException(
+					"Listening for index messages from source: " + sourceName + " failed",
+					exception);
+		}
+	}
+
+	/**
+	 * With retry.directory set, starts the {@link RetryScheduler} shared by all chains of work
+	 * order senders. The scheduler of an earlier start is closed first, leaving its retries in
+	 * the journal.
+	 */
+	private static void possiblyStartRetryScheduler(Properties properties,
+			MetricsRegistrar metricsRegistrar) {
+		if (retryScheduler != null) {
+			retryScheduler.closeBefore(System.nanoTime());
+			retryScheduler = null;
+		}
+		if (properties.getProperty("retry.directory") == null) {
+			return;
+		}
+		retryScheduler = RetryScheduler.fromProperties(properties);
+		metricsRegistrar.registerRetryScheduler(retryScheduler);
+		retryScheduler.start();
+		logger.logInfoUsingMessage(MessageFormat.format(
+				"Retrying failed work orders at most: {0} attempts, storing retries in: {1}",
+				String.valueOf(retryScheduler.getMaxAttempts()), retryScheduler.getDirectory()));
+	}
+
+	/**
+	 * With reload.intervalInMillis set, the chain of work order senders behind the outbox is
+	 * replaceable, and a {@link PropertiesReloader} is created to apply changed properties.
+	 */
+	private static WorkOrderSender createWorkOrderSender(Properties properties,
+			CoraClientFactory coraClientFactory, CoraCredentials credentials,
+			DivaMessageParser messageParser, PipelineMetrics pipelineMetrics,
+			MetricsRegistrar metricsRegistrar) {
+		WorkOrderSenderFactory workOrderSenderFactory = new WorkOrderSenderFactory(properties,
+				pipelineMetrics, metricsRegistrar, retryScheduler);
+		propertiesReloader = null;
+		if (extractOptionalLongProperty(properties, RELOAD_INTERVAL, 0) <= 0) {
+			return workOrderSenderFactory.factor(coraClientFactory, credentials);
+		}
+		ReloadableWorkOrderSender reloadableSender = new ReloadableWorkOrderSender(
+				workOrderSenderFactory.factorWithoutOutbox(coraClientFactory, credentials));
+		long closeTimeoutInMillis = extractOptionalLongProperty(properties,
+				"reload.closeTimeoutInMillis", 30000);
+		propertiesReloader = new PropertiesReloader(properties, messageParser, reloadableSender,
+				changedProperties -> createSenderChain(changedProperties, pipelineMetrics,
+						metricsRegistrar),
+				closeTimeoutInMillis);
+		return workOrderSenderFactory.possiblyPutOutboxInFront(reloadableSender);
+	}
+
+	private static WorkOrderSender createSenderChain(Properties properties,
+			PipelineMetrics pipelineMetrics, MetricsRegistrar metricsRegistrar) {
 		CoraClientFactory coraClientFactory = createCoraClientFactoryFromProperties(properties);
-		MessageParserFactory messageParserFactory = new DivaMessageParserFactory();
-		JmsMessageRoutingInfo routingInfo = createMessageRoutingInfoFromProperties(properties);
 		CoraCredentials credentials = createCoraCredentialsFromProperties(properties);
+		return new WorkOrderSenderFactory(properties, pipelineMetrics, metricsRegistrar,
+				retryScheduler).factorWithoutOutbox(coraClientFactory, credentials);
+	}
 
-		String logM = "Will listen for index messages from: {0} using port: {1}";
-		String formattedLogMessage = MessageFormat.format(logM, routingInfo.hostname,
-				routingInfo.port);
-		logger.logInfoUsingMessage(formattedLogMessage);
+	private static void logMessageSources(Map<String, JmsMessageRoutingInfo> routingInfos) {
+		for (Entry<String, JmsMessageRoutingInfo> source : routingInfos.entrySet()) {
+			JmsMessageRoutingInfo routingInfo = source.getValue();
+			if (DEFAULT_SOURCE_NAME.equals(source.getKey())) {
+				logger.logInfoUsingMessage(MessageFormat.format(
+						"Will listen for index messages from: {0} using port: {1}",
+						routingInfo.hostname, routingInfo.port));
+			} else {
+				logger.logInfoUsingMessage(MessageFormat.format(
+						"Will listen for index messages from source: {0} at: {1} using port: {2}",
+						source.getKey(), routingInfo.hostname, routingInfo.port));
+			}
+		}
+	}
 
-		indexMessengerListener = new IndexMessengerListener(coraClientFactory, messageParserFactory,
-				routingInfo, credentials);
+	static void runBulkReindex(Properties properties, Path inputFile) {
+		CoraClientFactory coraClientFactory = createCoraClientFactoryFromProperties(properties);
+		CoraCredentials credentials = createCoraCredentialsFromProperties(properties);
+		DivaMessageParser messageParser = new DivaMessageParserFactory(
+				RoutingTable.fromProperties(properties)).getMessageParser();
+		PipelineMetrics pipelineMetrics = new PipelineMetrics(messageParser.getParseCounters());
+		MetricsRegistrar metricsRegistrar = new MetricsRegistrar();
+		metricsRegistrar.registerPipelineMetrics(pipelineMetrics);
+		BulkReindexerFactory bulkReindexerFactory = new BulkReindexerFactory(properties,
+				pipelineMetrics, metricsRegistrar);
+		bulkReindexer = bulkReindexerFactory.factor(coraClientFactory, credentials, messageParser,
+				inputFile);
+		try (BulkInput input = bulkReindexerFactory.openInput(inputFile)) {
+			bulkReindexer.reindex(input);
+		}
+	}
 
+	/**
+	 * Logs the selector matching the relevant messages. The messaging library can not set a
+	 * selector on the consumer, so the selector is only logged, for use in configuring the broker,
+	 * and irrelevant messages are dropped by the parser.
+	 */
+	private static void logMessageSelector(DivaMessageParserFactory messageParserFactory) {
+		String messageSelector = JmsMessageSelector
+				.createForRoutingTable(messageParserFactory.getRoutingTable());
+		logger.logInfoUsingMessage("Relevant messages match selector: " + messageSelector);
 	}
 
 	private static CoraClientFactory createCoraClientFactoryFromProperties(Properties properties) {
@@ -150,6 +464,15 @@ public class DivaIndexMessengerStarter {
 		return properties.getProperty(propertyName);
 	}
 
+	private static long extractOptionalLongProperty(Properties properties, String propertyName,
+			long defaultValue) {
+		String value = properties.getProperty(propertyName);
+		if (value == null) {
+			return defaultValue;
+		}
+		return Long.parseLong(value.trim());
+	}
+
 	private static void throwErrorIfPropertyNameIsMissing(Properties properties,
 			String propertyName) {
 		if (!properties.containsKey(propertyName)) {
@@ -158,13 +481,43 @@ public class DivaIndexMessengerStarter {
 		}
 	}
 
-	private static JmsMessageRoutingInfo createMessageRoutingInfoFromProperties(
+	private static Map<String, JmsMessageRoutingInfo> createMessageRoutingInfosFromProperties(
 			Properties properties) {
-		String hostname = extractPropertyThrowErrorIfNotFound(properties, "messaging.hostname");
-		String port = extractPropertyThrowErrorIfNotFound(properties, "messaging.port");
-		String routingKey = extractPropertyThrowErrorIfNotFound(properties, "messaging.routingKey");
-		String username = extractPropertyThrowErrorIfNotFound(properties, "messaging.username");
-		String password = extractPropertyThrowErrorIfNotFound(properties, "messaging.password");
+		Map<String, JmsMessageRoutingInfo> routingInfos = new LinkedHashMap<>();
+		String sources = properties.getProperty("messaging.sources");
+		if (sources == null) {
+			routingInfos.put(DEFAULT_SOURCE_NAME,
+					createMessageRoutingInfoFromProperties(properties, "messaging."));
+			return routingInfos;
+		}
+		for (String sourceName : sources.split(",")) {
+			addNamedSource(properties, routingInfos, sourceName.trim());
+		}
+		if (routingInfos.isEmpty()) {
+			throw new RuntimeException("No message sources found in messaging.sources");
+		}
+		return routingInfos;
+	}
+
+	private static void addNamedSource(Properties properties,
+			Map<String, JmsMessageRoutingInfo> routingInfos, String sourceName) {
+		if (sourceName.isEmpty()) {
+			return;
+		}
+		if (!SOURCE_NAME_PATTERN.matcher(sourceName).matches()) {
+			throw new RuntimeException("Invalid message source name: " + sourceName);
+		}
+		routingInfos.put(sourceName, createMessageRoutingInfoFromProperties(properties,
+				"messaging." + sourceName + "."));
+	}
+
+	private static JmsMessageRoutingInfo createMessageRoutingInfoFromProperties(
+			Properties properties, String prefix) {
+		String hostname = extractPropertyThrowErrorIfNotFound(properties, prefix + "hostname");
+		String port = extractPropertyThrowErrorIfNotFound(properties, prefix + "port");
+		String routingKey = extractPropertyThrowErrorIfNotFound(properties, prefix + "routingKey");
+		String username = extractPropertyThrowErrorIfNotFound(properties, prefix + "username");
+		String password = extractPropertyThrowErrorIfNotFound(properties, prefix + "password");
 		return new JmsMessageRoutingInfo(hostname, port, routingKey, username, password);
 	}
 
@@ -20,126 +20,186 @@
 package se.uu.ub.cora.diva.indexmessenger;
 
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BooleanSupplier;
 
 import se.uu.ub.cora.indexmessenger.IndexMessageException;
 import se.uu.ub.cora.indexmessenger.parser.MessageParser;
 import se.uu.ub.cora.logger.Logger;
 import se.uu.ub.cora.logger.LoggerProvider;
 
+/**
+ * DivaMessageParser decides if a message from DiVA classic (Fedora) should result in a work order.
+ * <p>
+ * The parser keeps no state between calls to {@link #parse(Map, CharSequence)} and can therefore
+ * be shared between threads. The methods from {@link MessageParser} read the result of the latest
+ * call to {@link #parseHeadersAndMessage(Map, String)} made by the calling thread.
+ * <p>
+ * The decision is made in two phases. The headers alone (pid namespace, looked up in a
+ * {@link RoutingTable}, and methodName) reject most messages, and only modifyObject messages for
+ * relevant pids have their body searched for the delete marker. The body is searched in place, a
+ * String using {@link String#contains(CharSequence)} and any other CharSequence char by char, so
+ * it is never copied. The routing table can be replaced while messages are parsed, each message is
+ * parsed using either the old or the new table.
+ * <p>
+ * Messages without pid are logged through a {@link RateLimitedErrorLog}, so that a producer
+ * sending only such messages can not flood the log. Summaries of left out errors are written when
+ * the next message is parsed after the interval, whether it has a pid or not.
+ */
 public class DivaMessageParser implements MessageParser {
-	private static final String TEXT_TO_IDENTIFY_MESSAGES_FOR_DELETE = ""
-			+ "<category term=\"D\" scheme=\"fedora-types:state\" label=\"xsd:string\"></category>";
+	private static final String DELETE_MARKER = "<category term=\"D\" "
+			+ "scheme=\"fedora-types:state\" label=\"xsd:string\"></category>";
+	private static final long ERROR_SUMMARY_INTERVAL_IN_MILLIS = 60000;
 	private Logger logger = LoggerProvider.getLoggerForClass(DivaMessageParser.class);
-	private String parsedRecordId;
-	private boolean workOrderShouldBeCreated = false;
-	private String parsedType;
-	private String modificationType;
+	private final RateLimitedErrorLog errorLog = new RateLimitedErrorLog(logger,
+			ERROR_SUMMARY_INTERVAL_IN_MILLIS, System::nanoTime);
+	private final ThreadLocal<DivaParseResult> latestParseResult = ThreadLocal
+			.withInitial(DivaParseResult::noWorkOrder);
+	private final ParseCounters parseCounters = new ParseCounters();
+	private volatile RoutingTable routingTable;
+
+	public DivaMessageParser() {
+		this(RoutingTable.forAuthorityPerson());
+	}
+
+	public DivaMessageParser(RoutingTable routingTable) {
+		this.routingTable = routingTable;
+	}
 
 	@Override
 	public void parseHeadersAndMessage(Map<String, String> headers, String message) {
-		try {
-			tryToParseMessage(headers, message);
-		} catch (IndexMessageException exception) {
-			handleError(exception);
-		}
+		latestParseResult.set(parse(headers, message));
 	}
 
-	private void tryToParseMessage(Map<String, String> headers, String message) {
-		throwErrorIfNoPid(headers);
-		workOrderShouldBeCreated = workOrderShouldBeCreatedForMessage(headers, message);
-		possibleSetValues(headers, message);
+	public DivaParseResult parse(Map<String, String> headers, CharSequence message) {
+		return parseUsingDeleteMarkerCheck(headers, () -> containsDeleteMarker(message));
 	}
 
-	private void throwErrorIfNoPid(Map<String, String> headers) {
-		if (headers.get("pid") == null) {
-			throw IndexMessageException.withMessage("No pid found in header");
+	private static boolean containsDeleteMarker(CharSequence message) {
+		if (message instanceof String messageString) {
+			return messageString.contains(DELETE_MARKER);
+		}
+		int lastStart = message.length() - DELETE_MARKER.length();
+		for (int start = 0; start <= lastStart; start++) {
+			if (deleteMarkerStartsAt(message, start)) {
+				return true;
+			}
 		}
+		return false;
 	}
 
-	private boolean workOrderShouldBeCreatedForMessage(Map<String, String> headers,
-			String message) {
-		String methodName = headers.get("methodName");
-		String typePartOfId = extractTypePartOfId(headers);
-
-		return calculateWorkOrderShouldBeCreated(message, methodName, typePartOfId);
+	private static boolean deleteMarkerStartsAt(CharSequence message, int start) {
+		for (int i = 0; i < DELETE_MARKER.length(); i++) {
+			if (message.charAt(start + i) != DELETE_MARKER.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
 	}
 
-	private String extractTypePartOfId(Map<String, String> headers) {
-		String pid = headers.get("pid");
-		return pid.substring(0, pid.indexOf(':'));
+	private DivaParseResult parseUsingDeleteMarkerCheck(Map<String, String> headers,
+			BooleanSupplier deleteMarkerCheck) {
+		errorLog.flushEndedIntervals();
+		RoutingTable currentRoutingTable = routingTable;
+		countMethodName(currentRoutingTable, headers.get("methodName"));
+		try {
+			return tryToParseMessage(currentRoutingTable, headers, deleteMarkerCheck);
+		} catch (IndexMessageException exception) {
+			parseCounters.countRejectedOnHeaders();
+			parseCounters.countWithoutPid();
+			handleError(exception, headers);
+			return DivaParseResult.noWorkOrder();
+		}
 	}
 
-	private boolean calculateWorkOrderShouldBeCreated(String message, String methodName,
-			String typePartOfId) {
-		return (methodNameIsRelevant(methodName) || isDeleteMessage(message, methodName))
-				&& typeIsAuthorityPerson(typePartOfId);
+	private void countMethodName(RoutingTable currentRoutingTable, String methodName) {
+		if (currentRoutingTable.usesMethodName(methodName)) {
+			parseCounters.countRoutedMethodName(methodName);
+		} else {
+			parseCounters.countOtherMethodName();
+		}
 	}
 
-	private boolean methodNameIsRelevant(String methodName) {
-		return "modifyDatastreamByReference".equals(methodName) || isPurgeMessage(methodName)
-				|| "addDatastream".equals(methodName);
+	private DivaParseResult tryToParseMessage(RoutingTable currentRoutingTable,
+			Map<String, String> headers, BooleanSupplier deleteMarkerCheck) {
+		String pid = headers.get("pid");
+		throwErrorIfNoPid(pid);
+		RoutingRule routingRule = currentRoutingTable.findRoutingRuleForPid(pid);
+		HeaderDecision headerDecision = decideUsingHeaders(routingRule,
+				headers.get("methodName"));
+		if (headerDecision == HeaderDecision.REJECT) {
+			parseCounters.countRejectedOnHeaders();
+			return DivaParseResult.noWorkOrder();
+		}
+		return decideUsingBodyIfNeeded(pid, routingRule, headerDecision, deleteMarkerCheck);
 	}
 
-	private boolean isPurgeMessage(String methodName) {
-		return "purgeObject".equals(methodName);
+	private void throwErrorIfNoPid(String pid) {
+		if (pid == null) {
+			throw IndexMessageException.withMessage("No pid found in header");
+		}
 	}
 
-	private boolean isDeleteMessage(String message, String methodName) {
-		return "modifyObject".equals(methodName)
-				&& message.contains(TEXT_TO_IDENTIFY_MESSAGES_FOR_DELETE);
+	private HeaderDecision decideUsingHeaders(RoutingRule routingRule, String methodName) {
+		if (routingRule == null) {
+			return HeaderDecision.REJECT;
+		}
+		return routingRule.decideUsingMethodName(methodName);
 	}
 
-	private boolean typeIsAuthorityPerson(String typePartOfId) {
-		return "authority-person".equals(typePartOfId);
+	private DivaParseResult decideUsingBodyIfNeeded(String pid, RoutingRule routingRule,
+			HeaderDecision headerDecision, BooleanSupplier deleteMarkerCheck) {
+		if (headerDecision == HeaderDecision.UPDATE) {
+			return createResultForWorkOrder(pid, routingRule, "update");
+		}
+		if (headerDecision == HeaderDecision.DELETE || deleteMarkerCheck.getAsBoolean()) {
+			return createResultForWorkOrder(pid, routingRule, "delete");
+		}
+		parseCounters.countRejectedOnBody();
+		return DivaParseResult.noWorkOrder();
 	}
 
-	private void possibleSetValues(Map<String, String> headers, String message) {
-		if (workOrderShouldBeCreated) {
-			parsedRecordId = headers.get("pid");
-			parsedType = "person";
-			setModificationTypeFromMessageAndHeaders(message, headers);
-		}
+	private DivaParseResult createResultForWorkOrder(String pid, RoutingRule routingRule,
+			String modificationType) {
+		parseCounters.countAccepted(modificationType);
+		return DivaParseResult.forWorkOrder(pid, routingRule.getRecordType(), modificationType);
 	}
 
-	private void setModificationTypeFromMessageAndHeaders(String message,
-			Map<String, String> headers) {
-		String methodName = headers.get("methodName");
-		modificationType = "update";
-		possiblyChangeModificationTypeToDelete(message, methodName);
+	private void handleError(IndexMessageException e, Map<String, String> headers) {
+		errorLog.logError("messages without pid",
+				() -> e.getMessage() + ", headers: " + new TreeMap<>(headers));
 	}
 
-	private void possiblyChangeModificationTypeToDelete(String message, String methodName) {
-		if (messageIsFromDeleteOrPurge(message, methodName)) {
-			modificationType = "delete";
-		}
+	public RoutingTable getRoutingTable() {
+		return routingTable;
 	}
 
-	private boolean messageIsFromDeleteOrPurge(String message, String methodName) {
-		return isDeleteMessage(message, methodName) || isPurgeMessage(methodName);
+	public void setRoutingTable(RoutingTable routingTable) {
+		this.routingTable = routingTable;
 	}
 
-	private void handleError(IndexMessageException e) {
-		logger.logErrorUsingMessage(e.getMessage());
+	public ParseCounters getParseCounters() {
+		return parseCounters;
 	}
 
 	@Override
 	public String getRecordId() {
-		return parsedRecordId;
+		return latestParseResult.get().getRecordId();
 	}
 
 	@Override
 	public String getRecordType() {
-		return parsedType;
+		return latestParseResult.get().getRecordType();
 	}
 
 	@Override
 	public boolean shouldWorkOrderBeCreatedForMessage() {
-		return workOrderShouldBeCreated;
+		return latestParseResult.get().shouldWorkOrderBeCreated();
 	}
 
 	@Override
 	public String getModificationType() {
-		return modificationType;
+		return latestParseResult.get().getModificationType();
 	}
 
 }
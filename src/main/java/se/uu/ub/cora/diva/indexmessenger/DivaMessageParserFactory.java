@@ -1,5 +1,5 @@
 /*
- * Copyright 2019 Uppsala University Library
+ * Copyright 2019, 2021 Uppsala University Library
  *
  * This file is part of Cora.
  *
@@ -23,9 +23,27 @@ import se.uu.ub.cora.indexmessenger.parser.MessageParserFactory;
 
 public class DivaMessageParserFactory implements MessageParserFactory {
 
+	private DivaMessageParser messageParser;
+
+	public DivaMessageParserFactory() {
+		this(RoutingTable.forAuthorityPerson());
+	}
+
+	public DivaMessageParserFactory(RoutingTable routingTable) {
+		messageParser = new DivaMessageParser(routingTable);
+	}
+
 	@Override
 	public MessageParser factor() {
-		return new DivaMessageParser();
+		return messageParser;
+	}
+
+	public DivaMessageParser getMessageParser() {
+		return messageParser;
+	}
+
+	public RoutingTable getRoutingTable() {
+		return messageParser.getRoutingTable();
 	}
 
 }
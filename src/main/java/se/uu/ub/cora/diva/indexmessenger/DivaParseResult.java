@@ -0,0 +1,66 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+/**
+ * DivaParseResult is the immutable outcome of parsing one message with {@link DivaMessageParser}.
+ * Messages that should not result in a work order all share the same instance.
+ */
+public final class DivaParseResult {
+	private static final DivaParseResult NO_WORK_ORDER = new DivaParseResult(false, null, null,
+			null);
+
+	private final boolean workOrderShouldBeCreated;
+	private final String recordId;
+	private final String recordType;
+	private final String modificationType;
+
+	private DivaParseResult(boolean workOrderShouldBeCreated, String recordId, String recordType,
+			String modificationType) {
+		this.workOrderShouldBeCreated = workOrderShouldBeCreated;
+		this.recordId = recordId;
+		this.recordType = recordType;
+		this.modificationType = modificationType;
+	}
+
+	public static DivaParseResult noWorkOrder() {
+		return NO_WORK_ORDER;
+	}
+
+	public static DivaParseResult forWorkOrder(String recordId, String recordType,
+			String modificationType) {
+		return new DivaParseResult(true, recordId, recordType, modificationType);
+	}
+
+	public boolean shouldWorkOrderBeCreated() {
+		return workOrderShouldBeCreated;
+	}
+
+	public String getRecordId() {
+		return recordId;
+	}
+
+	public String getRecordType() {
+		return recordType;
+	}
+
+	public String getModificationType() {
+		return modificationType;
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import se.uu.ub.cora.diva.indexmessenger.retry.RetryScheduler;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSender;
+import se.uu.ub.cora.logger.Logger;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+/**
+ * GracefulShutdown is run when the process is asked to stop. It stops the receivers, so that
+ * messages arriving from then on are left unacknowledged for the broker to deliver again, waits
+ * for the messages being handled and then closes the work order senders, which send the work
+ * orders they hold, and last the retry scheduler, if any. All of it is done before a deadline,
+ * timeoutInMillis after the shutdown started.
+ */
+public class GracefulShutdown implements Runnable {
+	private Logger logger = LoggerProvider.getLoggerForClass(GracefulShutdown.class);
+	private final List<DivaIndexMessageReceiver> messageReceivers;
+	private final WorkOrderSender workOrderSender;
+	private final PropertiesFileWatcher propertiesFileWatcher;
+	private final RetryScheduler retryScheduler;
+	private final long timeoutInMillis;
+
+	public GracefulShutdown(List<DivaIndexMessageReceiver> messageReceivers,
+			WorkOrderSender workOrderSender, PropertiesFileWatcher propertiesFileWatcher,
+			long timeoutInMillis) {
+		this(messageReceivers, workOrderSender, propertiesFileWatcher, null, timeoutInMillis);
+	}
+
+	public GracefulShutdown(List<DivaIndexMessageReceiver> messageReceivers,
+			WorkOrderSender workOrderSender, PropertiesFileWatcher propertiesFileWatcher,
+			RetryScheduler retryScheduler, long timeoutInMillis) {
+		this.messageReceivers = messageReceivers;
+		this.workOrderSender = workOrderSender;
+		this.propertiesFileWatcher = propertiesFileWatcher;
+		this.retryScheduler = retryScheduler;
+		this.timeoutInMillis = timeoutInMillis;
+	}
+
+	@Override
+	public void run() {
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutInMillis);
+		logger.logInfoUsingMessage(
+				"Shutting down, sending held work orders within: " + timeoutInMillis + " ms");
+		possiblyStopWatchingPropertiesFile();
+		stopReceivingBefore(deadline);
+		int notSent = workOrderSender.closeBefore(deadline);
+		notSent += possiblyCloseRetrySchedulerBefore(deadline);
+		logResult(notSent, System.nanoTime() - start);
+	}
+
+	private void possiblyStopWatchingPropertiesFile() {
+		if (propertiesFileWatcher != null) {
+			propertiesFileWatcher.stop();
+		}
+	}
+
+	private int possiblyCloseRetrySchedulerBefore(long deadline) {
+		if (retryScheduler == null) {
+			return 0;
+		}
+		return retryScheduler.closeBefore(deadline);
+	}
+
+	private void stopReceivingBefore(long deadline) {
+		boolean allHandled = true;
+		for (DivaIndexMessageReceiver messageReceiver : messageReceivers) {
+			allHandled &= messageReceiver.stopReceivingBefore(deadline);
+		}
+		if (!allHandled) {
+			logger.logErrorUsingMessage("Messages still being handled at the deadline, "
+					+ "they are delivered again after restart");
+		}
+	}
+
+	private void logResult(int notSent, long elapsedInNanos) {
+		long elapsedInMillis = TimeUnit.NANOSECONDS.toMillis(elapsedInNanos);
+		if (notSent == 0) {
+			logger.logInfoUsingMessage(
+					"Shut down after: " + elapsedInMillis + " ms, all work orders were sent");
+		} else {
+			logger.logErrorUsingMessage(MessageFormat.format(
+					"Shut down after: {0} ms, left: {1} work orders unsent",
+					String.valueOf(elapsedInMillis), String.valueOf(notSent)));
+		}
+	}
+
+	public List<DivaIndexMessageReceiver> getMessageReceivers() {
+		return messageReceivers;
+	}
+
+	public WorkOrderSender getWorkOrderSender() {
+		return workOrderSender;
+	}
+
+	public PropertiesFileWatcher getPropertiesFileWatcher() {
+		return propertiesFileWatcher;
+	}
+
+	public RetryScheduler getRetryScheduler() {
+		return retryScheduler;
+	}
+
+	public long getTimeoutInMillis() {
+		return timeoutInMillis;
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.TreeSet;
+
+/**
+ * JmsMessageSelector creates a JMS message selector from a {@link RoutingRule} or a
+ * {@link RoutingTable}, matching the messages that {@link DivaMessageParser} does not reject on
+ * headers alone. The selector is diagnostic, it describes the relevant messages, for example to
+ * configure filtering in the broker, but is not set on the consumer.
+ * <p>
+ * A routing table without rules gives the selector FALSE, as no message is relevant.
+ */
+public final class JmsMessageSelector {
+
+	private static final String NO_MESSAGES = "FALSE";
+
+	private JmsMessageSelector() {
+	}
+
+	public static String createForRoutingTable(RoutingTable routingTable) {
+		List<RoutingRule> routingRules = routingTable.getRoutingRules();
+		if (routingRules.isEmpty()) {
+			return NO_MESSAGES;
+		}
+		if (routingRules.size() == 1) {
+			return createForRoutingRule(routingRules.get(0));
+		}
+		StringJoiner selector = new StringJoiner(" OR ");
+		for (RoutingRule routingRule : routingRules) {
+			selector.add("(" + createForRoutingRule(routingRule) + ")");
+		}
+		return selector.toString();
+	}
+
+	public static String createForRoutingRule(RoutingRule routingRule) {
+		return createMethodNameCondition(routingRule) + " AND "
+				+ createPidCondition(routingRule);
+	}
+
+	private static String createMethodNameCondition(RoutingRule routingRule) {
+		StringJoiner methodNames = new StringJoiner(", ", "methodName IN (", ")");
+		for (String methodName : new TreeSet<>(routingRule.getMethodNames())) {
+			methodNames.add(quote(methodName));
+		}
+		return methodNames.toString();
+	}
+
+	private static String createPidCondition(RoutingRule routingRule) {
+		String escapedPrefix = routingRule.getPidPrefix().replace("!", "!!").replace("_", "!_")
+				.replace("%", "!%");
+		return "pid LIKE " + quote(escapedPrefix + "%") + " ESCAPE '!'";
+	}
+
+	private static String quote(String value) {
+		return "'" + value.replace("'", "''") + "'";
+	}
+}
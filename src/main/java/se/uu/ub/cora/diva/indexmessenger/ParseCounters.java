@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ParseCounters counts the decisions made by {@link DivaMessageParser}, split on the phase in
+ * which a message was rejected. Messages rejected on headers never had their body read. Parsed
+ * messages are also counted per methodName, and accepted messages per modification type. Only
+ * methodNames used in the routing table get counters of their own, all other messages, also those
+ * without methodName, are counted as {@value #OTHER_METHOD_NAMES}. The number of counters is
+ * thereby bounded by the configuration and not by what producers send.
+ * <p>
+ * Counting is lock free, so the counters can be updated from many threads at little cost.
+ */
+public final class ParseCounters {
+	static final String OTHER_METHOD_NAMES = "(other)";
+	private final LongAdder rejectedOnHeaders = new LongAdder();
+	private final LongAdder rejectedOnBody = new LongAdder();
+	private final LongAdder withoutPid = new LongAdder();
+	private final LongAdder acceptedUpdates = new LongAdder();
+	private final LongAdder acceptedDeletes = new LongAdder();
+	private final LongAdder otherMethodNames = new LongAdder();
+	private final Map<String, LongAdder> messagesPerMethodName = new ConcurrentHashMap<>();
+
+	void countRoutedMethodName(String methodName) {
+		LongAdder counter = messagesPerMethodName.get(methodName);
+		if (counter == null) {
+			counter = messagesPerMethodName.computeIfAbsent(methodName, k -> new LongAdder());
+		}
+		counter.increment();
+	}
+
+	void countOtherMethodName() {
+		otherMethodNames.increment();
+	}
+
+	void countRejectedOnHeaders() {
+		rejectedOnHeaders.increment();
+	}
+
+	void countRejectedOnBody() {
+		rejectedOnBody.increment();
+	}
+
+	void countWithoutPid() {
+		withoutPid.increment();
+	}
+
+	void countAccepted(String modificationType) {
+		if ("delete".equals(modificationType)) {
+			acceptedDeletes.increment();
+		} else {
+			acceptedUpdates.increment();
+		}
+	}
+
+	public long getRejectedOnHeaders() {
+		return rejectedOnHeaders.sum();
+	}
+
+	public long getRejectedOnBody() {
+		return rejectedOnBody.sum();
+	}
+
+	/**
+	 * Returns the number of messages without pid, these are also counted as rejected on headers.
+	 */
+	public long getWithoutPid() {
+		return withoutPid.sum();
+	}
+
+	public long getAccepted() {
+		return acceptedUpdates.sum() + acceptedDeletes.sum();
+	}
+
+	public long getAcceptedUpdates() {
+		return acceptedUpdates.sum();
+	}
+
+	public long getAcceptedDeletes() {
+		return acceptedDeletes.sum();
+	}
+
+	/**
+	 * Returns a snapshot of the number of parsed messages per methodName, sorted on methodName.
+	 */
+	public Map<String, Long> getMessagesPerMethodName() {
+		Map<String, Long> snapshot = new TreeMap<>();
+		messagesPerMethodName.forEach((methodName, counter) -> snapshot.put(methodName,
+				counter.sum()));
+		long noOfOtherMethodNames = otherMethodNames.sum();
+		if (noOfOtherMethodNames > 0) {
+			snapshot.put(OTHER_METHOD_NAMES, noOfOtherMethodNames);
+		}
+		return snapshot;
+	}
+}
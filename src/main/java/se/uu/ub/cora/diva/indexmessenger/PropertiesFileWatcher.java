@@ -0,0 +1,125 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import se.uu.ub.cora.logger.Logger;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+/**
+ * PropertiesFileWatcher polls a properties file and hands the properties read from it to a
+ * listener when the file has changed. Polling the modification time and size works on any file
+ * system, and also for files replaced rather than written in place by editors and deploy tools.
+ * <p>
+ * A change is only read when the file has looked the same on two polls in a row, so that a file
+ * still being written is not read halfway.
+ */
+public class PropertiesFileWatcher {
+	private Logger logger = LoggerProvider.getLoggerForClass(PropertiesFileWatcher.class);
+	private final Path propertiesFile;
+	private final long intervalInMillis;
+	private final ScheduledExecutorService scheduler;
+	private final Consumer<Properties> listener;
+	private String readFileState;
+	private String seenFileState;
+
+	public PropertiesFileWatcher(Path propertiesFile, long intervalInMillis,
+			ScheduledExecutorService scheduler, Consumer<Properties> listener) {
+		this.propertiesFile = propertiesFile;
+		this.intervalInMillis = intervalInMillis;
+		this.scheduler = scheduler;
+		this.listener = listener;
+	}
+
+	/**
+	 * Starts polling, changes made before this call are not handed to the listener.
+	 */
+	public void start() {
+		readFileState = readFileStateOrEmpty();
+		seenFileState = readFileState;
+		scheduler.scheduleWithFixedDelay(this::checkForChanges, intervalInMillis,
+				intervalInMillis, TimeUnit.MILLISECONDS);
+	}
+
+	void checkForChanges() {
+		try {
+			tryToCheckForChanges();
+		} catch (IOException | RuntimeException exception) {
+			logger.logErrorUsingMessageAndException(
+					"Unable to reload properties from: " + propertiesFile, exception);
+		}
+	}
+
+	private void tryToCheckForChanges() throws IOException {
+		String fileState = readFileState();
+		if (!fileState.equals(seenFileState)) {
+			seenFileState = fileState;
+			return;
+		}
+		if (!fileState.equals(readFileState)) {
+			readFileState = fileState;
+			listener.accept(readProperties());
+		}
+	}
+
+	private String readFileStateOrEmpty() {
+		try {
+			return readFileState();
+		} catch (IOException exception) {
+			return "";
+		}
+	}
+
+	private String readFileState() throws IOException {
+		return Files.getLastModifiedTime(propertiesFile).toMillis() + ":"
+				+ Files.size(propertiesFile);
+	}
+
+	private Properties readProperties() throws IOException {
+		Properties properties = new Properties();
+		try (InputStream input = Files.newInputStream(propertiesFile)) {
+			properties.load(input);
+		}
+		return properties;
+	}
+
+	public void stop() {
+		scheduler.shutdownNow();
+	}
+
+	public Path getPropertiesFile() {
+		return propertiesFile;
+	}
+
+	public long getIntervalInMillis() {
+		return intervalInMillis;
+	}
+
+	public Consumer<Properties> getListener() {
+		return listener;
+	}
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import se.uu.ub.cora.diva.indexmessenger.workorder.ReloadableWorkOrderSender;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSender;
+import se.uu.ub.cora.logger.Logger;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+/**
+ * PropertiesReloader applies changed properties to a running messenger. Changed routing.*
+ * properties replace the routing table of the parser. Changed properties for sending work orders
+ * (workOrder.*, authToken.*, http.*, cora.*, baseUrl and appTokenVerifierUrl) replace the chain of
+ * work order senders behind the outbox, and the replaced chain is closed once it has sent what it
+ * holds. Other changed properties, such as messaging.* and outbox.*, need a restart, which is
+ * logged.
+ * <p>
+ * Properties that could not be applied keep their current values as far as the reloader is
+ * concerned, so they are tried again on the next change of the properties file.
+ * <p>
+ * Only names of changed properties are logged, never their values.
+ */
+public class PropertiesReloader implements Consumer<Properties> {
+	private static final List<String> SENDER_PREFIXES = List.of("workOrder.", "authToken.",
+			"http.", "cora.");
+	private static final List<String> SENDER_NAMES = List.of("baseUrl", "appTokenVerifierUrl");
+	private static final String ROUTING_PREFIX = "routing.";
+	private Logger logger = LoggerProvider.getLoggerForClass(PropertiesReloader.class);
+	private final DivaMessageParser messageParser;
+	private final ReloadableWorkOrderSender workOrderSender;
+	private final Function<Properties, WorkOrderSender> senderChainFactory;
+	private final long closeTimeoutInMillis;
+	private Properties properties;
+
+	public PropertiesReloader(Properties properties, DivaMessageParser messageParser,
+			ReloadableWorkOrderSender workOrderSender,
+			Function<Properties, WorkOrderSender> senderChainFactory, long closeTimeoutInMillis) {
+		this.properties = properties;
+		this.messageParser = messageParser;
+		this.workOrderSender = workOrderSender;
+		this.senderChainFactory = senderChainFactory;
+		this.closeTimeoutInMillis = closeTimeoutInMillis;
+	}
+
+	@Override
+	public synchronized void accept(Properties changedProperties) {
+		Set<String> changedNames = findChangedNames(changedProperties);
+		if (changedNames.isEmpty()) {
+			return;
+		}
+		logger.logInfoUsingMessage("Changed properties: " + changedNames);
+		Properties appliedProperties = changedProperties;
+		if (anyStartsWith(changedNames, ROUTING_PREFIX)
+				&& !tryToReloadRoutingTable(changedProperties)) {
+			appliedProperties = keepCurrentValues(appliedProperties, changedNames,
+					name -> name.startsWith(ROUTING_PREFIX));
+		}
+		if (anyIsForSendingWorkOrders(changedNames)
+				&& !tryToReplaceSenderChain(changedProperties)) {
+			appliedProperties = keepCurrentValues(appliedProperties, changedNames,
+					this::isForSendingWorkOrders);
+		}
+		possiblyLogPropertiesNeedingRestart(changedNames);
+		properties = appliedProperties;
+	}
+
+	private Properties keepCurrentValues(Properties changedProperties, Set<String> changedNames,
+			Predicate<String> notApplied) {
+		Properties appliedProperties = new Properties();
+		appliedProperties.putAll(changedProperties);
+		for (String name : changedNames) {
+			if (notApplied.test(name)) {
+				keepCurrentValue(appliedProperties, name);
+			}
+		}
+		return appliedProperties;
+	}
+
+	private void keepCurrentValue(Properties appliedProperties, String name) {
+		String currentValue = properties.getProperty(name);
+		if (currentValue == null) {
+			appliedProperties.remove(name);
+		} else {
+			appliedProperties.setProperty(name, currentValue);
+		}
+	}
+
+	private Set<String> findChangedNames(Properties changedProperties) {
+		Set<String> changedNames = new TreeSet<>();
+		Set<String> names = new TreeSet<>(properties.stringPropertyNames());
+		names.addAll(changedProperties.stringPropertyNames());
+		for (String name : names) {
+			String value = properties.getProperty(name);
+			if (value == null || !value.equals(changedProperties.getProperty(name))) {
+				changedNames.add(name);
+			}
+		}
+		return changedNames;
+	}
+
+	private boolean anyStartsWith(Set<String> names, String prefix) {
+		for (String name : names) {
+			if (name.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean tryToReloadRoutingTable(Properties changedProperties) {
+		try {
+			RoutingTable routingTable = RoutingTable.fromProperties(changedProperties);
+			messageParser.setRoutingTable(routingTable);
+			logger.logInfoUsingMessage("Reloaded routing rules, relevant messages match selector: "
+					+ JmsMessageSelector.createForRoutingTable(routingTable));
+			return true;
+		} catch (RuntimeException exception) {
+			logger.logErrorUsingMessageAndException(
+					"Unable to reload routing rules, keeping the current rules", exception);
+			return false;
+		}
+	}
+
+	private boolean anyIsForSendingWorkOrders(Set<String> names) {
+		for (String name : names) {
+			if (isForSendingWorkOrders(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isForSendingWorkOrders(String name) {
+		if (SENDER_NAMES.contains(name)) {
+			return true;
+		}
+		for (String prefix : SENDER_PREFIXES) {
+			if (name.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean tryToReplaceSenderChain(Properties changedProperties) {
+		WorkOrderSender senderChain;
+		try {
+			senderChain = senderChainFactory.apply(changedProperties);
+		} catch (RuntimeException exception) {
+			logger.logErrorUsingMessageAndException(
+					"Unable to reload work order sending, keeping the current senders", exception);
+			return false;
+		}
+		long deadlineInNanos = System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(closeTimeoutInMillis);
+		int notSent = workOrderSender.replaceAndCloseBefore(senderChain, deadlineInNanos);
+		logReplacedSenderChain(notSent);
+		return true;
+	}
+
+	private void logReplacedSenderChain(int notSent) {
+		if (notSent > 0) {
+			logger.logErrorUsingMessage("Reloaded work order sending, the replaced senders left: "
+					+ notSent + " work orders unsent after: " + closeTimeoutInMillis + " ms");
+		} else {
+			logger.logInfoUsingMessage("Reloaded work order sending");
+		}
+	}
+
+	private void possiblyLogPropertiesNeedingRestart(Set<String> changedNames) {
+		Set<String> namesNeedingRestart = new TreeSet<>();
+		for (String name : changedNames) {
+			if (!name.startsWith(ROUTING_PREFIX) && !isForSendingWorkOrders(name)) {
+				namesNeedingRestart.add(name);
+			}
+		}
+		if (!namesNeedingRestart.isEmpty()) {
+			logger.logInfoUsingMessage(
+					"Changed properties take effect after restart: " + namesNeedingRestart);
+		}
+	}
+
+	public Properties getProperties() {
+		return properties;
+	}
+
+	public DivaMessageParser getMessageParser() {
+		return messageParser;
+	}
+
+	public ReloadableWorkOrderSender getWorkOrderSender() {
+		return workOrderSender;
+	}
+
+	public long getCloseTimeoutInMillis() {
+		return closeTimeoutInMillis;
+	}
+}
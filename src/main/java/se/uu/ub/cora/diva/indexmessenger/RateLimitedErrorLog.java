@@ -0,0 +1,157 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+import java.text.MessageFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import se.uu.ub.cora.logger.Logger;
+
+/**
+ * RateLimitedErrorLog bounds the number of error lines written for errors that can repeat for
+ * every message, such as messages without pid from a misbehaving producer. Per category, the
+ * first error in an interval is logged as is and later ones are only counted. The first error
+ * after the interval writes one summary line for the interval, with the number of errors left out
+ * and the first of them as a sample, and starts a new interval. At most two lines per category
+ * are written per interval, however many errors there are.
+ * <p>
+ * As errors may stop coming, {@link #flushEndedIntervals()} writes the summaries of intervals that
+ * have ended without waiting for the next error. It is meant to be called for every message, and
+ * only reads a volatile flag while no errors are left out.
+ */
+final class RateLimitedErrorLog {
+	private final Logger logger;
+	private final long intervalInNanos;
+	private final LongSupplier nanoClock;
+	private final Map<String, Interval> intervals = new ConcurrentHashMap<>();
+	private volatile boolean hasLeftOutErrors = false;
+
+	RateLimitedErrorLog(Logger logger, long intervalInMillis, LongSupplier nanoClock) {
+		this.logger = logger;
+		this.intervalInNanos = TimeUnit.MILLISECONDS.toNanos(intervalInMillis);
+		this.nanoClock = nanoClock;
+	}
+
+	/**
+	 * Logs or counts an error in the given category, message is only called for errors that are
+	 * logged or kept as sample.
+	 */
+	void logError(String category, Supplier<String> message) {
+		Interval interval = intervals.computeIfAbsent(category, k -> new Interval());
+		String summary = null;
+		String messageToLog = null;
+		synchronized (interval) {
+			long now = nanoClock.getAsLong();
+			if (interval.hasEnded(now)) {
+				summary = createSummaryIfErrorsWereLeftOut(category, interval);
+				interval.start(now);
+				messageToLog = message.get();
+			} else {
+				interval.countLeftOut(message);
+				hasLeftOutErrors = true;
+			}
+		}
+		logOutsideLock(summary, messageToLog);
+	}
+
+	/**
+	 * Logs the summaries of the intervals that have ended with errors left out. The next error in
+	 * such a category is logged as is and starts a new interval.
+	 */
+	void flushEndedIntervals() {
+		if (!hasLeftOutErrors) {
+			return;
+		}
+		hasLeftOutErrors = false;
+		for (Map.Entry<String, Interval> entry : intervals.entrySet()) {
+			flushIntervalIfEnded(entry.getKey(), entry.getValue());
+		}
+	}
+
+	private void flushIntervalIfEnded(String category, Interval interval) {
+		String summary = null;
+		synchronized (interval) {
+			if (interval.hasEnded(nanoClock.getAsLong())) {
+				summary = createSummaryIfErrorsWereLeftOut(category, interval);
+				interval.stop();
+			} else if (interval.noOfLeftOut > 0) {
+				hasLeftOutErrors = true;
+			}
+		}
+		logOutsideLock(summary, null);
+	}
+
+	private String createSummaryIfErrorsWereLeftOut(String category, Interval interval) {
+		if (interval.noOfLeftOut == 0) {
+			return null;
+		}
+		return MessageFormat.format("{0} {1} in the last {2}s, first sample: {3}",
+				String.valueOf(interval.noOfLeftOut), category,
+				String.valueOf(TimeUnit.NANOSECONDS.toSeconds(intervalInNanos)),
+				interval.firstLeftOut);
+	}
+
+	private void logOutsideLock(String summary, String messageToLog) {
+		if (summary != null) {
+			logger.logErrorUsingMessage(summary);
+		}
+		if (messageToLog != null) {
+			logger.logErrorUsingMessage(messageToLog);
+		}
+	}
+
+	long getIntervalInMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(intervalInNanos);
+	}
+
+	private final class Interval {
+		private boolean started = false;
+		private long startedAt;
+		private long noOfLeftOut;
+		private String firstLeftOut;
+
+		boolean hasEnded(long now) {
+			return !started || now - startedAt >= intervalInNanos;
+		}
+
+		void start(long now) {
+			started = true;
+			startedAt = now;
+			noOfLeftOut = 0;
+			firstLeftOut = null;
+		}
+
+		void stop() {
+			started = false;
+			noOfLeftOut = 0;
+			firstLeftOut = null;
+		}
+
+		void countLeftOut(Supplier<String> message) {
+			if (noOfLeftOut == 0) {
+				firstLeftOut = message.get();
+			}
+			noOfLeftOut++;
+		}
+	}
+}
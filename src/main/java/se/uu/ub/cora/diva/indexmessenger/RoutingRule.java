@@ -0,0 +1,97 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import se.uu.ub.cora.indexmessenger.IndexMessageException;
+
+/**
+ * RoutingRule holds the rules deciding which Fedora messages are relevant for one pid namespace,
+ * and which Cora record type they should be indexed as.
+ * <p>
+ * A rule has at least one methodName. Each relevant methodName is decided the way Fedora uses
+ * it: purgeObject deletes the object, modifyObject deletes it only if the message body marks the
+ * object as deleted, and all other methodNames update it.
+ */
+public final class RoutingRule {
+	public static final List<String> DEFAULT_METHOD_NAMES = List.of("modifyDatastreamByReference",
+			"addDatastream", "purgeObject", "modifyObject");
+	private final String pidPrefix;
+	private final String recordType;
+	private final Map<String, HeaderDecision> decisionsForMethodNames;
+
+	private RoutingRule(String pidNamespace, String recordType,
+			Map<String, HeaderDecision> decisionsForMethodNames) {
+		this.pidPrefix = pidNamespace + ":";
+		this.recordType = recordType;
+		this.decisionsForMethodNames = decisionsForMethodNames;
+	}
+
+	public static RoutingRule forAuthorityPerson() {
+		return forNamespaceUsingMethodNames("authority-person", "person", DEFAULT_METHOD_NAMES);
+	}
+
+	public static RoutingRule forNamespaceUsingMethodNames(String pidNamespace, String recordType,
+			Collection<String> methodNames) {
+		if (methodNames.isEmpty()) {
+			throw IndexMessageException
+					.withMessage("No methodNames in routing rule for namespace: " + pidNamespace);
+		}
+		Map<String, HeaderDecision> decisions = new HashMap<>();
+		for (String methodName : methodNames) {
+			decisions.put(methodName, decideForMethodName(methodName));
+		}
+		return new RoutingRule(pidNamespace, recordType, decisions);
+	}
+
+	private static HeaderDecision decideForMethodName(String methodName) {
+		if ("purgeObject".equals(methodName)) {
+			return HeaderDecision.DELETE;
+		}
+		if ("modifyObject".equals(methodName)) {
+			return HeaderDecision.DELETE_IF_MARKED_IN_BODY;
+		}
+		return HeaderDecision.UPDATE;
+	}
+
+	HeaderDecision decideUsingMethodName(String methodName) {
+		if (methodName == null) {
+			return HeaderDecision.REJECT;
+		}
+		return decisionsForMethodNames.getOrDefault(methodName, HeaderDecision.REJECT);
+	}
+
+	public String getPidPrefix() {
+		return pidPrefix;
+	}
+
+	public String getRecordType() {
+		return recordType;
+	}
+
+	public Set<String> getMethodNames() {
+		return Collections.unmodifiableSet(decisionsForMethodNames.keySet());
+	}
+}
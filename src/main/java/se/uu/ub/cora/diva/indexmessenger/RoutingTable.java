@@ -0,0 +1,204 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import se.uu.ub.cora.indexmessenger.IndexMessageException;
+
+/**
+ * RoutingTable finds the {@link RoutingRule} for a pid using the namespace of the pid, the part
+ * before the first colon. The rules are compiled into an open addressing hash table keyed on the
+ * hash of the pid prefix, so a lookup reads the namespace of the pid in place, without creating a
+ * substring, and costs the same no matter how many rules there are.
+ * <p>
+ * A routing table can be read from properties on the form:
+ * 
+ * <pre>
+ * routing.authority-person.recordType = person
+ * routing.authority-person.methodNames = modifyDatastreamByReference, addDatastream, purgeObject
+ * </pre>
+ * 
+ * where methodNames is optional and defaults to {@link RoutingRule#DEFAULT_METHOD_NAMES}. A
+ * methodNames property without any method names is an error.
+ */
+public final class RoutingTable {
+	private static final String PROPERTY_PREFIX = "routing.";
+	private static final String RECORD_TYPE_SUFFIX = ".recordType";
+	private static final String METHOD_NAMES_SUFFIX = ".methodNames";
+	private static final char NAMESPACE_SEPARATOR = ':';
+	private final List<RoutingRule> routingRules;
+	private final Set<String> methodNames = new HashSet<>();
+	private final RoutingRule[] slots;
+	private final int[] slotHashes;
+	private final int mask;
+
+	private RoutingTable(List<RoutingRule> routingRules) {
+		this.routingRules = Collections.unmodifiableList(new ArrayList<>(routingRules));
+		int noOfSlots = Integer.highestOneBit(Math.max(1, routingRules.size()) * 2) * 2;
+		slots = new RoutingRule[noOfSlots];
+		slotHashes = new int[noOfSlots];
+		mask = noOfSlots - 1;
+		for (RoutingRule routingRule : routingRules) {
+			addToSlot(routingRule);
+			methodNames.addAll(routingRule.getMethodNames());
+		}
+	}
+
+	private void addToSlot(RoutingRule routingRule) {
+		String pidPrefix = routingRule.getPidPrefix();
+		int hash = pidPrefix.hashCode();
+		int index = spread(hash) & mask;
+		while (slots[index] != null) {
+			throwErrorIfSamePidPrefix(slots[index], pidPrefix);
+			index = (index + 1) & mask;
+		}
+		slots[index] = routingRule;
+		slotHashes[index] = hash;
+	}
+
+	private void throwErrorIfSamePidPrefix(RoutingRule existingRule, String pidPrefix) {
+		if (existingRule.getPidPrefix().equals(pidPrefix)) {
+			throw IndexMessageException
+					.withMessage("More than one routing rule for pid prefix: " + pidPrefix);
+		}
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	public static RoutingTable usingRoutingRules(List<RoutingRule> routingRules) {
+		return new RoutingTable(routingRules);
+	}
+
+	public static RoutingTable forAuthorityPerson() {
+		return new RoutingTable(List.of(RoutingRule.forAuthorityPerson()));
+	}
+
+	/**
+	 * Reads the routing table from the routing.* properties, or returns the table for
+	 * authority-person if there are no such properties.
+	 */
+	public static RoutingTable fromProperties(Properties properties) {
+		List<RoutingRule> routingRules = new ArrayList<>();
+		for (String pidNamespace : findPidNamespaces(properties)) {
+			routingRules.add(createRoutingRule(properties, pidNamespace));
+		}
+		if (routingRules.isEmpty()) {
+			return forAuthorityPerson();
+		}
+		return new RoutingTable(routingRules);
+	}
+
+	private static TreeSet<String> findPidNamespaces(Properties properties) {
+		TreeSet<String> pidNamespaces = new TreeSet<>();
+		for (String name : properties.stringPropertyNames()) {
+			if (name.startsWith(PROPERTY_PREFIX) && name.endsWith(RECORD_TYPE_SUFFIX)) {
+				pidNamespaces.add(name.substring(PROPERTY_PREFIX.length(),
+						name.length() - RECORD_TYPE_SUFFIX.length()));
+			}
+		}
+		return pidNamespaces;
+	}
+
+	private static RoutingRule createRoutingRule(Properties properties, String pidNamespace) {
+		String keyStart = PROPERTY_PREFIX + pidNamespace;
+		String recordType = properties.getProperty(keyStart + RECORD_TYPE_SUFFIX).trim();
+		String methodNamesKey = keyStart + METHOD_NAMES_SUFFIX;
+		String methodNames = properties.getProperty(methodNamesKey);
+		return RoutingRule.forNamespaceUsingMethodNames(pidNamespace, recordType,
+				parseMethodNames(methodNamesKey, methodNames));
+	}
+
+	private static List<String> parseMethodNames(String methodNamesKey, String methodNames) {
+		if (methodNames == null) {
+			return RoutingRule.DEFAULT_METHOD_NAMES;
+		}
+		List<String> parsedMethodNames = new ArrayList<>();
+		for (String methodName : Arrays.asList(methodNames.split(","))) {
+			if (!methodName.isBlank()) {
+				parsedMethodNames.add(methodName.trim());
+			}
+		}
+		throwErrorIfNoMethodNames(methodNamesKey, parsedMethodNames);
+		return parsedMethodNames;
+	}
+
+	private static void throwErrorIfNoMethodNames(String methodNamesKey,
+			List<String> parsedMethodNames) {
+		if (parsedMethodNames.isEmpty()) {
+			throw IndexMessageException
+					.withMessage("No method names in property: " + methodNamesKey);
+		}
+	}
+
+	/**
+	 * Returns the routing rule for the namespace of the pid, or null if there is none.
+	 */
+	public RoutingRule findRoutingRuleForPid(String pid) {
+		int hash = 0;
+		int length = pid.length();
+		for (int i = 0; i < length; i++) {
+			char character = pid.charAt(i);
+			hash = 31 * hash + character;
+			if (character == NAMESPACE_SEPARATOR) {
+				return findRoutingRuleForPidPrefix(pid, i + 1, hash);
+			}
+		}
+		return null;
+	}
+
+	private RoutingRule findRoutingRuleForPidPrefix(String pid, int prefixLength, int hash) {
+		int index = spread(hash) & mask;
+		RoutingRule routingRule = slots[index];
+		while (routingRule != null) {
+			if (slotHashes[index] == hash && prefixMatches(routingRule, pid, prefixLength)) {
+				return routingRule;
+			}
+			index = (index + 1) & mask;
+			routingRule = slots[index];
+		}
+		return null;
+	}
+
+	private boolean prefixMatches(RoutingRule routingRule, String pid, int prefixLength) {
+		String pidPrefix = routingRule.getPidPrefix();
+		return pidPrefix.length() == prefixLength
+				&& pid.regionMatches(0, pidPrefix, 0, prefixLength);
+	}
+
+	/**
+	 * Returns true if any of the routing rules uses the methodName.
+	 */
+	public boolean usesMethodName(String methodName) {
+		return methodName != null && methodNames.contains(methodName);
+	}
+
+	public List<RoutingRule> getRoutingRules() {
+		return routingRules;
+	}
+}
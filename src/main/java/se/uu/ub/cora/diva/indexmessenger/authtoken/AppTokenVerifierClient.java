@@ -0,0 +1,98 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.authtoken;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import se.uu.ub.cora.diva.indexmessenger.http.CoraHttpClient;
+import se.uu.ub.cora.diva.indexmessenger.http.CoraHttpResponse;
+import se.uu.ub.cora.indexmessenger.CoraCredentials;
+import se.uu.ub.cora.indexmessenger.IndexMessageException;
+
+/**
+ * AppTokenVerifierClient gets authTokens from the appToken verifier in Cora, by posting the
+ * appToken for the user to appTokenVerifierUrl + rest/apptoken/ + userId. The token and the
+ * number of seconds it is valid for are read from the returned authToken record.
+ */
+public class AppTokenVerifierClient implements AuthTokenFetcher {
+	private static final Pattern TOKEN = Pattern
+			.compile("\"name\"\\s*:\\s*\"id\"\\s*,\\s*\"value\"\\s*:\\s*\"([^\"]+)\"");
+	private static final Pattern VALID_FOR_NO_SECONDS = Pattern.compile(
+			"\"name\"\\s*:\\s*\"validForNoSeconds\"\\s*,\\s*\"value\"\\s*:\\s*\"(\\d+)\"");
+	private static final int CREATED = 201;
+	private CoraHttpClient httpClient;
+	private String appTokenVerifierUrl;
+	private CoraCredentials credentials;
+
+	public AppTokenVerifierClient(CoraHttpClient httpClient, String appTokenVerifierUrl,
+			CoraCredentials credentials) {
+		this.httpClient = httpClient;
+		this.appTokenVerifierUrl = appTokenVerifierUrl;
+		this.credentials = credentials;
+	}
+
+	@Override
+	public AuthToken fetchAuthToken() {
+		URI uri = URI.create(appTokenVerifierUrl + "rest/apptoken/" + credentials.userId);
+		CoraHttpResponse response = tryToPost(uri);
+		if (response.getStatusCode() != CREATED) {
+			throw IndexMessageException.withMessage("Could not get authToken from: " + uri
+					+ ". Response code: " + response.getStatusCode());
+		}
+		return createAuthTokenFromResponse(uri, response.getBody());
+	}
+
+	private CoraHttpResponse tryToPost(URI uri) {
+		try {
+			return httpClient.post(uri, Map.of("Content-Type", "text/plain"),
+					credentials.appToken);
+		} catch (IOException exception) {
+			throw new UncheckedIOException("Could not get authToken from: " + uri, exception);
+		}
+	}
+
+	private AuthToken createAuthTokenFromResponse(URI uri, String json) {
+		Matcher token = TOKEN.matcher(json);
+		Matcher validForNoSeconds = VALID_FOR_NO_SECONDS.matcher(json);
+		if (!token.find() || !validForNoSeconds.find()) {
+			throw IndexMessageException.withMessage("Could not read authToken from: " + uri);
+		}
+		long validForInMillis = TimeUnit.SECONDS
+				.toMillis(Long.parseLong(validForNoSeconds.group(1)));
+		return new AuthToken(token.group(1), validForInMillis);
+	}
+
+	public CoraHttpClient getHttpClient() {
+		return httpClient;
+	}
+
+	public String getAppTokenVerifierUrl() {
+		return appTokenVerifierUrl;
+	}
+
+	public CoraCredentials getCredentials() {
+		return credentials;
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.authtoken;
+
+/**
+ * AuthToken is an authToken from Cora together with the time it is valid for, counted from when
+ * it was created.
+ */
+public final class AuthToken {
+	private final String token;
+	private final long validForInMillis;
+
+	public AuthToken(String token, long validForInMillis) {
+		this.token = token;
+		this.validForInMillis = validForInMillis;
+	}
+
+	public String getToken() {
+		return token;
+	}
+
+	public long getValidForInMillis() {
+		return validForInMillis;
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.authtoken;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import se.uu.ub.cora.logger.Logger;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+/**
+ * AuthTokenCache holds one authToken shared by all threads sending to Cora. The token is
+ * refreshed in the background a margin before it expires, so that senders normally get the
+ * cached token without waiting. A token that has expired or been invalidated is fetched again by
+ * the first thread that needs it, while the other threads wait for that fetch.
+ * <p>
+ * Failed background refreshes are logged and retried after a delay.
+ */
+public class AuthTokenCache {
+	private Logger logger = LoggerProvider.getLoggerForClass(AuthTokenCache.class);
+	private final AuthTokenFetcher authTokenFetcher;
+	private final long refreshMarginInMillis;
+	private final long retryDelayInMillis;
+	private final ScheduledExecutorService scheduler;
+	private final LongSupplier nanoClock;
+	private final Object fetchLock = new Object();
+	private volatile CachedAuthToken cachedAuthToken;
+	private ScheduledFuture<?> scheduledRefresh;
+
+	public AuthTokenCache(AuthTokenFetcher authTokenFetcher, long refreshMarginInMillis,
+			long retryDelayInMillis, ScheduledExecutorService scheduler) {
+		this(authTokenFetcher, refreshMarginInMillis, retryDelayInMillis, scheduler,
+				System::nanoTime);
+	}
+
+	AuthTokenCache(AuthTokenFetcher authTokenFetcher, long refreshMarginInMillis,
+			long retryDelayInMillis, ScheduledExecutorService scheduler, LongSupplier nanoClock) {
+		this.authTokenFetcher = authTokenFetcher;
+		this.refreshMarginInMillis = refreshMarginInMillis;
+		this.retryDelayInMillis = retryDelayInMillis;
+		this.scheduler = scheduler;
+		this.nanoClock = nanoClock;
+	}
+
+	/**
+	 * Fetches the first token in the background, so that it is normally in place before the first
+	 * work order is sent.
+	 */
+	public void startRefreshing() {
+		scheduler.execute(this::refreshInBackground);
+	}
+
+	public String getAuthToken() {
+		CachedAuthToken current = cachedAuthToken;
+		if (isValid(current)) {
+			return current.token;
+		}
+		synchronized (fetchLock) {
+			if (!isValid(cachedAuthToken)) {
+				fetchAndScheduleRefresh();
+			}
+			return cachedAuthToken.token;
+		}
+	}
+
+	private boolean isValid(CachedAuthToken current) {
+		return current != null && nanoClock.getAsLong() - current.expiresAtNanos < 0;
+	}
+
+	private void fetchAndScheduleRefresh() {
+		AuthToken authToken = authTokenFetcher.fetchAuthToken();
+		long validForInNanos = TimeUnit.MILLISECONDS.toNanos(authToken.getValidForInMillis());
+		cachedAuthToken = new CachedAuthToken(authToken.getToken(),
+				nanoClock.getAsLong() + validForInNanos);
+		scheduleRefresh(calculateRefreshDelayInMillis(authToken.getValidForInMillis()));
+	}
+
+	private long calculateRefreshDelayInMillis(long validForInMillis) {
+		long halfOfValidity = validForInMillis / 2;
+		return Math.max(validForInMillis - refreshMarginInMillis, halfOfValidity);
+	}
+
+	private void scheduleRefresh(long delayInMillis) {
+		if (scheduledRefresh != null) {
+			scheduledRefresh.cancel(false);
+		}
+		try {
+			scheduledRefresh = scheduler.schedule(this::refreshInBackground, delayInMillis,
+					TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException exception) {
+			scheduledRefresh = null;
+		}
+	}
+
+	private void refreshInBackground() {
+		synchronized (fetchLock) {
+			try {
+				fetchAndScheduleRefresh();
+			} catch (RuntimeException exception) {
+				logger.logErrorUsingMessageAndException("Unable to refresh authToken, retrying in: "
+						+ retryDelayInMillis + " ms", exception);
+				scheduleRefresh(retryDelayInMillis);
+			}
+		}
+	}
+
+	/**
+	 * Stops the background refresh. Tokens are still fetched when needed by
+	 * {@link #getAuthToken()}.
+	 */
+	public void stopRefreshing() {
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * Invalidates the token if it is still the cached one, for use when Cora has rejected it. The
+	 * next call to {@link #getAuthToken()} fetches a new token.
+	 */
+	public void invalidate(String rejectedToken) {
+		synchronized (fetchLock) {
+			CachedAuthToken current = cachedAuthToken;
+			if (current != null && current.token.equals(rejectedToken)) {
+				cachedAuthToken = null;
+			}
+		}
+	}
+
+	public AuthTokenFetcher getAuthTokenFetcher() {
+		return authTokenFetcher;
+	}
+
+	public long getRefreshMarginInMillis() {
+		return refreshMarginInMillis;
+	}
+
+	public long getRetryDelayInMillis() {
+		return retryDelayInMillis;
+	}
+
+	public ScheduledExecutorService getScheduler() {
+		return scheduler;
+	}
+
+	private static final class CachedAuthToken {
+		private final String token;
+		private final long expiresAtNanos;
+
+		private CachedAuthToken(String token, long expiresAtNanos) {
+			this.token = token;
+			this.expiresAtNanos = expiresAtNanos;
+		}
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.bulk;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * BulkCheckpoint stores how many messages from a bulk input have been handled, so that an
+ * interrupted reindex can be resumed. The file is replaced atomically on every write.
+ */
+public final class BulkCheckpoint {
+	private final Path checkpointFile;
+
+	public BulkCheckpoint(Path checkpointFile) {
+		this.checkpointFile = checkpointFile;
+	}
+
+	public long readNoOfHandledMessages() {
+		if (!Files.exists(checkpointFile)) {
+			return 0;
+		}
+		try {
+			return Long.parseLong(Files.readString(checkpointFile).trim());
+		} catch (IOException exception) {
+			throw new UncheckedIOException("Unable to read bulk checkpoint: " + checkpointFile,
+					exception);
+		}
+	}
+
+	public void writeNoOfHandledMessages(long noOfHandledMessages) {
+		Path temporaryFile = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+		try {
+			Files.writeString(temporaryFile, Long.toString(noOfHandledMessages));
+			Files.move(temporaryFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException exception) {
+			throw new UncheckedIOException("Unable to write bulk checkpoint: " + checkpointFile,
+					exception);
+		}
+	}
+
+	public Path getCheckpointFile() {
+		return checkpointFile;
+	}
+}
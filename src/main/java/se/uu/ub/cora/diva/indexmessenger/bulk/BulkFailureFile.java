@@ -0,0 +1,71 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.bulk;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * BulkFailureFile stores the messages whose work orders failed to be sent during a bulk reindex,
+ * in the format of the input they were read from, so that the file can be given as input to a
+ * new bulk reindex. Messages are appended and forced to disk before the checkpoint is moved past
+ * them.
+ */
+public final class BulkFailureFile {
+	private final Path failureFile;
+
+	public BulkFailureFile(Path failureFile) {
+		this.failureFile = failureFile;
+	}
+
+	public void clear() {
+		try {
+			Files.deleteIfExists(failureFile);
+		} catch (IOException exception) {
+			throw new UncheckedIOException("Unable to clear bulk failure file: " + failureFile,
+					exception);
+		}
+	}
+
+	public void append(List<String> formattedMessages) {
+		StringBuilder messages = new StringBuilder();
+		for (String formattedMessage : formattedMessages) {
+			messages.append(formattedMessage).append('\n');
+		}
+		try (FileChannel channel = FileChannel.open(failureFile, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			channel.write(ByteBuffer.wrap(messages.toString().getBytes(StandardCharsets.UTF_8)));
+			channel.force(true);
+		} catch (IOException exception) {
+			throw new UncheckedIOException("Unable to write bulk failure file: " + failureFile,
+					exception);
+		}
+	}
+
+	public Path getFailureFile() {
+		return failureFile;
+	}
+}
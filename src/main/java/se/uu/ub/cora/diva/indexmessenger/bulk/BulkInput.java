@@ -0,0 +1,48 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.bulk;
+
+/**
+ * BulkInput is a stream of messages to reindex, read one at a time so that inputs of any size
+ * can be handled.
+ */
+public interface BulkInput extends AutoCloseable {
+
+	/**
+	 * Reads the next message from the input.
+	 * 
+	 * @return the next message, or null when the end of the input is reached
+	 */
+	BulkMessage readNextMessage();
+
+	/**
+	 * Returns how much of the input has been read, between 0 and 1.
+	 */
+	double getFractionRead();
+
+	/**
+	 * Formats a message read from this input the way it is stored in the input, so that messages
+	 * can be written to a file that is read again as this kind of input.
+	 */
+	String formatMessage(BulkMessage message);
+
+	@Override
+	void close();
+
+}
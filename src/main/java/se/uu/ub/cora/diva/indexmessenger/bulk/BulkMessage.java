@@ -0,0 +1,43 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.bulk;
+
+import java.util.Map;
+
+/**
+ * BulkMessage is one message read from a bulk input, with the same headers and body as the
+ * corresponding message from the JMS topic.
+ */
+public final class BulkMessage {
+	private final Map<String, String> headers;
+	private final String message;
+
+	public BulkMessage(Map<String, String> headers, String message) {
+		this.headers = headers;
+		this.message = message;
+	}
+
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+}
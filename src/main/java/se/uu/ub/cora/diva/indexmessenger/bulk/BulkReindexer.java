@@ -0,0 +1,270 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.bulk;
+
+import java.text.MessageFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import se.uu.ub.cora.diva.indexmessenger.DivaMessageParser;
+import se.uu.ub.cora.diva.indexmessenger.DivaParseResult;
+import se.uu.ub.cora.diva.indexmessenger.metrics.PipelineMetrics;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrder;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderBatchSender;
+import se.uu.ub.cora.logger.Logger;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+/**
+ * BulkReindexer runs the messages from a {@link BulkInput} through the same decision logic as
+ * messages from JMS, and sends the resulting work orders to Cora in batches. The number of handled
+ * messages is written to the checkpoint after each batch has been sent, and messages already
+ * handled according to the checkpoint are skipped when a reindex is started again.
+ * <p>
+ * Messages whose work orders failed to be sent are written to a {@link BulkFailureFile} before
+ * the checkpoint is moved past them, so they can be reindexed by running a new bulk reindex with
+ * the failure file as input. The failure file is cleared when a reindex starts from the beginning.
+ * <p>
+ * Progress, rate and estimated time left are logged at a fixed interval.
+ */
+public class BulkReindexer {
+	private Logger logger = LoggerProvider.getLoggerForClass(BulkReindexer.class);
+	private final DivaMessageParser messageParser;
+	private final WorkOrderBatchSender batchSender;
+	private final PipelineMetrics pipelineMetrics;
+	private final BulkCheckpoint checkpoint;
+	private final BulkFailureFile failureFile;
+	private final int batchSize;
+	private final long progressIntervalInNanos;
+	private final LongSupplier nanoClock;
+	private long noOfSkippedMessages;
+	private long noOfReadMessages;
+	private long noOfWorkOrders;
+	private long noOfFailedMessages;
+	private long startTime;
+	private double fractionReadAtStart;
+	private long lastProgressTime;
+
+	public BulkReindexer(DivaMessageParser messageParser, WorkOrderBatchSender batchSender,
+			PipelineMetrics pipelineMetrics, BulkCheckpoint checkpoint,
+			BulkFailureFile failureFile, int batchSize, long progressIntervalInMillis) {
+		this(messageParser, batchSender, pipelineMetrics, checkpoint, failureFile, batchSize,
+				progressIntervalInMillis, System::nanoTime);
+	}
+
+	BulkReindexer(DivaMessageParser messageParser, WorkOrderBatchSender batchSender,
+			PipelineMetrics pipelineMetrics, BulkCheckpoint checkpoint,
+			BulkFailureFile failureFile, int batchSize, long progressIntervalInMillis,
+			LongSupplier nanoClock) {
+		this.messageParser = messageParser;
+		this.batchSender = batchSender;
+		this.pipelineMetrics = pipelineMetrics;
+		this.checkpoint = checkpoint;
+		this.failureFile = failureFile;
+		this.batchSize = batchSize;
+		this.progressIntervalInNanos = TimeUnit.MILLISECONDS.toNanos(progressIntervalInMillis);
+		this.nanoClock = nanoClock;
+	}
+
+	public void reindex(BulkInput input) {
+		skipHandledMessages(input);
+		startTime = nanoClock.getAsLong();
+		lastProgressTime = startTime;
+		fractionReadAtStart = input.getFractionRead();
+		List<WorkOrder> batch = new ArrayList<>(batchSize);
+		List<BulkMessage> messagesInBatch = new ArrayList<>(batchSize);
+		long noOfMessagesInBatch = 0;
+		BulkMessage message = input.readNextMessage();
+		while (message != null) {
+			noOfReadMessages++;
+			noOfMessagesInBatch++;
+			possiblyAddWorkOrderForMessage(batch, messagesInBatch, message);
+			if (noOfMessagesInBatch == batchSize) {
+				sendBatchAndWriteCheckpoint(input, batch, messagesInBatch);
+				noOfMessagesInBatch = 0;
+				possiblyLogProgress(input);
+			}
+			message = input.readNextMessage();
+		}
+		if (noOfMessagesInBatch > 0) {
+			sendBatchAndWriteCheckpoint(input, batch, messagesInBatch);
+		}
+		logFinished();
+	}
+
+	private void skipHandledMessages(BulkInput input) {
+		long noOfHandledMessages = checkpoint.readNoOfHandledMessages();
+		if (noOfHandledMessages == 0) {
+			failureFile.clear();
+		}
+		while (noOfSkippedMessages < noOfHandledMessages && input.readNextMessage() != null) {
+			noOfSkippedMessages++;
+		}
+		if (noOfSkippedMessages > 0) {
+			logger.logInfoUsingMessage("Resuming bulk reindex after: " + noOfSkippedMessages
+					+ " messages already handled");
+		}
+	}
+
+	private void possiblyAddWorkOrderForMessage(List<WorkOrder> batch,
+			List<BulkMessage> messagesInBatch, BulkMessage message) {
+		long parseStart = nanoClock.getAsLong();
+		DivaParseResult parseResult = messageParser.parse(message.getHeaders(),
+				message.getMessage());
+		pipelineMetrics.recordParseLatency(nanoClock.getAsLong() - parseStart);
+		if (parseResult.shouldWorkOrderBeCreated()) {
+			batch.add(new WorkOrder(parseResult.getRecordType(), parseResult.getRecordId(),
+					parseResult.getModificationType()));
+			messagesInBatch.add(message);
+		}
+	}
+
+	private void sendBatchAndWriteCheckpoint(BulkInput input, List<WorkOrder> batch,
+			List<BulkMessage> messagesInBatch) {
+		if (!batch.isEmpty()) {
+			List<WorkOrder> failedWorkOrders = batchSender.sendBatch(new ArrayList<>(batch));
+			possiblyWriteFailedMessages(input, batch, messagesInBatch, failedWorkOrders);
+			noOfWorkOrders += batch.size();
+			batch.clear();
+			messagesInBatch.clear();
+		}
+		checkpoint.writeNoOfHandledMessages(noOfSkippedMessages + noOfReadMessages);
+	}
+
+	private void possiblyWriteFailedMessages(BulkInput input, List<WorkOrder> batch,
+			List<BulkMessage> messagesInBatch, List<WorkOrder> failedWorkOrders) {
+		if (failedWorkOrders.isEmpty()) {
+			return;
+		}
+		Set<WorkOrder> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+		failed.addAll(failedWorkOrders);
+		List<String> failedMessages = new ArrayList<>(failed.size());
+		for (int i = 0; i < batch.size(); i++) {
+			if (failed.contains(batch.get(i))) {
+				failedMessages.add(input.formatMessage(messagesInBatch.get(i)));
+			}
+		}
+		failureFile.append(failedMessages);
+		noOfFailedMessages += failedMessages.size();
+	}
+
+	private void possiblyLogProgress(BulkInput input) {
+		long now = nanoClock.getAsLong();
+		if (now - lastProgressTime < progressIntervalInNanos) {
+			return;
+		}
+		lastProgressTime = now;
+		long elapsedInNanos = now - startTime;
+		double fractionRead = input.getFractionRead();
+		logger.logInfoUsingMessage(MessageFormat.format(
+				"Bulk reindex progress: {0}% read, {1} messages read, {2} work orders sent,"
+						+ " {3} failed, {4} messages/s, about {5} left",
+				String.valueOf(Math.round(fractionRead * 100)), String.valueOf(noOfReadMessages),
+				String.valueOf(noOfWorkOrders),
+				String.valueOf(pipelineMetrics.getWorkOrdersFailed()),
+				String.valueOf(calculateMessagesPerSecond(elapsedInNanos)),
+				formatDuration(estimateTimeLeftInNanos(elapsedInNanos, fractionRead))));
+	}
+
+	private long calculateMessagesPerSecond(long elapsedInNanos) {
+		if (elapsedInNanos <= 0) {
+			return 0;
+		}
+		return noOfReadMessages * TimeUnit.SECONDS.toNanos(1) / elapsedInNanos;
+	}
+
+	private long estimateTimeLeftInNanos(long elapsedInNanos, double fractionRead) {
+		double fractionReadNow = fractionRead - fractionReadAtStart;
+		if (fractionReadNow <= 0) {
+			return 0;
+		}
+		return (long) (elapsedInNanos * (1 - fractionRead) / fractionReadNow);
+	}
+
+	private String formatDuration(long nanos) {
+		Duration duration = Duration.ofNanos(nanos);
+		return String.format("%d:%02d:%02d", duration.toHours(), duration.toMinutesPart(),
+				duration.toSecondsPart());
+	}
+
+	private void logFinished() {
+		long elapsedInNanos = nanoClock.getAsLong() - startTime;
+		logger.logInfoUsingMessage(MessageFormat.format(
+				"Bulk reindex finished: {0} messages read, {1} work orders sent, {2} failed,"
+						+ " in {3}",
+				String.valueOf(noOfReadMessages), String.valueOf(noOfWorkOrders),
+				String.valueOf(pipelineMetrics.getWorkOrdersFailed()),
+				formatDuration(elapsedInNanos)));
+		if (noOfFailedMessages > 0) {
+			logger.logErrorUsingMessage(MessageFormat.format(
+					"Bulk reindex failed for: {0} messages, written to: {1},"
+							+ " reindex them by using it as input",
+					String.valueOf(noOfFailedMessages), failureFile.getFailureFile()));
+		}
+	}
+
+	public long getNoOfSkippedMessages() {
+		return noOfSkippedMessages;
+	}
+
+	public long getNoOfReadMessages() {
+		return noOfReadMessages;
+	}
+
+	public long getNoOfWorkOrders() {
+		return noOfWorkOrders;
+	}
+
+	public long getNoOfFailedMessages() {
+		return noOfFailedMessages;
+	}
+
+	public DivaMessageParser getMessageParser() {
+		return messageParser;
+	}
+
+	public WorkOrderBatchSender getBatchSender() {
+		return batchSender;
+	}
+
+	public PipelineMetrics getPipelineMetrics() {
+		return pipelineMetrics;
+	}
+
+	public BulkCheckpoint getCheckpoint() {
+		return checkpoint;
+	}
+
+	public BulkFailureFile getFailureFile() {
+		return failureFile;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public long getProgressIntervalInMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(progressIntervalInNanos);
+	}
+}
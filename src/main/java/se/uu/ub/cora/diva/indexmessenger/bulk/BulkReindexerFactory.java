@@ -0,0 +1,114 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.bulk;
+
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.Properties;
+
+import se.uu.ub.cora.diva.indexmessenger.DivaMessageParser;
+import se.uu.ub.cora.diva.indexmessenger.metrics.MetricsRegistrar;
+import se.uu.ub.cora.diva.indexmessenger.metrics.PipelineMetrics;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderBatchSender;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSenderFactory;
+import se.uu.ub.cora.indexmessenger.CoraCredentials;
+import se.uu.ub.cora.indexmessenger.IndexMessageException;
+import se.uu.ub.cora.javaclient.cora.CoraClientFactory;
+import se.uu.ub.cora.logger.Logger;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+/**
+ * BulkReindexerFactory builds a {@link BulkReindexer} and its input from the bulk.* properties.
+ * Input files are read as pid lists unless bulk.format is messages, and the checkpoint is stored
+ * next to the input file unless bulk.checkpointFile is set. Messages whose work orders fail are
+ * written next to the input file unless bulk.failureFile is set. Work orders are sent using the
+ * measured and adaptively limited senders described by the workOrder.* properties.
+ */
+public class BulkReindexerFactory {
+	private Logger logger = LoggerProvider.getLoggerForClass(BulkReindexerFactory.class);
+	private Properties properties;
+	private PipelineMetrics pipelineMetrics;
+	private MetricsRegistrar metricsRegistrar;
+
+	public BulkReindexerFactory(Properties properties, PipelineMetrics pipelineMetrics,
+			MetricsRegistrar metricsRegistrar) {
+		this.properties = properties;
+		this.pipelineMetrics = pipelineMetrics;
+		this.metricsRegistrar = metricsRegistrar;
+	}
+
+	public BulkReindexer factor(CoraClientFactory coraClientFactory, CoraCredentials credentials,
+			DivaMessageParser messageParser, Path inputFile) {
+		int concurrency = extractOptionalIntProperty("bulk.concurrency", 8);
+		int batchSize = extractOptionalIntProperty("bulk.batchSize", 100);
+		long progressIntervalInMillis = extractOptionalLongProperty(
+				"bulk.progressIntervalInMillis", 10000);
+		Path checkpointFile = Path.of(properties.getProperty("bulk.checkpointFile",
+				inputFile.toString() + ".checkpoint"));
+		Path failureFile = Path.of(properties.getProperty("bulk.failureFile",
+				inputFile.toString() + ".failed"));
+		logger.logInfoUsingMessage(MessageFormat.format(
+				"Bulk reindexing from: {0} in batches of: {1} using: {2} workers"
+						+ " with checkpoint in: {3} and failures in: {4}",
+				inputFile, String.valueOf(batchSize), String.valueOf(concurrency),
+				checkpointFile, failureFile));
+		WorkOrderBatchSender batchSender = new WorkOrderSenderFactory(properties, pipelineMetrics,
+				metricsRegistrar).factorBatchSender(coraClientFactory, credentials, concurrency);
+		return new BulkReindexer(messageParser, batchSender, pipelineMetrics,
+				new BulkCheckpoint(checkpointFile), new BulkFailureFile(failureFile), batchSize,
+				progressIntervalInMillis);
+	}
+
+	public BulkInput openInput(Path inputFile) {
+		String format = properties.getProperty("bulk.format", "pids").trim();
+		if ("pids".equals(format)) {
+			String methodName = properties.getProperty("bulk.methodName",
+					"modifyDatastreamByReference").trim();
+			return new PidListInput(inputFile, methodName);
+		}
+		if ("messages".equals(format)) {
+			return new MessageDumpInput(inputFile);
+		}
+		throw IndexMessageException.withMessage("Unknown bulk input format: " + format);
+	}
+
+	private int extractOptionalIntProperty(String propertyName, int defaultValue) {
+		return (int) extractOptionalLongProperty(propertyName, defaultValue);
+	}
+
+	private long extractOptionalLongProperty(String propertyName, long defaultValue) {
+		String value = properties.getProperty(propertyName);
+		if (value == null) {
+			return defaultValue;
+		}
+		return Long.parseLong(value.trim());
+	}
+
+	public Properties getProperties() {
+		return properties;
+	}
+
+	public PipelineMetrics getPipelineMetrics() {
+		return pipelineMetrics;
+	}
+
+	public MetricsRegistrar getMetricsRegistrar() {
+		return metricsRegistrar;
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.bulk;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * FileBulkInput reads a UTF-8 encoded file line by line and keeps track of how much of the file
+ * has been read, subclasses turn the lines into messages.
+ */
+abstract class FileBulkInput implements BulkInput {
+	private final Path inputFile;
+	private final FileChannel channel;
+	private final BufferedReader reader;
+	private final long fileSize;
+
+	FileBulkInput(Path inputFile) {
+		this.inputFile = inputFile;
+		try {
+			channel = FileChannel.open(inputFile);
+			fileSize = channel.size();
+		} catch (IOException exception) {
+			throw new UncheckedIOException("Unable to open bulk input: " + inputFile, exception);
+		}
+		reader = new BufferedReader(
+				new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+	}
+
+	protected String readLine() {
+		try {
+			return reader.readLine();
+		} catch (IOException exception) {
+			throw new UncheckedIOException("Unable to read bulk input: " + inputFile, exception);
+		}
+	}
+
+	@Override
+	public double getFractionRead() {
+		if (fileSize == 0) {
+			return 1;
+		}
+		try {
+			return Math.min(1, (double) channel.position() / fileSize);
+		} catch (IOException exception) {
+			return 0;
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			reader.close();
+		} catch (IOException exception) {
+			throw new UncheckedIOException("Unable to close bulk input: " + inputFile, exception);
+		}
+	}
+
+	public Path getInputFile() {
+		return inputFile;
+	}
+}
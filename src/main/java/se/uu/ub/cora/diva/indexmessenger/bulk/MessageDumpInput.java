@@ -0,0 +1,101 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.bulk;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * MessageDumpInput reads a file with Atom entries captured from the Fedora JMS topic, one after
+ * the other. The methodName and pid headers are recreated from the title and summary of each
+ * entry, as Fedora puts the same values there as in the headers. Only one entry at a time is held
+ * in memory, and content after the last complete entry is ignored.
+ */
+public final class MessageDumpInput extends FileBulkInput {
+	private static final String END_OF_ENTRY = "</entry>";
+	private static final String METHOD_NAME_START = "<title type=\"text\">";
+	private static final String METHOD_NAME_END = "</title>";
+	private static final String PID_START = "<summary type=\"text\">";
+	private static final String PID_END = "</summary>";
+	private String restOfLine;
+
+	public MessageDumpInput(Path inputFile) {
+		super(inputFile);
+	}
+
+	@Override
+	public BulkMessage readNextMessage() {
+		StringBuilder entry = new StringBuilder();
+		String line = readNextLine();
+		while (line != null) {
+			int endIndex = line.indexOf(END_OF_ENTRY);
+			if (endIndex >= 0) {
+				int entryEnd = endIndex + END_OF_ENTRY.length();
+				entry.append(line, 0, entryEnd);
+				restOfLine = line.substring(entryEnd);
+				return createMessageForEntry(entry.toString());
+			}
+			entry.append(line).append('\n');
+			line = readNextLine();
+		}
+		return null;
+	}
+
+	private String readNextLine() {
+		if (restOfLine != null) {
+			String line = restOfLine;
+			restOfLine = null;
+			return line;
+		}
+		return readLine();
+	}
+
+	private BulkMessage createMessageForEntry(String entry) {
+		Map<String, String> headers = new HashMap<>();
+		possiblyPutHeader(headers, "methodName",
+				extractText(entry, METHOD_NAME_START, METHOD_NAME_END));
+		possiblyPutHeader(headers, "pid", extractText(entry, PID_START, PID_END));
+		return new BulkMessage(headers, entry);
+	}
+
+	@Override
+	public String formatMessage(BulkMessage message) {
+		return message.getMessage().strip();
+	}
+
+	private String extractText(String entry, String startTag, String endTag) {
+		int start = entry.indexOf(startTag);
+		if (start < 0) {
+			return null;
+		}
+		int textStart = start + startTag.length();
+		int end = entry.indexOf(endTag, textStart);
+		if (end < 0) {
+			return null;
+		}
+		return entry.substring(textStart, end).trim();
+	}
+
+	private void possiblyPutHeader(Map<String, String> headers, String name, String value) {
+		if (value != null) {
+			headers.put(name, value);
+		}
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.bulk;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * PidListInput reads a file with one pid per line, blank lines and lines starting with # are
+ * skipped. Each pid becomes a message with the given methodName and an empty body, so that it is
+ * routed and decided on as a message from Fedora with that methodName would be.
+ */
+public final class PidListInput extends FileBulkInput {
+	private final String methodName;
+
+	public PidListInput(Path inputFile, String methodName) {
+		super(inputFile);
+		this.methodName = methodName;
+	}
+
+	@Override
+	public BulkMessage readNextMessage() {
+		String line = readLine();
+		while (line != null) {
+			String pid = line.trim();
+			if (!pid.isEmpty() && !pid.startsWith("#")) {
+				return createMessageForPid(pid);
+			}
+			line = readLine();
+		}
+		return null;
+	}
+
+	private BulkMessage createMessageForPid(String pid) {
+		Map<String, String> headers = new HashMap<>();
+		headers.put("methodName", methodName);
+		headers.put("pid", pid);
+		return new BulkMessage(headers, "");
+	}
+
+	@Override
+	public String formatMessage(BulkMessage message) {
+		return message.getHeaders().get("pid");
+	}
+
+	public String getMethodName() {
+		return methodName;
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.health;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import se.uu.ub.cora.diva.indexmessenger.DivaIndexMessageReceiver;
+import se.uu.ub.cora.diva.indexmessenger.metrics.MessageSourceMetrics;
+import se.uu.ub.cora.diva.indexmessenger.metrics.MetricsRegistrar;
+import se.uu.ub.cora.diva.indexmessenger.metrics.PipelineMetrics;
+
+/**
+ * HealthCheck tells whether the messenger is ready to receive messages and how well it keeps up.
+ * Everything is read from the metrics already recorded, when asked, so it adds nothing to the
+ * handling of messages.
+ * <p>
+ * The messenger is live as long as all its receivers are still listening for messages, as a
+ * listener that failed or ended does not come back without a restart. It is ready while it is
+ * live, its receivers are not stopped and, with maxMessageAgeInMillis set, while some source has
+ * received a message within that time. Queued work orders are summed over
+ * the work order queues registered in the MBean server, so they follow reloaded senders. The Cora
+ * error rate is the share of failed work orders among those sent to Cora during the last one to
+ * two errorRateWindowInMillis.
+ */
+public class HealthCheck {
+	private final List<DivaIndexMessageReceiver> messageReceivers;
+	private final PipelineMetrics pipelineMetrics;
+	private final MBeanServer mBeanServer;
+	private final long maxMessageAgeInMillis;
+	private final long errorRateWindowInNanos;
+	private final LongSupplier nanoClock;
+	private DispatchSnapshot previousSnapshot;
+	private DispatchSnapshot latestSnapshot;
+
+	public HealthCheck(List<DivaIndexMessageReceiver> messageReceivers,
+			PipelineMetrics pipelineMetrics, MBeanServer mBeanServer, long maxMessageAgeInMillis,
+			long errorRateWindowInMillis) {
+		this(messageReceivers, pipelineMetrics, mBeanServer, maxMessageAgeInMillis,
+				errorRateWindowInMillis, System::nanoTime);
+	}
+
+	HealthCheck(List<DivaIndexMessageReceiver> messageReceivers, PipelineMetrics pipelineMetrics,
+			MBeanServer mBeanServer, long maxMessageAgeInMillis, long errorRateWindowInMillis,
+			LongSupplier nanoClock) {
+		this.messageReceivers = messageReceivers;
+		this.pipelineMetrics = pipelineMetrics;
+		this.mBeanServer = mBeanServer;
+		this.maxMessageAgeInMillis = maxMessageAgeInMillis;
+		this.errorRateWindowInNanos = TimeUnit.MILLISECONDS.toNanos(errorRateWindowInMillis);
+		this.nanoClock = nanoClock;
+		latestSnapshot = takeDispatchSnapshot();
+		previousSnapshot = latestSnapshot;
+	}
+
+	public boolean isLive() {
+		for (DivaIndexMessageReceiver messageReceiver : messageReceivers) {
+			if (messageReceiver.hasListeningEnded()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean isReady() {
+		return isLive() && !anyReceiverIsStopped() && lastMessageIsRecentEnough();
+	}
+
+	private boolean anyReceiverIsStopped() {
+		for (DivaIndexMessageReceiver messageReceiver : messageReceivers) {
+			if (messageReceiver.isStopped()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean lastMessageIsRecentEnough() {
+		if (maxMessageAgeInMillis <= 0) {
+			return true;
+		}
+		long millisSinceLastMessage = getMillisSinceLastMessage();
+		return millisSinceLastMessage >= 0 && millisSinceLastMessage <= maxMessageAgeInMillis;
+	}
+
+	/**
+	 * @return the time since the last message was received from any source, or -1 if no message
+	 *         has been received
+	 */
+	public long getMillisSinceLastMessage() {
+		long millisSinceLastMessage = -1;
+		for (DivaIndexMessageReceiver messageReceiver : messageReceivers) {
+			MessageSourceMetrics sourceMetrics = messageReceiver.getSourceMetrics();
+			long sinceLastMessage = sourceMetrics.getMillisSinceLastMessage();
+			if (sinceLastMessage >= 0
+					&& (millisSinceLastMessage < 0 || sinceLastMessage < millisSinceLastMessage)) {
+				millisSinceLastMessage = sinceLastMessage;
+			}
+		}
+		return millisSinceLastMessage;
+	}
+
+	public long getNoOfQueuedWorkOrders() {
+		long queued = 0;
+		try {
+			ObjectName queues = new ObjectName(MetricsRegistrar.DOMAIN + ":type=WorkOrderQueue,*");
+			for (ObjectName queue : mBeanServer.queryNames(queues, null)) {
+				queued += ((Number) mBeanServer.getAttribute(queue, "NoOfQueuedWorkOrders"))
+						.longValue();
+			}
+		} catch (JMException exception) {
+			return -1;
+		}
+		return queued;
+	}
+
+	public long getNoOfWorkOrdersInFlight() {
+		return pipelineMetrics.getWorkOrdersInFlight();
+	}
+
+	public synchronized double getCoraErrorRate() {
+		DispatchSnapshot now = takeDispatchSnapshot();
+		if (now.takenAtInNanos - latestSnapshot.takenAtInNanos >= errorRateWindowInNanos) {
+			previousSnapshot = latestSnapshot;
+			latestSnapshot = now;
+		}
+		long failed = now.failed - previousSnapshot.failed;
+		long total = failed + now.sent - previousSnapshot.sent;
+		return total == 0 ? 0 : failed / (double) total;
+	}
+
+	private DispatchSnapshot takeDispatchSnapshot() {
+		return new DispatchSnapshot(nanoClock.getAsLong(), pipelineMetrics.getWorkOrdersSent(),
+				pipelineMetrics.getWorkOrdersFailed());
+	}
+
+	/**
+	 * Describes the health as one "name value" line per value, with the status first.
+	 */
+	public String describe() {
+		StringBuilder description = new StringBuilder();
+		description.append("status ").append(isReady() ? "ready" : "notReady").append('\n');
+		description.append("millisSinceLastMessage ").append(getMillisSinceLastMessage())
+				.append('\n');
+		description.append("queuedWorkOrders ").append(getNoOfQueuedWorkOrders()).append('\n');
+		description.append("workOrdersInFlight ").append(getNoOfWorkOrdersInFlight())
+				.append('\n');
+		description.append("coraErrorRate ")
+				.append(String.format(Locale.ROOT, "%.4f", getCoraErrorRate())).append('\n');
+		return description.toString();
+	}
+
+	public List<DivaIndexMessageReceiver> getMessageReceivers() {
+		return messageReceivers;
+	}
+
+	public PipelineMetrics getPipelineMetrics() {
+		return pipelineMetrics;
+	}
+
+	public MBeanServer getMBeanServer() {
+		return mBeanServer;
+	}
+
+	public long getMaxMessageAgeInMillis() {
+		return maxMessageAgeInMillis;
+	}
+
+	public long getErrorRateWindowInMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(errorRateWindowInNanos);
+	}
+
+	private static final class DispatchSnapshot {
+		private final long takenAtInNanos;
+		private final long sent;
+		private final long failed;
+
+		private DispatchSnapshot(long takenAtInNanos, long sent, long failed) {
+			this.takenAtInNanos = takenAtInNanos;
+			this.sent = sent;
+			this.failed = failed;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.health;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderExecutors;
+
+/**
+ * HealthEndpoint serves the health of the messenger over HTTP, for orchestration to probe:
+ * <ul>
+ * <li>/health/live answers 200 when {@link HealthCheck#isLive()}, otherwise 503</li>
+ * <li>/health/ready answers 200 when {@link HealthCheck#isReady()}, otherwise 503, with the
+ * description of the health as body</li>
+ * <li>/metrics answers with all metrics in the text exposition format of
+ * {@link MetricsExposition}</li>
+ * </ul>
+ * Requests are handled one at a time on a thread of their own, away from the threads handling
+ * messages.
+ */
+public class HealthEndpoint {
+	private static final String TEXT_CONTENT_TYPE = "text/plain; charset=utf-8";
+	private static final String EXPOSITION_CONTENT_TYPE = "text/plain; version=0.0.4; "
+			+ "charset=utf-8";
+	private final HttpServer httpServer;
+	private final ExecutorService executor;
+	private final HealthCheck healthCheck;
+	private final MetricsExposition metricsExposition;
+
+	private HealthEndpoint(HttpServer httpServer, HealthCheck healthCheck,
+			MetricsExposition metricsExposition) {
+		this.httpServer = httpServer;
+		this.healthCheck = healthCheck;
+		this.metricsExposition = metricsExposition;
+		executor = Executors.newSingleThreadExecutor(
+				WorkOrderExecutors.createDaemonThreadFactory("healthEndpoint"));
+		httpServer.setExecutor(executor);
+		httpServer.createContext("/", this::handle);
+	}
+
+	public static HealthEndpoint startOnAddress(InetSocketAddress address,
+			HealthCheck healthCheck, MetricsExposition metricsExposition) throws IOException {
+		HealthEndpoint healthEndpoint = new HealthEndpoint(HttpServer.create(address, 0),
+				healthCheck, metricsExposition);
+		healthEndpoint.httpServer.start();
+		return healthEndpoint;
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			String method = exchange.getRequestMethod();
+			if (!"GET".equals(method) && !"HEAD".equals(method)) {
+				respond(exchange, 405, TEXT_CONTENT_TYPE, "Method not allowed\n");
+				return;
+			}
+			respondForPath(exchange, exchange.getRequestURI().getPath());
+		}
+	}
+
+	private void respondForPath(HttpExchange exchange, String path) throws IOException {
+		if ("/health/live".equals(path)) {
+			respondForLive(exchange);
+		} else if ("/health/ready".equals(path)) {
+			int statusCode = healthCheck.isReady() ? 200 : 503;
+			respond(exchange, statusCode, TEXT_CONTENT_TYPE, healthCheck.describe());
+		} else if ("/metrics".equals(path)) {
+			respond(exchange, 200, EXPOSITION_CONTENT_TYPE, metricsExposition.write());
+		} else {
+			respond(exchange, 404, TEXT_CONTENT_TYPE, "Not found\n");
+		}
+	}
+
+	private void respondForLive(HttpExchange exchange) throws IOException {
+		if (healthCheck.isLive()) {
+			respond(exchange, 200, TEXT_CONTENT_TYPE, "status live\n");
+		} else {
+			respond(exchange, 503, TEXT_CONTENT_TYPE, "status notLive\n");
+		}
+	}
+
+	private void respond(HttpExchange exchange, int statusCode, String contentType, String body)
+			throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		if ("HEAD".equals(exchange.getRequestMethod())) {
+			exchange.sendResponseHeaders(statusCode, -1);
+			return;
+		}
+		exchange.sendResponseHeaders(statusCode, bytes.length);
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(bytes);
+		}
+	}
+
+	public void stop() {
+		httpServer.stop(0);
+		executor.shutdownNow();
+	}
+
+	public int getPort() {
+		return httpServer.getAddress().getPort();
+	}
+
+	public HealthCheck getHealthCheck() {
+		return healthCheck;
+	}
+
+	public MetricsExposition getMetricsExposition() {
+		return metricsExposition;
+	}
+}
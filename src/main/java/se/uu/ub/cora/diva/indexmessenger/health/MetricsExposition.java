@@ -0,0 +1,199 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.health;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.management.Attribute;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import se.uu.ub.cora.diva.indexmessenger.metrics.MetricsRegistrar;
+
+/**
+ * MetricsExposition writes the metrics registered by {@link MetricsRegistrar} in the Prometheus
+ * text exposition format. Each numeric attribute becomes a sample named after the type and the
+ * attribute, for instance divaindexmessenger_pipeline_work_orders_sent, labelled with the other
+ * keys of the MBean name. Maps are labelled with their keys, and latency histograms are written as
+ * one sample per bucket, labelled with the bucket upper bound in seconds.
+ * <p>
+ * The MBeans are read when the metrics are asked for, so metrics of replaced senders are followed
+ * and nothing is added to the handling of messages.
+ */
+public class MetricsExposition {
+	private static final String PREFIX = "divaindexmessenger_";
+	private static final String BUCKET_UPPER_BOUNDS = "BucketUpperBoundsInMicros";
+	private static final String BUCKET_COUNTS = "BucketCounts";
+	private final MBeanServer mBeanServer;
+
+	public MetricsExposition(MBeanServer mBeanServer) {
+		this.mBeanServer = mBeanServer;
+	}
+
+	public String write() {
+		Map<String, List<String>> samplesPerMetric = new TreeMap<>();
+		for (ObjectName objectName : findMetricNames()) {
+			addSamplesForMBean(samplesPerMetric, objectName);
+		}
+		StringBuilder exposition = new StringBuilder();
+		for (Entry<String, List<String>> metric : samplesPerMetric.entrySet()) {
+			exposition.append("# TYPE ").append(metric.getKey()).append(" untyped\n");
+			for (String sample : metric.getValue()) {
+				exposition.append(sample).append('\n');
+			}
+		}
+		return exposition.toString();
+	}
+
+	private TreeSet<ObjectName> findMetricNames() {
+		try {
+			return new TreeSet<>(
+					mBeanServer.queryNames(new ObjectName(MetricsRegistrar.DOMAIN + ":*"), null));
+		} catch (JMException exception) {
+			return new TreeSet<>();
+		}
+	}
+
+	private void addSamplesForMBean(Map<String, List<String>> samplesPerMetric,
+			ObjectName objectName) {
+		try {
+			Map<String, Object> attributes = readAttributes(objectName);
+			String metricPrefix = PREFIX + toSnakeCase(objectName.getKeyProperty("type")) + "_";
+			String labels = createLabels(objectName);
+			for (Entry<String, Object> attribute : attributes.entrySet()) {
+				String metricName = metricPrefix + toSnakeCase(attribute.getKey());
+				addSamplesForAttribute(samplesPerMetric, metricName, labels, attribute.getValue());
+			}
+			possiblyAddBucketSamples(samplesPerMetric, metricPrefix + "buckets", labels,
+					attributes);
+		} catch (JMException exception) {
+			// an MBean unregistered while being read is left out
+		}
+	}
+
+	private Map<String, Object> readAttributes(ObjectName objectName) throws JMException {
+		List<String> attributeNames = new ArrayList<>();
+		for (MBeanAttributeInfo attributeInfo : mBeanServer.getMBeanInfo(objectName)
+				.getAttributes()) {
+			if (attributeInfo.isReadable()) {
+				attributeNames.add(attributeInfo.getName());
+			}
+		}
+		Map<String, Object> attributes = new TreeMap<>();
+		for (Attribute attribute : mBeanServer
+				.getAttributes(objectName, attributeNames.toArray(new String[0])).asList()) {
+			attributes.put(attribute.getName(), attribute.getValue());
+		}
+		return attributes;
+	}
+
+	private String createLabels(ObjectName objectName) {
+		List<String> labels = new ArrayList<>();
+		for (Entry<String, String> key : new TreeMap<>(objectName.getKeyPropertyList())
+				.entrySet()) {
+			if (!"type".equals(key.getKey())) {
+				labels.add(createLabel(toSnakeCase(key.getKey()), key.getValue()));
+			}
+		}
+		return String.join(",", labels);
+	}
+
+	private String createLabel(String name, String value) {
+		return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n",
+				"\\n") + "\"";
+	}
+
+	private void addSamplesForAttribute(Map<String, List<String>> samplesPerMetric,
+			String metricName, String labels, Object value) {
+		if (value instanceof Number || value instanceof Boolean) {
+			addSample(samplesPerMetric, metricName, labels, formatValue(value));
+		} else if (value instanceof TabularData) {
+			for (Object row : ((TabularData) value).values()) {
+				CompositeData entry = (CompositeData) row;
+				String keyLabel = createLabel("key", String.valueOf(entry.get("key")));
+				addSample(samplesPerMetric, metricName, joinLabels(labels, keyLabel),
+						formatValue(entry.get("value")));
+			}
+		}
+	}
+
+	private void possiblyAddBucketSamples(Map<String, List<String>> samplesPerMetric,
+			String metricName, String labels, Map<String, Object> attributes) {
+		if (!(attributes.get(BUCKET_UPPER_BOUNDS) instanceof long[]
+				&& attributes.get(BUCKET_COUNTS) instanceof long[])) {
+			return;
+		}
+		long[] upperBoundsInMicros = (long[]) attributes.get(BUCKET_UPPER_BOUNDS);
+		long[] counts = (long[]) attributes.get(BUCKET_COUNTS);
+		long cumulativeCount = 0;
+		for (int i = 0; i < counts.length; i++) {
+			cumulativeCount += counts[i];
+			String upperBound = i == counts.length - 1 ? "+Inf"
+					: formatValue(upperBoundsInMicros[i] / 1_000_000.0);
+			addSample(samplesPerMetric, metricName,
+					joinLabels(labels, createLabel("le", upperBound)),
+					String.valueOf(cumulativeCount));
+		}
+	}
+
+	private String joinLabels(String labels, String label) {
+		return labels.isEmpty() ? label : labels + "," + label;
+	}
+
+	private void addSample(Map<String, List<String>> samplesPerMetric, String metricName,
+			String labels, String value) {
+		String sample = labels.isEmpty() ? metricName + " " + value
+				: metricName + "{" + labels + "} " + value;
+		samplesPerMetric.computeIfAbsent(metricName, name -> new ArrayList<>()).add(sample);
+	}
+
+	private String formatValue(Object value) {
+		if (value instanceof Boolean) {
+			return (Boolean) value ? "1" : "0";
+		}
+		return String.valueOf(value);
+	}
+
+	static String toSnakeCase(String name) {
+		StringBuilder snakeCase = new StringBuilder();
+		for (int i = 0; i < name.length(); i++) {
+			char character = name.charAt(i);
+			if (Character.isUpperCase(character) && i > 0
+					&& !Character.isUpperCase(name.charAt(i - 1))) {
+				snakeCase.append('_');
+			}
+			snakeCase.append(Character.isLetterOrDigit(character)
+					? Character.toLowerCase(character) : '_');
+		}
+		return snakeCase.toString();
+	}
+
+	public MBeanServer getMBeanServer() {
+		return mBeanServer;
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.ssl.SSLContext;
+
+import se.uu.ub.cora.diva.indexmessenger.metrics.HttpClientMXBean;
+import se.uu.ub.cora.indexmessenger.IndexMessageException;
+
+/**
+ * CoraHttpClient posts requests to Cora using one shared {@link HttpClient}, which keeps
+ * connections open between requests (HTTP/1.1 keep-alive, or HTTP/2 where the server supports
+ * it) so that requests normally do not pay for TCP and TLS setup. Proxies are taken from the
+ * default ProxySelector, that is the http(s).proxyHost system properties. Connections are closed
+ * by HttpClient when idle for longer than the jdk.httpclient.keepalive.timeout system property.
+ * <p>
+ * At most maxConcurrentRequests requests are in flight at once, further requests wait. Response
+ * bodies larger than maxResponseBodySizeInBytes fail the request instead of being read into
+ * memory. HttpClient only sends a request again on a new connection for idempotent methods, so a
+ * POST whose connection fails is reported as failed and never silently sent twice.
+ * <p>
+ * HttpClient does not tell when it opens connections, the TLS connections are counted through
+ * the SSLContext it uses, so the reuse rate is known for https but not for plain http.
+ */
+public class CoraHttpClient implements HttpClientMXBean {
+	private static final String HTTPS = "https";
+	private final int maxConcurrentRequests;
+	private final int timeoutInMillis;
+	private final int maxResponseBodySizeInBytes;
+	private final CountingSSLContext sslContext;
+	private final HttpClient httpClient;
+	private final Semaphore requestsInFlight;
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder tlsRequests = new LongAdder();
+	private final LongAdder responsesTooLarge = new LongAdder();
+
+	public CoraHttpClient(int maxConcurrentRequests, int timeoutInMillis,
+			int maxResponseBodySizeInBytes) {
+		this(maxConcurrentRequests, timeoutInMillis, maxResponseBodySizeInBytes,
+				getDefaultSSLContext());
+	}
+
+	private static SSLContext getDefaultSSLContext() {
+		try {
+			return SSLContext.getDefault();
+		} catch (NoSuchAlgorithmException exception) {
+			throw IndexMessageException
+					.withMessage("No default SSLContext: " + exception.getMessage());
+		}
+	}
+
+	CoraHttpClient(int maxConcurrentRequests, int timeoutInMillis,
+			int maxResponseBodySizeInBytes, SSLContext sslContext) {
+		this.maxConcurrentRequests = maxConcurrentRequests;
+		this.timeoutInMillis = timeoutInMillis;
+		this.maxResponseBodySizeInBytes = maxResponseBodySizeInBytes;
+		this.sslContext = new CountingSSLContext(sslContext);
+		httpClient = HttpClient.newBuilder().sslContext(this.sslContext)
+				.proxy(ProxySelector.getDefault())
+				.connectTimeout(Duration.ofMillis(timeoutInMillis)).build();
+		requestsInFlight = new Semaphore(maxConcurrentRequests, true);
+	}
+
+	public CoraHttpResponse post(URI uri, Map<String, String> headers, String body)
+			throws IOException {
+		waitForRequestToBeAllowed();
+		try {
+			countRequest(uri);
+			return tryToPost(createRequest(uri, headers, body));
+		} finally {
+			requestsInFlight.release();
+		}
+	}
+
+	private void waitForRequestToBeAllowed() throws InterruptedIOException {
+		try {
+			requestsInFlight.acquire();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to send request");
+		}
+	}
+
+	private void countRequest(URI uri) {
+		requests.increment();
+		if (HTTPS.equalsIgnoreCase(uri.getScheme())) {
+			tlsRequests.increment();
+		}
+	}
+
+	private HttpRequest createRequest(URI uri, Map<String, String> headers, String body) {
+		HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+				.timeout(Duration.ofMillis(timeoutInMillis))
+				.POST(BodyPublishers.ofString(body, StandardCharsets.UTF_8));
+		for (Entry<String, String> header : headers.entrySet()) {
+			request.header(header.getKey(), header.getValue());
+		}
+		return request.build();
+	}
+
+	private CoraHttpResponse tryToPost(HttpRequest request) throws IOException {
+		try {
+			HttpResponse<InputStream> response = httpClient.send(request,
+					BodyHandlers.ofInputStream());
+			return new CoraHttpResponse(response.statusCode(), readBody(request, response));
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for: " + request.uri());
+		}
+	}
+
+	private String readBody(HttpRequest request, HttpResponse<InputStream> response)
+			throws IOException {
+		try (InputStream bodyStream = response.body()) {
+			byte[] body = bodyStream.readNBytes(maxResponseBodySizeInBytes + 1);
+			if (body.length > maxResponseBodySizeInBytes) {
+				responsesTooLarge.increment();
+				throw new IOException("Response body from: " + request.uri() + " is larger than: "
+						+ maxResponseBodySizeInBytes + " bytes");
+			}
+			return new String(body, StandardCharsets.UTF_8);
+		}
+	}
+
+	HttpClient getHttpClient() {
+		return httpClient;
+	}
+
+	public int getTimeoutInMillis() {
+		return timeoutInMillis;
+	}
+
+	public int getMaxResponseBodySizeInBytes() {
+		return maxResponseBodySizeInBytes;
+	}
+
+	@Override
+	public int getMaxConcurrentRequests() {
+		return maxConcurrentRequests;
+	}
+
+	@Override
+	public int getNoOfRequestsInFlight() {
+		return maxConcurrentRequests - requestsInFlight.availablePermits();
+	}
+
+	@Override
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	@Override
+	public long getTlsRequests() {
+		return tlsRequests.sum();
+	}
+
+	@Override
+	public long getTlsConnectionsOpened() {
+		return sslContext.getNoOfEnginesCreated();
+	}
+
+	@Override
+	public double getTlsConnectionReuseRate() {
+		long noOfTlsRequests = tlsRequests.sum();
+		if (noOfTlsRequests == 0) {
+			return 0;
+		}
+		long reused = noOfTlsRequests - sslContext.getNoOfEnginesCreated();
+		return (double) Math.max(0, reused) / noOfTlsRequests;
+	}
+
+	@Override
+	public long getResponsesTooLarge() {
+		return responsesTooLarge.sum();
+	}
+}
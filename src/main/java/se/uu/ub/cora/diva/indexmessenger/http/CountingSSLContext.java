@@ -0,0 +1,114 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.http;
+
+import java.security.KeyManagementException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+/**
+ * CountingSSLContext delegates to another SSLContext and counts the SSLEngines created through
+ * it. java.net.http creates one SSLEngine for each TLS connection it opens, so the count is the
+ * number of TLS connections set up by a client using this context.
+ */
+final class CountingSSLContext extends SSLContext {
+	private final LongAdder noOfEnginesCreated;
+
+	CountingSSLContext(SSLContext delegate) {
+		this(delegate, new LongAdder());
+	}
+
+	private CountingSSLContext(SSLContext delegate, LongAdder noOfEnginesCreated) {
+		super(new CountingSSLContextSpi(delegate, noOfEnginesCreated), delegate.getProvider(),
+				delegate.getProtocol());
+		this.noOfEnginesCreated = noOfEnginesCreated;
+	}
+
+	long getNoOfEnginesCreated() {
+		return noOfEnginesCreated.sum();
+	}
+
+	private static final class CountingSSLContextSpi extends SSLContextSpi {
+		private final SSLContext delegate;
+		private final LongAdder noOfEnginesCreated;
+
+		CountingSSLContextSpi(SSLContext delegate, LongAdder noOfEnginesCreated) {
+			this.delegate = delegate;
+			this.noOfEnginesCreated = noOfEnginesCreated;
+		}
+
+		@Override
+		protected void engineInit(KeyManager[] keyManagers, TrustManager[] trustManagers,
+				SecureRandom secureRandom) throws KeyManagementException {
+			delegate.init(keyManagers, trustManagers, secureRandom);
+		}
+
+		@Override
+		protected SSLSocketFactory engineGetSocketFactory() {
+			return delegate.getSocketFactory();
+		}
+
+		@Override
+		protected SSLServerSocketFactory engineGetServerSocketFactory() {
+			return delegate.getServerSocketFactory();
+		}
+
+		@Override
+		protected SSLEngine engineCreateSSLEngine() {
+			noOfEnginesCreated.increment();
+			return delegate.createSSLEngine();
+		}
+
+		@Override
+		protected SSLEngine engineCreateSSLEngine(String host, int port) {
+			noOfEnginesCreated.increment();
+			return delegate.createSSLEngine(host, port);
+		}
+
+		@Override
+		protected SSLSessionContext engineGetServerSessionContext() {
+			return delegate.getServerSessionContext();
+		}
+
+		@Override
+		protected SSLSessionContext engineGetClientSessionContext() {
+			return delegate.getClientSessionContext();
+		}
+
+		@Override
+		protected SSLParameters engineGetDefaultSSLParameters() {
+			return delegate.getDefaultSSLParameters();
+		}
+
+		@Override
+		protected SSLParameters engineGetSupportedSSLParameters() {
+			return delegate.getSupportedSSLParameters();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram records latencies in buckets with power of two upper bounds in microseconds,
+ * from 1 microsecond up to about 18 minutes. Recording is lock free and does not allocate.
+ * Percentiles are estimated as the upper bound of the bucket they fall in, but never above the
+ * highest recorded latency.
+ */
+public final class LatencyHistogram implements LatencyHistogramMXBean {
+	private static final int NO_OF_BUCKETS = 31;
+	private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+	private final LongAdder[] buckets = new LongAdder[NO_OF_BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sumInNanos = new LongAdder();
+	private final LongAccumulator maxInNanos = new LongAccumulator(Math::max, 0);
+
+	public LatencyHistogram() {
+		for (int i = 0; i < NO_OF_BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	public void record(long latencyInNanos) {
+		buckets[getBucketIndex(latencyInNanos)].increment();
+		count.increment();
+		sumInNanos.add(latencyInNanos);
+		maxInNanos.accumulate(latencyInNanos);
+	}
+
+	private int getBucketIndex(long latencyInNanos) {
+		long latencyInMicros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, latencyInNanos));
+		if (latencyInMicros <= 1) {
+			return 0;
+		}
+		int index = Long.SIZE - Long.numberOfLeadingZeros(latencyInMicros - 1);
+		return Math.min(index, NO_OF_BUCKETS - 1);
+	}
+
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	@Override
+	public double getMeanInMillis() {
+		long noOfRecorded = count.sum();
+		if (noOfRecorded == 0) {
+			return 0;
+		}
+		return sumInNanos.sum() / NANOS_PER_MILLI / noOfRecorded;
+	}
+
+	@Override
+	public double getMaxInMillis() {
+		return maxInNanos.get() / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getPercentile50InMillis() {
+		return getPercentileInMillis(0.5);
+	}
+
+	@Override
+	public double getPercentile99InMillis() {
+		return getPercentileInMillis(0.99);
+	}
+
+	private double getPercentileInMillis(double percentile) {
+		long[] bucketCounts = getBucketCounts();
+		long total = 0;
+		for (long bucketCount : bucketCounts) {
+			total += bucketCount;
+		}
+		long rank = (long) Math.ceil(percentile * total);
+		long seen = 0;
+		for (int i = 0; i < NO_OF_BUCKETS; i++) {
+			seen += bucketCounts[i];
+			if (seen >= rank && seen > 0) {
+				return Math.min(getUpperBoundInMicros(i) / 1000.0, getMaxInMillis());
+			}
+		}
+		return 0;
+	}
+
+	private long getUpperBoundInMicros(int bucketIndex) {
+		return 1L << bucketIndex;
+	}
+
+	@Override
+	public long[] getBucketUpperBoundsInMicros() {
+		long[] upperBounds = new long[NO_OF_BUCKETS];
+		for (int i = 0; i < NO_OF_BUCKETS; i++) {
+			upperBounds[i] = getUpperBoundInMicros(i);
+		}
+		return upperBounds;
+	}
+
+	@Override
+	public long[] getBucketCounts() {
+		long[] bucketCounts = new long[NO_OF_BUCKETS];
+		for (int i = 0; i < NO_OF_BUCKETS; i++) {
+			bucketCounts[i] = buckets[i].sum();
+		}
+		return bucketCounts;
+	}
+}
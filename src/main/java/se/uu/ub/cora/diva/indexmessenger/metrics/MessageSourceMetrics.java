@@ -0,0 +1,86 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MessageSourceMetrics counts what one message source has contributed, when several sources
+ * share the parser and the work order pipeline described by {@link PipelineMetrics}. It also
+ * keeps the time the last message was received, to tell a quiet source from a stuck one.
+ */
+public final class MessageSourceMetrics implements MessageSourceMetricsMXBean {
+	private static final long NO_MESSAGE_RECEIVED = Long.MIN_VALUE;
+	private final String sourceName;
+	private final LongAdder messagesReceived = new LongAdder();
+	private final LongAdder workOrdersCreated = new LongAdder();
+	private final LongAdder workOrdersNotSent = new LongAdder();
+	private volatile long lastMessageReceivedAtInNanos = NO_MESSAGE_RECEIVED;
+
+	public MessageSourceMetrics(String sourceName) {
+		this.sourceName = sourceName;
+	}
+
+	public void recordMessageReceived() {
+		messagesReceived.increment();
+		lastMessageReceivedAtInNanos = System.nanoTime();
+	}
+
+	public void recordWorkOrderCreated() {
+		workOrdersCreated.increment();
+	}
+
+	public void recordWorkOrderNotSent() {
+		workOrdersNotSent.increment();
+	}
+
+	@Override
+	public String getSourceName() {
+		return sourceName;
+	}
+
+	@Override
+	public long getMessagesReceived() {
+		return messagesReceived.sum();
+	}
+
+	@Override
+	public long getWorkOrdersCreated() {
+		return workOrdersCreated.sum();
+	}
+
+	@Override
+	public long getWorkOrdersNotSent() {
+		return workOrdersNotSent.sum();
+	}
+
+	/**
+	 * @return the time since the last message was received, or -1 if no message has been
+	 *         received
+	 */
+	@Override
+	public long getMillisSinceLastMessage() {
+		long receivedAt = lastMessageReceivedAtInNanos;
+		if (receivedAt == NO_MESSAGE_RECEIVED) {
+			return -1;
+		}
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - receivedAt);
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import se.uu.ub.cora.logger.Logger;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+/**
+ * MetricsRegistrar registers metrics as MBeans in the domain {@value #DOMAIN}. A bean already
+ * registered under the same name is replaced. Failing to register is logged, as metrics should
+ * never stop the messenger from starting.
+ */
+public class MetricsRegistrar {
+	public static final String DOMAIN = "se.uu.ub.cora.diva.indexmessenger";
+	private Logger logger = LoggerProvider.getLoggerForClass(MetricsRegistrar.class);
+	private MBeanServer mBeanServer;
+
+	public MetricsRegistrar() {
+		this(ManagementFactory.getPlatformMBeanServer());
+	}
+
+	public MetricsRegistrar(MBeanServer mBeanServer) {
+		this.mBeanServer = mBeanServer;
+	}
+
+	public void registerPipelineMetrics(PipelineMetrics pipelineMetrics) {
+		register(pipelineMetrics, "type=Pipeline");
+		register(pipelineMetrics.getParseLatency(), "type=LatencyHistogram,name=parse");
+		register(pipelineMetrics.getDispatchLatency(), "type=LatencyHistogram,name=dispatch");
+	}
+
+	public void registerConcurrencyLimit(ConcurrencyLimitMXBean concurrencyLimit) {
+		register(concurrencyLimit, "type=ConcurrencyLimit");
+	}
+
+	public void registerHttpClient(HttpClientMXBean httpClient) {
+		register(httpClient, "type=HttpClient");
+	}
+
+	public void registerWorkOrderQueue(WorkOrderQueueMXBean workOrderQueue, String queueName) {
+		register(workOrderQueue, "type=WorkOrderQueue,name=" + queueName);
+	}
+
+	public void registerDeduplicationCache(DeduplicationCacheMXBean deduplicationCache) {
+		register(deduplicationCache, "type=DeduplicationCache");
+	}
+
+	public void registerRetryScheduler(RetryMXBean retryScheduler) {
+		register(retryScheduler, "type=Retry");
+	}
+
+	public void registerMessageSourceMetrics(MessageSourceMetrics messageSourceMetrics) {
+		register(messageSourceMetrics,
+				"type=MessageSource,name=" + messageSourceMetrics.getSourceName());
+	}
+
+	public void register(Object mBean, String keyProperties) {
+		String name = DOMAIN + ":" + keyProperties;
+		try {
+			tryToRegister(mBean, new ObjectName(name));
+		} catch (JMException exception) {
+			logger.logErrorUsingMessageAndException("Unable to register MBean: " + name,
+					exception);
+		}
+	}
+
+	private void tryToRegister(Object mBean, ObjectName objectName) throws JMException {
+		if (mBeanServer.isRegistered(objectName)) {
+			mBeanServer.unregisterMBean(objectName);
+		}
+		mBeanServer.registerMBean(mBean, objectName);
+	}
+
+	public MBeanServer getMBeanServer() {
+		return mBeanServer;
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.metrics;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import se.uu.ub.cora.diva.indexmessenger.ParseCounters;
+
+/**
+ * PipelineMetrics collects what happens to messages, from parsing to the work orders sent to
+ * Cora. Message and decision counts are read from the {@link ParseCounters} of the parser, while
+ * parse and dispatch latencies and work orders in flight are recorded here. All recording is lock
+ * free.
+ */
+public final class PipelineMetrics implements PipelineMetricsMXBean {
+	private final ParseCounters parseCounters;
+	private final LatencyHistogram parseLatency = new LatencyHistogram();
+	private final LatencyHistogram dispatchLatency = new LatencyHistogram();
+	private final LongAdder workOrdersInFlight = new LongAdder();
+	private final LongAdder workOrdersSent = new LongAdder();
+	private final LongAdder workOrdersFailed = new LongAdder();
+
+	public PipelineMetrics(ParseCounters parseCounters) {
+		this.parseCounters = parseCounters;
+	}
+
+	public void recordParseLatency(long latencyInNanos) {
+		parseLatency.record(latencyInNanos);
+	}
+
+	public void recordDispatchStarted() {
+		workOrdersInFlight.increment();
+	}
+
+	public void recordDispatchSucceeded(long latencyInNanos) {
+		workOrdersInFlight.decrement();
+		workOrdersSent.increment();
+		dispatchLatency.record(latencyInNanos);
+	}
+
+	public void recordDispatchFailed(long latencyInNanos) {
+		workOrdersInFlight.decrement();
+		workOrdersFailed.increment();
+		dispatchLatency.record(latencyInNanos);
+	}
+
+	@Override
+	public Map<String, Long> getMessagesPerMethodName() {
+		return parseCounters.getMessagesPerMethodName();
+	}
+
+	@Override
+	public long getAccepted() {
+		return parseCounters.getAccepted();
+	}
+
+	@Override
+	public long getAcceptedUpdates() {
+		return parseCounters.getAcceptedUpdates();
+	}
+
+	@Override
+	public long getAcceptedDeletes() {
+		return parseCounters.getAcceptedDeletes();
+	}
+
+	@Override
+	public long getRejectedOnHeaders() {
+		return parseCounters.getRejectedOnHeaders();
+	}
+
+	@Override
+	public long getRejectedOnBody() {
+		return parseCounters.getRejectedOnBody();
+	}
+
+	@Override
+	public long getMessagesWithoutPid() {
+		return parseCounters.getWithoutPid();
+	}
+
+	@Override
+	public long getWorkOrdersInFlight() {
+		return workOrdersInFlight.sum();
+	}
+
+	@Override
+	public long getWorkOrdersSent() {
+		return workOrdersSent.sum();
+	}
+
+	@Override
+	public long getWorkOrdersFailed() {
+		return workOrdersFailed.sum();
+	}
+
+	public ParseCounters getParseCounters() {
+		return parseCounters;
+	}
+
+	public LatencyHistogram getParseLatency() {
+		return parseLatency;
+	}
+
+	public LatencyHistogram getDispatchLatency() {
+		return dispatchLatency;
+	}
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.outbox;
+
+import java.text.MessageFormat;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrder;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderExecutors;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSender;
+import se.uu.ub.cora.logger.Logger;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+/**
+ * OutboxDrainer reads work orders from an {@link OutboxLog} and sends them, committing each work
+ * order once it has been sent. A work order that fails is logged and retried until it is sent,
+ * with a delay that starts at retryDelayInMillis and doubles for each attempt up to
+ * maxRetryDelayInMillis. A work order is never committed before it has been sent, so while Cora
+ * is down the outbox grows and nothing in it is lost. Only stopping the drainer ends the retries.
+ * <p>
+ * Commits can be batched, then the outbox is committed when commitBatchSize work orders have
+ * been sent since the last commit, when commitIntervalInMillis has passed since then or when the
+ * outbox runs empty. Work orders sent but not yet committed are sent again if the process stops,
+ * so each work order is still sent at least once. Only work orders that have been sent are
+ * committed, also when the drainer is interrupted while retrying one.
+ * <p>
+ * When stopped, the drainer sends what is left in the outbox, commits and returns from
+ * {@link #run()}.
+ */
+public class OutboxDrainer implements Runnable {
+	private static final long MAX_WAIT_FOR_WORK_ORDER_IN_MILLIS = 1000;
+	private static final long MAX_WAIT_FOR_INTERRUPTED_IN_NANOS = TimeUnit.SECONDS.toNanos(1);
+	private Logger logger = LoggerProvider.getLoggerForClass(OutboxDrainer.class);
+	private OutboxLog outboxLog;
+	private WorkOrderSender workOrderSender;
+	private long retryDelayInMillis;
+	private long maxRetryDelayInMillis;
+	private int commitBatchSize;
+	private long commitIntervalInNanos;
+	private LongSupplier nanoClock;
+	private int noOfUncommittedWorkOrders = 0;
+	private long firstUncommittedSentAt;
+	private volatile boolean stopping = false;
+	private volatile Thread drainerThread;
+	private final CountDownLatch stopped = new CountDownLatch(1);
+
+	public OutboxDrainer(OutboxLog outboxLog, WorkOrderSender workOrderSender,
+			long retryDelayInMillis, long maxRetryDelayInMillis) {
+		this(outboxLog, workOrderSender, retryDelayInMillis, maxRetryDelayInMillis, 1, 0);
+	}
+
+	public OutboxDrainer(OutboxLog outboxLog, WorkOrderSender workOrderSender,
+			long retryDelayInMillis, long maxRetryDelayInMillis, int commitBatchSize,
+			long commitIntervalInMillis) {
+		this(outboxLog, workOrderSender, retryDelayInMillis, maxRetryDelayInMillis,
+				commitBatchSize, commitIntervalInMillis, System::nanoTime);
+	}
+
+	OutboxDrainer(OutboxLog outboxLog, WorkOrderSender workOrderSender, long retryDelayInMillis,
+			long maxRetryDelayInMillis, int commitBatchSize, long commitIntervalInMillis,
+			LongSupplier nanoClock) {
+		this.outboxLog = outboxLog;
+		this.workOrderSender = workOrderSender;
+		this.retryDelayInMillis = retryDelayInMillis;
+		this.maxRetryDelayInMillis = maxRetryDelayInMillis;
+		this.commitBatchSize = commitBatchSize;
+		this.commitIntervalInNanos = TimeUnit.MILLISECONDS.toNanos(commitIntervalInMillis);
+		this.nanoClock = nanoClock;
+	}
+
+	@Override
+	public void run() {
+		drainerThread = Thread.currentThread();
+		try {
+			sendUntilStoppedAndEmptyOrInterrupted();
+		} finally {
+			commitSentBeforeStopping();
+			stopped.countDown();
+		}
+	}
+
+	private void commitSentBeforeStopping() {
+		// the checkpoint is written through an interruptible channel
+		boolean interrupted = Thread.interrupted();
+		try {
+			commitIfUncommitted();
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void sendUntilStoppedAndEmptyOrInterrupted() {
+		boolean sent = true;
+		while (!Thread.currentThread().isInterrupted() && (sent || !stopping)) {
+			try {
+				sent = sendNextWorkOrder(stopping ? 0 : MAX_WAIT_FOR_WORK_ORDER_IN_MILLIS);
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Lets a running drainer send what is left in the outbox and waits for it to return, at most
+	 * until the deadline, given as a {@link System#nanoTime()} value. A drainer still running at
+	 * the deadline is interrupted.
+	 *
+	 * @return the number of work orders left uncommitted in the outbox
+	 */
+	public int stopBefore(long deadlineInNanos) {
+		stopping = true;
+		Thread thread = drainerThread;
+		if (thread != null && !waitUntilStoppedBefore(deadlineInNanos)) {
+			thread.interrupt();
+			waitUntilStoppedBefore(System.nanoTime() + MAX_WAIT_FOR_INTERRUPTED_IN_NANOS);
+		}
+		return (int) (outboxLog.getNoOfAppendedEntries() - outboxLog.getNoOfCommittedEntries());
+	}
+
+	private boolean waitUntilStoppedBefore(long deadlineInNanos) {
+		try {
+			return stopped.await(WorkOrderExecutors.nanosUntil(deadlineInNanos),
+					TimeUnit.NANOSECONDS);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	public boolean sendNextWorkOrder(long maxWaitInMillis) throws InterruptedException {
+		WorkOrder workOrder = outboxLog.readNext(limitWaitToNextCommit(maxWaitInMillis));
+		if (workOrder == null) {
+			commitIfUncommitted();
+			return false;
+		}
+		sendUsingRetries(workOrder);
+		workOrderSent();
+		return true;
+	}
+
+	private long limitWaitToNextCommit(long maxWaitInMillis) {
+		if (noOfUncommittedWorkOrders == 0) {
+			return maxWaitInMillis;
+		}
+		long nanosToNextCommit = firstUncommittedSentAt + commitIntervalInNanos
+				- nanoClock.getAsLong();
+		return Math.max(0, Math.min(maxWaitInMillis,
+				TimeUnit.NANOSECONDS.toMillis(nanosToNextCommit)));
+	}
+
+	private void workOrderSent() {
+		outboxLog.markHandled();
+		if (noOfUncommittedWorkOrders == 0) {
+			firstUncommittedSentAt = nanoClock.getAsLong();
+		}
+		noOfUncommittedWorkOrders++;
+		if (noOfUncommittedWorkOrders >= commitBatchSize || commitIntervalHasPassed()) {
+			commit();
+		}
+	}
+
+	private boolean commitIntervalHasPassed() {
+		return nanoClock.getAsLong() - firstUncommittedSentAt >= commitIntervalInNanos;
+	}
+
+	private void commitIfUncommitted() {
+		if (noOfUncommittedWorkOrders > 0) {
+			commit();
+		}
+	}
+
+	private void commit() {
+		outboxLog.commit();
+		noOfUncommittedWorkOrders = 0;
+	}
+
+	private void sendUsingRetries(WorkOrder workOrder) throws InterruptedException {
+		int attempt = 1;
+		while (!tryToSend(workOrder, attempt)) {
+			Thread.sleep(calculateRetryDelayInMillis(attempt));
+			attempt++;
+		}
+	}
+
+	private boolean tryToSend(WorkOrder workOrder, int attempt) {
+		try {
+			workOrderSender.send(workOrder);
+			return true;
+		} catch (RuntimeException exception) {
+			logFailedAttempt(workOrder, attempt, exception);
+			return false;
+		}
+	}
+
+	private void logFailedAttempt(WorkOrder workOrder, int attempt, RuntimeException exception) {
+		logger.logErrorUsingMessageAndException(MessageFormat.format(
+				"Error sending work order: {0}, attempt: {1}, retrying in: {2} ms",
+				workOrder.toString(), String.valueOf(attempt),
+				String.valueOf(calculateRetryDelayInMillis(attempt))), exception);
+	}
+
+	long calculateRetryDelayInMillis(int attempt) {
+		int noOfDoublings = Math.min(attempt - 1, 30);
+		return Math.min(maxRetryDelayInMillis, retryDelayInMillis << noOfDoublings);
+	}
+
+	public OutboxLog getOutboxLog() {
+		return outboxLog;
+	}
+
+	public WorkOrderSender getWorkOrderSender() {
+		return workOrderSender;
+	}
+
+	public long getRetryDelayInMillis() {
+		return retryDelayInMillis;
+	}
+
+	public long getMaxRetryDelayInMillis() {
+		return maxRetryDelayInMillis;
+	}
+
+	public int getCommitBatchSize() {
+		return commitBatchSize;
+	}
+
+	public long getCommitIntervalInMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(commitIntervalInNanos);
+	}
+}
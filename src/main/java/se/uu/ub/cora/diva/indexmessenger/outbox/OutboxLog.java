@@ -0,0 +1,461 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.outbox;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrder;
+import se.uu.ub.cora.logger.Logger;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+/**
+ * OutboxLog is a write ahead log of work orders, stored in memory mapped segment files in one
+ * directory. Work orders are appended by any number of threads and read, in order, by one reader.
+ * The reader marks each work order as handled once it is done with it, and commits what it has
+ * marked. The committed position is stored in a checkpoint file so that reading continues from
+ * there when the log is opened again. A work order read but not marked as handled is never
+ * committed, so it is read again after a restart. Segments that are completely committed are
+ * deleted.
+ * <p>
+ * Each entry is stored as an int length followed by the UTF-8 encoded entry. A zero length marks
+ * the end of written data and a negative length marks that the rest of the segment is unused. A
+ * checkpoint that can not be read, or that does not point at an entry in an existing segment, is
+ * ignored with a warning and reading starts from the first segment, so work orders are sent again
+ * rather than lost.
+ * Appended entries survive a crash of the process, and also a crash of the machine if the log is
+ * opened with forceOnAppend. Appends forced at the same time share one force, the first appender
+ * forces everything appended so far while later appenders wait for it, and then one of them
+ * forces what was appended meanwhile. This only saves forces when several threads append at the
+ * same time, such as listeners for more than one message source. A single listener appends one
+ * work order at a time and still pays one force per message.
+ */
+public final class OutboxLog implements Closeable {
+	private static final String SEGMENT_PREFIX = "outbox-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String CHECKPOINT_FILE_NAME = "outbox.checkpoint";
+	private static final int LENGTH_SIZE = Integer.BYTES;
+	private static final int END_OF_SEGMENT = -1;
+	private static final char SEPARATOR = '\n';
+	private static final Pattern CHECKPOINT_PATTERN = Pattern.compile("(\\d{1,18}) (\\d{1,10})");
+
+	private Logger logger = LoggerProvider.getLoggerForClass(OutboxLog.class);
+	private final Path directory;
+	private final int segmentSize;
+	private final boolean forceOnAppend;
+	private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+	private long writeSegmentNo;
+	private int writeOffset;
+	private long readSegmentNo;
+	private int readOffset;
+	private long handledSegmentNo;
+	private int handledOffset;
+	private long committedSegmentNo;
+	private int committedOffset;
+	private long noOfAppendedEntries = 0;
+	private long noOfCommittedEntries = 0;
+	private long noOfReadEntries = 0;
+	private long noOfHandledEntries = 0;
+	private long noOfForcedEntries = 0;
+	private long forcedSegmentNo;
+	private long noOfForces = 0;
+	private boolean forcing = false;
+	private long noOfEntriesBeingForced;
+	private long segmentNoBeingForced;
+
+	private OutboxLog(Path directory, int segmentSize, boolean forceOnAppend) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.forceOnAppend = forceOnAppend;
+	}
+
+	public static OutboxLog openInDirectory(Path directory, int segmentSize,
+			boolean forceOnAppend) {
+		OutboxLog outboxLog = new OutboxLog(directory, segmentSize, forceOnAppend);
+		try {
+			outboxLog.open();
+		} catch (IOException exception) {
+			throw new UncheckedIOException("Unable to open outbox in: " + directory, exception);
+		}
+		return outboxLog;
+	}
+
+	private void open() throws IOException {
+		Files.createDirectories(directory);
+		for (long segmentNo : findExistingSegmentNumbers()) {
+			segments.put(segmentNo, mapSegment(segmentNo));
+		}
+		if (segments.isEmpty()) {
+			segments.put(0L, mapSegment(0));
+		}
+		readCheckpoint();
+		findWritePositionAndCountUncommittedEntries();
+		forcedSegmentNo = writeSegmentNo;
+	}
+
+	private List<Long> findExistingSegmentNumbers() throws IOException {
+		List<Long> segmentNumbers = new ArrayList<>();
+		try (Stream<Path> files = Files.list(directory)) {
+			files.map(file -> file.getFileName().toString()).filter(this::isSegmentFileName)
+					.forEach(name -> segmentNumbers.add(extractSegmentNo(name)));
+		}
+		return segmentNumbers;
+	}
+
+	private boolean isSegmentFileName(String fileName) {
+		return fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(SEGMENT_SUFFIX);
+	}
+
+	private long extractSegmentNo(String fileName) {
+		return Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(),
+				fileName.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	private MappedByteBuffer mapSegment(long segmentNo) throws IOException {
+		try (FileChannel channel = FileChannel.open(getSegmentPath(segmentNo),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			return channel.map(MapMode.READ_WRITE, 0, segmentSize);
+		}
+	}
+
+	private Path getSegmentPath(long segmentNo) {
+		return directory.resolve(SEGMENT_PREFIX + String.format("%019d", segmentNo)
+				+ SEGMENT_SUFFIX);
+	}
+
+	private void readCheckpoint() throws IOException {
+		committedSegmentNo = segments.firstKey();
+		committedOffset = 0;
+		Path checkpointPath = directory.resolve(CHECKPOINT_FILE_NAME);
+		if (Files.exists(checkpointPath)) {
+			useCheckpointIfValid(Files.readString(checkpointPath).trim());
+		}
+		readSegmentNo = committedSegmentNo;
+		readOffset = committedOffset;
+		handledSegmentNo = committedSegmentNo;
+		handledOffset = committedOffset;
+	}
+
+	private void useCheckpointIfValid(String checkpoint) {
+		Matcher matcher = CHECKPOINT_PATTERN.matcher(checkpoint);
+		if (matcher.matches() && pointsAtEntry(matcher)) {
+			committedSegmentNo = Long.parseLong(matcher.group(1));
+			committedOffset = Integer.parseInt(matcher.group(2));
+		} else {
+			logger.logWarnUsingMessage("Ignoring invalid outbox checkpoint \"" + checkpoint
+					+ "\" in " + directory + ", reading from the first segment");
+		}
+	}
+
+	private boolean pointsAtEntry(Matcher checkpoint) {
+		MappedByteBuffer segment = segments.get(Long.parseLong(checkpoint.group(1)));
+		long offset = Long.parseLong(checkpoint.group(2));
+		if (segment == null || offset > segmentSize) {
+			return false;
+		}
+		int entryOffset = 0;
+		int length = readLength(segment, entryOffset);
+		while (entryOffset < offset && length > 0) {
+			entryOffset += LENGTH_SIZE + length;
+			length = readLength(segment, entryOffset);
+		}
+		return entryOffset == offset;
+	}
+
+	private void findWritePositionAndCountUncommittedEntries() {
+		long noOfUncommittedEntries = 0;
+		for (Map.Entry<Long, MappedByteBuffer> segment : segments.tailMap(committedSegmentNo)
+				.entrySet()) {
+			writeSegmentNo = segment.getKey();
+			int offset = writeSegmentNo == committedSegmentNo ? committedOffset : 0;
+			int length = readLength(segment.getValue(), offset);
+			while (length > 0) {
+				noOfUncommittedEntries++;
+				offset += LENGTH_SIZE + length;
+				length = readLength(segment.getValue(), offset);
+			}
+			writeOffset = length == END_OF_SEGMENT ? segmentSize : offset;
+		}
+		noOfAppendedEntries = noOfUncommittedEntries;
+		noOfForcedEntries = noOfUncommittedEntries;
+	}
+
+	private int readLength(MappedByteBuffer segment, int offset) {
+		if (offset + LENGTH_SIZE > segmentSize) {
+			return END_OF_SEGMENT;
+		}
+		return segment.getInt(offset);
+	}
+
+	/**
+	 * Appends a work order, returning when it is written, and with forceOnAppend when it is also
+	 * forced to disk.
+	 */
+	public void append(WorkOrder workOrder) {
+		long entryNo = write(workOrder);
+		if (forceOnAppend) {
+			forceUpTo(entryNo);
+		}
+	}
+
+	private synchronized long write(WorkOrder workOrder) {
+		byte[] entry = encode(workOrder);
+		throwErrorIfEntryCanNeverFit(entry);
+		if (writeOffset + LENGTH_SIZE + entry.length > segmentSize) {
+			startNewWriteSegment();
+		}
+		MappedByteBuffer segment = segments.get(writeSegmentNo);
+		ByteBuffer entryPart = segment.duplicate();
+		entryPart.position(writeOffset + LENGTH_SIZE);
+		entryPart.put(entry);
+		segment.putInt(writeOffset, entry.length);
+		writeOffset += LENGTH_SIZE + entry.length;
+		noOfAppendedEntries++;
+		notifyAll();
+		return noOfAppendedEntries;
+	}
+
+	private byte[] encode(WorkOrder workOrder) {
+		String entry = workOrder.getRecordType() + SEPARATOR + workOrder.getRecordId()
+				+ SEPARATOR + workOrder.getModificationType();
+		return entry.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private void throwErrorIfEntryCanNeverFit(byte[] entry) {
+		if (LENGTH_SIZE + entry.length > segmentSize) {
+			throw new IllegalArgumentException("Work order too large for outbox segment");
+		}
+	}
+
+	private void startNewWriteSegment() {
+		MappedByteBuffer segment = segments.get(writeSegmentNo);
+		if (writeOffset + LENGTH_SIZE <= segmentSize) {
+			segment.putInt(writeOffset, END_OF_SEGMENT);
+		}
+		writeSegmentNo++;
+		writeOffset = 0;
+		try {
+			segments.put(writeSegmentNo, mapSegment(writeSegmentNo));
+		} catch (IOException exception) {
+			throw new UncheckedIOException("Unable to create outbox segment", exception);
+		}
+	}
+
+	private void forceUpTo(long entryNo) {
+		List<MappedByteBuffer> segmentsToForce = startForcingUnlessForced(entryNo);
+		while (segmentsToForce != null) {
+			forceSegments(segmentsToForce);
+			segmentsToForce = startForcingUnlessForced(entryNo);
+		}
+	}
+
+	private synchronized List<MappedByteBuffer> startForcingUnlessForced(long entryNo) {
+		while (forcing && noOfForcedEntries < entryNo) {
+			waitForOngoingForce();
+		}
+		if (noOfForcedEntries >= entryNo) {
+			return null;
+		}
+		forcing = true;
+		noOfEntriesBeingForced = noOfAppendedEntries;
+		segmentNoBeingForced = writeSegmentNo;
+		return new ArrayList<>(segments.subMap(forcedSegmentNo, true, writeSegmentNo, true)
+				.values());
+	}
+
+	private void waitForOngoingForce() {
+		try {
+			wait();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for outbox to be forced",
+					exception);
+		}
+	}
+
+	private void forceSegments(List<MappedByteBuffer> segmentsToForce) {
+		try {
+			for (MappedByteBuffer segment : segmentsToForce) {
+				segment.force();
+			}
+		} catch (RuntimeException exception) {
+			forcingDone(false);
+			throw exception;
+		}
+		forcingDone(true);
+	}
+
+	private synchronized void forcingDone(boolean forced) {
+		if (forced) {
+			noOfForcedEntries = noOfEntriesBeingForced;
+			forcedSegmentNo = segmentNoBeingForced;
+			noOfForces++;
+		}
+		forcing = false;
+		notifyAll();
+	}
+
+	/**
+	 * Reads the next work order after the ones already read, waiting at most the given time for
+	 * one to be appended. Returns null if no work order was appended in time.
+	 */
+	public synchronized WorkOrder readNext(long maxWaitInMillis) throws InterruptedException {
+		long waitUntil = System.currentTimeMillis() + maxWaitInMillis;
+		WorkOrder workOrder = tryToReadNext();
+		long timeLeft = waitUntil - System.currentTimeMillis();
+		while (workOrder == null && timeLeft > 0) {
+			wait(timeLeft);
+			workOrder = tryToReadNext();
+			timeLeft = waitUntil - System.currentTimeMillis();
+		}
+		return workOrder;
+	}
+
+	private WorkOrder tryToReadNext() {
+		int length = readLength(segments.get(readSegmentNo), readOffset);
+		if (length == END_OF_SEGMENT && readSegmentNo < writeSegmentNo) {
+			readSegmentNo++;
+			readOffset = 0;
+			length = readLength(segments.get(readSegmentNo), readOffset);
+		}
+		if (length <= 0) {
+			return null;
+		}
+		return readEntry(length);
+	}
+
+	private WorkOrder readEntry(int length) {
+		byte[] entry = new byte[length];
+		ByteBuffer entryPart = segments.get(readSegmentNo).duplicate();
+		entryPart.position(readOffset + LENGTH_SIZE);
+		entryPart.get(entry);
+		readOffset += LENGTH_SIZE + length;
+		noOfReadEntries++;
+		return decode(entry);
+	}
+
+	private WorkOrder decode(byte[] entry) {
+		String[] parts = new String(entry, StandardCharsets.UTF_8).split(String.valueOf(SEPARATOR),
+				3);
+		return new WorkOrder(parts[0], parts[1], parts[2]);
+	}
+
+	/**
+	 * Marks all work orders read so far as handled, so that the next commit includes them.
+	 */
+	public synchronized void markHandled() {
+		handledSegmentNo = readSegmentNo;
+		handledOffset = readOffset;
+		noOfHandledEntries = noOfReadEntries;
+	}
+
+	/**
+	 * Commits all work orders marked as handled, storing the position in the checkpoint file and
+	 * deleting segments that are no longer needed.
+	 */
+	public synchronized void commit() {
+		try {
+			tryToCommit();
+		} catch (IOException exception) {
+			throw new UncheckedIOException("Unable to write outbox checkpoint", exception);
+		}
+	}
+
+	private void tryToCommit() throws IOException {
+		writeCheckpoint();
+		committedSegmentNo = handledSegmentNo;
+		committedOffset = handledOffset;
+		noOfCommittedEntries = noOfHandledEntries;
+		deleteSegmentsBefore(committedSegmentNo);
+	}
+
+	private void writeCheckpoint() throws IOException {
+		Path checkpointPath = directory.resolve(CHECKPOINT_FILE_NAME);
+		Path temporaryPath = directory.resolve(CHECKPOINT_FILE_NAME + ".tmp");
+		byte[] checkpoint = (handledSegmentNo + " " + handledOffset)
+				.getBytes(StandardCharsets.UTF_8);
+		try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			channel.write(ByteBuffer.wrap(checkpoint));
+			channel.force(true);
+		}
+		Files.move(temporaryPath, checkpointPath, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void deleteSegmentsBefore(long segmentNo) throws IOException {
+		Map<Long, MappedByteBuffer> oldSegments = segments.headMap(segmentNo);
+		for (long oldSegmentNo : new ArrayList<>(oldSegments.keySet())) {
+			Files.deleteIfExists(getSegmentPath(oldSegmentNo));
+		}
+		oldSegments.clear();
+	}
+
+	public synchronized long getNoOfAppendedEntries() {
+		return noOfAppendedEntries;
+	}
+
+	public synchronized long getNoOfCommittedEntries() {
+		return noOfCommittedEntries;
+	}
+
+	public synchronized long getNoOfForces() {
+		return noOfForces;
+	}
+
+	public synchronized int getNoOfSegments() {
+		return segments.size();
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	public int getSegmentSize() {
+		return segmentSize;
+	}
+
+	public boolean getForceOnAppend() {
+		return forceOnAppend;
+	}
+
+	@Override
+	public synchronized void close() {
+		for (MappedByteBuffer segment : segments.values()) {
+			segment.force();
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.outbox;
+
+import se.uu.ub.cora.diva.indexmessenger.metrics.WorkOrderQueueMXBean;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrder;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSender;
+import se.uu.ub.cora.logger.Logger;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+/**
+ * OutboxWorkOrderSender appends work orders to an {@link OutboxLog}, where an
+ * {@link OutboxDrainer} picks them up and sends them on. When send returns the work order is
+ * stored locally, so the message it came from can safely be acknowledged.
+ * <p>
+ * On close, the drainer sends what is left in the outbox before the senders behind it are closed.
+ * Work orders still in the outbox at the deadline are kept there and sent after a restart.
+ */
+public class OutboxWorkOrderSender implements WorkOrderSender, WorkOrderQueueMXBean {
+	private Logger logger = LoggerProvider.getLoggerForClass(OutboxWorkOrderSender.class);
+	private OutboxLog outboxLog;
+	private OutboxDrainer outboxDrainer;
+
+	public OutboxWorkOrderSender(OutboxLog outboxLog, OutboxDrainer outboxDrainer) {
+		this.outboxLog = outboxLog;
+		this.outboxDrainer = outboxDrainer;
+	}
+
+	@Override
+	public void send(WorkOrder workOrder) {
+		outboxLog.append(workOrder);
+	}
+
+	@Override
+	public int closeBefore(long deadlineInNanos) {
+		int leftInOutbox = outboxDrainer.stopBefore(deadlineInNanos);
+		int notSent = outboxDrainer.getWorkOrderSender().closeBefore(deadlineInNanos);
+		outboxLog.close();
+		possiblyLogLeftInOutbox(leftInOutbox);
+		return leftInOutbox + notSent;
+	}
+
+	private void possiblyLogLeftInOutbox(int leftInOutbox) {
+		if (leftInOutbox > 0) {
+			logger.logInfoUsingMessage("Left: " + leftInOutbox + " work orders in outbox: "
+					+ outboxLog.getDirectory() + ", they are sent after restart");
+		}
+	}
+
+	@Override
+	public int getNoOfQueuedWorkOrders() {
+		return (int) (outboxLog.getNoOfAppendedEntries() - outboxLog.getNoOfCommittedEntries());
+	}
+
+	public OutboxLog getOutboxLog() {
+		return outboxLog;
+	}
+
+	public OutboxDrainer getOutboxDrainer() {
+		return outboxDrainer;
+	}
+}
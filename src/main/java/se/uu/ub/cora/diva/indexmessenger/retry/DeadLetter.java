@@ -0,0 +1,57 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.retry;
+
+import java.time.Instant;
+
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrder;
+
+/**
+ * DeadLetter is a work order given up on after its last attempt, as read from a
+ * {@link DeadLetterStore}.
+ */
+public final class DeadLetter {
+	private final Instant givenUpAt;
+	private final int noOfAttempts;
+	private final WorkOrder workOrder;
+	private final String reason;
+
+	DeadLetter(Instant givenUpAt, int noOfAttempts, WorkOrder workOrder, String reason) {
+		this.givenUpAt = givenUpAt;
+		this.noOfAttempts = noOfAttempts;
+		this.workOrder = workOrder;
+		this.reason = reason;
+	}
+
+	public Instant getGivenUpAt() {
+		return givenUpAt;
+	}
+
+	public int getNoOfAttempts() {
+		return noOfAttempts;
+	}
+
+	public WorkOrder getWorkOrder() {
+		return workOrder;
+	}
+
+	public String getReason() {
+		return reason;
+	}
+}
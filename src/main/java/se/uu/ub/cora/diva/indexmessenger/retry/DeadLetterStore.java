@@ -0,0 +1,125 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.retry;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrder;
+
+/**
+ * DeadLetterStore keeps the work orders given up on, one line per work order in the file
+ * {@value #DEAD_LETTER_FILE_NAME}. A line holds the time it was given up on, the number of
+ * attempts, recordType, recordId, modificationType and the reason for the last failure, separated
+ * by tabs, so that the file can be read and the work orders sent again by hand, or read using
+ * {@link #readAll()}.
+ */
+public final class DeadLetterStore implements Closeable {
+	public static final String DEAD_LETTER_FILE_NAME = "dead-letters.log";
+	private static final String SEPARATOR = "\t";
+	private final Path file;
+	private final BufferedWriter writer;
+	private long noOfDeadLetters;
+
+	private DeadLetterStore(Path file, BufferedWriter writer, long noOfDeadLetters) {
+		this.file = file;
+		this.writer = writer;
+		this.noOfDeadLetters = noOfDeadLetters;
+	}
+
+	public static DeadLetterStore openInDirectory(Path directory) {
+		Path file = directory.resolve(DEAD_LETTER_FILE_NAME);
+		try {
+			Files.createDirectories(directory);
+			long noOfDeadLetters = Files.exists(file) ? readAll(file).size() : 0;
+			BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			return new DeadLetterStore(file, writer, noOfDeadLetters);
+		} catch (IOException exception) {
+			throw new UncheckedIOException("Unable to open dead letters: " + file, exception);
+		}
+	}
+
+	public synchronized void add(WorkOrder workOrder, int noOfAttempts, String reason) {
+		String line = String.join(SEPARATOR, Instant.now().toString(),
+				String.valueOf(noOfAttempts), workOrder.getRecordType(), workOrder.getRecordId(),
+				workOrder.getModificationType(), sanitize(reason));
+		try {
+			writer.write(line);
+			writer.write('\n');
+			writer.flush();
+			noOfDeadLetters++;
+		} catch (IOException exception) {
+			throw new UncheckedIOException("Unable to write dead letters: " + file, exception);
+		}
+	}
+
+	private String sanitize(String reason) {
+		return String.valueOf(reason).replaceAll("[\\t\\r\\n]+", " ");
+	}
+
+	public List<DeadLetter> readAll() {
+		synchronized (this) {
+			try {
+				return readAll(file);
+			} catch (IOException exception) {
+				throw new UncheckedIOException("Unable to read dead letters: " + file, exception);
+			}
+		}
+	}
+
+	private static List<DeadLetter> readAll(Path file) throws IOException {
+		List<DeadLetter> deadLetters = new ArrayList<>();
+		for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+			String[] parts = line.split(SEPARATOR, 6);
+			if (parts.length == 6) {
+				WorkOrder workOrder = new WorkOrder(parts[2], parts[3], parts[4]);
+				deadLetters.add(new DeadLetter(Instant.parse(parts[0]),
+						Integer.parseInt(parts[1]), workOrder, parts[5]));
+			}
+		}
+		return deadLetters;
+	}
+
+	public synchronized long getNoOfDeadLetters() {
+		return noOfDeadLetters;
+	}
+
+	public Path getFile() {
+		return file;
+	}
+
+	@Override
+	public synchronized void close() {
+		try {
+			writer.close();
+		} catch (IOException exception) {
+			throw new UncheckedIOException("Unable to close dead letters: " + file, exception);
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.retry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * HashedTimerWheel keeps {@link RetryEntry}s in a ring of buckets, one bucket per tick, where an
+ * entry due at a given tick is put in the bucket for that tick modulo the number of buckets.
+ * Scheduling is constant time, and advancing the wheel one tick only visits the entries in one
+ * bucket, so the cost of keeping many pending entries is spread evenly over the ticks. Entries are
+ * expired at the first tick at or after they are due, so never early and at most one tick late.
+ * <p>
+ * Ticks are counted from the epoch, so due times survive a restart. An entry already due when
+ * scheduled is put in the next bucket to be visited. When the wheel is advanced more than a full
+ * round at once, for instance after a restart, every bucket is visited once.
+ * <p>
+ * HashedTimerWheel is not thread safe, {@link RetryScheduler} guards it.
+ */
+final class HashedTimerWheel {
+	private final long tickInMillis;
+	private final RetryEntry[] buckets;
+	private final int mask;
+	private long currentTick;
+	private int size = 0;
+
+	HashedTimerWheel(long tickInMillis, int noOfBuckets, long nowInMillis) {
+		this.tickInMillis = tickInMillis;
+		int roundedNoOfBuckets = Integer.highestOneBit(Math.max(1, noOfBuckets - 1)) << 1;
+		buckets = new RetryEntry[roundedNoOfBuckets];
+		mask = roundedNoOfBuckets - 1;
+		currentTick = Math.floorDiv(nowInMillis, tickInMillis);
+	}
+
+	void schedule(RetryEntry entry) {
+		long tick = Math.max(getDueTick(entry), currentTick + 1);
+		int bucketIndex = (int) (tick & mask);
+		entry.bucketIndex = bucketIndex;
+		entry.next = buckets[bucketIndex];
+		buckets[bucketIndex] = entry;
+		size++;
+	}
+
+	/**
+	 * Removes a scheduled entry, walking the entries in its bucket.
+	 *
+	 * @return false if the entry was not in the wheel, for instance because it has expired
+	 */
+	boolean remove(RetryEntry entryToRemove) {
+		int bucketIndex = entryToRemove.bucketIndex;
+		RetryEntry previous = null;
+		for (RetryEntry entry = buckets[bucketIndex]; entry != null; entry = entry.next) {
+			if (entry == entryToRemove) {
+				unlink(bucketIndex, previous, entry.next);
+				entry.next = null;
+				return true;
+			}
+			previous = entry;
+		}
+		return false;
+	}
+
+	private long getDueTick(RetryEntry entry) {
+		return Math.floorDiv(entry.dueAtMillis + tickInMillis - 1, tickInMillis);
+	}
+
+	/**
+	 * Advances the wheel to the tick of nowInMillis.
+	 *
+	 * @return the entries due at or before that tick, removed from the wheel
+	 */
+	List<RetryEntry> advanceTo(long nowInMillis) {
+		long nowTick = Math.floorDiv(nowInMillis, tickInMillis);
+		List<RetryEntry> expired = new ArrayList<>();
+		if (nowTick - currentTick > buckets.length) {
+			for (int i = 0; i < buckets.length; i++) {
+				expireBucket(i, nowTick, expired);
+			}
+		} else {
+			for (long tick = currentTick + 1; tick <= nowTick; tick++) {
+				expireBucket((int) (tick & mask), tick, expired);
+			}
+		}
+		currentTick = Math.max(currentTick, nowTick);
+		return expired;
+	}
+
+	private void expireBucket(int bucketIndex, long tick, List<RetryEntry> expired) {
+		RetryEntry previous = null;
+		RetryEntry entry = buckets[bucketIndex];
+		while (entry != null) {
+			RetryEntry next = entry.next;
+			if (getDueTick(entry) <= tick) {
+				unlink(bucketIndex, previous, next);
+				entry.next = null;
+				expired.add(entry);
+			} else {
+				previous = entry;
+			}
+			entry = next;
+		}
+	}
+
+	private void unlink(int bucketIndex, RetryEntry previous, RetryEntry next) {
+		if (previous == null) {
+			buckets[bucketIndex] = next;
+		} else {
+			previous.next = next;
+		}
+		size--;
+	}
+
+	void forEach(Consumer<RetryEntry> action) {
+		for (RetryEntry bucket : buckets) {
+			for (RetryEntry entry = bucket; entry != null; entry = entry.next) {
+				action.accept(entry);
+			}
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	int getNoOfBuckets() {
+		return buckets.length;
+	}
+
+	long getTickInMillis() {
+		return tickInMillis;
+	}
+}
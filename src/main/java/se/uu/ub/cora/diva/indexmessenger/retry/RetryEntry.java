@@ -0,0 +1,78 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.retry;
+
+import java.nio.charset.StandardCharsets;
+
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrder;
+
+/**
+ * RetryEntry is a work order waiting to be retried. The work order is kept UTF-8 encoded, and the
+ * entry is itself the link in the list of its {@link HashedTimerWheel} bucket, so that hundreds of
+ * thousands of pending retries take little memory.
+ */
+final class RetryEntry {
+	private static final char SEPARATOR = '\t';
+	final long id;
+	final byte[] encodedWorkOrder;
+	long dueAtMillis;
+	int attempt;
+	boolean superseded = false;
+	int bucketIndex;
+	RetryEntry next;
+
+	RetryEntry(long id, WorkOrder workOrder, long dueAtMillis, int attempt) {
+		this(id, encode(workOrder), dueAtMillis, attempt);
+	}
+
+	private RetryEntry(long id, byte[] encodedWorkOrder, long dueAtMillis, int attempt) {
+		this.id = id;
+		this.encodedWorkOrder = encodedWorkOrder;
+		this.dueAtMillis = dueAtMillis;
+		this.attempt = attempt;
+	}
+
+	private static byte[] encode(WorkOrder workOrder) {
+		String encoded = workOrder.getRecordType() + SEPARATOR + workOrder.getRecordId()
+				+ SEPARATOR + workOrder.getModificationType();
+		return encoded.getBytes(StandardCharsets.UTF_8);
+	}
+
+	WorkOrder getWorkOrder() {
+		String[] parts = getEncodedWorkOrder().split(String.valueOf(SEPARATOR), 3);
+		return new WorkOrder(parts[0], parts[1], parts[2]);
+	}
+
+	String getRecordKey() {
+		return getWorkOrder().getRecordKey();
+	}
+
+	/**
+	 * @return the work order as recordType, recordId and modificationType separated by tabs
+	 */
+	String getEncodedWorkOrder() {
+		return new String(encodedWorkOrder, StandardCharsets.UTF_8);
+	}
+
+	static RetryEntry fromEncodedWorkOrder(long id, String encodedWorkOrder, long dueAtMillis,
+			int attempt) {
+		return new RetryEntry(id, encodedWorkOrder.getBytes(StandardCharsets.UTF_8), dueAtMillis,
+				attempt);
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.retry;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RetryJournal stores the pending retries in a file, so they survive a restart. Each change is
+ * appended as one line, "+" with id, due time, attempt and work order when a retry is scheduled,
+ * and "-" with id when it is done. Lines are flushed to the file as they are written, and a last
+ * line without line end, partly written by a crashed process, is ignored when the file is read.
+ * <p>
+ * When opened, the pending retries are recovered and the file is rewritten with only those. The
+ * file can also be rewritten while in use, when most of its lines are about retries already done.
+ * <p>
+ * RetryJournal is not thread safe, {@link RetryScheduler} guards it.
+ */
+final class RetryJournal implements Closeable {
+	private static final String JOURNAL_FILE_NAME = "retry.journal";
+	private static final String SCHEDULED = "+";
+	private static final String DONE = "-";
+	private static final String SEPARATOR = "\t";
+	private final Path file;
+	private final List<RetryEntry> recoveredEntries;
+	private long nextId = 1;
+	private BufferedWriter writer;
+	private long noOfLines = 0;
+
+	private RetryJournal(Path file, List<RetryEntry> recoveredEntries) {
+		this.file = file;
+		this.recoveredEntries = recoveredEntries;
+	}
+
+	static RetryJournal openInDirectory(Path directory) {
+		Path file = directory.resolve(JOURNAL_FILE_NAME);
+		try {
+			Files.createDirectories(directory);
+			RetryJournal journal = new RetryJournal(file, readPendingEntries(file));
+			journal.rewrite(journal.recoveredEntries);
+			return journal;
+		} catch (IOException exception) {
+			throw new UncheckedIOException("Unable to open retry journal: " + file, exception);
+		}
+	}
+
+	private static List<RetryEntry> readPendingEntries(Path file) throws IOException {
+		Map<Long, RetryEntry> pendingEntries = new LinkedHashMap<>();
+		if (Files.exists(file)) {
+			String content = Files.readString(file, StandardCharsets.UTF_8);
+			int lineStart = 0;
+			int lineEnd;
+			while ((lineEnd = content.indexOf('\n', lineStart)) >= 0) {
+				readLine(content.substring(lineStart, lineEnd), pendingEntries);
+				lineStart = lineEnd + 1;
+			}
+		}
+		return new ArrayList<>(pendingEntries.values());
+	}
+
+	private static void readLine(String line, Map<Long, RetryEntry> pendingEntries) {
+		String[] parts = line.split(SEPARATOR, 4);
+		try {
+			if (SCHEDULED.equals(parts[0]) && parts.length == 4) {
+				readScheduled(parts, pendingEntries);
+			} else if (DONE.equals(parts[0]) && parts.length == 2) {
+				pendingEntries.remove(Long.parseLong(parts[1]));
+			}
+		} catch (RuntimeException exception) {
+			// a line only partly written is left out
+		}
+	}
+
+	private static void readScheduled(String[] parts, Map<Long, RetryEntry> pendingEntries) {
+		long id = Long.parseLong(parts[1]);
+		String[] dueAtAttemptAndWorkOrder = parts[2].split(",", 2);
+		long dueAtMillis = Long.parseLong(dueAtAttemptAndWorkOrder[0]);
+		int attempt = Integer.parseInt(dueAtAttemptAndWorkOrder[1]);
+		if (parts[3].split(SEPARATOR, -1).length == 3) {
+			pendingEntries.put(id,
+					RetryEntry.fromEncodedWorkOrder(id, parts[3], dueAtMillis, attempt));
+		}
+	}
+
+	long nextId() {
+		return nextId++;
+	}
+
+	void scheduled(RetryEntry entry) {
+		writeLine(SCHEDULED + SEPARATOR + entry.id + SEPARATOR + entry.dueAtMillis + ","
+				+ entry.attempt + SEPARATOR + entry.getEncodedWorkOrder());
+	}
+
+	void done(RetryEntry entry) {
+		writeLine(DONE + SEPARATOR + entry.id);
+	}
+
+	private void writeLine(String line) {
+		try {
+			writer.write(line);
+			writer.write('\n');
+			writer.flush();
+			noOfLines++;
+		} catch (IOException exception) {
+			throw new UncheckedIOException("Unable to write retry journal: " + file, exception);
+		}
+	}
+
+	/**
+	 * Replaces the file with one holding only the given pending entries.
+	 */
+	void rewrite(Iterable<RetryEntry> pendingEntries) {
+		Path temporaryFile = file.resolveSibling(JOURNAL_FILE_NAME + ".tmp");
+		try {
+			closeWriter();
+			writer = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8);
+			noOfLines = 0;
+			for (RetryEntry entry : pendingEntries) {
+				nextId = Math.max(nextId, entry.id + 1);
+				scheduled(entry);
+			}
+			writer.close();
+			Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+					StandardOpenOption.APPEND);
+		} catch (IOException exception) {
+			throw new UncheckedIOException("Unable to rewrite retry journal: " + file, exception);
+		}
+	}
+
+	private void closeWriter() throws IOException {
+		if (writer != null) {
+			writer.close();
+		}
+	}
+
+	List<RetryEntry> getRecoveredEntries() {
+		return recoveredEntries;
+	}
+
+	long getNoOfLines() {
+		return noOfLines;
+	}
+
+	Path getFile() {
+		return file;
+	}
+
+	@Override
+	public void close() {
+		try {
+			closeWriter();
+		} catch (IOException exception) {
+			throw new UncheckedIOException("Unable to close retry journal: " + file, exception);
+		}
+	}
+}
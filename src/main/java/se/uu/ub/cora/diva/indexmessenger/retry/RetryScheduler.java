@@ -0,0 +1,489 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.retry;
+
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+import se.uu.ub.cora.diva.indexmessenger.metrics.RetryMXBean;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrder;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderExecutors;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSender;
+import se.uu.ub.cora.logger.Logger;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+/**
+ * RetryScheduler retries work orders that failed to be sent, with exponential backoff and equal
+ * jitter: after the n:th failed attempt the delay is initialDelayInMillis times 2^(n-1), at most
+ * maxDelayInMillis, of which a random half is left out, so that work orders failing together are
+ * not retried together. After maxAttempts attempts, counting the first send, the work order is
+ * given up on and stored in a {@link DeadLetterStore}.
+ * <p>
+ * Pending retries are kept in a {@link HashedTimerWheel} and in a {@link RetryJournal}, both in
+ * the retry directory, so retries are not lost on restart. Each tick a single timer thread expires
+ * the due retries and hands them to the retry senders, which send them to the retry target, set
+ * using {@link #sendRetriesTo(WorkOrderSender)}. The retry sender is picked using a hash of the
+ * record key, so retries for the same record are sent in order, while a slow retry target only
+ * holds up the retries of one sender and never the timer. A retry that a sender has no room for is
+ * put back in the wheel until the next tick.
+ * <p>
+ * At most one retry is pending per record. A newer work order for a record supersedes its pending
+ * retry, see {@link #supersedePendingRetry(WorkOrder)}, so that retries never overtake work orders
+ * sent after them.
+ */
+public class RetryScheduler implements RetryMXBean {
+	private static final long MIN_LINES_BEFORE_COMPACTION = 10000;
+	private static final int LINES_PER_PENDING_BEFORE_COMPACTION = 4;
+	private Logger logger = LoggerProvider.getLoggerForClass(RetryScheduler.class);
+	private final Path directory;
+	private final int maxAttempts;
+	private final long initialDelayInMillis;
+	private final long maxDelayInMillis;
+	private final ScheduledExecutorService ticker;
+	private final List<ExecutorService> retrySenders;
+	private final LongSupplier clock;
+	private final DoubleSupplier random;
+	private final RetryJournal retryJournal;
+	private final DeadLetterStore deadLetterStore;
+	private final HashedTimerWheel timerWheel;
+	private final LongAdder noOfRetriesScheduled = new LongAdder();
+	private final LongAdder noOfRetriesSucceeded = new LongAdder();
+	private final LongAdder noOfRetriesSuperseded = new LongAdder();
+	private final Map<String, RetryEntry> pendingRetries = new HashMap<>();
+	private final Set<String> recordKeysBeingRetried = new HashSet<>();
+	private volatile WorkOrderSender retryTarget;
+	private volatile boolean closed = false;
+
+	public RetryScheduler(Path directory, int maxAttempts, long initialDelayInMillis,
+			long maxDelayInMillis, long tickInMillis, int wheelSize,
+			ScheduledExecutorService ticker, List<ExecutorService> retrySenders) {
+		this(directory, maxAttempts, initialDelayInMillis, maxDelayInMillis, tickInMillis,
+				wheelSize, ticker, retrySenders, System::currentTimeMillis,
+				() -> ThreadLocalRandom.current().nextDouble());
+	}
+
+	RetryScheduler(Path directory, int maxAttempts, long initialDelayInMillis,
+			long maxDelayInMillis, long tickInMillis, int wheelSize,
+			ScheduledExecutorService ticker, List<ExecutorService> retrySenders, LongSupplier clock,
+			DoubleSupplier random) {
+		this.directory = directory;
+		this.maxAttempts = maxAttempts;
+		this.initialDelayInMillis = initialDelayInMillis;
+		this.maxDelayInMillis = maxDelayInMillis;
+		this.ticker = ticker;
+		this.retrySenders = retrySenders;
+		this.clock = clock;
+		this.random = random;
+		retryJournal = RetryJournal.openInDirectory(directory);
+		deadLetterStore = DeadLetterStore.openInDirectory(directory);
+		timerWheel = new HashedTimerWheel(tickInMillis, wheelSize, clock.getAsLong());
+		scheduleRecoveredEntries();
+	}
+
+	private void scheduleRecoveredEntries() {
+		List<RetryEntry> recoveredEntries = retryJournal.getRecoveredEntries();
+		for (RetryEntry entry : recoveredEntries) {
+			schedulePending(entry);
+		}
+		if (!recoveredEntries.isEmpty()) {
+			logger.logInfoUsingMessage(MessageFormat.format(
+					"Recovered: {0} work orders waiting for retry from: {1}",
+					String.valueOf(recoveredEntries.size()), directory));
+		}
+	}
+
+	/**
+	 * Creates a RetryScheduler from the retry.* properties, with a daemon timer thread and
+	 * retry.noOfSenders daemon retry sender threads, each with room for retry.senderQueueCapacity
+	 * retries. Only retry.directory is required.
+	 */
+	public static RetryScheduler fromProperties(Properties properties) {
+		Path directory = Path.of(properties.getProperty("retry.directory").trim());
+		int maxAttempts = (int) extractOptionalLongProperty(properties, "retry.maxAttempts", 10);
+		long initialDelayInMillis = extractOptionalLongProperty(properties,
+				"retry.initialDelayInMillis", 1000);
+		long maxDelayInMillis = extractOptionalLongProperty(properties,
+				"retry.maxDelayInMillis", TimeUnit.HOURS.toMillis(1));
+		long tickInMillis = extractOptionalLongProperty(properties, "retry.tickInMillis", 100);
+		int wheelSize = (int) extractOptionalLongProperty(properties, "retry.wheelSize", 4096);
+		int noOfSenders = (int) extractOptionalLongProperty(properties, "retry.noOfSenders", 4);
+		int senderQueueCapacity = (int) extractOptionalLongProperty(properties,
+				"retry.senderQueueCapacity", 1000);
+		ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(
+				WorkOrderExecutors.createDaemonThreadFactory("retryTimer"));
+		return new RetryScheduler(directory, maxAttempts, initialDelayInMillis, maxDelayInMillis,
+				tickInMillis, wheelSize, ticker,
+				createRetrySenders(noOfSenders, senderQueueCapacity));
+	}
+
+	private static List<ExecutorService> createRetrySenders(int noOfSenders,
+			int senderQueueCapacity) {
+		ThreadFactory threadFactory = WorkOrderExecutors.createDaemonThreadFactory("retrySender");
+		List<ExecutorService> retrySenders = new ArrayList<>(noOfSenders);
+		for (int i = 0; i < noOfSenders; i++) {
+			retrySenders.add(new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<>(senderQueueCapacity), threadFactory));
+		}
+		return retrySenders;
+	}
+
+	private static long extractOptionalLongProperty(Properties properties, String propertyName,
+			long defaultValue) {
+		String value = properties.getProperty(propertyName);
+		if (value == null) {
+			return defaultValue;
+		}
+		return Long.parseLong(value.trim());
+	}
+
+	public void start() {
+		long tickInMillis = timerWheel.getTickInMillis();
+		ticker.scheduleWithFixedDelay(this::advance, tickInMillis, tickInMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	public void sendRetriesTo(WorkOrderSender retryTarget) {
+		this.retryTarget = retryTarget;
+	}
+
+	/**
+	 * Schedules a retry of a work order whose first attempt failed.
+	 */
+	public void scheduleRetry(WorkOrder workOrder, RuntimeException exception) {
+		if (maxAttempts <= 1) {
+			giveUp(workOrder, 1, exception);
+			return;
+		}
+		long delayInMillis = calculateDelayInMillis(1);
+		synchronized (this) {
+			RetryEntry entry = new RetryEntry(retryJournal.nextId(), workOrder,
+					clock.getAsLong() + delayInMillis, 2);
+			retryJournal.scheduled(entry);
+			schedulePending(entry);
+		}
+		noOfRetriesScheduled.increment();
+		logRetry(workOrder, 1, delayInMillis, exception);
+	}
+
+	private void schedulePending(RetryEntry entry) {
+		RetryEntry pendingEntry = pendingRetries.get(entry.getRecordKey());
+		if (pendingEntry != null && pendingEntry.id > entry.id) {
+			supersede(entry);
+			return;
+		}
+		if (pendingEntry != null) {
+			supersede(pendingEntry);
+		}
+		pendingRetries.put(entry.getRecordKey(), entry);
+		timerWheel.schedule(entry);
+	}
+
+	private void supersede(RetryEntry entry) {
+		entry.superseded = true;
+		pendingRetries.remove(entry.getRecordKey(), entry);
+		timerWheel.remove(entry);
+		retryJournal.done(entry);
+		noOfRetriesSuperseded.increment();
+	}
+
+	/**
+	 * Drops the pending retry for the record of a work order about to be sent. If a retry for the
+	 * record is being sent, this waits for it to finish first.
+	 */
+	public synchronized void supersedePendingRetry(WorkOrder workOrder) {
+		String recordKey = workOrder.getRecordKey();
+		while (recordKeysBeingRetried.contains(recordKey)) {
+			waitForRetryBeingSent();
+		}
+		RetryEntry pendingEntry = pendingRetries.get(recordKey);
+		if (pendingEntry != null) {
+			supersede(pendingEntry);
+		}
+	}
+
+	private void waitForRetryBeingSent() {
+		try {
+			wait();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for retry to be sent",
+					exception);
+		}
+	}
+
+	long calculateDelayInMillis(int failedAttempt) {
+		double exponentialDelay = initialDelayInMillis * Math.pow(2, failedAttempt - 1.0);
+		long delayInMillis = (long) Math.min(maxDelayInMillis, exponentialDelay);
+		long halfDelayInMillis = delayInMillis / 2;
+		return halfDelayInMillis
+				+ (long) (random.getAsDouble() * (delayInMillis - halfDelayInMillis));
+	}
+
+	private void logRetry(WorkOrder workOrder, int failedAttempt, long delayInMillis,
+			RuntimeException exception) {
+		logger.logErrorUsingMessageAndException(MessageFormat.format(
+				"Error sending work order: {0}, attempt: {1} of: {2}, retrying in: {3} ms",
+				workOrder, String.valueOf(failedAttempt), String.valueOf(maxAttempts),
+				String.valueOf(delayInMillis)), exception);
+	}
+
+	void advance() {
+		try {
+			tryToAdvance();
+		} catch (RuntimeException exception) {
+			logger.logErrorUsingMessageAndException("Error retrying work orders", exception);
+		}
+	}
+
+	private void tryToAdvance() {
+		WorkOrderSender currentRetryTarget = retryTarget;
+		if (currentRetryTarget == null) {
+			return;
+		}
+		List<RetryEntry> dueEntries;
+		synchronized (this) {
+			dueEntries = timerWheel.advanceTo(clock.getAsLong());
+		}
+		for (RetryEntry entry : dueEntries) {
+			handToRetrySender(currentRetryTarget, entry);
+		}
+		possiblyCompactJournal();
+	}
+
+	private void handToRetrySender(WorkOrderSender currentRetryTarget, RetryEntry entry) {
+		ExecutorService retrySender = retrySenders
+				.get(Math.floorMod(entry.getRecordKey().hashCode(), retrySenders.size()));
+		try {
+			retrySender.execute(() -> retryOrPutBackIfClosed(currentRetryTarget, entry));
+		} catch (RejectedExecutionException exception) {
+			putBackUnlessSuperseded(entry);
+		}
+	}
+
+	private synchronized void putBackUnlessSuperseded(RetryEntry entry) {
+		if (!entry.superseded) {
+			timerWheel.schedule(entry);
+		}
+	}
+
+	private void retryOrPutBackIfClosed(WorkOrderSender currentRetryTarget, RetryEntry entry) {
+		try {
+			if (startRetryUnlessSupersededOrClosed(entry)) {
+				retryAndMarkDone(currentRetryTarget, entry);
+			}
+		} catch (RuntimeException exception) {
+			logger.logErrorUsingMessageAndException("Error retrying work orders", exception);
+		}
+	}
+
+	private void retryAndMarkDone(WorkOrderSender currentRetryTarget, RetryEntry entry) {
+		try {
+			retry(currentRetryTarget, entry);
+		} finally {
+			retryDone(entry);
+		}
+	}
+
+	private synchronized boolean startRetryUnlessSupersededOrClosed(RetryEntry entry) {
+		if (entry.superseded) {
+			return false;
+		}
+		if (closed) {
+			timerWheel.schedule(entry);
+			return false;
+		}
+		recordKeysBeingRetried.add(entry.getRecordKey());
+		return true;
+	}
+
+	private synchronized void retryDone(RetryEntry entry) {
+		recordKeysBeingRetried.remove(entry.getRecordKey());
+		notifyAll();
+	}
+
+	private void retry(WorkOrderSender currentRetryTarget, RetryEntry entry) {
+		WorkOrder workOrder = entry.getWorkOrder();
+		try {
+			currentRetryTarget.send(workOrder);
+			synchronized (this) {
+				pendingRetries.remove(entry.getRecordKey(), entry);
+				retryJournal.done(entry);
+			}
+			noOfRetriesSucceeded.increment();
+		} catch (RuntimeException exception) {
+			retryFailed(entry, workOrder, exception);
+		}
+	}
+
+	private void retryFailed(RetryEntry entry, WorkOrder workOrder, RuntimeException exception) {
+		if (entry.attempt >= maxAttempts) {
+			giveUp(workOrder, entry.attempt, exception);
+			synchronized (this) {
+				pendingRetries.remove(entry.getRecordKey(), entry);
+				retryJournal.done(entry);
+			}
+			return;
+		}
+		long delayInMillis = calculateDelayInMillis(entry.attempt);
+		synchronized (this) {
+			entry.attempt++;
+			entry.dueAtMillis = clock.getAsLong() + delayInMillis;
+			retryJournal.scheduled(entry);
+			timerWheel.schedule(entry);
+		}
+		noOfRetriesScheduled.increment();
+		logRetry(workOrder, entry.attempt - 1, delayInMillis, exception);
+	}
+
+	private void giveUp(WorkOrder workOrder, int noOfAttempts, RuntimeException exception) {
+		deadLetterStore.add(workOrder, noOfAttempts, exception.getMessage());
+		logger.logErrorUsingMessageAndException(MessageFormat.format(
+				"Giving up on work order: {0} after: {1} attempts, stored in: {2}", workOrder,
+				String.valueOf(noOfAttempts), deadLetterStore.getFile()), exception);
+	}
+
+	/**
+	 * Rewrites the journal when it is mostly about retries already done, which also empties it
+	 * when nothing is pending. Retries handed to the retry senders are still pending, so they are
+	 * kept even though they are not in the wheel.
+	 */
+	private synchronized void possiblyCompactJournal() {
+		int noOfPending = pendingRetries.size();
+		if (journalIsMostlyAboutDoneRetries(noOfPending)) {
+			retryJournal.rewrite(new ArrayList<>(pendingRetries.values()));
+		}
+	}
+
+	private boolean journalIsMostlyAboutDoneRetries(int noOfPending) {
+		long noOfLines = retryJournal.getNoOfLines();
+		if (noOfPending == 0) {
+			return noOfLines > 0;
+		}
+		return noOfLines > Math.max(MIN_LINES_BEFORE_COMPACTION,
+				(long) LINES_PER_PENDING_BEFORE_COMPACTION * noOfPending);
+	}
+
+	/**
+	 * Stops the timer and retry sender threads and closes the files, waiting at most until the
+	 * deadline for the retries being sent. Retries handed to a retry sender but not yet started are
+	 * put back in the wheel. Pending retries are left in the journal and retried after restart.
+	 *
+	 * @return the number of work orders left waiting for retry
+	 */
+	public int closeBefore(long deadlineInNanos) {
+		closed = true;
+		WorkOrderExecutors.shutdownAndAwaitTerminationBefore(ticker, deadlineInNanos);
+		for (ExecutorService retrySender : retrySenders) {
+			WorkOrderExecutors.shutdownAndAwaitTerminationBefore(retrySender, deadlineInNanos);
+		}
+		synchronized (this) {
+			retryJournal.close();
+			deadLetterStore.close();
+			int noOfPending = pendingRetries.size();
+			if (noOfPending > 0) {
+				logger.logInfoUsingMessage(MessageFormat.format(
+						"Left: {0} work orders waiting for retry in: {1},"
+								+ " they are retried after restart",
+						String.valueOf(noOfPending), directory));
+			}
+			return noOfPending;
+		}
+	}
+
+	@Override
+	public synchronized int getNoOfPendingRetries() {
+		return pendingRetries.size();
+	}
+
+	@Override
+	public long getNoOfRetriesScheduled() {
+		return noOfRetriesScheduled.sum();
+	}
+
+	@Override
+	public long getNoOfRetriesSucceeded() {
+		return noOfRetriesSucceeded.sum();
+	}
+
+	@Override
+	public long getNoOfRetriesSuperseded() {
+		return noOfRetriesSuperseded.sum();
+	}
+
+	@Override
+	public long getNoOfDeadLetters() {
+		return deadLetterStore.getNoOfDeadLetters();
+	}
+
+	@Override
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public DeadLetterStore getDeadLetterStore() {
+		return deadLetterStore;
+	}
+
+	public WorkOrderSender getRetryTarget() {
+		return retryTarget;
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	public long getInitialDelayInMillis() {
+		return initialDelayInMillis;
+	}
+
+	public long getMaxDelayInMillis() {
+		return maxDelayInMillis;
+	}
+
+	public long getTickInMillis() {
+		return timerWheel.getTickInMillis();
+	}
+
+	public int getWheelSize() {
+		return timerWheel.getNoOfBuckets();
+	}
+
+	public int getNoOfRetrySenders() {
+		return retrySenders.size();
+	}
+}
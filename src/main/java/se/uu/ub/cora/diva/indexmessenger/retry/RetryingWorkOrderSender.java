@@ -0,0 +1,65 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.retry;
+
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrder;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSender;
+
+/**
+ * RetryingWorkOrderSender hands work orders that fail to be sent to a {@link RetryScheduler},
+ * instead of letting the failure through. The scheduler is shared by the senders factored over
+ * time, so it is not closed when this sender is.
+ * <p>
+ * A pending retry for the same record is dropped before a work order is sent, since the newer work
+ * order replaces it. Otherwise an update that failed could be retried after a later delete of the
+ * same record succeeded, and index the deleted record again.
+ */
+public class RetryingWorkOrderSender implements WorkOrderSender {
+	private WorkOrderSender workOrderSender;
+	private RetryScheduler retryScheduler;
+
+	public RetryingWorkOrderSender(WorkOrderSender workOrderSender,
+			RetryScheduler retryScheduler) {
+		this.workOrderSender = workOrderSender;
+		this.retryScheduler = retryScheduler;
+	}
+
+	@Override
+	public void send(WorkOrder workOrder) {
+		retryScheduler.supersedePendingRetry(workOrder);
+		try {
+			workOrderSender.send(workOrder);
+		} catch (RuntimeException exception) {
+			retryScheduler.scheduleRetry(workOrder, exception);
+		}
+	}
+
+	@Override
+	public int closeBefore(long deadlineInNanos) {
+		return workOrderSender.closeBefore(deadlineInNanos);
+	}
+
+	public WorkOrderSender getWorkOrderSender() {
+		return workOrderSender;
+	}
+
+	public RetryScheduler getRetryScheduler() {
+		return retryScheduler;
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import se.uu.ub.cora.diva.indexmessenger.metrics.ConcurrencyLimitMXBean;
+
+/**
+ * AimdConcurrencyLimiter limits how many calls are in flight at once, adapting the limit to how
+ * the called system responds (additive increase, multiplicative decrease). As in TCP congestion
+ * control, the limit changes once per window rather than once per call:
+ * <ul>
+ * <li>the limit is increased by one when as many calls as the limit have returned within the
+ * latency threshold while the limit was in use</li>
+ * <li>the limit is multiplied by a backoff ratio when a call is slower than the threshold or fails,
+ * at most once per average latency (or latency threshold if longer), as calls returning within
+ * that time were sent before the limit was lowered</li>
+ * </ul>
+ * <p>
+ * {@link #acquire()} blocks while the limit is reached, so callers are slowed down instead of
+ * having their calls rejected.
+ */
+public class AimdConcurrencyLimiter implements ConcurrencyLimitMXBean {
+	private static final double BACKOFF_RATIO = 0.9;
+	private static final double LATENCY_SMOOTHING = 0.2;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition permitReleased = lock.newCondition();
+	private final int minLimit;
+	private final int maxLimit;
+	private final long latencyThresholdInNanos;
+	private final LongSupplier nanoClock;
+	private int limit;
+	private int noOfInFlight = 0;
+	private double averageLatencyInNanos = 0;
+	private int noOfFastCallsSinceIncrease = 0;
+	private boolean hasDecreased = false;
+	private long lastDecreaseInNanos;
+
+	public AimdConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+			long latencyThresholdInMillis) {
+		this(initialLimit, minLimit, maxLimit, latencyThresholdInMillis, System::nanoTime);
+	}
+
+	AimdConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+			long latencyThresholdInMillis, LongSupplier nanoClock) {
+		this.nanoClock = nanoClock;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.latencyThresholdInNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdInMillis);
+		limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+	}
+
+	public void acquire() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (noOfInFlight >= limit) {
+				permitReleased.await();
+			}
+			noOfInFlight++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void releaseAfterSuccess(long latencyInNanos) {
+		lock.lock();
+		try {
+			boolean limitWasInUse = noOfInFlight * 2 >= limit;
+			noOfInFlight--;
+			updateAverageLatency(latencyInNanos);
+			if (latencyInNanos > latencyThresholdInNanos) {
+				possiblyDecreaseLimit();
+			} else if (limitWasInUse) {
+				increaseLimitOncePerWindow();
+			}
+			permitReleased.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void updateAverageLatency(long latencyInNanos) {
+		if (averageLatencyInNanos == 0) {
+			averageLatencyInNanos = latencyInNanos;
+		} else {
+			averageLatencyInNanos += LATENCY_SMOOTHING * (latencyInNanos - averageLatencyInNanos);
+		}
+	}
+
+	private void increaseLimitOncePerWindow() {
+		noOfFastCallsSinceIncrease++;
+		if (noOfFastCallsSinceIncrease >= limit) {
+			limit = Math.min(maxLimit, limit + 1);
+			noOfFastCallsSinceIncrease = 0;
+		}
+	}
+
+	private void possiblyDecreaseLimit() {
+		long now = nanoClock.getAsLong();
+		if (hasDecreased && now - lastDecreaseInNanos < getDecreaseWindowInNanos()) {
+			return;
+		}
+		limit = Math.max(minLimit, (int) (limit * BACKOFF_RATIO));
+		noOfFastCallsSinceIncrease = 0;
+		hasDecreased = true;
+		lastDecreaseInNanos = now;
+	}
+
+	private long getDecreaseWindowInNanos() {
+		return Math.max((long) averageLatencyInNanos, latencyThresholdInNanos);
+	}
+
+	public void releaseAfterFailure() {
+		lock.lock();
+		try {
+			noOfInFlight--;
+			possiblyDecreaseLimit();
+			permitReleased.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int getLimit() {
+		lock.lock();
+		try {
+			return limit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int getNoOfInFlight() {
+		lock.lock();
+		try {
+			return noOfInFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns an exponentially weighted moving average of the latency of successful calls.
+	 */
+	@Override
+	public double getAverageLatencyInMillis() {
+		lock.lock();
+		try {
+			return averageLatencyInNanos / TimeUnit.MILLISECONDS.toNanos(1);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int getMinLimit() {
+		return minLimit;
+	}
+
+	@Override
+	public int getMaxLimit() {
+		return maxLimit;
+	}
+
+	@Override
+	public long getLatencyThresholdInMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(latencyThresholdInNanos);
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import se.uu.ub.cora.indexmessenger.IndexMessageException;
+import se.uu.ub.cora.logger.Logger;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+/**
+ * AsyncWorkOrderSender sends each work order as a separate task on an executor, so that the
+ * calling thread does not wait for Cora. At most maxInFlight work orders are outstanding at once,
+ * when the limit is reached {@link #send(WorkOrder)} blocks until a work order completes.
+ * <p>
+ * A work order for a record that already has a work order in flight is started when the earlier
+ * one completes, so work orders for the same record are still sent in order.
+ * <p>
+ * On close, all work orders in flight are waited for before the executor is shut down.
+ */
+public class AsyncWorkOrderSender implements WorkOrderSender {
+	private Logger logger = LoggerProvider.getLoggerForClass(AsyncWorkOrderSender.class);
+	private WorkOrderSender workOrderSender;
+	private ExecutorService executor;
+	private int maxInFlight;
+	private Semaphore inFlightPermits;
+	private Map<String, CompletableFuture<Void>> lastWorkOrderPerRecord = new ConcurrentHashMap<>();
+
+	public AsyncWorkOrderSender(WorkOrderSender workOrderSender, ExecutorService executor,
+			int maxInFlight) {
+		this.workOrderSender = workOrderSender;
+		this.executor = executor;
+		this.maxInFlight = maxInFlight;
+		inFlightPermits = new Semaphore(maxInFlight);
+	}
+
+	@Override
+	public void send(WorkOrder workOrder) {
+		waitForInFlightPermit(workOrder);
+		String recordKey = workOrder.getRecordKey();
+		CompletableFuture<Void> sent = lastWorkOrderPerRecord.compute(recordKey,
+				(key, previous) -> sendAfterPrevious(previous, workOrder));
+		sent.whenComplete((result, exception) -> lastWorkOrderPerRecord.remove(recordKey, sent));
+	}
+
+	private void waitForInFlightPermit(WorkOrder workOrder) {
+		try {
+			inFlightPermits.acquire();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw IndexMessageException
+					.withMessage("Interrupted while sending work order: " + workOrder.toString());
+		}
+	}
+
+	private CompletableFuture<Void> sendAfterPrevious(CompletableFuture<Void> previous,
+			WorkOrder workOrder) {
+		Runnable sendTask = () -> sendAndReleasePermit(workOrder);
+		if (previous == null) {
+			return CompletableFuture.runAsync(sendTask, executor);
+		}
+		return previous.thenRunAsync(sendTask, executor);
+	}
+
+	private void sendAndReleasePermit(WorkOrder workOrder) {
+		try {
+			workOrderSender.send(workOrder);
+		} catch (RuntimeException exception) {
+			logger.logErrorUsingMessageAndException(
+					"Error sending work order: " + workOrder.toString(), exception);
+		} finally {
+			inFlightPermits.release();
+		}
+	}
+
+	@Override
+	public int closeBefore(long deadlineInNanos) {
+		int notSent = waitForWorkOrdersInFlightBefore(deadlineInNanos);
+		WorkOrderExecutors.shutdownAndAwaitTerminationBefore(executor, deadlineInNanos);
+		return notSent + workOrderSender.closeBefore(deadlineInNanos);
+	}
+
+	private int waitForWorkOrdersInFlightBefore(long deadlineInNanos) {
+		try {
+			if (inFlightPermits.tryAcquire(maxInFlight,
+					WorkOrderExecutors.nanosUntil(deadlineInNanos), TimeUnit.NANOSECONDS)) {
+				return 0;
+			}
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+		return getNoOfWorkOrdersInFlight();
+	}
+
+	public int getNoOfWorkOrdersInFlight() {
+		return maxInFlight - inFlightPermits.availablePermits();
+	}
+
+	public WorkOrderSender getWorkOrderSender() {
+		return workOrderSender;
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.Map;
+
+import se.uu.ub.cora.diva.indexmessenger.authtoken.AuthTokenCache;
+import se.uu.ub.cora.diva.indexmessenger.http.CoraHttpClient;
+import se.uu.ub.cora.indexmessenger.IndexMessageException;
+
+/**
+ * AuthTokenWorkOrderSender creates work orders by posting them to the workOrder endpoint below
+ * baseUrl over connections kept open between requests, using the authToken shared through an
+ * {@link AuthTokenCache} instead of logging in with the appToken for every work order.
+ * <p>
+ * If Cora answers 401 the token is invalidated and the work order is sent once more with a new
+ * token.
+ */
+public class AuthTokenWorkOrderSender implements WorkOrderSender {
+	private static final String RECORD_CONTENT_TYPE = "application/vnd.uub.record+json";
+	private static final int CREATED = 201;
+	private static final int UNAUTHORIZED = 401;
+	private CoraHttpClient httpClient;
+	private String baseUrl;
+	private AuthTokenCache authTokenCache;
+	private URI workOrderUri;
+
+	public AuthTokenWorkOrderSender(CoraHttpClient httpClient, String baseUrl,
+			AuthTokenCache authTokenCache) {
+		this.httpClient = httpClient;
+		this.baseUrl = baseUrl;
+		this.authTokenCache = authTokenCache;
+		workOrderUri = URI.create(baseUrl + "record/workOrder");
+	}
+
+	@Override
+	public void send(WorkOrder workOrder) {
+		String workOrderJson = CoraWorkOrderSender.createWorkOrderJson(workOrder);
+		String authToken = authTokenCache.getAuthToken();
+		int statusCode = createWorkOrder(authToken, workOrderJson);
+		if (statusCode == UNAUTHORIZED) {
+			authTokenCache.invalidate(authToken);
+			statusCode = createWorkOrder(authTokenCache.getAuthToken(), workOrderJson);
+		}
+		if (statusCode != CREATED) {
+			throw IndexMessageException.withMessage("Could not create work order: " + workOrder
+					+ ". Response code: " + statusCode);
+		}
+	}
+
+	private int createWorkOrder(String authToken, String workOrderJson) {
+		Map<String, String> headers = Map.of("authToken", authToken, "Content-Type",
+				RECORD_CONTENT_TYPE, "Accept", RECORD_CONTENT_TYPE);
+		try {
+			return httpClient.post(workOrderUri, headers, workOrderJson).getStatusCode();
+		} catch (IOException exception) {
+			throw new UncheckedIOException("Could not create work order at: " + workOrderUri,
+					exception);
+		}
+	}
+
+	/**
+	 * Stops refreshing the authToken, idle connections to Cora are closed by the http client.
+	 */
+	@Override
+	public int closeBefore(long deadlineInNanos) {
+		authTokenCache.stopRefreshing();
+		return 0;
+	}
+
+	public CoraHttpClient getHttpClient() {
+		return httpClient;
+	}
+
+	public String getBaseUrl() {
+		return baseUrl;
+	}
+
+	public AuthTokenCache getAuthTokenCache() {
+		return authTokenCache;
+	}
+}
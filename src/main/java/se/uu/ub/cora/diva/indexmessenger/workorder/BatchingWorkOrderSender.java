@@ -0,0 +1,199 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BatchingWorkOrderSender collects work orders into batches and hands them to a
+ * {@link WorkOrderBatchSender}. A batch is sent when it is full, or when its first work order has
+ * waited for the linger time.
+ * <p>
+ * Full batches are sent on the thread adding the last work order, so a slow Cora slows down the
+ * message consumer instead of letting batches pile up in memory.
+ * <p>
+ * Batches are sent one at a time, in the order they were filled, so two batches with work orders
+ * for the same record are never in flight at once and a later work order is never overtaken by
+ * an earlier one. A thread with a batch to send waits for the batches before it to be sent.
+ * <p>
+ * On close, the current batch is sent without waiting for the linger time, once the batches
+ * before it have been sent. If they are still being sent at the deadline, the current batch is
+ * left unsent and its work orders are counted as not sent.
+ */
+public class BatchingWorkOrderSender implements WorkOrderSender {
+	private WorkOrderBatchSender batchSender;
+	private int batchSize;
+	private long lingerInMillis;
+	private ScheduledExecutorService scheduler;
+	private final Object lock = new Object();
+	private List<WorkOrder> currentBatch;
+	private long currentBatchNo = 0;
+	private long nextBatchNoToSend = 0;
+
+	public BatchingWorkOrderSender(WorkOrderBatchSender batchSender, int batchSize,
+			long lingerInMillis, ScheduledExecutorService scheduler) {
+		this.batchSender = batchSender;
+		this.batchSize = batchSize;
+		this.lingerInMillis = lingerInMillis;
+		this.scheduler = scheduler;
+		currentBatch = new ArrayList<>(batchSize);
+	}
+
+	@Override
+	public void send(WorkOrder workOrder) {
+		List<WorkOrder> fullBatch = null;
+		long batchNo = 0;
+		synchronized (lock) {
+			currentBatch.add(workOrder);
+			possiblyScheduleSendOfCurrentBatch();
+			if (currentBatch.size() >= batchSize) {
+				batchNo = currentBatchNo;
+				fullBatch = takeCurrentBatch();
+			}
+		}
+		if (fullBatch != null) {
+			sendBatchInTurn(batchNo, fullBatch);
+		}
+	}
+
+	private void possiblyScheduleSendOfCurrentBatch() {
+		if (currentBatch.size() == 1) {
+			long batchNo = currentBatchNo;
+			scheduler.schedule(() -> sendBatchIfStillCurrent(batchNo), lingerInMillis,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private List<WorkOrder> takeCurrentBatch() {
+		List<WorkOrder> batch = currentBatch;
+		currentBatch = new ArrayList<>(batchSize);
+		currentBatchNo++;
+		return batch;
+	}
+
+	private void sendBatchIfStillCurrent(long batchNo) {
+		List<WorkOrder> lingeringBatch;
+		synchronized (lock) {
+			if (batchNo != currentBatchNo) {
+				return;
+			}
+			lingeringBatch = takeCurrentBatch();
+		}
+		sendBatchInTurn(batchNo, lingeringBatch);
+	}
+
+	private void sendBatchInTurn(long batchNo, List<WorkOrder> batch) {
+		waitForTurnToSend(batchNo);
+		sendBatchAndPassTurn(batch);
+	}
+
+	private void sendBatchAndPassTurn(List<WorkOrder> batch) {
+		try {
+			if (!batch.isEmpty()) {
+				batchSender.sendBatch(batch);
+			}
+		} finally {
+			synchronized (lock) {
+				nextBatchNoToSend++;
+				lock.notifyAll();
+			}
+		}
+	}
+
+	private void waitForTurnToSend(long batchNo) {
+		boolean interrupted = false;
+		synchronized (lock) {
+			while (nextBatchNoToSend != batchNo) {
+				try {
+					lock.wait();
+				} catch (InterruptedException exception) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private boolean waitForTurnToSendBefore(long batchNo, long deadlineInNanos) {
+		synchronized (lock) {
+			while (nextBatchNoToSend != batchNo) {
+				long nanosLeft = WorkOrderExecutors.nanosUntil(deadlineInNanos);
+				if (nanosLeft == 0) {
+					return false;
+				}
+				try {
+					TimeUnit.NANOSECONDS.timedWait(lock, nanosLeft);
+				} catch (InterruptedException exception) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	public void flush() {
+		List<WorkOrder> batch;
+		long batchNo;
+		synchronized (lock) {
+			batchNo = currentBatchNo;
+			batch = takeCurrentBatch();
+		}
+		sendBatchInTurn(batchNo, batch);
+	}
+
+	@Override
+	public int closeBefore(long deadlineInNanos) {
+		scheduler.shutdown();
+		int notSent = flushBefore(deadlineInNanos);
+		WorkOrderExecutors.shutdownAndAwaitTerminationBefore(scheduler, deadlineInNanos);
+		return notSent + batchSender.closeBefore(deadlineInNanos);
+	}
+
+	private int flushBefore(long deadlineInNanos) {
+		List<WorkOrder> batch;
+		long batchNo;
+		synchronized (lock) {
+			batchNo = currentBatchNo;
+			batch = takeCurrentBatch();
+		}
+		if (!waitForTurnToSendBefore(batchNo, deadlineInNanos)) {
+			return batch.size();
+		}
+		sendBatchAndPassTurn(batch);
+		return 0;
+	}
+
+	public WorkOrderBatchSender getBatchSender() {
+		return batchSender;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public long getLingerInMillis() {
+		return lingerInMillis;
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import se.uu.ub.cora.diva.indexmessenger.metrics.WorkOrderQueueMXBean;
+import se.uu.ub.cora.logger.Logger;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+/**
+ * CoalescingWorkOrderSender collects work orders for the same record during a short window and
+ * then sends one work order for the record. If any of the collected work orders is a delete, the
+ * sent work order is a delete.
+ * <p>
+ * The window starts with the first work order for a record, so a steady stream of work orders for
+ * one record still results in one work order per window.
+ * <p>
+ * The scheduler only ends windows, the work orders are sent on the send executor so that a slow
+ * send does not hold up other records. A work order for a record whose previous work order is
+ * still being sent is sent when that one completes, so work orders for a record stay in order.
+ * Failed sends are logged and counted, also sends that the send executor refuses to run.
+ * <p>
+ * On close, pending work orders are sent without waiting for their windows to end, and the send
+ * executor is not shut down until all sends, also those waiting for an earlier send of the same
+ * record, are done or the deadline has passed.
+ */
+public class CoalescingWorkOrderSender implements WorkOrderSender, WorkOrderQueueMXBean {
+	private Logger logger = LoggerProvider.getLoggerForClass(CoalescingWorkOrderSender.class);
+	private WorkOrderSender workOrderSender;
+	private long windowInMillis;
+	private ScheduledExecutorService scheduler;
+	private ExecutorService sendExecutor;
+	private Map<String, WorkOrder> pendingWorkOrders = new ConcurrentHashMap<>();
+	private Map<String, CompletableFuture<Void>> lastSendPerRecord = new ConcurrentHashMap<>();
+	private LongAdder noOfFailedWorkOrders = new LongAdder();
+
+	public CoalescingWorkOrderSender(WorkOrderSender workOrderSender, long windowInMillis,
+			ScheduledExecutorService scheduler, ExecutorService sendExecutor) {
+		this.workOrderSender = workOrderSender;
+		this.windowInMillis = windowInMillis;
+		this.scheduler = scheduler;
+		this.sendExecutor = sendExecutor;
+	}
+
+	@Override
+	public void send(WorkOrder workOrder) {
+		String recordKey = workOrder.getRecordKey();
+		boolean added = false;
+		while (!added) {
+			WorkOrder pending = pendingWorkOrders.putIfAbsent(recordKey, workOrder);
+			if (pending == null) {
+				scheduleSendOfPendingWorkOrder(recordKey);
+				added = true;
+			} else {
+				added = pendingWorkOrders.replace(recordKey, pending,
+						chooseWorkOrderToKeep(pending, workOrder));
+			}
+		}
+	}
+
+	private void scheduleSendOfPendingWorkOrder(String recordKey) {
+		scheduler.schedule(() -> sendPendingWorkOrder(recordKey), windowInMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	private WorkOrder chooseWorkOrderToKeep(WorkOrder pending, WorkOrder workOrder) {
+		return pending.isDelete() ? pending : workOrder;
+	}
+
+	private void sendPendingWorkOrder(String recordKey) {
+		WorkOrder workOrder = pendingWorkOrders.remove(recordKey);
+		if (workOrder != null) {
+			try {
+				sendAfterPreviousForRecord(recordKey, workOrder);
+			} catch (RuntimeException exception) {
+				sendFailed(workOrder, exception);
+			}
+		}
+	}
+
+	private void sendAfterPreviousForRecord(String recordKey, WorkOrder workOrder) {
+		CompletableFuture<Void> sent = lastSendPerRecord.compute(recordKey,
+				(key, previous) -> sendAfterPrevious(previous, workOrder));
+		sent.whenComplete((result, exception) -> {
+			lastSendPerRecord.remove(recordKey, sent);
+			possiblyHandleNotRunSend(workOrder, exception);
+		});
+	}
+
+	private CompletableFuture<Void> sendAfterPrevious(CompletableFuture<Void> previous,
+			WorkOrder workOrder) {
+		Runnable sendTask = () -> tryToSend(workOrder);
+		if (previous == null) {
+			return CompletableFuture.runAsync(sendTask, sendExecutor);
+		}
+		return previous.exceptionally(exception -> null).thenRunAsync(sendTask, sendExecutor);
+	}
+
+	private void possiblyHandleNotRunSend(WorkOrder workOrder, Throwable exception) {
+		if (exception != null) {
+			Throwable cause = exception instanceof CompletionException ? exception.getCause()
+					: exception;
+			sendFailed(workOrder, cause instanceof RuntimeException runtimeException
+					? runtimeException
+					: new RuntimeException(cause));
+		}
+	}
+
+	private void tryToSend(WorkOrder workOrder) {
+		try {
+			workOrderSender.send(workOrder);
+		} catch (RuntimeException exception) {
+			sendFailed(workOrder, exception);
+		}
+	}
+
+	private void sendFailed(WorkOrder workOrder, RuntimeException exception) {
+		noOfFailedWorkOrders.increment();
+		logger.logErrorUsingMessageAndException(
+				"Error sending work order: " + workOrder.toString(), exception);
+	}
+
+	@Override
+	public int closeBefore(long deadlineInNanos) {
+		scheduler.shutdown();
+		for (String recordKey : pendingWorkOrders.keySet()) {
+			sendPendingWorkOrder(recordKey);
+		}
+		WorkOrderExecutors.shutdownAndAwaitTerminationBefore(scheduler, deadlineInNanos);
+		awaitSendsBefore(deadlineInNanos);
+		int notSent = 0;
+		if (!WorkOrderExecutors.shutdownAndAwaitTerminationBefore(sendExecutor,
+				deadlineInNanos)) {
+			notSent = lastSendPerRecord.size();
+		}
+		return notSent + workOrderSender.closeBefore(deadlineInNanos);
+	}
+
+	private void awaitSendsBefore(long deadlineInNanos) {
+		CompletableFuture<?>[] lastSends = lastSendPerRecord.values()
+				.toArray(new CompletableFuture<?>[0]);
+		try {
+			CompletableFuture.allOf(lastSends).get(WorkOrderExecutors.nanosUntil(deadlineInNanos),
+					TimeUnit.NANOSECONDS);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException | TimeoutException exception) {
+			// failed sends are already logged, sends left at the deadline are counted below
+		}
+	}
+
+	public int getNoOfPendingWorkOrders() {
+		return pendingWorkOrders.size();
+	}
+
+	@Override
+	public int getNoOfQueuedWorkOrders() {
+		return getNoOfPendingWorkOrders();
+	}
+
+	public long getNoOfFailedWorkOrders() {
+		return noOfFailedWorkOrders.sum();
+	}
+
+	public WorkOrderSender getWorkOrderSender() {
+		return workOrderSender;
+	}
+
+	public long getWindowInMillis() {
+		return windowInMillis;
+	}
+
+	public ExecutorService getSendExecutor() {
+		return sendExecutor;
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * CompactRecordKeys encodes the record of a work order as a long. Pids of the usual form, a
+ * namespace and a number such as authority-person:123, are encoded exactly, as an index for the
+ * recordType and namespace in the upper bits and the number in the lower bits. Other pids are
+ * encoded as a 64 bit hash with the highest bit set, so two such records can, very rarely, get
+ * the same key, but never the same key as an exactly encoded record. No key is 0.
+ * <p>
+ * CompactRecordKeys is not thread safe, {@link DeduplicationCache} guards it.
+ */
+final class CompactRecordKeys {
+	private static final int NUMBER_BITS = 47;
+	private static final int MAX_NO_OF_PREFIXES = (1 << 15) - 1;
+	private static final int MAX_NUMBER_DIGITS = 14;
+	private final Map<String, Integer> prefixIndexes = new HashMap<>();
+
+	long encode(WorkOrder workOrder) {
+		String recordId = workOrder.getRecordId();
+		int separatorIndex = recordId.lastIndexOf(':');
+		String number = recordId.substring(separatorIndex + 1);
+		if (separatorIndex < 0 || !isCompactNumber(number)) {
+			return encodeAsHash(workOrder);
+		}
+		String prefix = workOrder.getRecordType() + "\t" + recordId.substring(0, separatorIndex);
+		Integer prefixIndex = findOrAddPrefixIndex(prefix);
+		if (prefixIndex == null) {
+			return encodeAsHash(workOrder);
+		}
+		return ((long) prefixIndex << NUMBER_BITS) | Long.parseLong(number);
+	}
+
+	private boolean isCompactNumber(String number) {
+		int length = number.length();
+		if (length == 0 || length > MAX_NUMBER_DIGITS
+				|| (length > 1 && number.charAt(0) == '0')) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			char character = number.charAt(i);
+			if (character < '0' || character > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Integer findOrAddPrefixIndex(String prefix) {
+		Integer prefixIndex = prefixIndexes.get(prefix);
+		if (prefixIndex == null && prefixIndexes.size() < MAX_NO_OF_PREFIXES) {
+			prefixIndex = prefixIndexes.size() + 1;
+			prefixIndexes.put(prefix, prefixIndex);
+		}
+		return prefixIndex;
+	}
+
+	private long encodeAsHash(WorkOrder workOrder) {
+		long hash = 0xcbf29ce484222325L;
+		hash = addToHash(hash, workOrder.getRecordType());
+		hash = addToHash(hash, "\t");
+		hash = addToHash(hash, workOrder.getRecordId());
+		return mix(hash) | Long.MIN_VALUE;
+	}
+
+	private long addToHash(long hash, String text) {
+		long result = hash;
+		for (int i = 0; i < text.length(); i++) {
+			result ^= text.charAt(i);
+			result *= 0x100000001b3L;
+		}
+		return result;
+	}
+
+	/**
+	 * Spreads the bits of a key, so that keys differing only in their lowest bits end up far apart.
+	 */
+	static long mix(long key) {
+		long mixed = key;
+		mixed ^= mixed >>> 33;
+		mixed *= 0xff51afd7ed558ccdL;
+		mixed ^= mixed >>> 33;
+		mixed *= 0xc4ceb9fe1a85ec53L;
+		mixed ^= mixed >>> 33;
+		return mixed;
+	}
+
+	int getNoOfPrefixes() {
+		return prefixIndexes.size();
+	}
+}
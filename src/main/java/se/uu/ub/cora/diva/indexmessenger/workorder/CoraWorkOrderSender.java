@@ -0,0 +1,66 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import se.uu.ub.cora.indexmessenger.CoraCredentials;
+import se.uu.ub.cora.javaclient.cora.CoraClient;
+import se.uu.ub.cora.javaclient.cora.CoraClientFactory;
+
+public class CoraWorkOrderSender implements WorkOrderSender {
+	private static final String WORK_ORDER_JSON = "{\"name\":\"workOrder\",\"children\":["
+			+ "{\"name\":\"recordType\",\"children\":["
+			+ "{\"name\":\"linkedRecordType\",\"value\":\"recordType\"},"
+			+ "{\"name\":\"linkedRecordId\",\"value\":\"%s\"}]},"
+			+ "{\"name\":\"recordId\",\"value\":\"%s\"},{\"name\":\"type\",\"value\":\"%s\"}]}";
+	private CoraClientFactory coraClientFactory;
+	private CoraCredentials credentials;
+
+	public CoraWorkOrderSender(CoraClientFactory coraClientFactory, CoraCredentials credentials) {
+		this.coraClientFactory = coraClientFactory;
+		this.credentials = credentials;
+	}
+
+	@Override
+	public void send(WorkOrder workOrder) {
+		CoraClient coraClient = coraClientFactory.factor(credentials.userId,
+				credentials.appToken);
+		coraClient.create("workOrder", createWorkOrderJson(workOrder));
+	}
+
+	static String createWorkOrderJson(WorkOrder workOrder) {
+		return String.format(WORK_ORDER_JSON, escapeJson(workOrder.getRecordType()),
+				escapeJson(workOrder.getRecordId()), getWorkOrderType(workOrder));
+	}
+
+	private static String getWorkOrderType(WorkOrder workOrder) {
+		return workOrder.isDelete() ? "removeFromIndex" : "index";
+	}
+
+	private static String escapeJson(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	public CoraClientFactory getCoraClientFactory() {
+		return coraClientFactory;
+	}
+
+	public CoraCredentials getCredentials() {
+		return credentials;
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+/**
+ * DeduplicatingWorkOrderSender leaves out work orders that are exact duplicates of work orders
+ * still waiting to be sent or being sent, such as those from messages delivered again by the
+ * broker or events Fedora sends twice. The claim in the {@link DeduplicationCache} is released
+ * when sending completes, by a {@link DeduplicationReleasingWorkOrderSender} in front of the
+ * sender to Cora, or here when a failure is thrown back to this sender, so a work order repeated
+ * after the earlier one has been sent is sent again.
+ * <p>
+ * Claims never released, for work orders dropped on the way, are forgotten when the window of the
+ * cache has passed, so the window should be kept longer than work orders usually wait to be sent.
+ */
+public class DeduplicatingWorkOrderSender implements WorkOrderSender {
+	private WorkOrderSender workOrderSender;
+	private DeduplicationCache deduplicationCache;
+
+	public DeduplicatingWorkOrderSender(WorkOrderSender workOrderSender,
+			DeduplicationCache deduplicationCache) {
+		this.workOrderSender = workOrderSender;
+		this.deduplicationCache = deduplicationCache;
+	}
+
+	@Override
+	public void send(WorkOrder workOrder) {
+		if (!deduplicationCache.tryToClaim(workOrder)) {
+			return;
+		}
+		try {
+			workOrderSender.send(workOrder);
+		} catch (RuntimeException exception) {
+			deduplicationCache.release(workOrder);
+			throw exception;
+		}
+	}
+
+	@Override
+	public int closeBefore(long deadlineInNanos) {
+		return workOrderSender.closeBefore(deadlineInNanos);
+	}
+
+	public WorkOrderSender getWorkOrderSender() {
+		return workOrderSender;
+	}
+
+	public DeduplicationCache getDeduplicationCache() {
+		return deduplicationCache;
+	}
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import se.uu.ub.cora.diva.indexmessenger.metrics.DeduplicationCacheMXBean;
+
+/**
+ * DeduplicationCache remembers the work orders claimed for sending until they are released, to
+ * tell whether a work order is an exact duplicate, same record and same modificationType, of one
+ * still waiting to be sent or being sent. Only the latest work order per record is remembered, so
+ * an update after a delete of the same record is never a duplicate. A claim that is never
+ * released, for a work order lost on the way, is forgotten when the window has passed.
+ * <p>
+ * Records are kept as keys from {@link CompactRecordKeys} in an open addressing table of
+ * primitive longs, with the time sent and modificationType packed in the value. A ring of keys in
+ * the order they were added expires entries from its head when their window has ended, and when
+ * maxEntries are remembered the oldest entry is evicted early. Depending on how maxEntries rounds
+ * up to the size of the table, an entry takes roughly 40 to 60 bytes, allocated up front, and
+ * every operation takes constant time.
+ */
+public class DeduplicationCache implements DeduplicationCacheMXBean {
+	private static final int MODIFICATION_TYPE_BITS = 8;
+	private static final int MAX_NO_OF_MODIFICATION_TYPES = (1 << MODIFICATION_TYPE_BITS) - 1;
+	private static final long NOT_FOUND = -1;
+	private final long windowInMillis;
+	private final int maxEntries;
+	private final LongSupplier nanoClock;
+	private final long startInNanos;
+	private final CompactRecordKeys recordKeys = new CompactRecordKeys();
+	private final Map<String, Integer> modificationTypeIndexes = new HashMap<>();
+	private final long[] tableKeys;
+	private final long[] tableValues;
+	private final int tableMask;
+	private final long[] ringKeys;
+	private final long[] ringValues;
+	private int ringHead = 0;
+	private int ringSize = 0;
+	private int noOfEntries = 0;
+	private long noOfHits = 0;
+	private long noOfMisses = 0;
+	private long noOfEvictedBeforeExpiry = 0;
+
+	public DeduplicationCache(long windowInMillis, int maxEntries) {
+		this(windowInMillis, maxEntries, System::nanoTime);
+	}
+
+	DeduplicationCache(long windowInMillis, int maxEntries, LongSupplier nanoClock) {
+		this.windowInMillis = windowInMillis;
+		this.maxEntries = maxEntries;
+		this.nanoClock = nanoClock;
+		startInNanos = nanoClock.getAsLong();
+		int tableSize = Integer.highestOneBit(Math.max(2, maxEntries + maxEntries / 3) - 1) << 1;
+		tableKeys = new long[tableSize];
+		tableValues = new long[tableSize];
+		tableMask = tableSize - 1;
+		ringKeys = new long[maxEntries];
+		ringValues = new long[maxEntries];
+	}
+
+	/**
+	 * Remembers the work order as claimed, unless it is a duplicate of a claimed work order not
+	 * yet released and claimed within the window.
+	 *
+	 * @return true if the work order should be sent, false if it is a duplicate
+	 */
+	public synchronized boolean tryToClaim(WorkOrder workOrder) {
+		long now = getNowInMillis();
+		expireBefore(now - windowInMillis);
+		Integer modificationTypeIndex = findOrAddModificationTypeIndex(workOrder);
+		if (modificationTypeIndex == null) {
+			noOfMisses++;
+			return true;
+		}
+		long key = recordKeys.encode(workOrder);
+		long value = (now << MODIFICATION_TYPE_BITS) | modificationTypeIndex;
+		long earlierValue = getFromTable(key);
+		if (isSameModificationType(earlierValue, value)) {
+			noOfHits++;
+			return false;
+		}
+		noOfMisses++;
+		possiblyEvictOldest();
+		putInTable(key, value);
+		addToRing(key, value);
+		return true;
+	}
+
+	private long getNowInMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(nanoClock.getAsLong() - startInNanos);
+	}
+
+	private Integer findOrAddModificationTypeIndex(WorkOrder workOrder) {
+		String modificationType = workOrder.getModificationType();
+		Integer index = modificationTypeIndexes.get(modificationType);
+		if (index == null && modificationTypeIndexes.size() < MAX_NO_OF_MODIFICATION_TYPES) {
+			index = modificationTypeIndexes.size();
+			modificationTypeIndexes.put(modificationType, index);
+		}
+		return index;
+	}
+
+	private boolean isSameModificationType(long earlierValue, long value) {
+		return earlierValue != NOT_FOUND
+				&& getModificationTypeIndex(earlierValue) == getModificationTypeIndex(value);
+	}
+
+	private long getModificationTypeIndex(long value) {
+		return value & MAX_NO_OF_MODIFICATION_TYPES;
+	}
+
+	private long getTimeInMillis(long value) {
+		return value >>> MODIFICATION_TYPE_BITS;
+	}
+
+	/**
+	 * Forgets a work order claimed using {@link #tryToClaim(WorkOrder)} once it has been sent, or
+	 * could not be sent, so that it is not taken as a duplicate when sent again.
+	 */
+	public synchronized void release(WorkOrder workOrder) {
+		Integer modificationTypeIndex = modificationTypeIndexes
+				.get(workOrder.getModificationType());
+		long key = recordKeys.encode(workOrder);
+		long value = getFromTable(key);
+		if (modificationTypeIndex != null && value != NOT_FOUND
+				&& getModificationTypeIndex(value) == modificationTypeIndex) {
+			removeFromTable(key);
+		}
+	}
+
+	private void expireBefore(long timeInMillis) {
+		while (ringSize > 0 && getTimeInMillis(ringValues[ringHead]) <= timeInMillis) {
+			removeRingHead();
+		}
+	}
+
+	private void possiblyEvictOldest() {
+		if (ringSize == maxEntries) {
+			if (removeRingHead()) {
+				noOfEvictedBeforeExpiry++;
+			}
+		}
+	}
+
+	/**
+	 * Removes the head of the ring, and its entry in the table unless the record has been added
+	 * again later.
+	 *
+	 * @return true if an entry was removed from the table
+	 */
+	private boolean removeRingHead() {
+		long key = ringKeys[ringHead];
+		long value = ringValues[ringHead];
+		ringHead = (ringHead + 1) % maxEntries;
+		ringSize--;
+		if (getFromTable(key) == value) {
+			removeFromTable(key);
+			return true;
+		}
+		return false;
+	}
+
+	private void addToRing(long key, long value) {
+		int tail = (ringHead + ringSize) % maxEntries;
+		ringKeys[tail] = key;
+		ringValues[tail] = value;
+		ringSize++;
+	}
+
+	private int findSlot(long key) {
+		int slot = getHomeSlot(key);
+		while (tableKeys[slot] != 0 && tableKeys[slot] != key) {
+			slot = (slot + 1) & tableMask;
+		}
+		return slot;
+	}
+
+	private int getHomeSlot(long key) {
+		return (int) CompactRecordKeys.mix(key) & tableMask;
+	}
+
+	private long getFromTable(long key) {
+		int slot = findSlot(key);
+		return tableKeys[slot] == 0 ? NOT_FOUND : tableValues[slot];
+	}
+
+	private void putInTable(long key, long value) {
+		int slot = findSlot(key);
+		if (tableKeys[slot] == 0) {
+			tableKeys[slot] = key;
+			noOfEntries++;
+		}
+		tableValues[slot] = value;
+	}
+
+	/**
+	 * Removes the key and moves later keys of the same probe sequence back into the freed slot,
+	 * so lookups never need to skip removed slots.
+	 */
+	private void removeFromTable(long key) {
+		int freeSlot = findSlot(key);
+		if (tableKeys[freeSlot] == 0) {
+			return;
+		}
+		tableKeys[freeSlot] = 0;
+		noOfEntries--;
+		int slot = freeSlot;
+		while (true) {
+			slot = (slot + 1) & tableMask;
+			if (tableKeys[slot] == 0) {
+				return;
+			}
+			if (canMoveTo(freeSlot, slot, getHomeSlot(tableKeys[slot]))) {
+				tableKeys[freeSlot] = tableKeys[slot];
+				tableValues[freeSlot] = tableValues[slot];
+				tableKeys[slot] = 0;
+				freeSlot = slot;
+			}
+		}
+	}
+
+	private boolean canMoveTo(int freeSlot, int slot, int homeSlot) {
+		int distanceToFree = (freeSlot - homeSlot) & tableMask;
+		int distanceToSlot = (slot - homeSlot) & tableMask;
+		return distanceToFree < distanceToSlot;
+	}
+
+	@Override
+	public long getWindowInMillis() {
+		return windowInMillis;
+	}
+
+	@Override
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	@Override
+	public synchronized int getNoOfEntries() {
+		expireBefore(getNowInMillis() - windowInMillis);
+		return noOfEntries;
+	}
+
+	@Override
+	public synchronized long getNoOfHits() {
+		return noOfHits;
+	}
+
+	@Override
+	public synchronized long getNoOfMisses() {
+		return noOfMisses;
+	}
+
+	@Override
+	public synchronized double getHitRate() {
+		long noOfLookups = noOfHits + noOfMisses;
+		return noOfLookups == 0 ? 0 : (double) noOfHits / noOfLookups;
+	}
+
+	@Override
+	public synchronized long getNoOfEvictedBeforeExpiry() {
+		return noOfEvictedBeforeExpiry;
+	}
+
+	/**
+	 * @return the bytes taken by the table and the ring, which are allocated up front
+	 */
+	@Override
+	public long getMemoryInBytes() {
+		return (long) Long.BYTES * (tableKeys.length + tableValues.length + ringKeys.length
+				+ ringValues.length);
+	}
+}
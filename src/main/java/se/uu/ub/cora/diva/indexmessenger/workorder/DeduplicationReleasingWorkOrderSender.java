@@ -0,0 +1,58 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+/**
+ * DeduplicationReleasingWorkOrderSender releases the claim a {@link DeduplicatingWorkOrderSender}
+ * made for a work order when sending it completes, whether it was sent or failed. It is put right
+ * in front of the sender to Cora, so that the claim is held for as long as the work order is
+ * waiting in or being sent by stages in between, also when they send on other threads.
+ */
+public class DeduplicationReleasingWorkOrderSender implements WorkOrderSender {
+	private WorkOrderSender workOrderSender;
+	private DeduplicationCache deduplicationCache;
+
+	public DeduplicationReleasingWorkOrderSender(WorkOrderSender workOrderSender,
+			DeduplicationCache deduplicationCache) {
+		this.workOrderSender = workOrderSender;
+		this.deduplicationCache = deduplicationCache;
+	}
+
+	@Override
+	public void send(WorkOrder workOrder) {
+		try {
+			workOrderSender.send(workOrder);
+		} finally {
+			deduplicationCache.release(workOrder);
+		}
+	}
+
+	@Override
+	public int closeBefore(long deadlineInNanos) {
+		return workOrderSender.closeBefore(deadlineInNanos);
+	}
+
+	public WorkOrderSender getWorkOrderSender() {
+		return workOrderSender;
+	}
+
+	public DeduplicationCache getDeduplicationCache() {
+		return deduplicationCache;
+	}
+}
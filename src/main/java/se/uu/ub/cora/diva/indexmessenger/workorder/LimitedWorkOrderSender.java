@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import java.util.function.LongSupplier;
+
+import se.uu.ub.cora.indexmessenger.IndexMessageException;
+
+/**
+ * LimitedWorkOrderSender sends work orders within the concurrency limit of an
+ * {@link AimdConcurrencyLimiter}, reporting the latency or failure of each send back to the
+ * limiter. When the limit is reached {@link #send(WorkOrder)} blocks, which slows down message
+ * consumption instead of dropping messages.
+ */
+public class LimitedWorkOrderSender implements WorkOrderSender {
+	private WorkOrderSender workOrderSender;
+	private AimdConcurrencyLimiter limiter;
+	private LongSupplier nanoClock;
+
+	public LimitedWorkOrderSender(WorkOrderSender workOrderSender,
+			AimdConcurrencyLimiter limiter) {
+		this(workOrderSender, limiter, System::nanoTime);
+	}
+
+	LimitedWorkOrderSender(WorkOrderSender workOrderSender, AimdConcurrencyLimiter limiter,
+			LongSupplier nanoClock) {
+		this.workOrderSender = workOrderSender;
+		this.limiter = limiter;
+		this.nanoClock = nanoClock;
+	}
+
+	@Override
+	public void send(WorkOrder workOrder) {
+		waitForPermit(workOrder);
+		long start = nanoClock.getAsLong();
+		try {
+			workOrderSender.send(workOrder);
+		} catch (RuntimeException exception) {
+			limiter.releaseAfterFailure();
+			throw exception;
+		}
+		limiter.releaseAfterSuccess(nanoClock.getAsLong() - start);
+	}
+
+	private void waitForPermit(WorkOrder workOrder) {
+		try {
+			limiter.acquire();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw IndexMessageException
+					.withMessage("Interrupted while sending work order: " + workOrder.toString());
+		}
+	}
+
+	@Override
+	public int closeBefore(long deadlineInNanos) {
+		return workOrderSender.closeBefore(deadlineInNanos);
+	}
+
+	public WorkOrderSender getWorkOrderSender() {
+		return workOrderSender;
+	}
+
+	public AimdConcurrencyLimiter getLimiter() {
+		return limiter;
+	}
+}
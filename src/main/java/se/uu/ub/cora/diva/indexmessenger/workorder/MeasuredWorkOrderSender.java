@@ -0,0 +1,71 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import java.util.function.LongSupplier;
+
+import se.uu.ub.cora.diva.indexmessenger.metrics.PipelineMetrics;
+
+/**
+ * MeasuredWorkOrderSender records the work orders in flight and the latency of each send in
+ * {@link PipelineMetrics}.
+ */
+public class MeasuredWorkOrderSender implements WorkOrderSender {
+	private WorkOrderSender workOrderSender;
+	private PipelineMetrics pipelineMetrics;
+	private LongSupplier nanoClock;
+
+	public MeasuredWorkOrderSender(WorkOrderSender workOrderSender,
+			PipelineMetrics pipelineMetrics) {
+		this(workOrderSender, pipelineMetrics, System::nanoTime);
+	}
+
+	MeasuredWorkOrderSender(WorkOrderSender workOrderSender, PipelineMetrics pipelineMetrics,
+			LongSupplier nanoClock) {
+		this.workOrderSender = workOrderSender;
+		this.pipelineMetrics = pipelineMetrics;
+		this.nanoClock = nanoClock;
+	}
+
+	@Override
+	public void send(WorkOrder workOrder) {
+		pipelineMetrics.recordDispatchStarted();
+		long start = nanoClock.getAsLong();
+		try {
+			workOrderSender.send(workOrder);
+		} catch (RuntimeException exception) {
+			pipelineMetrics.recordDispatchFailed(nanoClock.getAsLong() - start);
+			throw exception;
+		}
+		pipelineMetrics.recordDispatchSucceeded(nanoClock.getAsLong() - start);
+	}
+
+	@Override
+	public int closeBefore(long deadlineInNanos) {
+		return workOrderSender.closeBefore(deadlineInNanos);
+	}
+
+	public WorkOrderSender getWorkOrderSender() {
+		return workOrderSender;
+	}
+
+	public PipelineMetrics getPipelineMetrics() {
+		return pipelineMetrics;
+	}
+}
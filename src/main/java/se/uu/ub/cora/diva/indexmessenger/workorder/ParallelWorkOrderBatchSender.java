@@ -0,0 +1,123 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import se.uu.ub.cora.logger.Logger;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+/**
+ * ParallelWorkOrderBatchSender sends a batch by sending each work order in parallel, for Cora
+ * instances that have no endpoint accepting several work orders in one request. Work orders for
+ * the same record are sent one after the other, in batch order. The call returns when all work
+ * orders in the batch have been sent or have failed, failures are logged and returned.
+ */
+public class ParallelWorkOrderBatchSender implements WorkOrderBatchSender {
+	private Logger logger = LoggerProvider.getLoggerForClass(ParallelWorkOrderBatchSender.class);
+	private WorkOrderSender workOrderSender;
+	private ExecutorService executor;
+
+	public ParallelWorkOrderBatchSender(WorkOrderSender workOrderSender,
+			ExecutorService executor) {
+		this.workOrderSender = workOrderSender;
+		this.executor = executor;
+	}
+
+	@Override
+	public List<WorkOrder> sendBatch(List<WorkOrder> workOrders) {
+		Collection<List<WorkOrder>> workOrdersPerRecord = groupWorkOrdersPerRecord(workOrders);
+		Map<Future<List<WorkOrder>>, List<WorkOrder>> sentRecords = new LinkedHashMap<>();
+		for (List<WorkOrder> workOrdersForRecord : workOrdersPerRecord) {
+			sentRecords.put(executor.submit(() -> sendWorkOrdersInOrder(workOrdersForRecord)),
+					workOrdersForRecord);
+		}
+		List<WorkOrder> failedWorkOrders = new ArrayList<>();
+		for (Entry<Future<List<WorkOrder>>, List<WorkOrder>> sentRecord : sentRecords
+				.entrySet()) {
+			failedWorkOrders.addAll(waitForRecordToBeSent(sentRecord.getKey(),
+					sentRecord.getValue()));
+		}
+		return failedWorkOrders;
+	}
+
+	private Collection<List<WorkOrder>> groupWorkOrdersPerRecord(List<WorkOrder> workOrders) {
+		Map<String, List<WorkOrder>> workOrdersPerRecord = new LinkedHashMap<>();
+		for (WorkOrder workOrder : workOrders) {
+			workOrdersPerRecord.computeIfAbsent(workOrder.getRecordKey(), key -> new ArrayList<>())
+					.add(workOrder);
+		}
+		return workOrdersPerRecord.values();
+	}
+
+	private List<WorkOrder> sendWorkOrdersInOrder(List<WorkOrder> workOrdersForRecord) {
+		List<WorkOrder> failedWorkOrders = new ArrayList<>();
+		for (WorkOrder workOrder : workOrdersForRecord) {
+			if (!tryToSendWorkOrder(workOrder)) {
+				failedWorkOrders.add(workOrder);
+			}
+		}
+		return failedWorkOrders;
+	}
+
+	private boolean tryToSendWorkOrder(WorkOrder workOrder) {
+		try {
+			workOrderSender.send(workOrder);
+			return true;
+		} catch (RuntimeException exception) {
+			logger.logErrorUsingMessageAndException(
+					"Error sending work order: " + workOrder.toString(), exception);
+			return false;
+		}
+	}
+
+	private List<WorkOrder> waitForRecordToBeSent(Future<List<WorkOrder>> sentRecord,
+			List<WorkOrder> workOrdersForRecord) {
+		try {
+			return sentRecord.get();
+		} catch (ExecutionException exception) {
+			logger.logErrorUsingMessageAndException("Error sending work orders", exception);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+		return workOrdersForRecord;
+	}
+
+	@Override
+	public int closeBefore(long deadlineInNanos) {
+		WorkOrderExecutors.shutdownAndAwaitTerminationBefore(executor, deadlineInNanos);
+		return workOrderSender.closeBefore(deadlineInNanos);
+	}
+
+	public WorkOrderSender getWorkOrderSender() {
+		return workOrderSender;
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+}
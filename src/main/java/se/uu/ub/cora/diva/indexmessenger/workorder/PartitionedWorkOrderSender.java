@@ -0,0 +1,160 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import se.uu.ub.cora.diva.indexmessenger.metrics.WorkOrderQueueMXBean;
+import se.uu.ub.cora.indexmessenger.IndexMessageException;
+import se.uu.ub.cora.logger.Logger;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+/**
+ * PartitionedWorkOrderSender spreads work orders over a number of worker threads, using a hash of
+ * the record id to pick the worker. Work orders for different records are sent in parallel, while
+ * work orders for the same record are always sent by the same worker, in the order they arrived.
+ * <p>
+ * Each worker has a bounded queue. When a queue is full, {@link #send(WorkOrder)} blocks until
+ * the worker has caught up, which slows down the message consumer.
+ * <p>
+ * On close, each worker sends what is left in its queue and then stops.
+ */
+public class PartitionedWorkOrderSender implements WorkOrderSender, WorkOrderQueueMXBean {
+	private static final WorkOrder END_OF_QUEUE = new WorkOrder("", "", "");
+	private Logger logger = LoggerProvider.getLoggerForClass(PartitionedWorkOrderSender.class);
+	private WorkOrderSender workOrderSender;
+	private int queueCapacity;
+	private List<BlockingQueue<WorkOrder>> queues;
+	private List<Thread> workers;
+
+	public PartitionedWorkOrderSender(WorkOrderSender workOrderSender, int noOfPartitions,
+			int queueCapacity, ThreadFactory threadFactory) {
+		this.workOrderSender = workOrderSender;
+		this.queueCapacity = queueCapacity;
+		queues = new ArrayList<>(noOfPartitions);
+		workers = new ArrayList<>(noOfPartitions);
+		for (int i = 0; i < noOfPartitions; i++) {
+			startWorkerForPartition(threadFactory);
+		}
+	}
+
+	private void startWorkerForPartition(ThreadFactory threadFactory) {
+		BlockingQueue<WorkOrder> queue = new ArrayBlockingQueue<>(queueCapacity);
+		Thread worker = threadFactory.newThread(() -> sendWorkOrdersFromQueue(queue));
+		queues.add(queue);
+		workers.add(worker);
+		worker.start();
+	}
+
+	private void sendWorkOrdersFromQueue(BlockingQueue<WorkOrder> queue) {
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				WorkOrder workOrder = queue.take();
+				if (workOrder == END_OF_QUEUE) {
+					return;
+				}
+				tryToSendWorkOrder(workOrder);
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void tryToSendWorkOrder(WorkOrder workOrder) {
+		try {
+			workOrderSender.send(workOrder);
+		} catch (RuntimeException exception) {
+			logger.logErrorUsingMessageAndException(
+					"Error sending work order: " + workOrder.toString(), exception);
+		}
+	}
+
+	@Override
+	public void send(WorkOrder workOrder) {
+		BlockingQueue<WorkOrder> queue = queues.get(getPartitionForWorkOrder(workOrder));
+		try {
+			queue.put(workOrder);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw IndexMessageException
+					.withMessage("Interrupted while queueing work order: " + workOrder.toString());
+		}
+	}
+
+	@Override
+	public int closeBefore(long deadlineInNanos) {
+		for (BlockingQueue<WorkOrder> queue : queues) {
+			putEndOfQueueBefore(queue, deadlineInNanos);
+		}
+		int notSent = 0;
+		for (int i = 0; i < workers.size(); i++) {
+			notSent += stopWorkerBefore(workers.get(i), queues.get(i), deadlineInNanos);
+		}
+		return notSent + workOrderSender.closeBefore(deadlineInNanos);
+	}
+
+	private void putEndOfQueueBefore(BlockingQueue<WorkOrder> queue, long deadlineInNanos) {
+		try {
+			queue.offer(END_OF_QUEUE, WorkOrderExecutors.nanosUntil(deadlineInNanos),
+					TimeUnit.NANOSECONDS);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private int stopWorkerBefore(Thread worker, BlockingQueue<WorkOrder> queue,
+			long deadlineInNanos) {
+		if (WorkOrderExecutors.joinBefore(worker, deadlineInNanos)) {
+			return 0;
+		}
+		worker.interrupt();
+		queue.remove(END_OF_QUEUE);
+		return queue.size();
+	}
+
+	public int getPartitionForWorkOrder(WorkOrder workOrder) {
+		return Math.floorMod(workOrder.getRecordId().hashCode(), queues.size());
+	}
+
+	@Override
+	public int getNoOfQueuedWorkOrders() {
+		int queued = 0;
+		for (BlockingQueue<WorkOrder> queue : queues) {
+			queued += queue.size();
+		}
+		return queued;
+	}
+
+	public WorkOrderSender getWorkOrderSender() {
+		return workOrderSender;
+	}
+
+	public int getNoOfPartitions() {
+		return queues.size();
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ReloadableWorkOrderSender hands work orders to a chain of work order senders that can be
+ * replaced while messages are received, for instance when the properties describing the chain
+ * have changed. The replaced chain is closed when the sends already started on it have returned,
+ * so the work orders it holds are still sent.
+ * <p>
+ * Sending only counts the sends in progress on the current chain, it never waits for a
+ * replacement.
+ */
+public class ReloadableWorkOrderSender implements WorkOrderSender {
+	private volatile SenderChain currentChain;
+
+	public ReloadableWorkOrderSender(WorkOrderSender workOrderSender) {
+		currentChain = new SenderChain(workOrderSender);
+	}
+
+	@Override
+	public void send(WorkOrder workOrder) {
+		SenderChain chain = enterCurrentChain();
+		try {
+			chain.workOrderSender.send(workOrder);
+		} finally {
+			chain.sendsInProgress.decrementAndGet();
+		}
+	}
+
+	private SenderChain enterCurrentChain() {
+		SenderChain chain = currentChain;
+		chain.sendsInProgress.incrementAndGet();
+		while (chain != currentChain) {
+			chain.sendsInProgress.decrementAndGet();
+			chain = currentChain;
+			chain.sendsInProgress.incrementAndGet();
+		}
+		return chain;
+	}
+
+	/**
+	 * Sends all following work orders to the new chain, and closes the replaced chain once the
+	 * sends in progress on it have returned, waiting at most until the deadline.
+	 *
+	 * @return the number of work orders in the replaced chain that were not sent before the
+	 *         deadline
+	 */
+	public int replaceAndCloseBefore(WorkOrderSender workOrderSender, long deadlineInNanos) {
+		SenderChain replacedChain = currentChain;
+		currentChain = new SenderChain(workOrderSender);
+		waitForSendsInProgressBefore(replacedChain, deadlineInNanos);
+		return replacedChain.workOrderSender.closeBefore(deadlineInNanos);
+	}
+
+	private void waitForSendsInProgressBefore(SenderChain chain, long deadlineInNanos) {
+		while (chain.sendsInProgress.get() > 0 && WorkOrderExecutors.nanosUntil(deadlineInNanos) > 0
+				&& !Thread.currentThread().isInterrupted()) {
+			sleepOneMilli();
+		}
+	}
+
+	private void sleepOneMilli() {
+		try {
+			Thread.sleep(1);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public int closeBefore(long deadlineInNanos) {
+		SenderChain chain = currentChain;
+		waitForSendsInProgressBefore(chain, deadlineInNanos);
+		return chain.workOrderSender.closeBefore(deadlineInNanos);
+	}
+
+	public WorkOrderSender getWorkOrderSender() {
+		return currentChain.workOrderSender;
+	}
+
+	private static final class SenderChain {
+		private final WorkOrderSender workOrderSender;
+		private final AtomicInteger sendsInProgress = new AtomicInteger();
+
+		private SenderChain(WorkOrderSender workOrderSender) {
+			this.workOrderSender = workOrderSender;
+		}
+	}
+}
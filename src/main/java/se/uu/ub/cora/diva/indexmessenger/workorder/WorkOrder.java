@@ -0,0 +1,79 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+/**
+ * WorkOrder is an immutable order to index, or remove from index, one record in Cora.
+ */
+public final class WorkOrder {
+	private final String recordType;
+	private final String recordId;
+	private final String modificationType;
+
+	public WorkOrder(String recordType, String recordId, String modificationType) {
+		this.recordType = recordType;
+		this.recordId = recordId;
+		this.modificationType = modificationType;
+	}
+
+	public String getRecordType() {
+		return recordType;
+	}
+
+	public String getRecordId() {
+		return recordId;
+	}
+
+	public String getModificationType() {
+		return modificationType;
+	}
+
+	public boolean isDelete() {
+		return "delete".equals(modificationType);
+	}
+
+	public String getRecordKey() {
+		return recordType + "/" + recordId;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (!(other instanceof WorkOrder)) {
+			return false;
+		}
+		WorkOrder otherWorkOrder = (WorkOrder) other;
+		return recordType.equals(otherWorkOrder.recordType)
+				&& recordId.equals(otherWorkOrder.recordId)
+				&& modificationType.equals(otherWorkOrder.modificationType);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (31 * recordType.hashCode() + recordId.hashCode())
+				+ modificationType.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return modificationType + " " + getRecordKey();
+	}
+}
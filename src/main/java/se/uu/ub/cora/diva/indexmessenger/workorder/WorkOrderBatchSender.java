@@ -0,0 +1,42 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import java.util.List;
+
+/**
+ * WorkOrderBatchSender sends a batch of work orders towards Cora, using as few requests as the
+ * implementation allows.
+ */
+public interface WorkOrderBatchSender {
+
+	/**
+	 * Sends the batch, returning when all its work orders have been sent or have failed.
+	 *
+	 * @return the work orders in the batch that failed to be sent
+	 */
+	List<WorkOrder> sendBatch(List<WorkOrder> workOrders);
+
+	/**
+	 * Stops the threads of this batch sender, see {@link WorkOrderSender#closeBefore(long)}.
+	 */
+	default int closeBefore(long deadlineInNanos) {
+		return 0;
+	}
+}
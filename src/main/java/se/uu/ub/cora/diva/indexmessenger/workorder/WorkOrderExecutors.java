@@ -0,0 +1,109 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class WorkOrderExecutors {
+
+	private WorkOrderExecutors() {
+	}
+
+	public static ThreadFactory createDaemonThreadFactory(String threadNamePrefix) {
+		AtomicInteger threadNo = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable,
+					threadNamePrefix + "-" + threadNo.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Creates an executor starting a new thread for each task. A virtual thread is used for each
+	 * task when the running Java version has them, otherwise daemon platform threads are used and
+	 * reused when idle.
+	 */
+	public static ExecutorService createThreadPerTaskExecutor(String threadNamePrefix) {
+		try {
+			return tryToCreateVirtualThreadPerTaskExecutor();
+		} catch (ReflectiveOperationException exception) {
+			return Executors.newCachedThreadPool(createDaemonThreadFactory(threadNamePrefix));
+		}
+	}
+
+	private static ExecutorService tryToCreateVirtualThreadPerTaskExecutor()
+			throws ReflectiveOperationException {
+		Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		return (ExecutorService) method.invoke(null);
+	}
+
+	public static boolean virtualThreadsAreAvailable() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException exception) {
+			return false;
+		}
+	}
+
+	/**
+	 * Shuts the executor down and waits for the tasks already submitted to finish, at most until
+	 * the deadline. Tasks still running at the deadline are interrupted.
+	 *
+	 * @return true if all tasks finished before the deadline
+	 */
+	public static boolean shutdownAndAwaitTerminationBefore(ExecutorService executor,
+			long deadlineInNanos) {
+		executor.shutdown();
+		try {
+			if (executor.awaitTermination(nanosUntil(deadlineInNanos), TimeUnit.NANOSECONDS)) {
+				return true;
+			}
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+		executor.shutdownNow();
+		return false;
+	}
+
+	/**
+	 * Waits for the thread to die, at most until the deadline.
+	 *
+	 * @return true if the thread died before the deadline
+	 */
+	public static boolean joinBefore(Thread thread, long deadlineInNanos) {
+		try {
+			long millisLeft = TimeUnit.NANOSECONDS.toMillis(nanosUntil(deadlineInNanos));
+			thread.join(Math.max(1, millisLeft));
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+		return !thread.isAlive();
+	}
+
+	public static long nanosUntil(long deadlineInNanos) {
+		return Math.max(0, deadlineInNanos - System.nanoTime());
+	}
+}
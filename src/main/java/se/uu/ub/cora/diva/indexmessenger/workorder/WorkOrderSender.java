@@ -0,0 +1,40 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+/**
+ * WorkOrderSender sends work orders towards Cora. Implementations can send directly or wrap
+ * another WorkOrderSender to change how and when work orders are sent.
+ */
+public interface WorkOrderSender {
+
+	void send(WorkOrder workOrder);
+
+	/**
+	 * Sends the work orders this sender still holds and stops its threads, waiting at most until
+	 * the deadline, given as a {@link System#nanoTime()} value. Senders wrapping another sender
+	 * close it when their own work orders have been handed on. No work orders should be sent to a
+	 * closed sender.
+	 *
+	 * @return the number of work orders that were not sent before the deadline
+	 */
+	default int closeBefore(long deadlineInNanos) {
+		return 0;
+	}
+}
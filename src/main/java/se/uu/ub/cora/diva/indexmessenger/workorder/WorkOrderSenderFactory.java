@@ -0,0 +1,387 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import se.uu.ub.cora.diva.indexmessenger.authtoken.AppTokenVerifierClient;
+import se.uu.ub.cora.diva.indexmessenger.authtoken.AuthTokenCache;
+import se.uu.ub.cora.diva.indexmessenger.http.CoraHttpClient;
+import se.uu.ub.cora.diva.indexmessenger.metrics.MetricsRegistrar;
+import se.uu.ub.cora.diva.indexmessenger.metrics.PipelineMetrics;
+import se.uu.ub.cora.diva.indexmessenger.outbox.OutboxDrainer;
+import se.uu.ub.cora.diva.indexmessenger.outbox.OutboxLog;
+import se.uu.ub.cora.diva.indexmessenger.outbox.OutboxWorkOrderSender;
+import se.uu.ub.cora.diva.indexmessenger.retry.RetryScheduler;
+import se.uu.ub.cora.diva.indexmessenger.retry.RetryingWorkOrderSender;
+import se.uu.ub.cora.indexmessenger.CoraCredentials;
+import se.uu.ub.cora.indexmessenger.IndexMessageException;
+import se.uu.ub.cora.javaclient.cora.CoraClientFactory;
+import se.uu.ub.cora.logger.Logger;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+/**
+ * WorkOrderSenderFactory builds the chain of work order senders described by the workOrder.* and
+ * outbox.* properties. Stages not configured are left out, so without such properties work orders
+ * are sent directly to Cora on the message consumer thread. Sends to Cora are always measured in
+ * the given {@link PipelineMetrics}. With authToken.shared set to true, all work orders are posted
+ * to Cora over connections kept open between requests (http.*) using one authToken that is
+ * refreshed in the background, instead of logging in through the java client for each.
+ * <p>
+ * With an outbox, work orders are stored locally before the message is acknowledged and the rest
+ * of the chain is fed from the outbox. A work order counts as handled by the outbox when the next
+ * stage returns, so for work orders to stay in the outbox until Cora has answered, the stages that
+ * return early (concurrency, coalescing, batch linger and maxInFlight) should be left out. The
+ * outbox can be committed in batches (outbox.commitBatchSize and outbox.commitIntervalInMillis),
+ * which means fewer checkpoint writes at the price of sending more work orders again after a
+ * restart.
+ * <p>
+ * With workOrder.deduplicationWindowInMillis set, work orders repeating one still waiting to be
+ * sent are left out before any other stage, remembering at most workOrder.deduplicationMaxEntries
+ * work orders. Work orders are forgotten again once they have reached Cora or failed to, also when
+ * an earlier stage has handed them to another thread, and at the latest when the window has
+ * passed.
+ * <p>
+ * With a {@link RetryScheduler}, work orders failing to reach Cora are retried by the scheduler,
+ * which from then on sends its retries to the Cora sender of the latest chain factored. Batch
+ * senders for bulk reindexing do not retry, as bulk reindexing keeps its own checkpoint.
+ */
+public class WorkOrderSenderFactory {
+	private static final int DEFAULT_OUTBOX_SEGMENT_SIZE = 16 * 1024 * 1024;
+	private Logger logger = LoggerProvider.getLoggerForClass(WorkOrderSenderFactory.class);
+	private Properties properties;
+	private PipelineMetrics pipelineMetrics;
+	private MetricsRegistrar metricsRegistrar;
+	private RetryScheduler retryScheduler;
+
+	public WorkOrderSenderFactory(Properties properties, PipelineMetrics pipelineMetrics,
+			MetricsRegistrar metricsRegistrar) {
+		this(properties, pipelineMetrics, metricsRegistrar, null);
+	}
+
+	public WorkOrderSenderFactory(Properties properties, PipelineMetrics pipelineMetrics,
+			MetricsRegistrar metricsRegistrar, RetryScheduler retryScheduler) {
+		this.properties = properties;
+		this.pipelineMetrics = pipelineMetrics;
+		this.metricsRegistrar = metricsRegistrar;
+		this.retryScheduler = retryScheduler;
+	}
+
+	public WorkOrderSender factor(CoraClientFactory coraClientFactory,
+			CoraCredentials credentials) {
+		return possiblyPutOutboxInFront(factorWithoutOutbox(coraClientFactory, credentials));
+	}
+
+	/**
+	 * Factors the chain that an outbox, if configured, would be put in front of. Used together
+	 * with {@link #possiblyPutOutboxInFront(WorkOrderSender)} when the chain behind the outbox
+	 * should be replaceable.
+	 */
+	public WorkOrderSender factorWithoutOutbox(CoraClientFactory coraClientFactory,
+			CoraCredentials credentials) {
+		DeduplicationCache deduplicationCache = possiblyCreateDeduplicationCache();
+		WorkOrderSender limitedSender = createMeasuredAndLimitedCoraSender(coraClientFactory,
+				credentials);
+		WorkOrderSender releasingSender = possiblyWrapInReleasingSender(limitedSender,
+				deduplicationCache);
+		WorkOrderSender retryingSender = possiblyWrapInRetryingSender(releasingSender);
+		WorkOrderSender asyncSender = possiblyWrapInAsyncSender(retryingSender);
+		WorkOrderSender batchingSender = possiblyWrapInBatchingSender(asyncSender);
+		WorkOrderSender coalescingSender = possiblyWrapInCoalescingSender(batchingSender);
+		WorkOrderSender partitionedSender = possiblyWrapInPartitionedSender(coalescingSender);
+		return possiblyWrapInDeduplicatingSender(partitionedSender, deduplicationCache);
+	}
+
+	/**
+	 * Factors a batch sender that sends the work orders in each batch on a fixed number of threads,
+	 * and returns when the whole batch has been sent. Used by bulk reindexing, where the caller
+	 * needs to know when work orders have reached Cora.
+	 */
+	public WorkOrderBatchSender factorBatchSender(CoraClientFactory coraClientFactory,
+			CoraCredentials credentials, int concurrency) {
+		WorkOrderSender limitedSender = createMeasuredAndLimitedCoraSender(coraClientFactory,
+				credentials);
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency,
+				WorkOrderExecutors.createDaemonThreadFactory("bulkWorkOrderSender"));
+		return new ParallelWorkOrderBatchSender(limitedSender, executor);
+	}
+
+	private WorkOrderSender createMeasuredAndLimitedCoraSender(
+			CoraClientFactory coraClientFactory, CoraCredentials credentials) {
+		WorkOrderSender coraSender = createCoraSender(coraClientFactory, credentials);
+		WorkOrderSender measuredSender = new MeasuredWorkOrderSender(coraSender, pipelineMetrics);
+		return possiblyWrapInLimitedSender(measuredSender);
+	}
+
+	private WorkOrderSender createCoraSender(CoraClientFactory coraClientFactory,
+			CoraCredentials credentials) {
+		if (!Boolean.parseBoolean(properties.getProperty("authToken.shared", "false").trim())) {
+			return new CoraWorkOrderSender(coraClientFactory, credentials);
+		}
+		String appTokenVerifierUrl = extractRequiredProperty("appTokenVerifierUrl");
+		String baseUrl = extractRequiredProperty("baseUrl");
+		CoraHttpClient httpClient = createHttpClient();
+		long refreshMarginInMillis = extractOptionalLongProperty(
+				"authToken.refreshMarginInMillis", 60000);
+		long retryDelayInMillis = extractOptionalLongProperty("authToken.retryDelayInMillis",
+				5000);
+		logger.logInfoUsingMessage(MessageFormat.format(
+				"Sharing one authToken for all work orders, refreshed: {0} ms before it expires",
+				String.valueOf(refreshMarginInMillis)));
+		AppTokenVerifierClient appTokenVerifierClient = new AppTokenVerifierClient(httpClient,
+				appTokenVerifierUrl, credentials);
+		AuthTokenCache authTokenCache = new AuthTokenCache(appTokenVerifierClient,
+				refreshMarginInMillis, retryDelayInMillis,
+				createDaemonScheduler("authTokenRefresher"));
+		authTokenCache.startRefreshing();
+		return new AuthTokenWorkOrderSender(httpClient, baseUrl, authTokenCache);
+	}
+
+	private String extractRequiredProperty(String propertyName) {
+		String value = properties.getProperty(propertyName);
+		if (value == null) {
+			throw IndexMessageException.withMessage(
+					"Property with name " + propertyName + " not found in properties");
+		}
+		return value;
+	}
+
+	private CoraHttpClient createHttpClient() {
+		int maxConnections = extractOptionalIntProperty("http.maxConnections", 20);
+		int timeoutInMillis = extractOptionalIntProperty("http.timeoutInMillis", 30000);
+		int maxResponseBodySizeInBytes = extractOptionalIntProperty(
+				"http.maxResponseBodySizeInBytes", 1048576);
+		logger.logInfoUsingMessage(MessageFormat.format(
+				"Sending to Cora with at most: {0} requests in flight, timing out after: {1} ms",
+				String.valueOf(maxConnections), String.valueOf(timeoutInMillis)));
+		CoraHttpClient httpClient = new CoraHttpClient(maxConnections, timeoutInMillis,
+				maxResponseBodySizeInBytes);
+		metricsRegistrar.registerHttpClient(httpClient);
+		return httpClient;
+	}
+
+	private WorkOrderSender possiblyWrapInLimitedSender(WorkOrderSender workOrderSender) {
+		int maxLimit = extractOptionalIntProperty("workOrder.adaptiveLimit.max", 0);
+		if (maxLimit <= 0) {
+			return workOrderSender;
+		}
+		int minLimit = extractOptionalIntProperty("workOrder.adaptiveLimit.min", 1);
+		int initialLimit = extractOptionalIntProperty("workOrder.adaptiveLimit.initial",
+				Math.min(10, maxLimit));
+		long latencyThresholdInMillis = extractOptionalLongProperty(
+				"workOrder.adaptiveLimit.latencyThresholdInMillis", 1000);
+		logger.logInfoUsingMessage(MessageFormat.format(
+				"Limiting work orders in flight to Cora between: {0} and: {1} starting at: {2}"
+						+ " with latency threshold: {3} ms",
+				String.valueOf(minLimit), String.valueOf(maxLimit), String.valueOf(initialLimit),
+				String.valueOf(latencyThresholdInMillis)));
+		AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(initialLimit, minLimit,
+				maxLimit, latencyThresholdInMillis);
+		metricsRegistrar.registerConcurrencyLimit(limiter);
+		return new LimitedWorkOrderSender(workOrderSender, limiter);
+	}
+
+	private WorkOrderSender possiblyWrapInRetryingSender(WorkOrderSender workOrderSender) {
+		if (retryScheduler == null) {
+			return workOrderSender;
+		}
+		retryScheduler.sendRetriesTo(workOrderSender);
+		return new RetryingWorkOrderSender(workOrderSender, retryScheduler);
+	}
+
+	private WorkOrderSender possiblyWrapInAsyncSender(WorkOrderSender workOrderSender) {
+		int maxInFlight = extractOptionalIntProperty("workOrder.maxInFlight", 0);
+		if (maxInFlight <= 0) {
+			return workOrderSender;
+		}
+		String threadType = WorkOrderExecutors.virtualThreadsAreAvailable() ? "virtual"
+				: "platform";
+		logger.logInfoUsingMessage(MessageFormat.format(
+				"Sending at most: {0} work orders at once on {1} threads",
+				String.valueOf(maxInFlight), threadType));
+		ExecutorService executor = WorkOrderExecutors
+				.createThreadPerTaskExecutor("workOrderDispatcher");
+		return new AsyncWorkOrderSender(workOrderSender, executor, maxInFlight);
+	}
+
+	private WorkOrderSender possiblyWrapInBatchingSender(WorkOrderSender workOrderSender) {
+		int batchSize = extractOptionalIntProperty("workOrder.batchSize", 1);
+		if (batchSize <= 1) {
+			return workOrderSender;
+		}
+		long lingerInMillis = extractOptionalLongProperty("workOrder.batchLingerInMillis", 100);
+		logger.logInfoUsingMessage(MessageFormat.format(
+				"Sending work orders in batches of: {0} lingering at most: {1} ms",
+				String.valueOf(batchSize), String.valueOf(lingerInMillis)));
+		ExecutorService executor = Executors.newFixedThreadPool(batchSize,
+				WorkOrderExecutors.createDaemonThreadFactory("workOrderSender"));
+		WorkOrderBatchSender batchSender = new ParallelWorkOrderBatchSender(workOrderSender,
+				executor);
+		return new BatchingWorkOrderSender(batchSender, batchSize, lingerInMillis,
+				createDaemonScheduler("workOrderBatcher"));
+	}
+
+	private WorkOrderSender possiblyWrapInCoalescingSender(WorkOrderSender workOrderSender) {
+		long windowInMillis = extractOptionalLongProperty("workOrder.coalescingWindowInMillis", 0);
+		if (windowInMillis <= 0) {
+			return workOrderSender;
+		}
+		int sendConcurrency = extractOptionalIntProperty("workOrder.concurrency", 1);
+		logger.logInfoUsingMessage(MessageFormat.format(
+				"Coalescing work orders per record during: {0} ms, sending on: {1} threads",
+				String.valueOf(windowInMillis), String.valueOf(sendConcurrency)));
+		ExecutorService sendExecutor = Executors.newFixedThreadPool(sendConcurrency,
+				WorkOrderExecutors.createDaemonThreadFactory("workOrderCoalescerSender"));
+		CoalescingWorkOrderSender coalescingSender = new CoalescingWorkOrderSender(
+				workOrderSender, windowInMillis, createDaemonScheduler("workOrderCoalescer"),
+				sendExecutor);
+		metricsRegistrar.registerWorkOrderQueue(coalescingSender, "coalescing");
+		return coalescingSender;
+	}
+
+	private WorkOrderSender possiblyWrapInPartitionedSender(WorkOrderSender workOrderSender) {
+		int concurrency = extractOptionalIntProperty("workOrder.concurrency", 1);
+		if (concurrency <= 1) {
+			return workOrderSender;
+		}
+		int queueCapacity = extractOptionalIntProperty("workOrder.queueCapacity", 1000);
+		logger.logInfoUsingMessage(MessageFormat.format(
+				"Handling work orders using: {0} workers with queues of: {1}",
+				String.valueOf(concurrency), String.valueOf(queueCapacity)));
+		PartitionedWorkOrderSender partitionedSender = new PartitionedWorkOrderSender(
+				workOrderSender, concurrency, queueCapacity,
+				WorkOrderExecutors.createDaemonThreadFactory("workOrderWorker"));
+		metricsRegistrar.registerWorkOrderQueue(partitionedSender, "partitions");
+		return partitionedSender;
+	}
+
+	private DeduplicationCache possiblyCreateDeduplicationCache() {
+		long windowInMillis = extractOptionalLongProperty("workOrder.deduplicationWindowInMillis",
+				0);
+		if (windowInMillis <= 0) {
+			return null;
+		}
+		int maxEntries = extractOptionalIntProperty("workOrder.deduplicationMaxEntries", 500000);
+		DeduplicationCache deduplicationCache = new DeduplicationCache(windowInMillis,
+				maxEntries);
+		logger.logInfoUsingMessage(MessageFormat.format(
+				"Leaving out work orders repeated before sent, for at most: {0} ms,"
+						+ " remembering at most: {1} work orders in: {2} bytes",
+				String.valueOf(windowInMillis), String.valueOf(maxEntries),
+				String.valueOf(deduplicationCache.getMemoryInBytes())));
+		metricsRegistrar.registerDeduplicationCache(deduplicationCache);
+		return deduplicationCache;
+	}
+
+	private WorkOrderSender possiblyWrapInReleasingSender(WorkOrderSender workOrderSender,
+			DeduplicationCache deduplicationCache) {
+		if (deduplicationCache == null) {
+			return workOrderSender;
+		}
+		return new DeduplicationReleasingWorkOrderSender(workOrderSender, deduplicationCache);
+	}
+
+	private WorkOrderSender possiblyWrapInDeduplicatingSender(WorkOrderSender workOrderSender,
+			DeduplicationCache deduplicationCache) {
+		if (deduplicationCache == null) {
+			return workOrderSender;
+		}
+		return new DeduplicatingWorkOrderSender(workOrderSender, deduplicationCache);
+	}
+
+	public WorkOrderSender possiblyPutOutboxInFront(WorkOrderSender workOrderSender) {
+		String directory = properties.getProperty("outbox.directory");
+		if (directory == null) {
+			return workOrderSender;
+		}
+		int segmentSize = extractOptionalIntProperty("outbox.segmentSizeInBytes",
+				DEFAULT_OUTBOX_SEGMENT_SIZE);
+		boolean forceOnAppend = Boolean
+				.parseBoolean(properties.getProperty("outbox.forceOnAppend", "false"));
+		OutboxLog outboxLog = OutboxLog.openInDirectory(Path.of(directory), segmentSize,
+				forceOnAppend);
+		OutboxDrainer outboxDrainer = createAndStartOutboxDrainer(outboxLog, workOrderSender);
+		logger.logInfoUsingMessage("Storing work orders in outbox: " + directory);
+		OutboxWorkOrderSender outboxSender = new OutboxWorkOrderSender(outboxLog, outboxDrainer);
+		metricsRegistrar.registerWorkOrderQueue(outboxSender, "outbox");
+		return outboxSender;
+	}
+
+	private OutboxDrainer createAndStartOutboxDrainer(OutboxLog outboxLog,
+			WorkOrderSender workOrderSender) {
+		long retryDelayInMillis = extractOptionalLongProperty("outbox.retryDelayInMillis", 1000);
+		long maxRetryDelayInMillis = extractOptionalLongProperty("outbox.maxRetryDelayInMillis",
+				60000);
+		int commitBatchSize = extractOptionalIntProperty("outbox.commitBatchSize", 1);
+		long commitIntervalInMillis = extractOptionalLongProperty("outbox.commitIntervalInMillis",
+				1000);
+		possiblyLogBatchedCommits(commitBatchSize, commitIntervalInMillis);
+		OutboxDrainer outboxDrainer = new OutboxDrainer(outboxLog, workOrderSender,
+				retryDelayInMillis, maxRetryDelayInMillis, commitBatchSize, commitIntervalInMillis);
+		WorkOrderExecutors.createDaemonThreadFactory("outboxDrainer").newThread(outboxDrainer)
+				.start();
+		return outboxDrainer;
+	}
+
+	private void possiblyLogBatchedCommits(int commitBatchSize, long commitIntervalInMillis) {
+		if (commitBatchSize > 1) {
+			logger.logInfoUsingMessage(MessageFormat.format(
+					"Committing outbox after: {0} work orders or: {1} ms",
+					String.valueOf(commitBatchSize), String.valueOf(commitIntervalInMillis)));
+		}
+	}
+
+	private ScheduledExecutorService createDaemonScheduler(String threadName) {
+		return Executors.newSingleThreadScheduledExecutor(
+				WorkOrderExecutors.createDaemonThreadFactory(threadName));
+	}
+
+	private int extractOptionalIntProperty(String propertyName, int defaultValue) {
+		return (int) extractOptionalLongProperty(propertyName, defaultValue);
+	}
+
+	private long extractOptionalLongProperty(String propertyName, long defaultValue) {
+		String value = properties.getProperty(propertyName);
+		if (value == null) {
+			return defaultValue;
+		}
+		return Long.parseLong(value.trim());
+	}
+
+	public Properties getProperties() {
+		return properties;
+	}
+
+	public PipelineMetrics getPipelineMetrics() {
+		return pipelineMetrics;
+	}
+
+	public MetricsRegistrar getMetricsRegistrar() {
+		return metricsRegistrar;
+	}
+
+	public RetryScheduler getRetryScheduler() {
+		return retryScheduler;
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.diva.indexmessenger.metrics.MessageSourceMetrics;
+import se.uu.ub.cora.diva.indexmessenger.metrics.PipelineMetrics;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrder;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSenderSpy;
+import se.uu.ub.cora.indexmessenger.IndexMessageException;
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class DivaIndexMessageReceiverTest {
+	private LoggerFactorySpy loggerFactory;
+	private String testedClassname = "DivaIndexMessageReceiver";
+	private Map<String, String> headers;
+	private DivaMessageParser messageParser;
+	private WorkOrderSenderSpy workOrderSender;
+	private PipelineMetrics pipelineMetrics;
+	private MessageSourceMetrics sourceMetrics;
+	private DivaIndexMessageReceiver receiver;
+
+	@BeforeMethod
+	public void setUp() {
+		loggerFactory = new LoggerFactorySpy();
+		LoggerProvider.setLoggerFactory(loggerFactory);
+		headers = new HashMap<>();
+		headers.put("methodName", "modifyDatastreamByReference");
+		headers.put("pid", "authority-person:666498");
+		messageParser = new DivaMessageParser();
+		workOrderSender = new WorkOrderSenderSpy();
+		pipelineMetrics = new PipelineMetrics(messageParser.getParseCounters());
+		sourceMetrics = new MessageSourceMetrics("someSource");
+		receiver = new DivaIndexMessageReceiver(messageParser, workOrderSender, pipelineMetrics,
+				sourceMetrics);
+	}
+
+	@Test
+	public void testInit() {
+		assertSame(receiver.getMessageParser(), messageParser);
+		assertSame(receiver.getWorkOrderSender(), workOrderSender);
+		assertSame(receiver.getPipelineMetrics(), pipelineMetrics);
+		assertSame(receiver.getSourceMetrics(), sourceMetrics);
+	}
+
+	@Test
+	public void testSourceMetricsAreRecorded() {
+		receiver.receiveMessage(headers, "some message");
+		receiver.receiveMessage(Map.of("pid", "diva2:45677"), "some message");
+
+		assertEquals(sourceMetrics.getMessagesReceived(), 2);
+		assertEquals(sourceMetrics.getWorkOrdersCreated(), 1);
+		assertEquals(sourceMetrics.getWorkOrdersNotSent(), 0);
+	}
+
+	@Test
+	public void testParseLatencyIsRecorded() {
+		receiver.receiveMessage(headers, "some message");
+		receiver.receiveMessage(Map.of("pid", "diva2:45677"), "some message");
+
+		assertEquals(pipelineMetrics.getParseLatency().getCount(), 2);
+		assertEquals(pipelineMetrics.getAccepted(), 1);
+	}
+
+	@Test
+	public void testWorkOrderSentForRelevantMessage() {
+		receiver.receiveMessage(headers, "some message");
+
+		assertEquals(workOrderSender.sentWorkOrders.size(), 1);
+		assertEquals(workOrderSender.sentWorkOrders.get(0),
+				new WorkOrder("person", "authority-person:666498", "update"));
+	}
+
+	@Test
+	public void testDeleteWorkOrderSentForPurge() {
+		headers.put("methodName", "purgeObject");
+		receiver.receiveMessage(headers, "some message");
+
+		assertEquals(workOrderSender.sentWorkOrders.get(0).getModificationType(), "delete");
+	}
+
+	@Test
+	public void testNoWorkOrderSentForIrrelevantMessage() {
+		headers.put("pid", "diva2:45677");
+		receiver.receiveMessage(headers, "some message");
+
+		assertEquals(workOrderSender.sentWorkOrders.size(), 0);
+	}
+
+	@Test
+	public void testErrorWhenSendingIsLogged() {
+		RuntimeException error = new RuntimeException("some error");
+		workOrderSender.errorToThrow = error;
+
+		receiver.receiveMessage(headers, "some message");
+
+		assertEquals(loggerFactory.getNoOfErrorLogMessagesUsingClassName(testedClassname), 1);
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Error sending work order: update person/authority-person:666498");
+		assertSame(loggerFactory.getErrorLogErrorUsingClassNameAndNo(testedClassname, 0), error);
+		assertEquals(sourceMetrics.getWorkOrdersNotSent(), 1);
+	}
+
+	@Test
+	public void testTopicClosedIsLogged() {
+		receiver.topicClosed();
+
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Topic closed");
+	}
+
+	@Test
+	public void testStopWithoutMessagesInProgressReturnsAtOnce() {
+		assertFalse(receiver.isStopped());
+
+		assertTrue(receiver.stopReceivingBefore(System.nanoTime()));
+
+		assertTrue(receiver.isStopped());
+	}
+
+	@Test
+	public void testStopWaitsForMessageInProgress() throws Exception {
+		CountDownLatch sendStarted = new CountDownLatch(1);
+		CountDownLatch releaseSend = new CountDownLatch(1);
+		receiver = new DivaIndexMessageReceiver(messageParser, workOrder -> {
+			sendStarted.countDown();
+			awaitUninterruptibly(releaseSend);
+		}, pipelineMetrics, sourceMetrics);
+		Thread thread = new Thread(() -> receiver.receiveMessage(headers, "some message"));
+		thread.start();
+		sendStarted.await(5, TimeUnit.SECONDS);
+
+		assertFalse(receiver.stopReceivingBefore(System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(20)));
+		releaseSend.countDown();
+
+		assertTrue(receiver.stopReceivingBefore(System.nanoTime() + TimeUnit.SECONDS.toNanos(5)));
+		thread.join(1000);
+	}
+
+	private void awaitUninterruptibly(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Test
+	public void testMessageReceivedAfterStopIsHeldWithoutBeingHandled() throws Exception {
+		receiver.stopReceivingBefore(System.nanoTime());
+		AtomicReference<Exception> caught = new AtomicReference<>();
+		Thread thread = new Thread(() -> {
+			try {
+				receiver.receiveMessage(headers, "some message");
+			} catch (IndexMessageException exception) {
+				caught.set(exception);
+			}
+		});
+		thread.start();
+		thread.join(50);
+
+		assertTrue(thread.isAlive());
+		thread.interrupt();
+		thread.join(1000);
+		assertEquals(caught.get().getMessage(), "Message not handled, receiver is stopped");
+		assertEquals(sourceMetrics.getMessagesReceived(), 0);
+		assertEquals(workOrderSender.sentWorkOrders.size(), 0);
+		assertTrue(receiver.stopReceivingBefore(System.nanoTime()));
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.diva.indexmessenger.metrics.MessageSourceMetrics;
+import se.uu.ub.cora.diva.indexmessenger.metrics.PipelineMetrics;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSenderSpy;
+import se.uu.ub.cora.indexmessenger.CoraCredentials;
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.javaclient.cora.CoraClientFactory;
+import se.uu.ub.cora.javaclient.cora.CoraClientFactoryImp;
+import se.uu.ub.cora.logger.LoggerProvider;
+import se.uu.ub.cora.messaging.JmsMessageRoutingInfo;
+import se.uu.ub.cora.messaging.MessagingProvider;
+
+public class DivaIndexMessengerListenerTest {
+	private MessagingFactorySpy messagingFactorySpy;
+	private CoraClientFactory coraClientFactory;
+	private DivaMessageParserFactory messageParserFactory;
+	private JmsMessageRoutingInfo routingInfo;
+	private CoraCredentials credentials;
+	private WorkOrderSenderSpy workOrderSender;
+	private PipelineMetrics pipelineMetrics;
+	private MessageSourceMetrics sourceMetrics;
+	private DivaIndexMessengerListener listener;
+
+	@BeforeMethod
+	public void setUp() {
+		LoggerProvider.setLoggerFactory(new LoggerFactorySpy());
+		messagingFactorySpy = new MessagingFactorySpy();
+		MessagingProvider.setMessagingFactory(messagingFactorySpy);
+		coraClientFactory = CoraClientFactoryImp
+				.usingAppTokenVerifierUrlAndBaseUrl("someAppTokenVerifierUrl", "someBaseUrl");
+		messageParserFactory = new DivaMessageParserFactory();
+		routingInfo = new JmsMessageRoutingInfo("someHost", "somePort", "someRoutingKey",
+				"someUser", "somePassword");
+		credentials = new CoraCredentials("someUserId", "someAppToken");
+		workOrderSender = new WorkOrderSenderSpy();
+		pipelineMetrics = new PipelineMetrics(
+				messageParserFactory.getMessageParser().getParseCounters());
+		sourceMetrics = new MessageSourceMetrics("someSource");
+		listener = new DivaIndexMessengerListener(coraClientFactory, messageParserFactory,
+				routingInfo, credentials, workOrderSender, pipelineMetrics, sourceMetrics);
+	}
+
+	@Test
+	public void testInit() {
+		assertSame(listener.getCoraClientFactory(), coraClientFactory);
+		assertSame(listener.getMessageParserFactory(), messageParserFactory);
+		assertSame(listener.getMessageRoutingInfo(), routingInfo);
+		assertSame(listener.getCredentials(), credentials);
+	}
+
+	@Test
+	public void testListenerIsCreatedUsingRoutingInfo() {
+		assertSame(messagingFactorySpy.messagingRoutingInfo, routingInfo);
+	}
+
+	@Test
+	public void testNotListeningBeforeListen() {
+		assertNull(messagingFactorySpy.messageListenerSpy.messageReceiver);
+	}
+
+	@Test
+	public void testReceiverListensToMessages() {
+		listener.listen();
+		DivaIndexMessageReceiver messageReceiver = listener.getMessageReceiver();
+
+		assertSame(messagingFactorySpy.messageListenerSpy.messageReceiver, messageReceiver);
+		assertSame(messageReceiver.getMessageParser(), messageParserFactory.getMessageParser());
+		assertSame(messageReceiver.getWorkOrderSender(), workOrderSender);
+		assertSame(messageReceiver.getPipelineMetrics(), pipelineMetrics);
+		assertSame(messageReceiver.getSourceMetrics(), sourceMetrics);
+	}
+
+	@Test
+	public void testListeningEndedWhenListenReturns() {
+		assertFalse(listener.getMessageReceiver().hasListeningEnded());
+
+		listener.listen();
+
+		assertTrue(listener.getMessageReceiver().hasListeningEnded());
+	}
+
+	@Test
+	public void testListeningEndedWhenListenThrows() {
+		RuntimeException error = new RuntimeException("some listen error");
+		messagingFactorySpy.messageListenerSpy.errorToThrow = error;
+
+		RuntimeException thrown = expectThrows(RuntimeException.class, listener::listen);
+
+		assertSame(thrown, error);
+		assertTrue(listener.getMessageReceiver().hasListeningEnded());
+	}
+}
@@ -19,18 +19,42 @@
 package se.uu.ub.cora.diva.indexmessenger;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import se.uu.ub.cora.diva.indexmessenger.bulk.BulkReindexer;
+import se.uu.ub.cora.diva.indexmessenger.health.HealthCheck;
+import se.uu.ub.cora.diva.indexmessenger.health.HealthEndpoint;
+import se.uu.ub.cora.diva.indexmessenger.retry.RetryScheduler;
+import se.uu.ub.cora.diva.indexmessenger.retry.RetryingWorkOrderSender;
+import se.uu.ub.cora.diva.indexmessenger.workorder.CoraWorkOrderSender;
+import se.uu.ub.cora.diva.indexmessenger.workorder.MeasuredWorkOrderSender;
+import se.uu.ub.cora.diva.indexmessenger.workorder.PartitionedWorkOrderSender;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrder;
 import se.uu.ub.cora.indexmessenger.CoraCredentials;
-import se.uu.ub.cora.indexmessenger.IndexMessengerListener;
 import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
 import se.uu.ub.cora.indexmessenger.log.LoggerSpy;
 import se.uu.ub.cora.javaclient.cora.CoraClientFactoryImp;
@@ -40,6 +64,10 @@ import se.uu.ub.cora.messaging.MessagingProvider;
 
 public class DivaIndexMessengerStarterTest {
 
+	private static final String EXPECTED_MESSAGE_SELECTOR = "methodName IN ('addDatastream', "
+			+ "'modifyDatastreamByReference', 'modifyObject', 'purgeObject') "
+			+ "AND pid LIKE 'authority-person:%' ESCAPE '!'";
+
 	private LoggerFactorySpy loggerFactorySpy = new LoggerFactorySpy();
 	private MessagingFactorySpy messagingFactorySpy;
 	private String testedClassName = "DivaIndexMessengerStarter";
@@ -81,8 +109,10 @@ public class DivaIndexMessengerStarterTest {
 		assertEquals(loggerFactorySpy.getInfoLogMessageUsingClassNameAndNo(testedClassName, 2),
 				"Will listen for index messages from: args-dev-diva-drafts using port: args-61617");
 		assertEquals(loggerFactorySpy.getInfoLogMessageUsingClassNameAndNo(testedClassName, 3),
+				"Relevant messages match selector: " + EXPECTED_MESSAGE_SELECTOR);
+		assertEquals(loggerFactorySpy.getInfoLogMessageUsingClassNameAndNo(testedClassName, 4),
 				"DivaIndexMessengerStarter started");
-		assertEquals(loggerFactorySpy.getNoOfInfoLogMessagesUsingClassname(testedClassName), 4);
+		assertEquals(loggerFactorySpy.getNoOfInfoLogMessagesUsingClassname(testedClassName), 5);
 	}
 
 	private void assertNoFatalErrorMessages() {
@@ -90,11 +120,29 @@ public class DivaIndexMessengerStarterTest {
 		assertNotNull(loggerSpy);
 	}
 
+	@Test
+	public void testMainMethodMessageSelectorCreatedFromRoutingRule() {
+		DivaIndexMessengerStarter.main(args);
+
+		assertEquals(findLoggedMessageSelector(), EXPECTED_MESSAGE_SELECTOR);
+	}
+
+	private String findLoggedMessageSelector() {
+		String selectorStart = "Relevant messages match selector: ";
+		for (String message : loggerFactorySpy.createdLoggers.get(testedClassName).infoMessages) {
+			if (message.startsWith(selectorStart)) {
+				return message.substring(selectorStart.length());
+			}
+		}
+		return null;
+	}
+
 	@Test
 	public void testMainMethodWithPropertiesFileNameShouldUseDefaultFilename() {
 		String args[] = new String[] {};
 		DivaIndexMessengerStarter.main(args);
-		IndexMessengerListener messageListener = DivaIndexMessengerStarter.indexMessengerListener;
+		DivaIndexMessengerListener messageListener = DivaIndexMessengerStarter
+				.indexMessengerListener;
 
 		JmsMessageRoutingInfo messagingRoutingInfo = (JmsMessageRoutingInfo) messageListener
 				.getMessageRoutingInfo();
@@ -109,7 +157,8 @@ public class DivaIndexMessengerStarterTest {
 	public void testMainMethodCoraClientFactorySetUpCorrectly() throws Exception {
 		DivaIndexMessengerStarter.main(args);
 
-		IndexMessengerListener messageListener = DivaIndexMessengerStarter.indexMessengerListener;
+		DivaIndexMessengerListener messageListener = DivaIndexMessengerStarter
+				.indexMessengerListener;
 		CoraClientFactoryImp coraClientFactory = (CoraClientFactoryImp) messageListener
 				.getCoraClientFactory();
 
@@ -122,7 +171,8 @@ public class DivaIndexMessengerStarterTest {
 	public void testMainMethodMessageParserFactorySetUpCorrectly() throws Exception {
 		DivaIndexMessengerStarter.main(args);
 
-		IndexMessengerListener messageListener = DivaIndexMessengerStarter.indexMessengerListener;
+		DivaIndexMessengerListener messageListener = DivaIndexMessengerStarter
+				.indexMessengerListener;
 		assertTrue(messageListener.getMessageParserFactory() instanceof DivaMessageParserFactory);
 	}
 
@@ -133,7 +183,8 @@ public class DivaIndexMessengerStarterTest {
 
 		DivaIndexMessengerStarter.main(args);
 
-		IndexMessengerListener messageListener = DivaIndexMessengerStarter.indexMessengerListener;
+		DivaIndexMessengerListener messageListener = DivaIndexMessengerStarter
+				.indexMessengerListener;
 		JmsMessageRoutingInfo messagingRoutingInfo = (JmsMessageRoutingInfo) messageListener
 				.getMessageRoutingInfo();
 		// // assert same as in divaindexer.properties
@@ -153,7 +204,8 @@ public class DivaIndexMessengerStarterTest {
 
 		DivaIndexMessengerStarter.main(args);
 
-		IndexMessengerListener messageListener = DivaIndexMessengerStarter.indexMessengerListener;
+		DivaIndexMessengerListener messageListener = DivaIndexMessengerStarter
+				.indexMessengerListener;
 		CoraCredentials credentials = messageListener.getCredentials();
 
 		// assert same as in divaindexer.properties
@@ -254,7 +306,8 @@ public class DivaIndexMessengerStarterTest {
 		String args[] = new String[] { "divaIndexerSentIn.properties" };
 		DivaIndexMessengerStarter.main(args);
 
-		IndexMessengerListener messageListener = DivaIndexMessengerStarter.indexMessengerListener;
+		DivaIndexMessengerListener messageListener = DivaIndexMessengerStarter
+				.indexMessengerListener;
 		JmsMessageRoutingInfo messagingRoutingInfo = (JmsMessageRoutingInfo) messageListener
 				.getMessageRoutingInfo();
 		// // assert same as in divaIndexerSentIn.properties
@@ -273,6 +326,183 @@ public class DivaIndexMessengerStarterTest {
 		assertEquals(messagingRoutingInfo.password, prefix + "admin");
 	}
 
+	@Test
+	public void testMainMethodWithoutReloadingDoesNotWatchProperties() {
+		DivaIndexMessengerStarter.main(new String[] { "divaIndexerSentIn.properties" });
+
+		assertNull(DivaIndexMessengerStarter.propertiesReloader);
+		assertNull(DivaIndexMessengerStarter.propertiesFileWatcher);
+	}
+
+	@Test
+	public void testMainMethodWithReloadingWatchesPropertiesFile() {
+		DivaIndexMessengerStarter.main(new String[] { "divaIndexerWithReload.properties" });
+
+		PropertiesReloader reloader = DivaIndexMessengerStarter.propertiesReloader;
+		PropertiesFileWatcher watcher = DivaIndexMessengerStarter.propertiesFileWatcher;
+		watcher.stop();
+		assertEquals(reloader.getCloseTimeoutInMillis(), 5000);
+		DivaIndexMessageReceiver receiver = DivaIndexMessengerStarter.indexMessengerListener
+				.getMessageReceiver();
+		assertSame(receiver.getWorkOrderSender(), reloader.getWorkOrderSender());
+		assertSame(reloader.getMessageParser(), receiver.getMessageParser());
+		assertTrue(reloader.getWorkOrderSender()
+				.getWorkOrderSender() instanceof MeasuredWorkOrderSender);
+		assertTrue(watcher.getPropertiesFile().endsWith("divaIndexerWithReload.properties"));
+		assertEquals(watcher.getIntervalInMillis(), 60000);
+		assertSame(watcher.getListener(), reloader);
+		assertEquals(loggerFactorySpy.getInfoLogMessageUsingClassNameAndNo(testedClassName, 4),
+				"Watching properties file: " + watcher.getPropertiesFile()
+						+ " for changes every: 60000 ms");
+	}
+
+	@Test
+	public void testMainMethodReloadingSenderChainUsesChangedProperties() {
+		DivaIndexMessengerStarter.main(new String[] { "divaIndexerWithReload.properties" });
+		DivaIndexMessengerStarter.propertiesFileWatcher.stop();
+		PropertiesReloader reloader = DivaIndexMessengerStarter.propertiesReloader;
+		Properties changedProperties = new Properties();
+		changedProperties.putAll(reloader.getProperties());
+		changedProperties.put("workOrder.concurrency", "2");
+
+		reloader.accept(changedProperties);
+
+		PartitionedWorkOrderSender partitionedSender = (PartitionedWorkOrderSender) reloader
+				.getWorkOrderSender().getWorkOrderSender();
+		assertEquals(partitionedSender.getNoOfPartitions(), 2);
+		partitionedSender.closeBefore(System.nanoTime());
+	}
+
+	@Test
+	public void testMainMethodRegistersGracefulShutdown() {
+		DivaIndexMessengerStarter.main(new String[] { "divaIndexerSentIn.properties" });
+
+		GracefulShutdown gracefulShutdown = DivaIndexMessengerStarter.gracefulShutdown;
+		DivaIndexMessageReceiver receiver = DivaIndexMessengerStarter.indexMessengerListener
+				.getMessageReceiver();
+		assertEquals(gracefulShutdown.getMessageReceivers(), List.of(receiver));
+		assertSame(gracefulShutdown.getWorkOrderSender(), receiver.getWorkOrderSender());
+		assertNull(gracefulShutdown.getPropertiesFileWatcher());
+		assertEquals(gracefulShutdown.getTimeoutInMillis(), 30000);
+		assertTrue(Runtime.getRuntime().removeShutdownHook(DivaIndexMessengerStarter.shutdownHook));
+	}
+
+	@Test
+	public void testMainMethodReplacesEarlierShutdownHook() {
+		DivaIndexMessengerStarter.main(new String[] { "divaIndexerSentIn.properties" });
+		Thread earlierShutdownHook = DivaIndexMessengerStarter.shutdownHook;
+
+		DivaIndexMessengerStarter.main(new String[] { "divaIndexerSentIn.properties" });
+
+		assertFalse(Runtime.getRuntime().removeShutdownHook(earlierShutdownHook));
+		assertTrue(Runtime.getRuntime().removeShutdownHook(DivaIndexMessengerStarter.shutdownHook));
+	}
+
+	@Test
+	public void testMainMethodShutdownSettingsFromFile() {
+		DivaIndexMessengerStarter.main(new String[] { "divaIndexerWithReload.properties" });
+		DivaIndexMessengerStarter.propertiesFileWatcher.stop();
+
+		GracefulShutdown gracefulShutdown = DivaIndexMessengerStarter.gracefulShutdown;
+		assertEquals(gracefulShutdown.getTimeoutInMillis(), 10000);
+		assertSame(gracefulShutdown.getPropertiesFileWatcher(),
+				DivaIndexMessengerStarter.propertiesFileWatcher);
+	}
+
+	@Test
+	public void testMainMethodWithoutHealthPortServesNoHealth() {
+		DivaIndexMessengerStarter.main(new String[] { "divaIndexerSentIn.properties" });
+
+		assertNull(DivaIndexMessengerStarter.healthEndpoint);
+	}
+
+	@Test
+	public void testMainMethodServesHealthFromFile() {
+		DivaIndexMessengerStarter.main(new String[] { "divaIndexerWithHealth.properties" });
+
+		HealthEndpoint healthEndpoint = DivaIndexMessengerStarter.healthEndpoint;
+		healthEndpoint.stop();
+		HealthCheck healthCheck = healthEndpoint.getHealthCheck();
+		DivaIndexMessageReceiver receiver = DivaIndexMessengerStarter.indexMessengerListener
+				.getMessageReceiver();
+		assertEquals(healthCheck.getMessageReceivers(), List.of(receiver));
+		assertSame(healthCheck.getPipelineMetrics(), receiver.getPipelineMetrics());
+		assertSame(healthCheck.getMBeanServer(), ManagementFactory.getPlatformMBeanServer());
+		assertEquals(healthCheck.getMaxMessageAgeInMillis(), 600000);
+		assertEquals(healthCheck.getErrorRateWindowInMillis(), 60000);
+		int noOfInfoMessages = loggerFactorySpy.getNoOfInfoLogMessagesUsingClassname(
+				testedClassName);
+		assertEquals(
+				loggerFactorySpy.getInfoLogMessageUsingClassNameAndNo(testedClassName,
+						noOfInfoMessages - 2),
+				"Serving health on: 127.0.0.1:" + healthEndpoint.getPort()
+						+ " at /health/live, /health/ready and /metrics");
+	}
+
+	@Test
+	public void testMainMethodStopsEarlierHealthEndpoint() throws Exception {
+		DivaIndexMessengerStarter.main(new String[] { "divaIndexerWithHealth.properties" });
+		HealthEndpoint earlierHealthEndpoint = DivaIndexMessengerStarter.healthEndpoint;
+
+		DivaIndexMessengerStarter.main(new String[] { "divaIndexerSentIn.properties" });
+
+		assertNull(DivaIndexMessengerStarter.healthEndpoint);
+		try (Socket socket = new Socket()) {
+			socket.connect(new InetSocketAddress("127.0.0.1", earlierHealthEndpoint.getPort()),
+					1000);
+			throw new AssertionError("Earlier health endpoint still accepts connections");
+		} catch (ConnectException exception) {
+			// expected, the earlier endpoint is stopped
+		}
+	}
+
+	@Test
+	public void testMainMethodWithoutRetryDirectoryRetriesNothing() {
+		DivaIndexMessengerStarter.main(new String[] { "divaIndexerSentIn.properties" });
+
+		assertNull(DivaIndexMessengerStarter.retryScheduler);
+		assertNull(DivaIndexMessengerStarter.gracefulShutdown.getRetryScheduler());
+	}
+
+	@Test
+	public void testMainMethodRetrySettingsFromFile() {
+		DivaIndexMessengerStarter.main(new String[] { "divaIndexerWithRetry.properties" });
+
+		RetryScheduler retryScheduler = DivaIndexMessengerStarter.retryScheduler;
+		assertEquals(retryScheduler.getDirectory(), Path.of("target/divaIndexerRetries"));
+		assertEquals(retryScheduler.getMaxAttempts(), 5);
+		assertEquals(retryScheduler.getInitialDelayInMillis(), 2000);
+		DivaIndexMessageReceiver receiver = DivaIndexMessengerStarter.indexMessengerListener
+				.getMessageReceiver();
+		RetryingWorkOrderSender retryingSender = (RetryingWorkOrderSender) receiver
+				.getWorkOrderSender();
+		assertSame(retryingSender.getRetryScheduler(), retryScheduler);
+		assertSame(retryScheduler.getRetryTarget(), retryingSender.getWorkOrderSender());
+		assertSame(DivaIndexMessengerStarter.gracefulShutdown.getRetryScheduler(),
+				retryScheduler);
+		assertEquals(loggerFactorySpy.getInfoLogMessageUsingClassNameAndNo(testedClassName, 4),
+				"Retrying failed work orders at most: 5 attempts, storing retries in: "
+						+ Path.of("target/divaIndexerRetries"));
+	}
+
+	@Test
+	public void testMainMethodClosesEarlierRetryScheduler() {
+		DivaIndexMessengerStarter.main(new String[] { "divaIndexerWithRetry.properties" });
+		RetryScheduler earlierRetryScheduler = DivaIndexMessengerStarter.retryScheduler;
+
+		DivaIndexMessengerStarter.main(new String[] { "divaIndexerSentIn.properties" });
+
+		assertNull(DivaIndexMessengerStarter.retryScheduler);
+		try {
+			earlierRetryScheduler.scheduleRetry(
+					new WorkOrder("person", "authority-person:1", "update"),
+					new RuntimeException("Cora is down"));
+			throw new AssertionError("Earlier retry scheduler still writes its journal");
+		} catch (UncheckedIOException exception) {
+			// expected, the journal of the earlier scheduler is closed
+		}
+	}
+
 	@Test
 	public void testMainMethodCoraCredentialsSetUpCorrectlyFromFile()
 			throws ClassNotFoundException, NoSuchMethodException, IllegalAccessException,
@@ -281,7 +511,8 @@ public class DivaIndexMessengerStarterTest {
 		String args[] = new String[] { "divaIndexerSentIn.properties" };
 		DivaIndexMessengerStarter.main(args);
 
-		IndexMessengerListener messageListener = DivaIndexMessengerStarter.indexMessengerListener;
+		DivaIndexMessengerListener messageListener = DivaIndexMessengerStarter
+				.indexMessengerListener;
 		CoraCredentials credentials = messageListener.getCredentials();
 
 		// assert same as in divaIndexerSentIn.properties
@@ -289,4 +520,261 @@ public class DivaIndexMessengerStarterTest {
 		assertEquals(credentials.appToken, "fileSentIn-appTokenForCora");
 	}
 
+	@Test
+	public void testMainMethodWorkOrdersSentToCora() throws Exception {
+		DivaIndexMessengerStarter.main(args);
+
+		DivaIndexMessengerListener messageListener = DivaIndexMessengerStarter
+				.indexMessengerListener;
+		DivaIndexMessageReceiver messageReceiver = messageListener.getMessageReceiver();
+		MeasuredWorkOrderSender measuredSender = (MeasuredWorkOrderSender) messageReceiver
+				.getWorkOrderSender();
+		assertSame(measuredSender.getPipelineMetrics(), messageReceiver.getPipelineMetrics());
+		CoraWorkOrderSender workOrderSender = (CoraWorkOrderSender) measuredSender
+				.getWorkOrderSender();
+		assertSame(workOrderSender.getCoraClientFactory(), messageListener.getCoraClientFactory());
+		assertSame(workOrderSender.getCredentials(), messageListener.getCredentials());
+		assertSame(messageReceiver.getMessageParser(),
+				messageListener.getMessageParserFactory().getMessageParser());
+		joinListenerThreads();
+		assertSame(messagingFactorySpy.messageListenerSpy.messageReceiver, messageReceiver);
+	}
+
+	private void joinListenerThreads() throws InterruptedException {
+		for (Thread listenerThread : DivaIndexMessengerStarter.listenerThreads) {
+			listenerThread.join(5000);
+		}
+	}
+
+	@Test
+	public void testMainMethodRegistersPipelineMetrics() throws Exception {
+		DivaIndexMessengerStarter.main(args);
+
+		MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+		ObjectName pipelineName = new ObjectName("se.uu.ub.cora.diva.indexmessenger:type=Pipeline");
+		assertTrue(mBeanServer.isRegistered(pipelineName));
+		assertTrue(mBeanServer.isRegistered(new ObjectName(
+				"se.uu.ub.cora.diva.indexmessenger:type=LatencyHistogram,name=parse")));
+		assertTrue(mBeanServer.isRegistered(new ObjectName(
+				"se.uu.ub.cora.diva.indexmessenger:type=LatencyHistogram,name=dispatch")));
+		assertEquals(mBeanServer.getAttribute(pipelineName, "Accepted"), 0L);
+	}
+
+	@Test
+	public void testMainMethodWorkOrderSettingsFromFile() {
+		String args[] = new String[] { "divaIndexerWithWorkOrderSettings.properties" };
+		DivaIndexMessengerStarter.main(args);
+
+		DivaIndexMessengerListener messageListener = DivaIndexMessengerStarter
+				.indexMessengerListener;
+		PartitionedWorkOrderSender partitionedSender = (PartitionedWorkOrderSender) messageListener
+				.getMessageReceiver().getWorkOrderSender();
+		assertEquals(partitionedSender.getNoOfPartitions(), 4);
+	}
+
+	@Test
+	public void testMainMethodRoutingSettingsFromFile() {
+		String args[] = new String[] { "divaIndexerWithRoutingSettings.properties" };
+		DivaIndexMessengerStarter.main(args);
+
+		DivaIndexMessengerListener messageListener = DivaIndexMessengerStarter
+				.indexMessengerListener;
+		RoutingTable routingTable = messageListener.getMessageParserFactory().getRoutingTable();
+		assertEquals(routingTable.getRoutingRules().size(), 2);
+		assertEquals(routingTable.findRoutingRuleForPid("diva-output:1").getRecordType(),
+				"publication");
+		assertEquals(findLoggedMessageSelector(), "(" + EXPECTED_MESSAGE_SELECTOR
+				+ ") OR (methodName IN ('modifyDatastreamByReference', 'purgeObject')"
+				+ " AND pid LIKE 'diva-output:%' ESCAPE '!')");
+	}
+
+	@Test
+	public void testMainMethodBulkReindex() throws Exception {
+		Path inputFile = Files.createTempFile("divaIndexMessengerStarterTest", ".txt");
+		Path checkpointFile = Path.of(inputFile + ".checkpoint");
+		Path failureFile = Path.of(inputFile + ".failed");
+		try {
+			Files.writeString(inputFile, "authority-person:1\ndiva2:1\nauthority-person:2\n");
+
+			DivaIndexMessengerStarter.main(new String[] { "--bulk", inputFile.toString(),
+					"divaIndexerWithRoutingSettings.properties" });
+
+			assertEquals(loggerFactorySpy.getInfoLogMessageUsingClassNameAndNo(testedClassName, 0),
+					"DivaIndexMessengerStarter starting bulk reindex...");
+			assertEquals(loggerFactorySpy.getInfoLogMessageUsingClassNameAndNo(testedClassName, 1),
+					"Sending indexOrders to: someBaseUrl using appToken from:"
+							+ " someAppTokenVerifierUrl");
+			assertEquals(loggerFactorySpy.getNoOfFatalLogMessagesUsingClassName(testedClassName),
+					0);
+			BulkReindexer bulkReindexer = DivaIndexMessengerStarter.bulkReindexer;
+			assertEquals(bulkReindexer.getNoOfReadMessages(), 3);
+			assertEquals(bulkReindexer.getNoOfWorkOrders(), 2);
+			assertEquals(bulkReindexer.getCheckpoint().getCheckpointFile(), checkpointFile);
+			assertEquals(Files.readString(checkpointFile), "3");
+			assertEquals(Files.readString(failureFile), "authority-person:1\nauthority-person:2\n");
+		} finally {
+			Files.deleteIfExists(inputFile);
+			Files.deleteIfExists(checkpointFile);
+			Files.deleteIfExists(failureFile);
+		}
+	}
+
+	@Test
+	public void testMainMethodBulkReindexWithoutInputFile() {
+		DivaIndexMessengerStarter.main(new String[] { "--bulk" });
+
+		Exception exception = loggerFactorySpy.getFatalLogErrorUsingClassNameAndNo(testedClassName,
+				0);
+		assertEquals(exception.getMessage(),
+				"Bulk reindex needs arguments: --bulk inputFile [propertiesFile]");
+		assertEquals(loggerFactorySpy.getFatalLogMessageUsingClassNameAndNo(testedClassName, 0),
+				"Unable to run bulk reindex ");
+	}
+
+	@Test
+	public void testMainMethodBulkReindexWithMissingInputFile() {
+		DivaIndexMessengerStarter
+				.main(new String[] { "--bulk", "/tmp/missingDivaIndexMessengerInputFile" });
+
+		Exception exception = loggerFactorySpy.getFatalLogErrorUsingClassNameAndNo(testedClassName,
+				0);
+		assertTrue(exception instanceof UncheckedIOException);
+		assertEquals(exception.getMessage(),
+				"Unable to open bulk input: /tmp/missingDivaIndexMessengerInputFile");
+	}
+
+	@Test
+	public void testMainMethodMessageSourcesFromFile() throws Exception {
+		String args[] = new String[] { "divaIndexerWithMessageSources.properties" };
+		DivaIndexMessengerStarter.main(args);
+
+		assertEquals(loggerFactorySpy.getInfoLogMessageUsingClassNameAndNo(testedClassName, 2),
+				"Will listen for index messages from source: drafts at: dev-diva-drafts"
+						+ " using port: 61617");
+		assertEquals(loggerFactorySpy.getInfoLogMessageUsingClassNameAndNo(testedClassName, 3),
+				"Will listen for index messages from source: production at: dev-diva-production"
+						+ " using port: 61618");
+		List<DivaIndexMessengerListener> listeners = DivaIndexMessengerStarter
+				.indexMessengerListeners;
+		assertEquals(listeners.size(), 2);
+		assertSame(DivaIndexMessengerStarter.indexMessengerListener, listeners.get(0));
+		assertEquals(messagingFactorySpy.messageListenerSpies.size(), 2);
+		assertSourceListener(listeners.get(0), "drafts", "dev-diva-drafts");
+		assertSourceListener(listeners.get(1), "production", "dev-diva-production");
+		DivaIndexMessageReceiver draftsReceiver = listeners.get(0).getMessageReceiver();
+		DivaIndexMessageReceiver productionReceiver = listeners.get(1).getMessageReceiver();
+		assertTrue(draftsReceiver.getWorkOrderSender() instanceof PartitionedWorkOrderSender);
+		assertSame(draftsReceiver.getWorkOrderSender(), productionReceiver.getWorkOrderSender());
+		assertSame(draftsReceiver.getMessageParser(), productionReceiver.getMessageParser());
+		assertSame(draftsReceiver.getPipelineMetrics(), productionReceiver.getPipelineMetrics());
+		MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+		assertTrue(mBeanServer.isRegistered(new ObjectName(
+				"se.uu.ub.cora.diva.indexmessenger:type=MessageSource,name=production")));
+	}
+
+	@Test
+	public void testMainMethodEachMessageSourceListensOnThreadOfItsOwn() throws Exception {
+		messagingFactorySpy.stopListening = new CountDownLatch(1);
+		String args[] = new String[] { "divaIndexerWithMessageSources.properties" };
+		try {
+			DivaIndexMessengerStarter.main(args);
+
+			List<Thread> listenerThreads = DivaIndexMessengerStarter.listenerThreads;
+			assertEquals(listenerThreads.get(0).getName(), "messageListener-drafts");
+			assertEquals(listenerThreads.get(1).getName(), "messageListener-production");
+			assertFalse(listenerThreads.get(0).isDaemon());
+			assertReceiverIsListening(messagingFactorySpy.messageListenerSpies.get(0));
+			assertReceiverIsListening(messagingFactorySpy.messageListenerSpies.get(1));
+			assertEquals(loggerFactorySpy.getInfoLogMessageUsingClassNameAndNo(testedClassName,
+					5), "DivaIndexMessengerStarter started");
+		} finally {
+			messagingFactorySpy.stopListening.countDown();
+			joinListenerThreads();
+		}
+	}
+
+	private void assertReceiverIsListening(MessageListenerSpy listenerSpy)
+			throws InterruptedException {
+		long waitUntil = System.currentTimeMillis() + 5000;
+		while (listenerSpy.messageReceiver == null && System.currentTimeMillis() < waitUntil) {
+			Thread.sleep(1);
+		}
+		assertNotNull(listenerSpy.messageReceiver);
+	}
+
+	@Test
+	public void testMainMethodFailingListenerIsLogged() throws Exception {
+		messagingFactorySpy.errorToThrow = new RuntimeException("some listen error");
+
+		DivaIndexMessengerStarter.main(args);
+		joinListenerThreads();
+
+		assertEquals(loggerFactorySpy.getErrorLogMessageUsingClassNameAndNo(testedClassName, 0),
+				"Listening for index messages from source: default failed");
+		assertSame(loggerFactorySpy.getErrorLogErrorUsingClassNameAndNo(testedClassName, 0),
+				messagingFactorySpy.errorToThrow);
+		assertTrue(DivaIndexMessengerStarter.indexMessengerListener.getMessageReceiver()
+				.hasListeningEnded());
+	}
+
+	private void assertSourceListener(DivaIndexMessengerListener listener, String sourceName,
+			String hostname) {
+		JmsMessageRoutingInfo routingInfo = (JmsMessageRoutingInfo) listener
+				.getMessageRoutingInfo();
+		assertEquals(routingInfo.hostname, hostname);
+		assertEquals(listener.getMessageReceiver().getSourceMetrics().getSourceName(),
+				sourceName);
+	}
+
+	@Test
+	public void testMainMethodSingleSourceIsNamedDefault() {
+		DivaIndexMessengerStarter.main(args);
+
+		assertEquals(DivaIndexMessengerStarter.indexMessengerListeners.size(), 1);
+		assertEquals(DivaIndexMessengerStarter.indexMessengerListener.getMessageReceiver()
+				.getSourceMetrics().getSourceName(), "default");
+	}
+
+	@Test(expectedExceptions = RuntimeException.class, expectedExceptionsMessageRegExp = ""
+			+ "Property with name messaging.production.port not found in properties")
+	public void testMessageSourceWithMissingProperty() {
+		Properties properties = createPropertiesWithSources("production");
+		properties.remove("messaging.production.port");
+
+		DivaIndexMessengerStarter.createIndexMessengerListener(properties);
+	}
+
+	private Properties createPropertiesWithSources(String sources) {
+		Properties properties = new Properties();
+		properties.put("messaging.sources", sources);
+		for (String source : sources.split(",")) {
+			String prefix = "messaging." + source.trim() + ".";
+			properties.put(prefix + "hostname", "someHost");
+			properties.put(prefix + "port", "somePort");
+			properties.put(prefix + "routingKey", "someRoutingKey");
+			properties.put(prefix + "username", "someUser");
+			properties.put(prefix + "password", "somePassword");
+		}
+		properties.put("appTokenVerifierUrl", "someAppTokenVerifierUrl");
+		properties.put("baseUrl", "someBaseUrl");
+		return properties;
+	}
+
+	@Test(expectedExceptions = RuntimeException.class, expectedExceptionsMessageRegExp = ""
+			+ "Invalid message source name: some=name")
+	public void testInvalidMessageSourceName() {
+		Properties properties = createPropertiesWithSources("drafts");
+		properties.put("messaging.sources", "drafts,some=name");
+
+		DivaIndexMessengerStarter.createIndexMessengerListener(properties);
+	}
+
+	@Test(expectedExceptions = RuntimeException.class, expectedExceptionsMessageRegExp = ""
+			+ "No message sources found in messaging.sources")
+	public void testEmptyMessageSources() {
+		Properties properties = createPropertiesWithSources("drafts");
+		properties.put("messaging.sources", " , ");
+
+		DivaIndexMessengerStarter.createIndexMessengerListener(properties);
+	}
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2019 Uppsala University Library
+ * Copyright 2019, 2021 Uppsala University Library
  *
  * This file is part of Cora.
  *
@@ -18,6 +18,8 @@
  */
 package se.uu.ub.cora.diva.indexmessenger;
 
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
 import org.testng.annotations.BeforeMethod;
@@ -47,4 +49,27 @@ public class DivaMessageParserFactoryTest {
 		assertTrue(messageParser instanceof DivaMessageParser);
 	}
 
+	@Test
+	public void testFactorReturnsSameSharedParser() {
+		MessageParserFactory factory = new DivaMessageParserFactory();
+		MessageParser messageParser = factory.factor();
+		assertSame(factory.factor(), messageParser);
+	}
+
+	@Test
+	public void testDefaultRoutingTableIsAuthorityPerson() {
+		DivaMessageParserFactory factory = new DivaMessageParserFactory();
+
+		assertEquals(factory.getRoutingTable().getRoutingRules().get(0).getPidPrefix(),
+				"authority-person:");
+	}
+
+	@Test
+	public void testRoutingTableIsUsedByParser() {
+		RoutingTable routingTable = RoutingTable.forAuthorityPerson();
+		DivaMessageParserFactory factory = new DivaMessageParserFactory(routingTable);
+
+		assertSame(factory.getRoutingTable(), routingTable);
+		assertSame(factory.getMessageParser().getRoutingTable(), routingTable);
+	}
 }
@@ -22,6 +22,7 @@ package se.uu.ub.cora.diva.indexmessenger;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
 import java.io.IOException;
@@ -29,7 +30,11 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -171,7 +176,21 @@ public class DivaMessageParserTest {
 
 		assertEquals(loggerFactory.getNoOfErrorLogMessagesUsingClassName(testedClassname), 1);
 		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 0),
-				"No pid found in header");
+				"No pid found in header, headers: {methodName=modifyDatastreamByReference}");
+	}
+
+	@Test
+	public void testRepeatedMessagesWithoutPidAreLoggedOnce() throws Exception {
+		headers.remove("pid");
+
+		for (int i = 0; i < 100; i++) {
+			messageParser.parseHeadersAndMessage(headers, message);
+		}
+
+		assertEquals(loggerFactory.getNoOfErrorLogMessagesUsingClassName(testedClassname), 1);
+		DivaMessageParser parser = (DivaMessageParser) messageParser;
+		assertEquals(parser.getParseCounters().getWithoutPid(), 100);
+		assertEquals(parser.getParseCounters().getRejectedOnHeaders(), 100);
 	}
 
 	@Test
@@ -231,4 +250,234 @@ public class DivaMessageParserTest {
 		assertEquals(messageParser.getModificationType(), "delete");
 	}
 
+	@Test
+	public void testParseReturnsResultForWorkOrder() {
+		DivaParseResult result = new DivaMessageParser().parse(headers, message);
+
+		assertTrue(result.shouldWorkOrderBeCreated());
+		assertEquals(result.getRecordId(), "authority-person:666498");
+		assertEquals(result.getRecordType(), "person");
+		assertEquals(result.getModificationType(), "update");
+	}
+
+	@Test
+	public void testParseReturnsSharedResultWhenNoWorkOrder() {
+		headers.put("pid", "diva2:45677");
+
+		DivaParseResult result = new DivaMessageParser().parse(headers, message);
+
+		assertFalse(result.shouldWorkOrderBeCreated());
+		assertSame(result, DivaParseResult.noWorkOrder());
+		assertNull(result.getRecordId());
+		assertNull(result.getRecordType());
+		assertNull(result.getModificationType());
+	}
+
+	@Test
+	public void testParseDoesNotChangeStateReadByGetters() {
+		messageParser.parseHeadersAndMessage(headers, message);
+		headers.put("methodName", "purgeObject");
+
+		DivaParseResult result = ((DivaMessageParser) messageParser).parse(headers, message);
+
+		assertEquals(result.getModificationType(), "delete");
+		assertEquals(messageParser.getModificationType(), "update");
+	}
+
+	@Test
+	public void testSharedParserKeepsLatestResultPerThread() throws Exception {
+		messageParser.parseHeadersAndMessage(headers, message);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<Boolean> otherThreadResult = executor.submit(() -> {
+			Map<String, String> otherHeaders = new HashMap<>();
+			otherHeaders.put("methodName", "purgeObject");
+			otherHeaders.put("pid", "diva2:45677");
+			messageParser.parseHeadersAndMessage(otherHeaders, message);
+			return messageParser.shouldWorkOrderBeCreatedForMessage();
+		});
+
+		assertFalse(otherThreadResult.get());
+		executor.shutdown();
+		assertTrue(messageParser.shouldWorkOrderBeCreatedForMessage());
+		assertEquals(messageParser.getRecordId(), "authority-person:666498");
+	}
+
+	@Test
+	public void testPidWithoutNamespaceSeparatorWorkOrderShouldNotBeCreated() {
+		headers.put("pid", "authority-person");
+
+		messageParser.parseHeadersAndMessage(headers, message);
+		assertFalse(messageParser.shouldWorkOrderBeCreatedForMessage());
+	}
+
+	@Test
+	public void testPidWithLongerNamespaceWorkOrderShouldNotBeCreated() {
+		headers.put("pid", "authority-personal:45677");
+
+		messageParser.parseHeadersAndMessage(headers, message);
+		assertFalse(messageParser.shouldWorkOrderBeCreatedForMessage());
+	}
+
+	@Test
+	public void testBodyIsNotReadWhenPidIsNotRelevant() {
+		headers.put("pid", "diva2:45677");
+		headers.put("methodName", "modifyObject");
+		MessageBodySpy messageBody = new MessageBodySpy(message);
+
+		new DivaMessageParser().parse(headers, messageBody);
+
+		assertFalse(messageBody.bodyWasRead);
+	}
+
+	@Test
+	public void testBodyIsNotReadWhenMethodNameDecidesAlone() {
+		MessageBodySpy messageBody = new MessageBodySpy(message);
+
+		new DivaMessageParser().parse(headers, messageBody);
+
+		assertFalse(messageBody.bodyWasRead);
+	}
+
+	@Test
+	public void testBodyIsReadForModifyObject() {
+		headers.put("methodName", "modifyObject");
+		MessageBodySpy messageBody = new MessageBodySpy(message);
+
+		new DivaMessageParser().parse(headers, messageBody);
+
+		assertTrue(messageBody.bodyWasRead);
+		assertFalse(messageBody.bodyWasCopied);
+	}
+
+	@Test
+	public void testDeleteMarkerIsFoundInBodyWithoutCopyingIt() throws IOException {
+		String messageWhenDelete = Files
+				.readString(Path.of(TEST_RESOURCES_FILE_PATH + JMS_MESSAGE_WHEN_DELETE));
+		headers.put("methodName", "modifyObject");
+		MessageBodySpy messageBody = new MessageBodySpy(messageWhenDelete);
+
+		DivaParseResult result = new DivaMessageParser().parse(headers, messageBody);
+
+		assertEquals(result.getModificationType(), "delete");
+		assertFalse(messageBody.bodyWasCopied);
+	}
+
+	@Test
+	public void testBodyShorterThanDeleteMarkerIsNotDelete() {
+		headers.put("methodName", "modifyObject");
+
+		DivaParseResult result = new DivaMessageParser().parse(headers,
+				new MessageBodySpy("<category"));
+
+		assertFalse(result.shouldWorkOrderBeCreated());
+	}
+
+	@Test
+	public void testParseCountersStartAtZero() {
+		ParseCounters parseCounters = new DivaMessageParser().getParseCounters();
+
+		assertEquals(parseCounters.getRejectedOnHeaders(), 0);
+		assertEquals(parseCounters.getRejectedOnBody(), 0);
+		assertEquals(parseCounters.getWithoutPid(), 0);
+		assertEquals(parseCounters.getAccepted(), 0);
+		assertEquals(parseCounters.getAcceptedUpdates(), 0);
+		assertEquals(parseCounters.getAcceptedDeletes(), 0);
+		assertTrue(parseCounters.getMessagesPerMethodName().isEmpty());
+	}
+
+	@Test
+	public void testParseCountersCountsEachPhase() throws IOException {
+		DivaMessageParser parser = new DivaMessageParser();
+		parser.parse(headers, message);
+		parser.parse(Map.of("pid", "diva2:45677", "methodName", "purgeObject"), message);
+		parser.parse(Map.of("methodName", "purgeObject"), message);
+		parser.parse(Map.of("pid", "authority-person:1", "methodName", "getObject"), message);
+		parser.parse(Map.of("pid", "authority-person:1", "methodName", "modifyObject"), message);
+		String messageWhenDelete = Files
+				.readString(Path.of(TEST_RESOURCES_FILE_PATH + JMS_MESSAGE_WHEN_DELETE));
+		parser.parse(Map.of("pid", "authority-person:1", "methodName", "modifyObject"),
+				messageWhenDelete);
+
+		ParseCounters parseCounters = parser.getParseCounters();
+		assertEquals(parseCounters.getRejectedOnHeaders(), 3);
+		assertEquals(parseCounters.getWithoutPid(), 1);
+		assertEquals(parseCounters.getRejectedOnBody(), 1);
+		assertEquals(parseCounters.getAccepted(), 2);
+		assertEquals(parseCounters.getAcceptedUpdates(), 1);
+		assertEquals(parseCounters.getAcceptedDeletes(), 1);
+	}
+
+	@Test
+	public void testParseCountersCountsMessagesPerMethodName() {
+		DivaMessageParser parser = new DivaMessageParser();
+		parser.parse(headers, message);
+		parser.parse(headers, message);
+		parser.parse(Map.of("pid", "diva2:45677", "methodName", "purgeObject"), message);
+		parser.parse(Map.of("pid", "authority-person:1"), message);
+		parser.parse(Map.of("pid", "authority-person:1", "methodName", "getObject"), message);
+		parser.parse(Map.of("pid", "authority-person:1", "methodName", "someMethod"), message);
+
+		Map<String, Long> messagesPerMethodName = parser.getParseCounters()
+				.getMessagesPerMethodName();
+		assertEquals(messagesPerMethodName.size(), 3);
+		assertEquals(messagesPerMethodName.get("modifyDatastreamByReference"), Long.valueOf(2));
+		assertEquals(messagesPerMethodName.get("purgeObject"), Long.valueOf(1));
+		assertEquals(messagesPerMethodName.get("(other)"), Long.valueOf(3));
+	}
+
+	@Test
+	public void testParseCountersCountsMethodNamesOfCurrentRoutingTable() {
+		DivaMessageParser parser = new DivaMessageParser(RoutingTable.usingRoutingRules(List.of(
+				RoutingRule.forNamespaceUsingMethodNames("diva2", "publication",
+						List.of("addDatastream")))));
+		parser.parse(Map.of("pid", "diva2:1", "methodName", "addDatastream"), message);
+		parser.parse(Map.of("pid", "diva2:1", "methodName", "purgeObject"), message);
+
+		parser.setRoutingTable(RoutingTable.forAuthorityPerson());
+		parser.parse(Map.of("pid", "diva2:1", "methodName", "purgeObject"), message);
+
+		assertEquals(parser.getParseCounters().getMessagesPerMethodName(),
+				Map.of("addDatastream", 1L, "purgeObject", 1L, "(other)", 1L));
+	}
+
+	@Test
+	public void testPidRoutedUsingRoutingTable() throws Exception {
+		RoutingTable routingTable = RoutingTable.usingRoutingRules(List.of(
+				RoutingRule.forAuthorityPerson(), RoutingRule.forNamespaceUsingMethodNames(
+						"diva-output", "publication", List.of("modifyDatastreamByReference"))));
+		messageParser = new DivaMessageParser(routingTable);
+		headers.put("pid", "diva-output:12");
+
+		messageParser.parseHeadersAndMessage(headers, message);
+
+		assertTrue(messageParser.shouldWorkOrderBeCreatedForMessage());
+		assertEquals(messageParser.getRecordType(), "publication");
+		assertEquals(messageParser.getRecordId(), "diva-output:12");
+		assertSame(((DivaMessageParser) messageParser).getRoutingTable(), routingTable);
+	}
+
+	@Test
+	public void testPidWithoutRoutingRuleIsRejected() throws Exception {
+		headers.put("pid", "diva-output:12");
+
+		messageParser.parseHeadersAndMessage(headers, message);
+
+		assertFalse(messageParser.shouldWorkOrderBeCreatedForMessage());
+	}
+
+	@Test
+	public void testReplacedRoutingTableIsUsed() throws Exception {
+		DivaMessageParser parser = new DivaMessageParser();
+		RoutingTable routingTable = RoutingTable.usingRoutingRules(
+				List.of(RoutingRule.forNamespaceUsingMethodNames("diva-output", "publication",
+						List.of("modifyDatastreamByReference"))));
+		headers.put("pid", "diva-output:12");
+
+		parser.setRoutingTable(routingTable);
+		DivaParseResult result = parser.parse(headers, message);
+
+		assertSame(parser.getRoutingTable(), routingTable);
+		assertTrue(result.shouldWorkOrderBeCreated());
+		assertEquals(result.getRecordType(), "publication");
+	}
 }
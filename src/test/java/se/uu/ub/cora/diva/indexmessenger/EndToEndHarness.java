@@ -0,0 +1,203 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import se.uu.ub.cora.diva.indexmessenger.metrics.LatencyHistogram;
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+import se.uu.ub.cora.messaging.MessagingProvider;
+
+/**
+ * EndToEndHarness drives synthetic Fedora messages through the wiring of
+ * {@link DivaIndexMessengerStarter}, using an {@link InMemoryMessagingFactory} instead of a broker
+ * and a {@link StubCoraServer} instead of Cora. Every relevantEveryNth message is relevant, with
+ * its own pid, and its latency is measured from publishing until the stub server has received the
+ * work order.
+ * <p>
+ * Run as a program with the arguments noOfMessages, coraLatencyInMillis and relevantEveryNth.
+ * System properties starting with workOrder., outbox., authToken. or http. are used to configure
+ * the work order chain, for instance -DworkOrder.concurrency=8.
+ */
+public class EndToEndHarness {
+	private static final long HEAP_SAMPLE_INTERVAL_IN_MILLIS = 50;
+	private final Properties workOrderProperties;
+	private final long coraLatencyInMillis;
+	private final Map<String, Long> publishTimes = new ConcurrentHashMap<>();
+	private final LatencyHistogram latencies = new LatencyHistogram();
+	private final LongAdder noOfReceivedWorkOrders = new LongAdder();
+	private final LongAccumulator peakHeapUsage = new LongAccumulator(Math::max, 0);
+	private String relevantMessage;
+	private String irrelevantMessage;
+
+	public EndToEndHarness(Properties workOrderProperties, long coraLatencyInMillis) {
+		this.workOrderProperties = workOrderProperties;
+		this.coraLatencyInMillis = coraLatencyInMillis;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int noOfMessages = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		long coraLatencyInMillis = args.length > 1 ? Long.parseLong(args[1]) : 5;
+		int relevantEveryNth = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		LoggerProvider.setLoggerFactory(new LoggerFactorySpy());
+		EndToEndHarness harness = new EndToEndHarness(extractWorkOrderProperties(),
+				coraLatencyInMillis);
+		long maxWaitInMillis = TimeUnit.MINUTES.toMillis(30);
+		System.out.println(harness.run(noOfMessages, relevantEveryNth, maxWaitInMillis));
+	}
+
+	private static Properties extractWorkOrderProperties() {
+		Properties properties = new Properties();
+		for (String name : System.getProperties().stringPropertyNames()) {
+			if (name.startsWith("workOrder.") || name.startsWith("outbox.")
+					|| name.startsWith("authToken.") || name.startsWith("http.")) {
+				properties.put(name, System.getProperty(name));
+			}
+		}
+		return properties;
+	}
+
+	/**
+	 * Publishes noOfMessages messages and waits at most maxWaitInMillis for all work orders to
+	 * reach the stub server.
+	 */
+	public EndToEndResult run(int noOfMessages, int relevantEveryNth, long maxWaitInMillis)
+			throws IOException, InterruptedException {
+		relevantMessage = readResource("JmsMessageWhichDoesTriggerIndexing.xml");
+		irrelevantMessage = readResource("JmsMessageWhichDoesNotTriggerIndexing.xml");
+		InMemoryMessagingFactory messagingFactory = new InMemoryMessagingFactory();
+		MessagingProvider.setMessagingFactory(messagingFactory);
+		Thread heapSampler = startHeapSampler();
+		try (StubCoraServer stubCoraServer = StubCoraServer.startUsingLatency(coraLatencyInMillis,
+				this::workOrderReceived)) {
+			Properties properties = createProperties(stubCoraServer);
+			DivaIndexMessengerStarter.createIndexMessengerListener(properties);
+			waitForReceiverToListen(messagingFactory);
+			long start = System.nanoTime();
+			long noOfWorkOrders = publishMessages(messagingFactory, noOfMessages, relevantEveryNth);
+			waitForWorkOrders(noOfWorkOrders, maxWaitInMillis);
+			long elapsedInNanos = System.nanoTime() - start;
+			heapSampler.interrupt();
+			return new EndToEndResult(noOfMessages, noOfWorkOrders,
+					noOfReceivedWorkOrders.sum(), elapsedInNanos, latencies, peakHeapUsage.get(),
+					stubCoraServer.getNoOfAuthTokenRequests());
+		} finally {
+			heapSampler.interrupt();
+		}
+	}
+
+	private String readResource(String resourceName) throws IOException {
+		try (InputStream input = getClass().getClassLoader().getResourceAsStream(resourceName)) {
+			return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private Thread startHeapSampler() {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		Thread heapSampler = new Thread(() -> {
+			while (!Thread.currentThread().isInterrupted()) {
+				peakHeapUsage.accumulate(memory.getHeapMemoryUsage().getUsed());
+				sleep(HEAP_SAMPLE_INTERVAL_IN_MILLIS);
+			}
+		}, "heapSampler");
+		heapSampler.setDaemon(true);
+		heapSampler.start();
+		return heapSampler;
+	}
+
+	private void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void workOrderReceived(String recordId) {
+		Long publishTime = publishTimes.remove(recordId);
+		if (publishTime != null) {
+			latencies.record(System.nanoTime() - publishTime);
+			noOfReceivedWorkOrders.increment();
+		}
+	}
+
+	private Properties createProperties(StubCoraServer stubCoraServer) {
+		Properties properties = new Properties();
+		properties.putAll(workOrderProperties);
+		properties.put("messaging.hostname", "inMemory");
+		properties.put("messaging.port", "0");
+		properties.put("messaging.routingKey", "fedora.apim.update");
+		properties.put("messaging.username", "harness");
+		properties.put("messaging.password", "harness");
+		properties.put("appTokenVerifierUrl", stubCoraServer.getAppTokenVerifierUrl());
+		properties.put("baseUrl", stubCoraServer.getBaseUrl());
+		properties.put("cora.userId", "harnessUser");
+		properties.put("cora.appToken", "harnessAppToken");
+		return properties;
+	}
+
+	private long publishMessages(InMemoryMessagingFactory messagingFactory, int noOfMessages,
+			int relevantEveryNth) {
+		long noOfWorkOrders = 0;
+		for (int i = 0; i < noOfMessages; i++) {
+			if (i % relevantEveryNth == 0) {
+				publishRelevantMessage(messagingFactory, i);
+				noOfWorkOrders++;
+			} else {
+				messagingFactory.publish(Map.of("pid", "diva2:" + i, "methodName",
+						"modifyDatastreamByReference"), irrelevantMessage);
+			}
+		}
+		return noOfWorkOrders;
+	}
+
+	private void publishRelevantMessage(InMemoryMessagingFactory messagingFactory, int i) {
+		String pid = "authority-person:" + i;
+		String methodName = i % 2 == 0 ? "modifyDatastreamByReference" : "purgeObject";
+		publishTimes.put(pid, System.nanoTime());
+		messagingFactory.publish(Map.of("pid", pid, "methodName", methodName), relevantMessage);
+	}
+
+	private void waitForReceiverToListen(InMemoryMessagingFactory messagingFactory) {
+		long waitUntil = System.currentTimeMillis() + 5000;
+		while (messagingFactory.getNoOfReceivers() == 0
+				&& System.currentTimeMillis() < waitUntil) {
+			sleep(1);
+		}
+	}
+
+	private void waitForWorkOrders(long noOfWorkOrders, long maxWaitInMillis) {
+		long waitUntil = System.currentTimeMillis() + maxWaitInMillis;
+		while (noOfReceivedWorkOrders.sum() < noOfWorkOrders
+				&& System.currentTimeMillis() < waitUntil) {
+			sleep(1);
+		}
+	}
+}
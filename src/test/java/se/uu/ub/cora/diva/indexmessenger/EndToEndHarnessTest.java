@@ -0,0 +1,81 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Properties;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class EndToEndHarnessTest {
+	private Properties workOrderProperties;
+
+	@BeforeMethod
+	public void setUp() {
+		LoggerProvider.setLoggerFactory(new LoggerFactorySpy());
+		workOrderProperties = new Properties();
+	}
+
+	@Test
+	public void testAllWorkOrdersReachCora() throws Exception {
+		EndToEndResult result = new EndToEndHarness(workOrderProperties, 0).run(500, 10, 10000);
+
+		assertEquals(result.getNoOfMessages(), 500);
+		assertEquals(result.getNoOfWorkOrders(), 50);
+		assertEquals(result.getNoOfReceivedWorkOrders(), 50);
+		assertEquals(result.getLatencies().getCount(), 50);
+		assertTrue(result.getMessagesPerSecond() > 0);
+		assertTrue(result.getPeakHeapUsageInBytes() > 0);
+	}
+
+	@Test
+	public void testAllWorkOrdersReachCoraUsingWorkOrderSettings() throws Exception {
+		workOrderProperties.put("workOrder.concurrency", "4");
+		workOrderProperties.put("workOrder.maxInFlight", "16");
+
+		EndToEndResult result = new EndToEndHarness(workOrderProperties, 5).run(500, 5, 10000);
+
+		assertEquals(result.getNoOfReceivedWorkOrders(), 100);
+		assertTrue(result.getLatencies().getPercentile50InMillis() >= 4);
+	}
+
+	@Test
+	public void testSharedAuthTokenIsFetchedOnce() throws Exception {
+		workOrderProperties.put("authToken.shared", "true");
+		workOrderProperties.put("workOrder.concurrency", "4");
+
+		EndToEndResult result = new EndToEndHarness(workOrderProperties, 0).run(200, 5, 10000);
+
+		assertEquals(result.getNoOfReceivedWorkOrders(), 40);
+		assertEquals(result.getNoOfAuthTokenRequests(), 1);
+	}
+
+	@Test
+	public void testReport() throws Exception {
+		EndToEndResult result = new EndToEndHarness(workOrderProperties, 0).run(20, 10, 10000);
+
+		assertTrue(result.toString().startsWith("messages: 20, work orders: 2/2, messages/s: "));
+	}
+}
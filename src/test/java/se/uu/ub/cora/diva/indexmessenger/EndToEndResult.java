@@ -0,0 +1,90 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+import java.text.MessageFormat;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import se.uu.ub.cora.diva.indexmessenger.metrics.LatencyHistogram;
+
+public class EndToEndResult {
+	private final long noOfMessages;
+	private final long noOfWorkOrders;
+	private final long noOfReceivedWorkOrders;
+	private final long elapsedInNanos;
+	private final LatencyHistogram latencies;
+	private final long peakHeapUsageInBytes;
+	private final long noOfAuthTokenRequests;
+
+	EndToEndResult(long noOfMessages, long noOfWorkOrders, long noOfReceivedWorkOrders,
+			long elapsedInNanos, LatencyHistogram latencies, long peakHeapUsageInBytes,
+			long noOfAuthTokenRequests) {
+		this.noOfMessages = noOfMessages;
+		this.noOfWorkOrders = noOfWorkOrders;
+		this.noOfReceivedWorkOrders = noOfReceivedWorkOrders;
+		this.elapsedInNanos = elapsedInNanos;
+		this.latencies = latencies;
+		this.peakHeapUsageInBytes = peakHeapUsageInBytes;
+		this.noOfAuthTokenRequests = noOfAuthTokenRequests;
+	}
+
+	public double getMessagesPerSecond() {
+		return noOfMessages / (elapsedInNanos / (double) TimeUnit.SECONDS.toNanos(1));
+	}
+
+	public long getNoOfMessages() {
+		return noOfMessages;
+	}
+
+	public long getNoOfWorkOrders() {
+		return noOfWorkOrders;
+	}
+
+	public long getNoOfReceivedWorkOrders() {
+		return noOfReceivedWorkOrders;
+	}
+
+	public LatencyHistogram getLatencies() {
+		return latencies;
+	}
+
+	public long getPeakHeapUsageInBytes() {
+		return peakHeapUsageInBytes;
+	}
+
+	public long getNoOfAuthTokenRequests() {
+		return noOfAuthTokenRequests;
+	}
+
+	@Override
+	public String toString() {
+		return MessageFormat.format(
+				"messages: {0}, work orders: {1}/{2}, messages/s: {3}, latency ms p50: {4}"
+						+ " p99: {5} max: {6}, peak heap MB: {7}, authToken requests: {8}",
+				noOfMessages, noOfReceivedWorkOrders, noOfWorkOrders,
+				format(getMessagesPerSecond()), format(latencies.getPercentile50InMillis()),
+				format(latencies.getPercentile99InMillis()), format(latencies.getMaxInMillis()),
+				peakHeapUsageInBytes / (1024 * 1024), noOfAuthTokenRequests);
+	}
+
+	private String format(double value) {
+		return String.format(Locale.ROOT, "%.1f", value);
+	}
+}
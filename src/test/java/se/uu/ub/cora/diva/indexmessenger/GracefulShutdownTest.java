@@ -0,0 +1,208 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.diva.indexmessenger.metrics.MessageSourceMetrics;
+import se.uu.ub.cora.diva.indexmessenger.metrics.PipelineMetrics;
+import se.uu.ub.cora.diva.indexmessenger.retry.RetryScheduler;
+import se.uu.ub.cora.diva.indexmessenger.workorder.ExecutorServiceSpy;
+import se.uu.ub.cora.diva.indexmessenger.workorder.ScheduledExecutorSpy;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrder;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSender;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSenderSpy;
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class GracefulShutdownTest {
+	private LoggerFactorySpy loggerFactory;
+	private String testedClassname = "GracefulShutdown";
+	private DivaMessageParser messageParser;
+	private WorkOrderSenderSpy workOrderSender;
+	private DivaIndexMessageReceiver receiver;
+	private DivaIndexMessageReceiver otherReceiver;
+	private GracefulShutdown gracefulShutdown;
+	private Path directory;
+	private Map<String, String> headers = Map.of("pid", "authority-person:1", "methodName",
+			"modifyDatastreamByReference");
+
+	@BeforeMethod
+	public void setUp() {
+		loggerFactory = new LoggerFactorySpy();
+		LoggerProvider.setLoggerFactory(loggerFactory);
+		messageParser = new DivaMessageParser();
+		workOrderSender = new WorkOrderSenderSpy();
+		receiver = createReceiver(workOrderSender);
+		otherReceiver = createReceiver(workOrderSender);
+		gracefulShutdown = new GracefulShutdown(List.of(receiver, otherReceiver),
+				workOrderSender, null, 5000);
+		directory = null;
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		if (directory != null) {
+			try (Stream<Path> files = Files.walk(directory)) {
+				files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+			}
+		}
+	}
+
+	private DivaIndexMessageReceiver createReceiver(WorkOrderSender sender) {
+		return new DivaIndexMessageReceiver(messageParser, sender,
+				new PipelineMetrics(messageParser.getParseCounters()),
+				new MessageSourceMetrics("someSource"));
+	}
+
+	@Test
+	public void testInit() {
+		assertEquals(gracefulShutdown.getMessageReceivers(), List.of(receiver, otherReceiver));
+		assertSame(gracefulShutdown.getWorkOrderSender(), workOrderSender);
+		assertNull(gracefulShutdown.getPropertiesFileWatcher());
+		assertNull(gracefulShutdown.getRetryScheduler());
+		assertEquals(gracefulShutdown.getTimeoutInMillis(), 5000);
+	}
+
+	@Test
+	public void testShutdownClosesSendersBeforeDeadline() {
+		long before = System.nanoTime();
+
+		gracefulShutdown.run();
+
+		assertEquals(workOrderSender.closeDeadlines.size(), 1);
+		long deadline = workOrderSender.closeDeadlines.get(0);
+		assertTrue(deadline >= before + TimeUnit.MILLISECONDS.toNanos(5000));
+		assertTrue(deadline <= System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(5000));
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Shutting down, sending held work orders within: 5000 ms");
+		assertTrue(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 1)
+				.matches("Shut down after: \\d+ ms, all work orders were sent"));
+		assertEquals(loggerFactory.getNoOfErrorLogMessagesUsingClassName(testedClassname), 0);
+	}
+
+	@Test
+	public void testShutdownStopsReceivers() throws Exception {
+		gracefulShutdown.run();
+
+		assertTrue(receiver.stopReceivingBefore(System.nanoTime()));
+		Thread thread = new Thread(
+				() -> otherReceiver.receiveMessage(headers, "some message"));
+		thread.setDaemon(true);
+		thread.start();
+		thread.join(50);
+		assertTrue(thread.isAlive());
+		thread.interrupt();
+		assertEquals(workOrderSender.sentWorkOrders.size(), 0);
+	}
+
+	@Test
+	public void testWorkOrdersNotSentAreLogged() {
+		workOrderSender.noOfNotSentOnClose = 3;
+
+		gracefulShutdown.run();
+
+		assertTrue(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 0)
+				.matches("Shut down after: \\d+ ms, left: 3 work orders unsent"));
+	}
+
+	@Test
+	public void testMessagesStillHandledAtDeadlineAreLogged() throws Exception {
+		CountDownLatch sendStarted = new CountDownLatch(1);
+		CountDownLatch releaseSend = new CountDownLatch(1);
+		DivaIndexMessageReceiver slowReceiver = createReceiver(workOrder -> {
+			sendStarted.countDown();
+			awaitUninterruptibly(releaseSend);
+		});
+		Thread thread = new Thread(
+				() -> slowReceiver.receiveMessage(headers, "some message"));
+		thread.start();
+		sendStarted.await(5, TimeUnit.SECONDS);
+		gracefulShutdown = new GracefulShutdown(List.of(slowReceiver), workOrderSender, null, 20);
+
+		gracefulShutdown.run();
+
+		releaseSend.countDown();
+		thread.join(1000);
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Messages still being handled at the deadline, "
+						+ "they are delivered again after restart");
+		assertEquals(workOrderSender.closeDeadlines.size(), 1);
+	}
+
+	private void awaitUninterruptibly(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Test
+	public void testShutdownStopsWatchingPropertiesFile() {
+		ScheduledExecutorSpy scheduler = new ScheduledExecutorSpy();
+		PropertiesFileWatcher watcher = new PropertiesFileWatcher(Path.of("someFile"), 1000,
+				scheduler, properties -> {
+				});
+		gracefulShutdown = new GracefulShutdown(List.of(receiver), workOrderSender, watcher,
+				5000);
+
+		gracefulShutdown.run();
+
+		assertTrue(scheduler.isShutdown());
+		assertSame(gracefulShutdown.getPropertiesFileWatcher(), watcher);
+	}
+
+	@Test
+	public void testShutdownClosesRetrySchedulerAfterSenders() throws Exception {
+		directory = Files.createTempDirectory("gracefulShutdownTest");
+		RetryScheduler retryScheduler = new RetryScheduler(directory, 3, 1000, 10000, 100, 8,
+				new ScheduledExecutorSpy(), List.of(new ExecutorServiceSpy()));
+		retryScheduler.scheduleRetry(new WorkOrder("person", "authority-person:1", "update"),
+				new RuntimeException("Cora is down"));
+		workOrderSender.noOfNotSentOnClose = 1;
+		gracefulShutdown = new GracefulShutdown(List.of(receiver), workOrderSender, null,
+				retryScheduler, 5000);
+
+		gracefulShutdown.run();
+
+		assertSame(gracefulShutdown.getRetryScheduler(), retryScheduler);
+		assertTrue(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 0)
+				.matches("Shut down after: \\d+ ms, left: 2 work orders unsent"));
+		assertTrue(Files.readString(directory.resolve("retry.journal"))
+				.contains("authority-person:1"));
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import se.uu.ub.cora.messaging.MessageListener;
+import se.uu.ub.cora.messaging.MessageReceiver;
+import se.uu.ub.cora.messaging.MessageRoutingInfo;
+import se.uu.ub.cora.messaging.MessageSender;
+import se.uu.ub.cora.messaging.MessagingFactory;
+
+/**
+ * InMemoryMessagingFactory is a messaging factory that delivers messages within the process.
+ * Messages published using {@link #publish(Map, String)} are delivered to all listening receivers
+ * on the publishing thread, the way a JMS session delivers messages on its one consumer thread.
+ */
+public class InMemoryMessagingFactory implements MessagingFactory {
+	private List<MessageReceiver> receivers = new CopyOnWriteArrayList<>();
+
+	@Override
+	public MessageSender factorTopicMessageSender(MessageRoutingInfo messagingRoutingInfo) {
+		throw new UnsupportedOperationException("Use publish to send messages");
+	}
+
+	@Override
+	public MessageListener factorTopicMessageListener(MessageRoutingInfo messagingRoutingInfo) {
+		return new InMemoryMessageListener();
+	}
+
+	public void publish(Map<String, String> headers, String message) {
+		for (MessageReceiver receiver : receivers) {
+			receiver.receiveMessage(headers, message);
+		}
+	}
+
+	public void closeTopic() {
+		for (MessageReceiver receiver : receivers) {
+			receiver.topicClosed();
+		}
+	}
+
+	public int getNoOfReceivers() {
+		return receivers.size();
+	}
+
+	private class InMemoryMessageListener implements MessageListener {
+
+		@Override
+		public void listen(MessageReceiver messageReceiver) {
+			receivers.add(messageReceiver);
+		}
+	}
+}
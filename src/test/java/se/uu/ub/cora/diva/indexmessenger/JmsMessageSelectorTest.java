@@ -0,0 +1,101 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+public class JmsMessageSelectorTest {
+
+	@Test
+	public void testConstructorIsPrivate() throws Exception {
+		Constructor<JmsMessageSelector> constructor = JmsMessageSelector.class
+				.getDeclaredConstructor();
+		assertTrue(Modifier.isPrivate(constructor.getModifiers()));
+		constructor.setAccessible(true);
+		constructor.newInstance();
+	}
+
+	@Test
+	public void testCreateForAuthorityPerson() {
+		String selector = JmsMessageSelector
+				.createForRoutingRule(RoutingRule.forAuthorityPerson());
+
+		assertEquals(selector, "methodName IN ('addDatastream', 'modifyDatastreamByReference', "
+				+ "'modifyObject', 'purgeObject') AND pid LIKE 'authority-person:%' ESCAPE '!'");
+	}
+
+	@Test
+	public void testCreateForRoutingTableWithOneRule() {
+		String selector = JmsMessageSelector
+				.createForRoutingTable(RoutingTable.forAuthorityPerson());
+
+		assertEquals(selector,
+				JmsMessageSelector.createForRoutingRule(RoutingRule.forAuthorityPerson()));
+	}
+
+	@Test
+	public void testCreateForEmptyRoutingTable() {
+		String selector = JmsMessageSelector
+				.createForRoutingTable(RoutingTable.usingRoutingRules(List.of()));
+
+		assertEquals(selector, "FALSE");
+	}
+
+	@Test
+	public void testCreateForRoutingTableWithSeveralRules() {
+		RoutingTable routingTable = RoutingTable.usingRoutingRules(List.of(
+				RoutingRule.forAuthorityPerson(), RoutingRule.forNamespaceUsingMethodNames(
+						"diva-output", "publication", List.of("purgeObject"))));
+
+		String selector = JmsMessageSelector.createForRoutingTable(routingTable);
+
+		assertEquals(selector, "(methodName IN ('addDatastream', 'modifyDatastreamByReference', "
+				+ "'modifyObject', 'purgeObject') AND pid LIKE 'authority-person:%' ESCAPE '!')"
+				+ " OR (methodName IN ('purgeObject') AND pid LIKE 'diva-output:%' ESCAPE '!')");
+	}
+
+	@Test
+	public void testPidPrefixIsEscapedForLike() {
+		RoutingRule routingRule = RoutingRule.forNamespaceUsingMethodNames("a_b%c!d", "someType",
+				List.of("purgeObject"));
+
+		String selector = JmsMessageSelector.createForRoutingRule(routingRule);
+
+		assertEquals(selector,
+				"methodName IN ('purgeObject') AND pid LIKE 'a!_b!%c!!d:%' ESCAPE '!'");
+	}
+
+	@Test
+	public void testQuotesAreDoubled() {
+		RoutingRule routingRule = RoutingRule.forNamespaceUsingMethodNames("o'neil", "someType",
+				List.of("some'Method"));
+
+		String selector = JmsMessageSelector.createForRoutingRule(routingRule);
+
+		assertEquals(selector,
+				"methodName IN ('some''Method') AND pid LIKE 'o''neil:%' ESCAPE '!'");
+	}
+}
@@ -19,16 +19,28 @@
 
 package se.uu.ub.cora.diva.indexmessenger;
 
+import java.util.concurrent.CountDownLatch;
+
 import se.uu.ub.cora.messaging.MessageListener;
 import se.uu.ub.cora.messaging.MessageReceiver;
 
 public class MessageListenerSpy implements MessageListener {
 
-	public MessageReceiver messageReceiver;
+	public volatile MessageReceiver messageReceiver;
+	public CountDownLatch stopListening = new CountDownLatch(0);
+	public RuntimeException errorToThrow;
 
 	@Override
 	public void listen(MessageReceiver messageReceiver) {
 		this.messageReceiver = messageReceiver;
+		if (errorToThrow != null) {
+			throw errorToThrow;
+		}
+		try {
+			stopListening.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 	}
 
 }
@@ -19,6 +19,10 @@
 
 package se.uu.ub.cora.diva.indexmessenger;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
 import se.uu.ub.cora.messaging.MessageListener;
 import se.uu.ub.cora.messaging.MessageRoutingInfo;
 import se.uu.ub.cora.messaging.MessageSender;
@@ -29,6 +33,10 @@ public class MessagingFactorySpy implements MessagingFactory {
 	public boolean factorTopicMessageListenerCalled = false;
 	public MessageRoutingInfo messagingRoutingInfo;
 	public MessageListenerSpy messageListenerSpy;
+	public List<MessageRoutingInfo> messagingRoutingInfos = new ArrayList<>();
+	public List<MessageListenerSpy> messageListenerSpies = new ArrayList<>();
+	public CountDownLatch stopListening = new CountDownLatch(0);
+	public RuntimeException errorToThrow;
 
 	@Override
 	public MessageSender factorTopicMessageSender(MessageRoutingInfo messagingRoutingInfo) {
@@ -41,6 +49,10 @@ public class MessagingFactorySpy implements MessagingFactory {
 		this.messagingRoutingInfo = messagingRoutingInfo;
 		factorTopicMessageListenerCalled = true;
 		messageListenerSpy = new MessageListenerSpy();
+		messageListenerSpy.stopListening = stopListening;
+		messageListenerSpy.errorToThrow = errorToThrow;
+		messagingRoutingInfos.add(messagingRoutingInfo);
+		messageListenerSpies.add(messageListenerSpy);
 		return messageListenerSpy;
 	}
 
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Consumer;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.diva.indexmessenger.workorder.ScheduledExecutorSpy;
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class PropertiesFileWatcherTest {
+	private LoggerFactorySpy loggerFactory;
+	private String testedClassname = "PropertiesFileWatcher";
+	private Path propertiesFile;
+	private ScheduledExecutorSpy scheduler;
+	private List<Properties> readProperties;
+	private Consumer<Properties> listener;
+	private PropertiesFileWatcher watcher;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		loggerFactory = new LoggerFactorySpy();
+		LoggerProvider.setLoggerFactory(loggerFactory);
+		propertiesFile = Files.createTempFile("propertiesFileWatcherTest", ".properties");
+		Files.writeString(propertiesFile, "workOrder.concurrency=2\n");
+		scheduler = new ScheduledExecutorSpy();
+		readProperties = new ArrayList<>();
+		listener = readProperties::add;
+		watcher = new PropertiesFileWatcher(propertiesFile, 500, scheduler, listener);
+	}
+
+	@Test
+	public void testInit() {
+		assertEquals(watcher.getPropertiesFile(), propertiesFile);
+		assertEquals(watcher.getIntervalInMillis(), 500);
+		assertSame(watcher.getListener(), listener);
+	}
+
+	@Test
+	public void testStartSchedulesChecks() {
+		watcher.start();
+
+		assertEquals(scheduler.delaysInMillis, List.of(500L));
+	}
+
+	@Test
+	public void testUnchangedFileIsNotRead() {
+		watcher.start();
+
+		scheduler.runScheduledCommand(0);
+		scheduler.runScheduledCommand(0);
+
+		assertEquals(readProperties.size(), 0);
+	}
+
+	@Test
+	public void testChangedFileIsReadWhenUnchangedForOneMoreCheck() throws IOException {
+		watcher.start();
+		changeFile("workOrder.concurrency=4\n");
+
+		watcher.checkForChanges();
+		assertEquals(readProperties.size(), 0);
+		watcher.checkForChanges();
+		watcher.checkForChanges();
+
+		assertEquals(readProperties.size(), 1);
+		assertEquals(readProperties.get(0).getProperty("workOrder.concurrency"), "4");
+	}
+
+	private void changeFile(String content) throws IOException {
+		FileTime lastModified = Files.getLastModifiedTime(propertiesFile);
+		Files.writeString(propertiesFile, content);
+		Files.setLastModifiedTime(propertiesFile,
+				FileTime.fromMillis(lastModified.toMillis() + 1000));
+	}
+
+	@Test
+	public void testFileStillChangingIsNotRead() throws IOException {
+		watcher.start();
+		changeFile("workOrder.concurrency=4\n");
+		watcher.checkForChanges();
+		changeFile("workOrder.concurrency=8\n");
+
+		watcher.checkForChanges();
+		assertEquals(readProperties.size(), 0);
+		watcher.checkForChanges();
+
+		assertEquals(readProperties.size(), 1);
+		assertEquals(readProperties.get(0).getProperty("workOrder.concurrency"), "8");
+	}
+
+	@Test
+	public void testMissingFileIsLogged() throws IOException {
+		watcher.start();
+		Files.delete(propertiesFile);
+
+		watcher.checkForChanges();
+
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Unable to reload properties from: " + propertiesFile);
+	}
+
+	@Test
+	public void testErrorFromListenerIsLogged() throws IOException {
+		watcher = new PropertiesFileWatcher(propertiesFile, 500, scheduler, properties -> {
+			throw new RuntimeException("some error");
+		});
+		watcher.start();
+		changeFile("workOrder.concurrency=4\n");
+
+		watcher.checkForChanges();
+		watcher.checkForChanges();
+
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Unable to reload properties from: " + propertiesFile);
+		assertEquals(loggerFactory.getErrorLogErrorUsingClassNameAndNo(testedClassname, 0)
+				.getMessage(), "some error");
+	}
+
+	@Test
+	public void testStopShutsDownScheduler() {
+		watcher.start();
+
+		watcher.stop();
+
+		assertTrue(scheduler.isShutdown());
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.diva.indexmessenger.workorder.ReloadableWorkOrderSender;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSender;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSenderSpy;
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class PropertiesReloaderTest {
+	private LoggerFactorySpy loggerFactory;
+	private String testedClassname = "PropertiesReloader";
+	private Properties properties;
+	private DivaMessageParser messageParser;
+	private WorkOrderSenderSpy currentChain;
+	private ReloadableWorkOrderSender workOrderSender;
+	private List<Properties> chainFactoryProperties;
+	private List<WorkOrderSenderSpy> factoredChains;
+	private RuntimeException chainFactoryError;
+	private PropertiesReloader reloader;
+
+	@BeforeMethod
+	public void setUp() {
+		loggerFactory = new LoggerFactorySpy();
+		LoggerProvider.setLoggerFactory(loggerFactory);
+		properties = new Properties();
+		properties.put("messaging.hostname", "someHost");
+		properties.put("baseUrl", "someBaseUrl");
+		properties.put("workOrder.concurrency", "2");
+		messageParser = new DivaMessageParser();
+		currentChain = new WorkOrderSenderSpy();
+		workOrderSender = new ReloadableWorkOrderSender(currentChain);
+		chainFactoryProperties = new ArrayList<>();
+		factoredChains = new ArrayList<>();
+		chainFactoryError = null;
+		reloader = new PropertiesReloader(properties, messageParser, workOrderSender,
+				this::factorChain, 100);
+	}
+
+	private WorkOrderSender factorChain(Properties changedProperties) {
+		chainFactoryProperties.add(changedProperties);
+		if (chainFactoryError != null) {
+			throw chainFactoryError;
+		}
+		WorkOrderSenderSpy chain = new WorkOrderSenderSpy();
+		factoredChains.add(chain);
+		return chain;
+	}
+
+	@Test
+	public void testInit() {
+		assertSame(reloader.getProperties(), properties);
+		assertSame(reloader.getMessageParser(), messageParser);
+		assertSame(reloader.getWorkOrderSender(), workOrderSender);
+		assertEquals(reloader.getCloseTimeoutInMillis(), 100);
+	}
+
+	@Test
+	public void testUnchangedPropertiesAreNotApplied() {
+		Properties changedProperties = copyProperties();
+
+		reloader.accept(changedProperties);
+
+		assertEquals(loggerFactory.getNoOfInfoLogMessagesUsingClassname(testedClassname), 0);
+		assertEquals(chainFactoryProperties.size(), 0);
+		assertSame(reloader.getProperties(), properties);
+	}
+
+	private Properties copyProperties() {
+		Properties copy = new Properties();
+		copy.putAll(properties);
+		return copy;
+	}
+
+	@Test
+	public void testChangedRoutingReplacesRoutingTable() {
+		Properties changedProperties = copyProperties();
+		changedProperties.put("routing.diva-output.recordType", "publication");
+		changedProperties.put("routing.diva-output.methodNames", "purgeObject");
+
+		reloader.accept(changedProperties);
+
+		List<RoutingRule> routingRules = messageParser.getRoutingTable().getRoutingRules();
+		assertEquals(routingRules.size(), 1);
+		assertEquals(routingRules.get(0).getRecordType(), "publication");
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Changed properties: [routing.diva-output.methodNames,"
+						+ " routing.diva-output.recordType]");
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 1),
+				"Reloaded routing rules, relevant messages match selector: methodName IN"
+						+ " ('purgeObject') AND pid LIKE 'diva-output:%' ESCAPE '!'");
+		assertEquals(loggerFactory.getNoOfInfoLogMessagesUsingClassname(testedClassname), 2);
+		assertEquals(chainFactoryProperties.size(), 0);
+		assertSame(reloader.getProperties(), changedProperties);
+	}
+
+	@Test
+	public void testChangedWorkOrderPropertyReplacesSenderChain() {
+		Properties changedProperties = copyProperties();
+		changedProperties.put("workOrder.concurrency", "4");
+
+		reloader.accept(changedProperties);
+
+		assertEquals(chainFactoryProperties, List.of(changedProperties));
+		assertSame(workOrderSender.getWorkOrderSender(), factoredChains.get(0));
+		assertEquals(currentChain.closeDeadlines.size(), 1);
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Changed properties: [workOrder.concurrency]");
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 1),
+				"Reloaded work order sending");
+		assertEquals(loggerFactory.getNoOfInfoLogMessagesUsingClassname(testedClassname), 2);
+	}
+
+	@Test
+	public void testPropertiesForSendingWorkOrdersReplaceSenderChain() {
+		List<String> names = List.of("baseUrl", "appTokenVerifierUrl", "cora.userId",
+				"cora.appToken", "authToken.shared", "http.maxConnections",
+				"workOrder.batchSize");
+		for (String name : names) {
+			Properties changedProperties = copyProperties();
+			changedProperties.put(name, "changed");
+			reloader.accept(changedProperties);
+			properties = changedProperties;
+		}
+
+		assertEquals(chainFactoryProperties.size(), names.size());
+	}
+
+	@Test
+	public void testWorkOrdersNotSentByReplacedChainAreLogged() {
+		currentChain.noOfNotSentOnClose = 2;
+		Properties changedProperties = copyProperties();
+		changedProperties.put("workOrder.concurrency", "4");
+
+		reloader.accept(changedProperties);
+
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Reloaded work order sending, the replaced senders left: 2 work orders unsent"
+						+ " after: 100 ms");
+	}
+
+	@Test
+	public void testFailingToFactorSenderChainKeepsCurrentChain() {
+		chainFactoryError = new RuntimeException("some error");
+		Properties changedProperties = copyProperties();
+		changedProperties.put("workOrder.concurrency", "4");
+
+		reloader.accept(changedProperties);
+
+		assertSame(workOrderSender.getWorkOrderSender(), currentChain);
+		assertEquals(currentChain.closeDeadlines.size(), 0);
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Unable to reload work order sending, keeping the current senders");
+		assertSame(loggerFactory.getErrorLogErrorUsingClassNameAndNo(testedClassname, 0),
+				chainFactoryError);
+	}
+
+	@Test
+	public void testSendingPropertiesNotAppliedAreAppliedOnNextChange() {
+		chainFactoryError = new RuntimeException("some error");
+		Properties changedProperties = copyProperties();
+		changedProperties.put("workOrder.concurrency", "4");
+		changedProperties.put("workOrder.batchSize", "10");
+		changedProperties.put("messaging.hostname", "someOtherHost");
+		reloader.accept(changedProperties);
+		assertEquals(reloader.getProperties().getProperty("workOrder.concurrency"), "2");
+		assertEquals(reloader.getProperties().getProperty("workOrder.batchSize"), null);
+		assertEquals(reloader.getProperties().getProperty("messaging.hostname"),
+				"someOtherHost");
+		chainFactoryError = null;
+
+		reloader.accept(changedProperties);
+
+		assertEquals(chainFactoryProperties.size(), 2);
+		assertSame(workOrderSender.getWorkOrderSender(), factoredChains.get(0));
+		assertSame(reloader.getProperties(), changedProperties);
+	}
+
+	@Test
+	public void testRoutingPropertiesNotAppliedAreAppliedOnNextChange() {
+		Properties changedProperties = copyProperties();
+		changedProperties.put("routing.diva-output.recordType", "publication");
+		changedProperties.put("routing.diva-output.methodNames", "");
+		reloader.accept(changedProperties);
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Unable to reload routing rules, keeping the current rules");
+		assertEquals(reloader.getProperties().getProperty("routing.diva-output.recordType"),
+				null);
+		changedProperties.put("routing.diva-output.methodNames", "purgeObject");
+
+		reloader.accept(changedProperties);
+
+		assertEquals(messageParser.getRoutingTable().getRoutingRules().size(), 1);
+		assertSame(reloader.getProperties(), changedProperties);
+	}
+
+	@Test
+	public void testPropertiesNeedingRestartAreLogged() {
+		Properties changedProperties = copyProperties();
+		changedProperties.put("messaging.hostname", "someOtherHost");
+		changedProperties.put("outbox.directory", "/some/directory");
+
+		reloader.accept(changedProperties);
+
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 1),
+				"Changed properties take effect after restart: [messaging.hostname,"
+						+ " outbox.directory]");
+		assertEquals(chainFactoryProperties.size(), 0);
+	}
+
+	@Test
+	public void testRemovedPropertyIsChanged() {
+		Properties changedProperties = copyProperties();
+		changedProperties.remove("workOrder.concurrency");
+
+		reloader.accept(changedProperties);
+
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Changed properties: [workOrder.concurrency]");
+		assertEquals(chainFactoryProperties.size(), 1);
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class RateLimitedErrorLogTest {
+	private LoggerFactorySpy loggerFactory;
+	private String testedClassname = "RateLimitedErrorLogTest";
+	private AtomicLong nanoTime;
+	private RateLimitedErrorLog errorLog;
+
+	@BeforeMethod
+	public void setUp() {
+		loggerFactory = new LoggerFactorySpy();
+		LoggerProvider.setLoggerFactory(loggerFactory);
+		nanoTime = new AtomicLong();
+		errorLog = new RateLimitedErrorLog(
+				LoggerProvider.getLoggerForClass(RateLimitedErrorLogTest.class), 60000,
+				nanoTime::get);
+	}
+
+	private void passTimeInMillis(long millis) {
+		nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+	}
+
+	private int getNoOfErrorLogMessages() {
+		return (int) loggerFactory.getNoOfErrorLogMessagesUsingClassName(testedClassname);
+	}
+
+	private String getErrorLogMessage(int messageNo) {
+		return loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, messageNo);
+	}
+
+	@Test
+	public void testInit() {
+		assertEquals(errorLog.getIntervalInMillis(), 60000);
+	}
+
+	@Test
+	public void testFirstErrorIsLogged() {
+		errorLog.logError("messages without pid", () -> "someError");
+
+		assertEquals(getNoOfErrorLogMessages(), 1);
+		assertEquals(getErrorLogMessage(0), "someError");
+	}
+
+	@Test
+	public void testErrorsInIntervalAreOnlyCounted() {
+		errorLog.logError("messages without pid", () -> "someError1");
+		errorLog.logError("messages without pid", () -> "someError2");
+		passTimeInMillis(59999);
+		errorLog.logError("messages without pid", () -> "someError3");
+
+		assertEquals(getNoOfErrorLogMessages(), 1);
+	}
+
+	@Test
+	public void testSummaryIsLoggedWhenIntervalHasEnded() {
+		errorLog.logError("messages without pid", () -> "someError1");
+		errorLog.logError("messages without pid", () -> "someError2");
+		errorLog.logError("messages without pid", () -> "someError3");
+		passTimeInMillis(60000);
+		errorLog.logError("messages without pid", () -> "someError4");
+
+		assertEquals(getNoOfErrorLogMessages(), 3);
+		assertEquals(getErrorLogMessage(1),
+				"2 messages without pid in the last 60s, first sample: someError2");
+		assertEquals(getErrorLogMessage(2), "someError4");
+	}
+
+	@Test
+	public void testNoSummaryWhenNothingWasLeftOut() {
+		errorLog.logError("messages without pid", () -> "someError1");
+		passTimeInMillis(60000);
+		errorLog.logError("messages without pid", () -> "someError2");
+
+		assertEquals(getNoOfErrorLogMessages(), 2);
+		assertEquals(getErrorLogMessage(1), "someError2");
+	}
+
+	@Test
+	public void testFlushLogsSummaryWhenIntervalHasEnded() {
+		errorLog.logError("messages without pid", () -> "someError1");
+		errorLog.logError("messages without pid", () -> "someError2");
+		passTimeInMillis(60000);
+
+		errorLog.flushEndedIntervals();
+
+		assertEquals(getNoOfErrorLogMessages(), 2);
+		assertEquals(getErrorLogMessage(1),
+				"1 messages without pid in the last 60s, first sample: someError2");
+	}
+
+	@Test
+	public void testFlushLogsNothingBeforeIntervalHasEnded() {
+		errorLog.logError("messages without pid", () -> "someError1");
+		errorLog.logError("messages without pid", () -> "someError2");
+		passTimeInMillis(59999);
+		errorLog.flushEndedIntervals();
+		assertEquals(getNoOfErrorLogMessages(), 1);
+
+		passTimeInMillis(1);
+		errorLog.flushEndedIntervals();
+
+		assertEquals(getNoOfErrorLogMessages(), 2);
+	}
+
+	@Test
+	public void testFlushLogsNothingWhenNothingWasLeftOut() {
+		errorLog.logError("messages without pid", () -> "someError1");
+		passTimeInMillis(60000);
+
+		errorLog.flushEndedIntervals();
+
+		assertEquals(getNoOfErrorLogMessages(), 1);
+	}
+
+	@Test
+	public void testErrorAfterFlushIsLoggedAndStartsNewInterval() {
+		errorLog.logError("messages without pid", () -> "someError1");
+		errorLog.logError("messages without pid", () -> "someError2");
+		passTimeInMillis(60000);
+		errorLog.flushEndedIntervals();
+		errorLog.flushEndedIntervals();
+
+		errorLog.logError("messages without pid", () -> "someError3");
+		errorLog.logError("messages without pid", () -> "someError4");
+
+		assertEquals(getNoOfErrorLogMessages(), 3);
+		assertEquals(getErrorLogMessage(2), "someError3");
+	}
+
+	@Test
+	public void testCategoriesAreLimitedSeparately() {
+		errorLog.logError("messages without pid", () -> "someError1");
+		errorLog.logError("malformed messages", () -> "someError2");
+		errorLog.logError("malformed messages", () -> "someError3");
+
+		assertEquals(getNoOfErrorLogMessages(), 2);
+		assertEquals(getErrorLogMessage(1), "someError2");
+	}
+
+	@Test
+	public void testMessageIsOnlyCreatedWhenNeeded() {
+		AtomicInteger noOfCreatedMessages = new AtomicInteger();
+		for (int i = 0; i < 10; i++) {
+			errorLog.logError("messages without pid",
+					() -> "someError" + noOfCreatedMessages.incrementAndGet());
+		}
+
+		assertEquals(noOfCreatedMessages.get(), 2);
+	}
+}
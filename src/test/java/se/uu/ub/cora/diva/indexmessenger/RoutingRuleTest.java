@@ -0,0 +1,81 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.indexmessenger.IndexMessageException;
+
+public class RoutingRuleTest {
+
+	private RoutingRule routingRule = RoutingRule.forAuthorityPerson();
+
+	@Test
+	public void testAuthorityPerson() {
+		assertEquals(routingRule.getPidPrefix(), "authority-person:");
+		assertEquals(routingRule.getRecordType(), "person");
+		assertEquals(routingRule.getMethodNames(), Set.of("modifyDatastreamByReference",
+				"addDatastream", "purgeObject", "modifyObject"));
+	}
+
+	@Test(expectedExceptions = UnsupportedOperationException.class)
+	public void testMethodNamesCanNotBeChanged() {
+		routingRule.getMethodNames().add("getObject");
+	}
+
+	@Test(expectedExceptions = IndexMessageException.class, expectedExceptionsMessageRegExp = ""
+			+ "No methodNames in routing rule for namespace: diva-output")
+	public void testNoMethodNames() {
+		RoutingRule.forNamespaceUsingMethodNames("diva-output", "publication", List.of());
+	}
+
+	@Test
+	public void testDecideUsingMethodName() {
+		assertEquals(routingRule.decideUsingMethodName("modifyDatastreamByReference"),
+				HeaderDecision.UPDATE);
+		assertEquals(routingRule.decideUsingMethodName("addDatastream"), HeaderDecision.UPDATE);
+		assertEquals(routingRule.decideUsingMethodName("purgeObject"), HeaderDecision.DELETE);
+		assertEquals(routingRule.decideUsingMethodName("modifyObject"),
+				HeaderDecision.DELETE_IF_MARKED_IN_BODY);
+		assertEquals(routingRule.decideUsingMethodName("getObject"), HeaderDecision.REJECT);
+		assertEquals(routingRule.decideUsingMethodName(null), HeaderDecision.REJECT);
+	}
+
+	@Test
+	public void testForNamespaceUsingMethodNames() {
+		RoutingRule divaOutput = RoutingRule.forNamespaceUsingMethodNames("diva-output",
+				"publication", List.of("addDatastream", "purgeObject", "modifyObject",
+						"ingest"));
+
+		assertEquals(divaOutput.getPidPrefix(), "diva-output:");
+		assertEquals(divaOutput.getRecordType(), "publication");
+		assertEquals(divaOutput.decideUsingMethodName("addDatastream"), HeaderDecision.UPDATE);
+		assertEquals(divaOutput.decideUsingMethodName("ingest"), HeaderDecision.UPDATE);
+		assertEquals(divaOutput.decideUsingMethodName("purgeObject"), HeaderDecision.DELETE);
+		assertEquals(divaOutput.decideUsingMethodName("modifyObject"),
+				HeaderDecision.DELETE_IF_MARKED_IN_BODY);
+		assertEquals(divaOutput.decideUsingMethodName("modifyDatastreamByReference"),
+				HeaderDecision.REJECT);
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.indexmessenger.IndexMessageException;
+
+public class RoutingTableTest {
+	private RoutingRule authorityPerson = RoutingRule.forAuthorityPerson();
+	private RoutingRule divaOutput = RoutingRule.forNamespaceUsingMethodNames("diva-output",
+			"publication", List.of("modifyDatastreamByReference"));
+	private RoutingRule organisation = RoutingRule.forNamespaceUsingMethodNames(
+			"authority-organisation", "organisation", RoutingRule.DEFAULT_METHOD_NAMES);
+
+	@Test
+	public void testForAuthorityPerson() {
+		RoutingTable routingTable = RoutingTable.forAuthorityPerson();
+
+		assertEquals(routingTable.getRoutingRules().size(), 1);
+		RoutingRule routingRule = routingTable.findRoutingRuleForPid("authority-person:1");
+		assertEquals(routingRule.getPidPrefix(), "authority-person:");
+		assertEquals(routingRule.getRecordType(), "person");
+	}
+
+	@Test
+	public void testFindRoutingRuleForPid() {
+		RoutingTable routingTable = RoutingTable
+				.usingRoutingRules(List.of(authorityPerson, divaOutput, organisation));
+
+		assertSame(routingTable.findRoutingRuleForPid("authority-person:1"), authorityPerson);
+		assertSame(routingTable.findRoutingRuleForPid("diva-output:123"), divaOutput);
+		assertSame(routingTable.findRoutingRuleForPid("authority-organisation:5"), organisation);
+	}
+
+	@Test
+	public void testNoRoutingRuleForPid() {
+		RoutingTable routingTable = RoutingTable
+				.usingRoutingRules(List.of(authorityPerson, divaOutput));
+
+		assertNull(routingTable.findRoutingRuleForPid("diva2:1"));
+		assertNull(routingTable.findRoutingRuleForPid("authority-personal:1"));
+		assertNull(routingTable.findRoutingRuleForPid("authority-perso:1"));
+		assertNull(routingTable.findRoutingRuleForPid("authority-person"));
+		assertNull(routingTable.findRoutingRuleForPid(""));
+		assertNull(routingTable.findRoutingRuleForPid(":1"));
+	}
+
+	@Test
+	public void testPidWithSeveralColonsUsesPartBeforeFirstColon() {
+		RoutingTable routingTable = RoutingTable.usingRoutingRules(List.of(authorityPerson));
+
+		assertSame(routingTable.findRoutingRuleForPid("authority-person:1:2"), authorityPerson);
+	}
+
+	@Test
+	public void testEmptyRoutingTable() {
+		RoutingTable routingTable = RoutingTable.usingRoutingRules(List.of());
+
+		assertNull(routingTable.findRoutingRuleForPid("authority-person:1"));
+	}
+
+	@Test
+	public void testManyRoutingRules() {
+		List<RoutingRule> routingRules = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			routingRules.add(RoutingRule.forNamespaceUsingMethodNames("namespace" + i,
+					"recordType" + i, RoutingRule.DEFAULT_METHOD_NAMES));
+		}
+		RoutingTable routingTable = RoutingTable.usingRoutingRules(routingRules);
+
+		for (int i = 0; i < 1000; i++) {
+			assertSame(routingTable.findRoutingRuleForPid("namespace" + i + ":1"),
+					routingRules.get(i));
+		}
+		assertNull(routingTable.findRoutingRuleForPid("namespace1000:1"));
+	}
+
+	@Test
+	public void testPidPrefixesWithSameHash() {
+		RoutingRule first = RoutingRule.forNamespaceUsingMethodNames("Aa", "first",
+				RoutingRule.DEFAULT_METHOD_NAMES);
+		RoutingRule second = RoutingRule.forNamespaceUsingMethodNames("BB", "second",
+				RoutingRule.DEFAULT_METHOD_NAMES);
+		RoutingTable routingTable = RoutingTable.usingRoutingRules(List.of(first, second));
+
+		assertSame(routingTable.findRoutingRuleForPid("Aa:1"), first);
+		assertSame(routingTable.findRoutingRuleForPid("BB:1"), second);
+	}
+
+	@Test(expectedExceptions = IndexMessageException.class, expectedExceptionsMessageRegExp = ""
+			+ "More than one routing rule for pid prefix: authority-person:")
+	public void testDuplicatePidPrefix() {
+		RoutingTable.usingRoutingRules(
+				List.of(authorityPerson, RoutingRule.forAuthorityPerson()));
+	}
+
+	@Test
+	public void testUsesMethodName() {
+		RoutingRule diva2 = RoutingRule.forNamespaceUsingMethodNames("diva2", "publication",
+				List.of("addDatastream"));
+		RoutingTable routingTable = RoutingTable.usingRoutingRules(List.of(divaOutput, diva2));
+
+		assertTrue(routingTable.usesMethodName("modifyDatastreamByReference"));
+		assertTrue(routingTable.usesMethodName("addDatastream"));
+		assertFalse(routingTable.usesMethodName("purgeObject"));
+		assertFalse(routingTable.usesMethodName(null));
+	}
+
+	@Test(expectedExceptions = UnsupportedOperationException.class)
+	public void testRoutingRulesCanNotBeChanged() {
+		RoutingTable.forAuthorityPerson().getRoutingRules().add(divaOutput);
+	}
+
+	@Test
+	public void testFromPropertiesWithoutRoutingPropertiesIsAuthorityPerson() {
+		RoutingTable routingTable = RoutingTable.fromProperties(new Properties());
+
+		assertEquals(routingTable.getRoutingRules().size(), 1);
+		assertEquals(routingTable.findRoutingRuleForPid("authority-person:1").getRecordType(),
+				"person");
+	}
+
+	@Test
+	public void testFromProperties() {
+		Properties properties = new Properties();
+		properties.put("routing.diva-output.recordType", " publication ");
+		properties.put("routing.diva-output.methodNames", "addDatastream , purgeObject,,");
+		properties.put("routing.authority-person.recordType", "person");
+		properties.put("someOther.property", "someValue");
+
+		RoutingTable routingTable = RoutingTable.fromProperties(properties);
+
+		List<RoutingRule> routingRules = routingTable.getRoutingRules();
+		assertEquals(routingRules.size(), 2);
+		assertEquals(routingRules.get(0).getPidPrefix(), "authority-person:");
+		assertEquals(routingRules.get(0).getMethodNames(),
+				Set.copyOf(RoutingRule.DEFAULT_METHOD_NAMES));
+		RoutingRule divaOutputRule = routingTable.findRoutingRuleForPid("diva-output:1");
+		assertEquals(divaOutputRule.getRecordType(), "publication");
+		assertEquals(divaOutputRule.getMethodNames(), Set.of("addDatastream", "purgeObject"));
+		assertEquals(divaOutputRule.decideUsingMethodName("purgeObject"), HeaderDecision.DELETE);
+	}
+
+	@Test(expectedExceptions = IndexMessageException.class, expectedExceptionsMessageRegExp = ""
+			+ "No method names in property: routing.diva-output.methodNames")
+	public void testFromPropertiesWithEmptyMethodNames() {
+		Properties properties = new Properties();
+		properties.put("routing.diva-output.recordType", "publication");
+		properties.put("routing.diva-output.methodNames", "");
+
+		RoutingTable.fromProperties(properties);
+	}
+
+	@Test(expectedExceptions = IndexMessageException.class, expectedExceptionsMessageRegExp = ""
+			+ "No method names in property: routing.diva-output.methodNames")
+	public void testFromPropertiesWithOnlySeparatorsInMethodNames() {
+		Properties properties = new Properties();
+		properties.put("routing.diva-output.recordType", "publication");
+		properties.put("routing.diva-output.methodNames", " , ,");
+
+		RoutingTable.fromProperties(properties);
+	}
+}
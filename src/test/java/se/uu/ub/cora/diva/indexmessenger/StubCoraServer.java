@@ -0,0 +1,152 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderExecutors;
+
+/**
+ * StubCoraServer is a local HTTP server imitating the appToken verifier and the workOrder endpoint
+ * of Cora. Each created work order waits the configured latency before it is answered, and its
+ * recordId is handed to the given consumer.
+ */
+public class StubCoraServer implements Closeable {
+	private static final Pattern RECORD_ID = Pattern
+			.compile("\"name\":\"recordId\",\"value\":\"([^\"]*)\"");
+	private static final String AUTH_TOKEN_JSON = "{\"data\":{\"children\":["
+			+ "{\"name\":\"id\",\"value\":\"someAuthToken\"},"
+			+ "{\"name\":\"validForNoSeconds\",\"value\":\"600\"}],\"name\":\"authToken\"},"
+			+ "\"actionLinks\":{}}";
+	private static final String WORK_ORDER_JSON = "{\"record\":{\"data\":{\"children\":[],"
+			+ "\"name\":\"workOrder\"},\"actionLinks\":{}}}";
+	private HttpServer server;
+	private ExecutorService executor;
+	private long latencyInMillis;
+	private Consumer<String> createdRecordIdConsumer;
+	private LongAdder noOfAuthTokenRequests = new LongAdder();
+	private LongAdder noOfWorkOrderRequests = new LongAdder();
+
+	private StubCoraServer(long latencyInMillis, Consumer<String> createdRecordIdConsumer) {
+		this.latencyInMillis = latencyInMillis;
+		this.createdRecordIdConsumer = createdRecordIdConsumer;
+	}
+
+	public static StubCoraServer startUsingLatency(long latencyInMillis,
+			Consumer<String> createdRecordIdConsumer) throws IOException {
+		StubCoraServer stubCoraServer = new StubCoraServer(latencyInMillis,
+				createdRecordIdConsumer);
+		stubCoraServer.start();
+		return stubCoraServer;
+	}
+
+	private void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/apptokenverifier/rest/apptoken/", this::handleAuthTokenRequest);
+		server.createContext("/therest/rest/record/workOrder", this::handleWorkOrderRequest);
+		executor = Executors
+				.newCachedThreadPool(WorkOrderExecutors.createDaemonThreadFactory("stubCora"));
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	private void handleAuthTokenRequest(HttpExchange exchange) throws IOException {
+		noOfAuthTokenRequests.increment();
+		readBody(exchange);
+		respond(exchange, 201, AUTH_TOKEN_JSON);
+	}
+
+	private String readBody(HttpExchange exchange) throws IOException {
+		try (InputStream body = exchange.getRequestBody()) {
+			return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private void respond(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] response = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, response.length);
+		try (OutputStream body = exchange.getResponseBody()) {
+			body.write(response);
+		}
+	}
+
+	private void handleWorkOrderRequest(HttpExchange exchange) throws IOException {
+		noOfWorkOrderRequests.increment();
+		String workOrder = readBody(exchange);
+		waitForLatency();
+		Matcher matcher = RECORD_ID.matcher(workOrder);
+		if (!matcher.find()) {
+			respond(exchange, 400, "{}");
+			return;
+		}
+		createdRecordIdConsumer.accept(matcher.group(1));
+		respond(exchange, 201, WORK_ORDER_JSON);
+	}
+
+	private void waitForLatency() {
+		if (latencyInMillis > 0) {
+			try {
+				Thread.sleep(latencyInMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	public String getAppTokenVerifierUrl() {
+		return getServerUrl() + "apptokenverifier/";
+	}
+
+	private String getServerUrl() {
+		return "http://localhost:" + server.getAddress().getPort() + "/";
+	}
+
+	public String getBaseUrl() {
+		return getServerUrl() + "therest/rest/";
+	}
+
+	public long getNoOfAuthTokenRequests() {
+		return noOfAuthTokenRequests.sum();
+	}
+
+	public long getNoOfWorkOrderRequests() {
+		return noOfWorkOrderRequests.sum();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.authtoken;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import se.uu.ub.cora.diva.indexmessenger.http.CoraHttpClient;
+import se.uu.ub.cora.indexmessenger.CoraCredentials;
+import se.uu.ub.cora.indexmessenger.IndexMessageException;
+
+public class AppTokenVerifierClientTest {
+	private static final String AUTH_TOKEN_JSON = "{\"data\":{\"children\":["
+			+ "{\"name\":\"id\",\"value\":\"a8675062-a00d-4f6b-ada3-510934ad779d\"},"
+			+ "{\"name\":\"validForNoSeconds\",\"value\":\"600\"}],\"name\":\"authToken\"},"
+			+ "\"actionLinks\":{\"delete\":{}}}";
+	private HttpServer server;
+	private CoraHttpClient httpClient;
+	private CoraCredentials credentials;
+	private AppTokenVerifierClient client;
+	private int responseCode = 201;
+	private String responseJson = AUTH_TOKEN_JSON;
+	private String requestedPath;
+	private String requestedMethod;
+	private String requestedBody;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/apptokenverifier/", this::handleRequest);
+		server.start();
+		httpClient = new CoraHttpClient(2, 5000, 1024);
+		credentials = new CoraCredentials("someUserId", "someAppToken");
+		client = new AppTokenVerifierClient(httpClient, getAppTokenVerifierUrl(), credentials);
+	}
+
+	private String getAppTokenVerifierUrl() {
+		return "http://localhost:" + server.getAddress().getPort() + "/apptokenverifier/";
+	}
+
+	private void handleRequest(HttpExchange exchange) throws IOException {
+		requestedPath = exchange.getRequestURI().getPath();
+		requestedMethod = exchange.getRequestMethod();
+		try (InputStream body = exchange.getRequestBody()) {
+			requestedBody = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+		}
+		byte[] response = responseJson.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(responseCode, response.length);
+		try (OutputStream body = exchange.getResponseBody()) {
+			body.write(response);
+		}
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void testInit() {
+		assertSame(client.getHttpClient(), httpClient);
+		assertEquals(client.getAppTokenVerifierUrl(), getAppTokenVerifierUrl());
+		assertSame(client.getCredentials(), credentials);
+	}
+
+	@Test
+	public void testFetchAuthToken() {
+		AuthToken authToken = client.fetchAuthToken();
+
+		assertEquals(requestedMethod, "POST");
+		assertEquals(requestedPath, "/apptokenverifier/rest/apptoken/someUserId");
+		assertEquals(requestedBody, "someAppToken");
+		assertEquals(authToken.getToken(), "a8675062-a00d-4f6b-ada3-510934ad779d");
+		assertEquals(authToken.getValidForInMillis(), 600000);
+	}
+
+	@Test(expectedExceptions = IndexMessageException.class, expectedExceptionsMessageRegExp = ""
+			+ "Could not get authToken from: http://localhost:\\d+/apptokenverifier/rest/apptoken/"
+			+ "someUserId. Response code: 401")
+	public void testUnauthorized() {
+		responseCode = 401;
+		responseJson = "";
+
+		client.fetchAuthToken();
+	}
+
+	@Test(expectedExceptions = IndexMessageException.class, expectedExceptionsMessageRegExp = ""
+			+ "Could not read authToken from: http://localhost:\\d+/apptokenverifier/rest/"
+			+ "apptoken/someUserId")
+	public void testResponseWithoutValidity() {
+		responseJson = "{\"data\":{\"children\":[{\"name\":\"id\",\"value\":\"someToken\"}]}}";
+
+		client.fetchAuthToken();
+	}
+
+	@Test(expectedExceptions = UncheckedIOException.class, expectedExceptionsMessageRegExp = ""
+			+ "Could not get authToken from: http://localhost:\\d+/apptokenverifier/rest/"
+			+ "apptoken/someUserId")
+	public void testServerNotAvailable() {
+		String appTokenVerifierUrl = getAppTokenVerifierUrl();
+		server.stop(0);
+
+		new AppTokenVerifierClient(httpClient, appTokenVerifierUrl, credentials).fetchAuthToken();
+	}
+}
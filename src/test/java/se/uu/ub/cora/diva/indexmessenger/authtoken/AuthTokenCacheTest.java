@@ -0,0 +1,185 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.authtoken;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.diva.indexmessenger.workorder.ScheduledExecutorSpy;
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class AuthTokenCacheTest {
+	private LoggerFactorySpy loggerFactory;
+	private String testedClassname = "AuthTokenCache";
+	private AuthTokenFetcherSpy authTokenFetcher;
+	private ScheduledExecutorSpy scheduler;
+	private AuthTokenCache authTokenCache;
+	private long now = 0;
+
+	@BeforeMethod
+	public void setUp() {
+		loggerFactory = new LoggerFactorySpy();
+		LoggerProvider.setLoggerFactory(loggerFactory);
+		authTokenFetcher = new AuthTokenFetcherSpy();
+		scheduler = new ScheduledExecutorSpy();
+		authTokenCache = new AuthTokenCache(authTokenFetcher, 60000, 5000, scheduler, () -> now);
+	}
+
+	@Test
+	public void testInit() {
+		AuthTokenCache cache = new AuthTokenCache(authTokenFetcher, 1000, 200, scheduler);
+
+		assertSame(cache.getAuthTokenFetcher(), authTokenFetcher);
+		assertEquals(cache.getRefreshMarginInMillis(), 1000);
+		assertEquals(cache.getRetryDelayInMillis(), 200);
+		assertSame(cache.getScheduler(), scheduler);
+	}
+
+	@Test
+	public void testAuthTokenIsFetchedOnFirstUseAndShared() {
+		assertEquals(authTokenCache.getAuthToken(), "someAuthToken1");
+		assertEquals(authTokenCache.getAuthToken(), "someAuthToken1");
+
+		assertEquals(authTokenFetcher.noOfFetches, 1);
+	}
+
+	@Test
+	public void testRefreshIsScheduledMarginBeforeExpiry() {
+		authTokenCache.getAuthToken();
+
+		assertEquals(scheduler.delaysInMillis, List.of(540000L));
+	}
+
+	@Test
+	public void testRefreshIsNotScheduledEarlierThanHalfOfValidity() {
+		authTokenFetcher.validForInMillis = 100000;
+
+		authTokenCache.getAuthToken();
+
+		assertEquals(scheduler.delaysInMillis, List.of(50000L));
+	}
+
+	@Test
+	public void testScheduledRefreshReplacesAuthToken() {
+		authTokenCache.getAuthToken();
+
+		scheduler.runScheduledCommand(0);
+
+		assertEquals(authTokenCache.getAuthToken(), "someAuthToken2");
+		assertEquals(authTokenFetcher.noOfFetches, 2);
+		assertEquals(scheduler.delaysInMillis, List.of(540000L, 540000L));
+	}
+
+	@Test
+	public void testStartRefreshingFetchesInBackground() {
+		authTokenCache.startRefreshing();
+		assertEquals(authTokenFetcher.noOfFetches, 0);
+
+		scheduler.runScheduledCommand(0);
+
+		assertEquals(authTokenFetcher.noOfFetches, 1);
+		assertEquals(authTokenCache.getAuthToken(), "someAuthToken1");
+		assertEquals(authTokenFetcher.noOfFetches, 1);
+	}
+
+	@Test
+	public void testExpiredAuthTokenIsFetchedAgain() {
+		authTokenCache.getAuthToken();
+
+		now += TimeUnit.MILLISECONDS.toNanos(599999);
+		assertEquals(authTokenCache.getAuthToken(), "someAuthToken1");
+		now += TimeUnit.MILLISECONDS.toNanos(1);
+		assertEquals(authTokenCache.getAuthToken(), "someAuthToken2");
+	}
+
+	@Test
+	public void testInvalidatedAuthTokenIsFetchedAgain() {
+		authTokenCache.getAuthToken();
+
+		authTokenCache.invalidate("someAuthToken1");
+
+		assertEquals(authTokenCache.getAuthToken(), "someAuthToken2");
+	}
+
+	@Test
+	public void testInvalidatingOlderAuthTokenKeepsCurrent() {
+		authTokenCache.getAuthToken();
+		authTokenCache.invalidate("someAuthToken1");
+		authTokenCache.getAuthToken();
+
+		authTokenCache.invalidate("someAuthToken1");
+
+		assertEquals(authTokenCache.getAuthToken(), "someAuthToken2");
+		assertEquals(authTokenFetcher.noOfFetches, 2);
+	}
+
+	@Test
+	public void testInvalidateBeforeFirstFetch() {
+		authTokenCache.invalidate("someAuthToken1");
+
+		assertEquals(authTokenCache.getAuthToken(), "someAuthToken1");
+	}
+
+	@Test
+	public void testFailedBackgroundRefreshIsLoggedAndRetried() {
+		RuntimeException error = new RuntimeException("someError");
+		authTokenFetcher.errorsToThrow.add(error);
+		authTokenCache.startRefreshing();
+
+		scheduler.runScheduledCommand(0);
+
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Unable to refresh authToken, retrying in: 5000 ms");
+		assertSame(loggerFactory.getErrorLogErrorUsingClassNameAndNo(testedClassname, 0), error);
+		assertEquals(scheduler.delaysInMillis, List.of(0L, 5000L));
+
+		scheduler.runScheduledCommand(1);
+		assertEquals(authTokenCache.getAuthToken(), "someAuthToken1");
+	}
+
+	@Test(expectedExceptions = RuntimeException.class, expectedExceptionsMessageRegExp = ""
+			+ "someError")
+	public void testFailedFetchOnUseIsThrown() {
+		authTokenFetcher.errorsToThrow.add(new RuntimeException("someError"));
+
+		authTokenCache.getAuthToken();
+	}
+
+	@Test
+	public void testAuthTokenIsStillFetchedAfterStopRefreshing() {
+		ScheduledExecutorService realScheduler = Executors.newSingleThreadScheduledExecutor();
+		authTokenCache = new AuthTokenCache(authTokenFetcher, 60000, 5000, realScheduler,
+				() -> now);
+
+		authTokenCache.stopRefreshing();
+
+		assertTrue(realScheduler.isShutdown());
+		assertEquals(authTokenCache.getAuthToken(), "someAuthToken1");
+	}
+}
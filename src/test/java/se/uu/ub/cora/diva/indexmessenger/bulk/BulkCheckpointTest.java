@@ -0,0 +1,87 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.bulk;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class BulkCheckpointTest {
+	private Path directory;
+	private Path checkpointFile;
+	private BulkCheckpoint checkpoint;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("bulkCheckpointTest");
+		checkpointFile = directory.resolve("pids.txt.checkpoint");
+		checkpoint = new BulkCheckpoint(checkpointFile);
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Test
+	public void testInit() {
+		assertEquals(checkpoint.getCheckpointFile(), checkpointFile);
+	}
+
+	@Test
+	public void testNoCheckpointFileMeansNothingHandled() {
+		assertEquals(checkpoint.readNoOfHandledMessages(), 0);
+	}
+
+	@Test
+	public void testWriteAndRead() throws IOException {
+		checkpoint.writeNoOfHandledMessages(100);
+		checkpoint.writeNoOfHandledMessages(1234567890123L);
+
+		assertEquals(new BulkCheckpoint(checkpointFile).readNoOfHandledMessages(),
+				1234567890123L);
+		assertEquals(Files.readString(checkpointFile), "1234567890123");
+		assertFalse(Files.exists(directory.resolve("pids.txt.checkpoint.tmp")));
+	}
+
+	@Test(expectedExceptions = UncheckedIOException.class, expectedExceptionsMessageRegExp = ""
+			+ "Unable to write bulk checkpoint: .*")
+	public void testWriteToMissingDirectory() {
+		new BulkCheckpoint(directory.resolve("missing").resolve("checkpoint"))
+				.writeNoOfHandledMessages(1);
+	}
+
+	@Test(expectedExceptions = UncheckedIOException.class, expectedExceptionsMessageRegExp = ""
+			+ "Unable to read bulk checkpoint: .*")
+	public void testReadDirectory() {
+		new BulkCheckpoint(directory).readNoOfHandledMessages();
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.bulk;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class BulkFailureFileTest {
+	private Path directory;
+	private Path failureFile;
+	private BulkFailureFile bulkFailureFile;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("bulkFailureFileTest");
+		failureFile = directory.resolve("pids.txt.failed");
+		bulkFailureFile = new BulkFailureFile(failureFile);
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Test
+	public void testInit() {
+		assertEquals(bulkFailureFile.getFailureFile(), failureFile);
+	}
+
+	@Test
+	public void testAppend() throws IOException {
+		bulkFailureFile.append(List.of("authority-person:1", "authority-person:2"));
+		bulkFailureFile.append(List.of("authority-person:3"));
+
+		assertEquals(Files.readString(failureFile),
+				"authority-person:1\nauthority-person:2\nauthority-person:3\n");
+	}
+
+	@Test
+	public void testClear() {
+		bulkFailureFile.append(List.of("authority-person:1"));
+
+		bulkFailureFile.clear();
+		bulkFailureFile.clear();
+
+		assertFalse(Files.exists(failureFile));
+	}
+
+	@Test(expectedExceptions = UncheckedIOException.class, expectedExceptionsMessageRegExp = ""
+			+ "Unable to write bulk failure file: .*")
+	public void testAppendToMissingDirectory() {
+		new BulkFailureFile(directory.resolve("missing").resolve("failed"))
+				.append(List.of("authority-person:1"));
+	}
+
+	@Test(expectedExceptions = UncheckedIOException.class, expectedExceptionsMessageRegExp = ""
+			+ "Unable to clear bulk failure file: .*")
+	public void testClearNonEmptyDirectory() throws IOException {
+		Files.createDirectory(failureFile);
+		Files.writeString(failureFile.resolve("someFile"), "");
+
+		bulkFailureFile.clear();
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.bulk;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BulkInputSpy implements BulkInput {
+
+	public List<BulkMessage> messages = new ArrayList<>();
+	public int noOfReadMessages = 0;
+	public boolean closed = false;
+
+	public BulkInputSpy addMessageForPid(String methodName, String pid) {
+		Map<String, String> headers = new HashMap<>();
+		headers.put("methodName", methodName);
+		headers.put("pid", pid);
+		messages.add(new BulkMessage(headers, ""));
+		return this;
+	}
+
+	@Override
+	public BulkMessage readNextMessage() {
+		if (noOfReadMessages == messages.size()) {
+			return null;
+		}
+		return messages.get(noOfReadMessages++);
+	}
+
+	@Override
+	public double getFractionRead() {
+		return (double) noOfReadMessages / messages.size();
+	}
+
+	@Override
+	public String formatMessage(BulkMessage message) {
+		return message.getHeaders().get("pid");
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+	}
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.bulk;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import javax.management.MBeanServerFactory;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.diva.indexmessenger.DivaMessageParser;
+import se.uu.ub.cora.diva.indexmessenger.metrics.MetricsRegistrar;
+import se.uu.ub.cora.diva.indexmessenger.metrics.PipelineMetrics;
+import se.uu.ub.cora.diva.indexmessenger.workorder.ParallelWorkOrderBatchSender;
+import se.uu.ub.cora.indexmessenger.CoraCredentials;
+import se.uu.ub.cora.indexmessenger.IndexMessageException;
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.javaclient.cora.CoraClientFactory;
+import se.uu.ub.cora.javaclient.cora.CoraClientFactoryImp;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class BulkReindexerFactoryTest {
+	private LoggerFactorySpy loggerFactory;
+	private String testedClassname = "BulkReindexerFactory";
+	private Properties properties;
+	private DivaMessageParser messageParser;
+	private PipelineMetrics pipelineMetrics;
+	private MetricsRegistrar metricsRegistrar;
+	private CoraClientFactory coraClientFactory;
+	private CoraCredentials credentials;
+	private Path inputFile;
+	private BulkReindexerFactory factory;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		loggerFactory = new LoggerFactorySpy();
+		LoggerProvider.setLoggerFactory(loggerFactory);
+		properties = new Properties();
+		messageParser = new DivaMessageParser();
+		pipelineMetrics = new PipelineMetrics(messageParser.getParseCounters());
+		metricsRegistrar = new MetricsRegistrar(MBeanServerFactory.newMBeanServer());
+		coraClientFactory = CoraClientFactoryImp
+				.usingAppTokenVerifierUrlAndBaseUrl("someAppTokenVerifierUrl", "someBaseUrl");
+		credentials = new CoraCredentials("someUserId", "someAppToken");
+		inputFile = Files.createTempFile("bulkReindexerFactoryTest", ".txt");
+		factory = new BulkReindexerFactory(properties, pipelineMetrics, metricsRegistrar);
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(inputFile);
+	}
+
+	@Test
+	public void testInit() {
+		assertSame(factory.getProperties(), properties);
+		assertSame(factory.getPipelineMetrics(), pipelineMetrics);
+		assertSame(factory.getMetricsRegistrar(), metricsRegistrar);
+	}
+
+	@Test
+	public void testFactorUsingDefaultValues() {
+		BulkReindexer reindexer = factory.factor(coraClientFactory, credentials, messageParser,
+				inputFile);
+
+		assertSame(reindexer.getMessageParser(), messageParser);
+		assertSame(reindexer.getPipelineMetrics(), pipelineMetrics);
+		assertEquals(reindexer.getBatchSize(), 100);
+		assertEquals(reindexer.getProgressIntervalInMillis(), 10000);
+		assertEquals(reindexer.getCheckpoint().getCheckpointFile(),
+				Path.of(inputFile + ".checkpoint"));
+		assertEquals(reindexer.getFailureFile().getFailureFile(), Path.of(inputFile + ".failed"));
+		assertTrue(reindexer.getBatchSender() instanceof ParallelWorkOrderBatchSender);
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Bulk reindexing from: " + inputFile + " in batches of: 100 using: 8 workers"
+						+ " with checkpoint in: " + inputFile + ".checkpoint and failures in: "
+						+ inputFile + ".failed");
+	}
+
+	@Test
+	public void testFactorUsingProperties() {
+		properties.put("bulk.concurrency", "3");
+		properties.put("bulk.batchSize", " 20 ");
+		properties.put("bulk.progressIntervalInMillis", "500");
+		properties.put("bulk.checkpointFile", "/tmp/someCheckpoint");
+		properties.put("bulk.failureFile", "/tmp/someFailures");
+
+		BulkReindexer reindexer = factory.factor(coraClientFactory, credentials, messageParser,
+				inputFile);
+
+		assertEquals(reindexer.getBatchSize(), 20);
+		assertEquals(reindexer.getProgressIntervalInMillis(), 500);
+		assertEquals(reindexer.getCheckpoint().getCheckpointFile(),
+				Path.of("/tmp/someCheckpoint"));
+		assertEquals(reindexer.getFailureFile().getFailureFile(), Path.of("/tmp/someFailures"));
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Bulk reindexing from: " + inputFile + " in batches of: 20 using: 3 workers"
+						+ " with checkpoint in: /tmp/someCheckpoint and failures in:"
+						+ " /tmp/someFailures");
+	}
+
+	@Test
+	public void testOpenPidListInputByDefault() {
+		try (BulkInput input = factory.openInput(inputFile)) {
+			PidListInput pidListInput = (PidListInput) input;
+			assertEquals(pidListInput.getInputFile(), inputFile);
+			assertEquals(pidListInput.getMethodName(), "modifyDatastreamByReference");
+		}
+	}
+
+	@Test
+	public void testOpenPidListInputUsingMethodName() {
+		properties.put("bulk.format", "pids");
+		properties.put("bulk.methodName", "addDatastream");
+
+		try (BulkInput input = factory.openInput(inputFile)) {
+			assertEquals(((PidListInput) input).getMethodName(), "addDatastream");
+		}
+	}
+
+	@Test
+	public void testOpenMessageDumpInput() {
+		properties.put("bulk.format", "messages");
+
+		try (BulkInput input = factory.openInput(inputFile)) {
+			assertEquals(((MessageDumpInput) input).getInputFile(), inputFile);
+		}
+	}
+
+	@Test(expectedExceptions = IndexMessageException.class, expectedExceptionsMessageRegExp = ""
+			+ "Unknown bulk input format: json")
+	public void testUnknownInputFormat() {
+		properties.put("bulk.format", "json");
+
+		factory.openInput(inputFile);
+	}
+}
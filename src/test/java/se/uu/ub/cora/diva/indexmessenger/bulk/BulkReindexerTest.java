@@ -0,0 +1,272 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.bulk;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.diva.indexmessenger.DivaMessageParser;
+import se.uu.ub.cora.diva.indexmessenger.metrics.PipelineMetrics;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrder;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderBatchSenderSpy;
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class BulkReindexerTest {
+	private static final String METHOD_NAME = "modifyDatastreamByReference";
+	private LoggerFactorySpy loggerFactory;
+	private String testedClassname = "BulkReindexer";
+	private Path directory;
+	private DivaMessageParser messageParser;
+	private WorkOrderBatchSenderSpy batchSender;
+	private PipelineMetrics pipelineMetrics;
+	private BulkCheckpoint checkpoint;
+	private BulkFailureFile failureFile;
+	private BulkInputSpy input;
+	private long now = 0;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		loggerFactory = new LoggerFactorySpy();
+		LoggerProvider.setLoggerFactory(loggerFactory);
+		directory = Files.createTempDirectory("bulkReindexerTest");
+		messageParser = new DivaMessageParser();
+		batchSender = new WorkOrderBatchSenderSpy();
+		pipelineMetrics = new PipelineMetrics(messageParser.getParseCounters());
+		checkpoint = new BulkCheckpoint(directory.resolve("checkpoint"));
+		failureFile = new BulkFailureFile(directory.resolve("failed"));
+		input = new BulkInputSpy();
+		for (int i = 1; i <= 5; i++) {
+			input.addMessageForPid(METHOD_NAME, "authority-person:" + i);
+		}
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	private BulkReindexer createReindexerUsingBatchSize(int batchSize) {
+		return new BulkReindexer(messageParser, batchSender, pipelineMetrics, checkpoint,
+				failureFile, batchSize, 10000, () -> now);
+	}
+
+	@Test
+	public void testInit() {
+		BulkReindexer reindexer = new BulkReindexer(messageParser, batchSender, pipelineMetrics,
+				checkpoint, failureFile, 100, 5000);
+
+		assertSame(reindexer.getMessageParser(), messageParser);
+		assertSame(reindexer.getBatchSender(), batchSender);
+		assertSame(reindexer.getPipelineMetrics(), pipelineMetrics);
+		assertSame(reindexer.getCheckpoint(), checkpoint);
+		assertSame(reindexer.getFailureFile(), failureFile);
+		assertEquals(reindexer.getBatchSize(), 100);
+		assertEquals(reindexer.getProgressIntervalInMillis(), 5000);
+	}
+
+	@Test
+	public void testWorkOrdersAreSentInBatches() {
+		BulkReindexer reindexer = createReindexerUsingBatchSize(2);
+
+		reindexer.reindex(input);
+
+		assertEquals(batchSender.sentBatches.size(), 3);
+		assertEquals(batchSender.sentBatches.get(0), List.of(
+				new WorkOrder("person", "authority-person:1", "update"),
+				new WorkOrder("person", "authority-person:2", "update")));
+		assertEquals(batchSender.sentBatches.get(2),
+				List.of(new WorkOrder("person", "authority-person:5", "update")));
+		assertEquals(reindexer.getNoOfReadMessages(), 5);
+		assertEquals(reindexer.getNoOfWorkOrders(), 5);
+		assertEquals(reindexer.getNoOfSkippedMessages(), 0);
+		assertEquals(checkpoint.readNoOfHandledMessages(), 5);
+		assertEquals(pipelineMetrics.getParseLatency().getCount(), 5);
+	}
+
+	@Test
+	public void testRejectedMessagesCountAsHandledButAreNotSent() {
+		input.addMessageForPid(METHOD_NAME, "diva2:1");
+		input.addMessageForPid("modifyDatastreamByValue", "authority-person:6");
+		BulkReindexer reindexer = createReindexerUsingBatchSize(5);
+
+		reindexer.reindex(input);
+
+		assertEquals(batchSender.sentBatches.size(), 1);
+		assertEquals(reindexer.getNoOfReadMessages(), 7);
+		assertEquals(reindexer.getNoOfWorkOrders(), 5);
+		assertEquals(checkpoint.readNoOfHandledMessages(), 7);
+	}
+
+	@Test
+	public void testCheckpointIsWrittenAfterEachBatchIsSent() {
+		List<Long> checkpointWhenSent = new ArrayList<>();
+		BulkReindexer reindexer = new BulkReindexer(messageParser, workOrders -> {
+			checkpointWhenSent.add(checkpoint.readNoOfHandledMessages());
+			return List.of();
+		}, pipelineMetrics, checkpoint, failureFile, 2, 10000, () -> now);
+
+		reindexer.reindex(input);
+
+		assertEquals(checkpointWhenSent, List.of(0L, 2L, 4L));
+		assertEquals(checkpoint.readNoOfHandledMessages(), 5);
+	}
+
+	@Test
+	public void testResumeFromCheckpoint() {
+		checkpoint.writeNoOfHandledMessages(3);
+		BulkReindexer reindexer = createReindexerUsingBatchSize(10);
+
+		reindexer.reindex(input);
+
+		assertEquals(reindexer.getNoOfSkippedMessages(), 3);
+		assertEquals(reindexer.getNoOfReadMessages(), 2);
+		assertEquals(batchSender.sentBatches.get(0), List.of(
+				new WorkOrder("person", "authority-person:4", "update"),
+				new WorkOrder("person", "authority-person:5", "update")));
+		assertEquals(checkpoint.readNoOfHandledMessages(), 5);
+		assertEquals(pipelineMetrics.getParseLatency().getCount(), 2);
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Resuming bulk reindex after: 3 messages already handled");
+	}
+
+	@Test
+	public void testCheckpointAfterEndOfInput() {
+		checkpoint.writeNoOfHandledMessages(10);
+		BulkReindexer reindexer = createReindexerUsingBatchSize(2);
+
+		reindexer.reindex(input);
+
+		assertEquals(reindexer.getNoOfSkippedMessages(), 5);
+		assertEquals(reindexer.getNoOfReadMessages(), 0);
+		assertEquals(batchSender.sentBatches.size(), 0);
+		assertEquals(checkpoint.readNoOfHandledMessages(), 10);
+	}
+
+	@Test
+	public void testFailedMessagesAreWrittenWithTheCheckpoint() throws IOException {
+		batchSender.failedWorkOrders.add(new WorkOrder("person", "authority-person:2", "update"));
+		batchSender.failedWorkOrders.add(new WorkOrder("person", "authority-person:5", "update"));
+		List<String> failedWhenSent = new ArrayList<>();
+		BulkReindexer reindexer = new BulkReindexer(messageParser, workOrders -> {
+			failedWhenSent.add(checkpoint.readNoOfHandledMessages() + ":" + readFailureFile());
+			return batchSender.sendBatch(workOrders);
+		}, pipelineMetrics, checkpoint, failureFile, 2, 10000, () -> now);
+
+		reindexer.reindex(input);
+
+		assertEquals(failedWhenSent,
+				List.of("0:", "2:authority-person:2\n", "4:authority-person:2\n"));
+		assertEquals(Files.readString(failureFile.getFailureFile()),
+				"authority-person:2\nauthority-person:5\n");
+		assertEquals(reindexer.getNoOfFailedMessages(), 2);
+		assertEquals(checkpoint.readNoOfHandledMessages(), 5);
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Bulk reindex failed for: 2 messages, written to: " + directory.resolve("failed")
+						+ ", reindex them by using it as input");
+	}
+
+	private String readFailureFile() {
+		try {
+			return Files.readString(failureFile.getFailureFile());
+		} catch (IOException exception) {
+			return "";
+		}
+	}
+
+	@Test
+	public void testFailureFileIsClearedWhenStartingFromBeginning() throws IOException {
+		Files.writeString(failureFile.getFailureFile(), "authority-person:9\n");
+		batchSender.failedWorkOrders.add(new WorkOrder("person", "authority-person:1", "update"));
+
+		createReindexerUsingBatchSize(10).reindex(input);
+
+		assertEquals(Files.readString(failureFile.getFailureFile()), "authority-person:1\n");
+	}
+
+	@Test
+	public void testFailureFileIsKeptWhenResuming() throws IOException {
+		Files.writeString(failureFile.getFailureFile(), "authority-person:1\n");
+		checkpoint.writeNoOfHandledMessages(3);
+		batchSender.failedWorkOrders.add(new WorkOrder("person", "authority-person:4", "update"));
+
+		createReindexerUsingBatchSize(10).reindex(input);
+
+		assertEquals(Files.readString(failureFile.getFailureFile()),
+				"authority-person:1\nauthority-person:4\n");
+	}
+
+	@Test
+	public void testNoFailureFileWithoutFailures() {
+		createReindexerUsingBatchSize(2).reindex(input);
+
+		assertFalse(Files.exists(failureFile.getFailureFile()));
+		assertEquals(loggerFactory.getNoOfErrorLogMessagesUsingClassName(testedClassname), 0);
+	}
+
+	@Test
+	public void testProgressAndFinishedAreLogged() {
+		input.messages.remove(4);
+		BulkReindexer reindexer = new BulkReindexer(messageParser, workOrders -> {
+			now += TimeUnit.SECONDS.toNanos(1);
+			return batchSender.sendBatch(workOrders);
+		}, pipelineMetrics, checkpoint, failureFile, 2, 1000, () -> now);
+
+		reindexer.reindex(input);
+
+		assertEquals(loggerFactory.getNoOfInfoLogMessagesUsingClassname(testedClassname), 3);
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Bulk reindex progress: 50% read, 2 messages read, 2 work orders sent, 0 failed,"
+						+ " 2 messages/s, about 0:00:01 left");
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 1),
+				"Bulk reindex progress: 100% read, 4 messages read, 4 work orders sent,"
+						+ " 0 failed, 2 messages/s, about 0:00:00 left");
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 2),
+				"Bulk reindex finished: 4 messages read, 4 work orders sent, 0 failed,"
+						+ " in 0:00:02");
+	}
+
+	@Test
+	public void testProgressIsNotLoggedMoreOftenThanInterval() {
+		BulkReindexer reindexer = createReindexerUsingBatchSize(1);
+
+		reindexer.reindex(input);
+
+		assertEquals(loggerFactory.getNoOfInfoLogMessagesUsingClassname(testedClassname), 1);
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Bulk reindex finished: 5 messages read, 5 work orders sent, 0 failed,"
+						+ " in 0:00:00");
+	}
+}
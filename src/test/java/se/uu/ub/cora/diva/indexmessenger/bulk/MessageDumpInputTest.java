@@ -0,0 +1,134 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.bulk;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class MessageDumpInputTest {
+	private static final String TEST_RESOURCES_FILE_PATH = "./src/test/resources/";
+	private Path inputFile;
+	private String triggeringMessage;
+	private String deleteMessage;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		inputFile = Files.createTempFile("messageDumpInputTest", ".xml");
+		triggeringMessage = readResource("JmsMessageWhichDoesTriggerIndexing.xml");
+		deleteMessage = readResource("JmsMessageWhenDelete.xml");
+	}
+
+	private String readResource(String fileName) throws IOException {
+		return Files.readString(Path.of(TEST_RESOURCES_FILE_PATH + fileName),
+				StandardCharsets.UTF_8);
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(inputFile);
+	}
+
+	@Test
+	public void testReadMessages() throws IOException {
+		Files.writeString(inputFile, triggeringMessage + "\n" + deleteMessage + "\n");
+
+		try (MessageDumpInput input = new MessageDumpInput(inputFile)) {
+			BulkMessage first = input.readNextMessage();
+			assertEquals(first.getHeaders().get("methodName"), "modifyDatastreamByReference");
+			assertEquals(first.getHeaders().get("pid"), "authority-person:54");
+			assertTrue(first.getMessage().startsWith("<?xml"));
+			assertTrue(first.getMessage().endsWith("</entry>"));
+
+			BulkMessage second = input.readNextMessage();
+			assertEquals(second.getHeaders().get("methodName"), "modifyObject");
+			assertEquals(second.getHeaders().get("pid"), "authority-person:55");
+			assertTrue(second.getMessage().contains("scheme=\"fedora-types:state\""));
+			assertFalse(second.getMessage().contains("authority-person:54"));
+
+			assertNull(input.readNextMessage());
+		}
+	}
+
+	@Test
+	public void testFormattedMessagesCanBeReadAgain() throws IOException {
+		Files.writeString(inputFile, triggeringMessage + "\n" + deleteMessage + "\n");
+		String formatted;
+		try (MessageDumpInput input = new MessageDumpInput(inputFile)) {
+			formatted = input.formatMessage(input.readNextMessage()) + "\n"
+					+ input.formatMessage(input.readNextMessage()) + "\n";
+		}
+		Files.writeString(inputFile, formatted);
+
+		try (MessageDumpInput input = new MessageDumpInput(inputFile)) {
+			assertEquals(input.readNextMessage().getHeaders().get("pid"), "authority-person:54");
+			assertEquals(input.readNextMessage().getHeaders().get("pid"), "authority-person:55");
+			assertNull(input.readNextMessage());
+		}
+	}
+
+	@Test
+	public void testEntriesOnSameLine() throws IOException {
+		Files.writeString(inputFile, "<entry><title type=\"text\">purgeObject</title>"
+				+ "<summary type=\"text\">authority-person:1</summary></entry><entry>"
+				+ "<title type=\"text\">addDatastream</title>"
+				+ "<summary type=\"text\">authority-person:2</summary></entry>");
+
+		try (MessageDumpInput input = new MessageDumpInput(inputFile)) {
+			BulkMessage first = input.readNextMessage();
+			assertEquals(first.getHeaders().get("methodName"), "purgeObject");
+			assertEquals(first.getHeaders().get("pid"), "authority-person:1");
+			BulkMessage second = input.readNextMessage();
+			assertEquals(second.getHeaders().get("methodName"), "addDatastream");
+			assertEquals(second.getMessage(), "<entry><title type=\"text\">addDatastream</title>"
+					+ "<summary type=\"text\">authority-person:2</summary></entry>");
+			assertNull(input.readNextMessage());
+		}
+	}
+
+	@Test
+	public void testIncompleteLastEntryIsIgnored() throws IOException {
+		Files.writeString(inputFile, triggeringMessage + "\n<entry>\n<title type=\"text\">");
+
+		try (MessageDumpInput input = new MessageDumpInput(inputFile)) {
+			assertEquals(input.readNextMessage().getHeaders().get("pid"), "authority-person:54");
+			assertNull(input.readNextMessage());
+		}
+	}
+
+	@Test
+	public void testEntryWithoutTitleOrSummaryHasNoHeaders() throws IOException {
+		Files.writeString(inputFile, "<entry><title type=\"text\">purgeObject"
+				+ "<summary type=\"text\">\n</entry>");
+
+		try (MessageDumpInput input = new MessageDumpInput(inputFile)) {
+			assertTrue(input.readNextMessage().getHeaders().isEmpty());
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.bulk;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class PidListInputTest {
+	private Path inputFile;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		inputFile = Files.createTempFile("pidListInputTest", ".txt");
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(inputFile);
+	}
+
+	@Test
+	public void testInit() {
+		try (PidListInput input = new PidListInput(inputFile, "someMethodName")) {
+			assertEquals(input.getInputFile(), inputFile);
+			assertEquals(input.getMethodName(), "someMethodName");
+		}
+	}
+
+	@Test
+	public void testReadPids() throws IOException {
+		Files.writeString(inputFile, "authority-person:1\n  authority-person:2 \r\n");
+
+		try (PidListInput input = new PidListInput(inputFile, "someMethodName")) {
+			assertMessageForPid(input.readNextMessage(), "authority-person:1");
+			assertMessageForPid(input.readNextMessage(), "authority-person:2");
+			assertNull(input.readNextMessage());
+			assertNull(input.readNextMessage());
+		}
+	}
+
+	private void assertMessageForPid(BulkMessage message, String pid) {
+		assertEquals(message.getHeaders().get("pid"), pid);
+		assertEquals(message.getHeaders().get("methodName"), "someMethodName");
+		assertEquals(message.getMessage(), "");
+	}
+
+	@Test
+	public void testFormatMessageIsThePid() throws IOException {
+		Files.writeString(inputFile, " authority-person:1 \n");
+
+		try (PidListInput input = new PidListInput(inputFile, "someMethodName")) {
+			assertEquals(input.formatMessage(input.readNextMessage()), "authority-person:1");
+		}
+	}
+
+	@Test
+	public void testBlankLinesAndCommentsAreSkipped() throws IOException {
+		Files.writeString(inputFile,
+				"# pids from restore\n\n   \nauthority-person:1\n#authority-person:2\n\n");
+
+		try (PidListInput input = new PidListInput(inputFile, "someMethodName")) {
+			assertMessageForPid(input.readNextMessage(), "authority-person:1");
+			assertNull(input.readNextMessage());
+		}
+	}
+
+	@Test
+	public void testFractionRead() throws IOException {
+		Files.writeString(inputFile, "authority-person:1\n");
+
+		try (PidListInput input = new PidListInput(inputFile, "someMethodName")) {
+			assertEquals(input.getFractionRead(), 0.0);
+			input.readNextMessage();
+			assertEquals(input.getFractionRead(), 1.0);
+		}
+	}
+
+	@Test
+	public void testFractionReadForEmptyFile() {
+		try (PidListInput input = new PidListInput(inputFile, "someMethodName")) {
+			assertEquals(input.getFractionRead(), 1.0);
+			assertNull(input.readNextMessage());
+		}
+	}
+
+	@Test(expectedExceptions = UncheckedIOException.class, expectedExceptionsMessageRegExp = ""
+			+ "Unable to open bulk input: .*NotFound")
+	public void testMissingFile() {
+		new PidListInput(inputFile.resolveSibling("NotFound"), "someMethodName");
+	}
+
+	@Test(expectedExceptions = UncheckedIOException.class, expectedExceptionsMessageRegExp = ""
+			+ "Unable to read bulk input: .*")
+	public void testReadAfterClose() {
+		PidListInput input = new PidListInput(inputFile, "someMethodName");
+		input.close();
+
+		input.readNextMessage();
+	}
+}
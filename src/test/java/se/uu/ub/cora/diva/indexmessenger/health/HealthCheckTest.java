@@ -0,0 +1,198 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.health;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.diva.indexmessenger.DivaIndexMessageReceiver;
+import se.uu.ub.cora.diva.indexmessenger.DivaMessageParser;
+import se.uu.ub.cora.diva.indexmessenger.metrics.MessageSourceMetrics;
+import se.uu.ub.cora.diva.indexmessenger.metrics.MetricsRegistrar;
+import se.uu.ub.cora.diva.indexmessenger.metrics.PipelineMetrics;
+import se.uu.ub.cora.diva.indexmessenger.workorder.CoalescingWorkOrderSender;
+import se.uu.ub.cora.diva.indexmessenger.workorder.ExecutorServiceSpy;
+import se.uu.ub.cora.diva.indexmessenger.workorder.ScheduledExecutorSpy;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrder;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSenderSpy;
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class HealthCheckTest {
+	private Map<String, String> headers = Map.of("pid", "authority-person:1", "methodName",
+			"modifyDatastreamByReference");
+	private PipelineMetrics pipelineMetrics;
+	private DivaIndexMessageReceiver receiver;
+	private DivaIndexMessageReceiver otherReceiver;
+	private MBeanServer mBeanServer;
+	private AtomicLong nanoTime;
+	private HealthCheck healthCheck;
+
+	@BeforeMethod
+	public void setUp() {
+		LoggerProvider.setLoggerFactory(new LoggerFactorySpy());
+		DivaMessageParser messageParser = new DivaMessageParser();
+		pipelineMetrics = new PipelineMetrics(messageParser.getParseCounters());
+		WorkOrderSenderSpy workOrderSender = new WorkOrderSenderSpy();
+		receiver = new DivaIndexMessageReceiver(messageParser, workOrderSender, pipelineMetrics,
+				new MessageSourceMetrics("drafts"));
+		otherReceiver = new DivaIndexMessageReceiver(messageParser, workOrderSender,
+				pipelineMetrics, new MessageSourceMetrics("published"));
+		mBeanServer = MBeanServerFactory.newMBeanServer();
+		nanoTime = new AtomicLong();
+		healthCheck = createHealthCheck(0);
+	}
+
+	private HealthCheck createHealthCheck(long maxMessageAgeInMillis) {
+		return new HealthCheck(List.of(receiver, otherReceiver), pipelineMetrics, mBeanServer,
+				maxMessageAgeInMillis, 1000, nanoTime::get);
+	}
+
+	@Test
+	public void testInit() {
+		healthCheck = new HealthCheck(List.of(receiver), pipelineMetrics, mBeanServer, 5, 1000);
+
+		assertEquals(healthCheck.getMessageReceivers(), List.of(receiver));
+		assertSame(healthCheck.getPipelineMetrics(), pipelineMetrics);
+		assertSame(healthCheck.getMBeanServer(), mBeanServer);
+		assertEquals(healthCheck.getMaxMessageAgeInMillis(), 5);
+		assertEquals(healthCheck.getErrorRateWindowInMillis(), 1000);
+	}
+
+	@Test
+	public void testReadyUntilAReceiverIsStopped() {
+		assertTrue(healthCheck.isReady());
+
+		otherReceiver.stopReceivingBefore(System.nanoTime());
+
+		assertFalse(healthCheck.isReady());
+	}
+
+	@Test
+	public void testLiveAndReadyUntilAReceiverHasEndedListening() {
+		assertTrue(healthCheck.isLive());
+
+		otherReceiver.markListeningEnded();
+
+		assertFalse(healthCheck.isLive());
+		assertFalse(healthCheck.isReady());
+	}
+
+	@Test
+	public void testNotReadyWithoutRecentMessageWhenMaxMessageAgeIsSet() throws Exception {
+		healthCheck = createHealthCheck(10000);
+		assertFalse(healthCheck.isReady());
+
+		receiver.receiveMessage(headers, "some message");
+
+		assertTrue(healthCheck.isReady());
+		healthCheck = createHealthCheck(1);
+		Thread.sleep(10);
+		assertFalse(healthCheck.isReady());
+	}
+
+	@Test
+	public void testMillisSinceLastMessageIsTheShortestOfAllSources() throws Exception {
+		assertEquals(healthCheck.getMillisSinceLastMessage(), -1);
+		receiver.receiveMessage(headers, "some message");
+		Thread.sleep(30);
+
+		otherReceiver.receiveMessage(headers, "some message");
+
+		assertTrue(healthCheck.getMillisSinceLastMessage() < 30);
+	}
+
+	@Test
+	public void testQueuedWorkOrdersAreSummedOverRegisteredQueues() {
+		MetricsRegistrar registrar = new MetricsRegistrar(mBeanServer);
+		CoalescingWorkOrderSender coalescingSender = createCoalescingSender();
+		CoalescingWorkOrderSender otherCoalescingSender = createCoalescingSender();
+		coalescingSender.send(new WorkOrder("person", "authority-person:1", "update"));
+		otherCoalescingSender.send(new WorkOrder("person", "authority-person:1", "update"));
+		otherCoalescingSender.send(new WorkOrder("person", "authority-person:2", "update"));
+		assertEquals(healthCheck.getNoOfQueuedWorkOrders(), 0);
+
+		registrar.registerWorkOrderQueue(coalescingSender, "coalescing");
+		registrar.registerWorkOrderQueue(otherCoalescingSender, "other");
+
+		assertEquals(healthCheck.getNoOfQueuedWorkOrders(), 3);
+	}
+
+	private CoalescingWorkOrderSender createCoalescingSender() {
+		return new CoalescingWorkOrderSender(new WorkOrderSenderSpy(), 1000,
+				new ScheduledExecutorSpy(), new ExecutorServiceSpy());
+	}
+
+	@Test
+	public void testWorkOrdersInFlight() {
+		pipelineMetrics.recordDispatchStarted();
+
+		assertEquals(healthCheck.getNoOfWorkOrdersInFlight(), 1);
+	}
+
+	@Test
+	public void testCoraErrorRateCoversLastWindow() {
+		assertEquals(healthCheck.getCoraErrorRate(), 0.0);
+		recordDispatches(3, 1);
+		assertEquals(healthCheck.getCoraErrorRate(), 0.25);
+
+		nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+		recordDispatches(1, 0);
+		assertEquals(healthCheck.getCoraErrorRate(), 0.2);
+
+		nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+		recordDispatches(2, 2);
+		assertEquals(healthCheck.getCoraErrorRate(), 0.5);
+	}
+
+	private void recordDispatches(int noOfSucceeded, int noOfFailed) {
+		for (int i = 0; i < noOfSucceeded; i++) {
+			pipelineMetrics.recordDispatchStarted();
+			pipelineMetrics.recordDispatchSucceeded(1000);
+		}
+		for (int i = 0; i < noOfFailed; i++) {
+			pipelineMetrics.recordDispatchStarted();
+			pipelineMetrics.recordDispatchFailed(1000);
+		}
+	}
+
+	@Test
+	public void testDescribe() {
+		recordDispatches(1, 1);
+		pipelineMetrics.recordDispatchStarted();
+
+		assertEquals(healthCheck.describe(), "status ready\nmillisSinceLastMessage -1\n"
+				+ "queuedWorkOrders 0\nworkOrdersInFlight 1\ncoraErrorRate 0.5000\n");
+		receiver.stopReceivingBefore(System.nanoTime());
+		assertTrue(healthCheck.describe().startsWith("status notReady\n"));
+	}
+}
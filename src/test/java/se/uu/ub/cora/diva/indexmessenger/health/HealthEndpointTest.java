@@ -0,0 +1,164 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.health;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.diva.indexmessenger.DivaIndexMessageReceiver;
+import se.uu.ub.cora.diva.indexmessenger.DivaMessageParser;
+import se.uu.ub.cora.diva.indexmessenger.metrics.MessageSourceMetrics;
+import se.uu.ub.cora.diva.indexmessenger.metrics.MetricsRegistrar;
+import se.uu.ub.cora.diva.indexmessenger.metrics.PipelineMetrics;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSenderSpy;
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class HealthEndpointTest {
+	private DivaIndexMessageReceiver receiver;
+	private HealthCheck healthCheck;
+	private MetricsExposition metricsExposition;
+	private HealthEndpoint healthEndpoint;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		LoggerProvider.setLoggerFactory(new LoggerFactorySpy());
+		DivaMessageParser messageParser = new DivaMessageParser();
+		PipelineMetrics pipelineMetrics = new PipelineMetrics(messageParser.getParseCounters());
+		MessageSourceMetrics sourceMetrics = new MessageSourceMetrics("drafts");
+		receiver = new DivaIndexMessageReceiver(messageParser, new WorkOrderSenderSpy(),
+				pipelineMetrics, sourceMetrics);
+		MBeanServer mBeanServer = MBeanServerFactory.newMBeanServer();
+		new MetricsRegistrar(mBeanServer).registerMessageSourceMetrics(sourceMetrics);
+		healthCheck = new HealthCheck(List.of(receiver), pipelineMetrics, mBeanServer, 0, 60000);
+		metricsExposition = new MetricsExposition(mBeanServer);
+		healthEndpoint = HealthEndpoint.startOnAddress(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), healthCheck,
+				metricsExposition);
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		healthEndpoint.stop();
+	}
+
+	@Test
+	public void testInit() {
+		assertSame(healthEndpoint.getHealthCheck(), healthCheck);
+		assertSame(healthEndpoint.getMetricsExposition(), metricsExposition);
+		assertTrue(healthEndpoint.getPort() > 0);
+	}
+
+	@Test
+	public void testLive() throws Exception {
+		HttpURLConnection connection = openConnection("/health/live", "GET");
+
+		assertEquals(connection.getResponseCode(), 200);
+		assertEquals(readBody(connection.getInputStream()), "status live\n");
+	}
+
+	@Test
+	public void testNotLiveWhenListeningHasEnded() throws Exception {
+		receiver.markListeningEnded();
+
+		HttpURLConnection connection = openConnection("/health/live", "GET");
+
+		assertEquals(connection.getResponseCode(), 503);
+		assertEquals(readBody(connection.getErrorStream()), "status notLive\n");
+		assertEquals(openConnection("/health/ready", "GET").getResponseCode(), 503);
+	}
+
+	@Test
+	public void testReady() throws Exception {
+		HttpURLConnection connection = openConnection("/health/ready", "GET");
+
+		assertEquals(connection.getResponseCode(), 200);
+		assertEquals(connection.getContentType(), "text/plain; charset=utf-8");
+		assertTrue(readBody(connection.getInputStream()).startsWith("status ready\n"));
+	}
+
+	@Test
+	public void testNotReadyWhenReceiverIsStopped() throws Exception {
+		receiver.stopReceivingBefore(System.nanoTime());
+
+		HttpURLConnection connection = openConnection("/health/ready", "GET");
+
+		assertEquals(connection.getResponseCode(), 503);
+		assertTrue(readBody(connection.getErrorStream()).startsWith("status notReady\n"));
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		HttpURLConnection connection = openConnection("/metrics", "GET");
+
+		assertEquals(connection.getResponseCode(), 200);
+		assertEquals(connection.getContentType(), "text/plain; version=0.0.4; charset=utf-8");
+		assertTrue(readBody(connection.getInputStream()).contains(
+				"divaindexmessenger_message_source_messages_received{name=\"drafts\"} 0\n"));
+	}
+
+	@Test
+	public void testHeadHasNoBody() throws Exception {
+		HttpURLConnection connection = openConnection("/health/live", "HEAD");
+
+		assertEquals(connection.getResponseCode(), 200);
+		assertEquals(readBody(connection.getInputStream()), "");
+	}
+
+	@Test
+	public void testUnknownPathIsNotFound() throws Exception {
+		assertEquals(openConnection("/health/other", "GET").getResponseCode(), 404);
+	}
+
+	@Test
+	public void testOtherMethodsAreNotAllowed() throws Exception {
+		assertEquals(openConnection("/health/live", "POST").getResponseCode(), 405);
+	}
+
+	private HttpURLConnection openConnection(String path, String method) throws IOException {
+		URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(),
+				healthEndpoint.getPort(), path);
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod(method);
+		return connection;
+	}
+
+	private String readBody(InputStream input) throws IOException {
+		try (input) {
+			return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+}
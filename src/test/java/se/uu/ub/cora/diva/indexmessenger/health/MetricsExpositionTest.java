@@ -0,0 +1,133 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.health;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.diva.indexmessenger.DivaMessageParser;
+import se.uu.ub.cora.diva.indexmessenger.metrics.MessageSourceMetrics;
+import se.uu.ub.cora.diva.indexmessenger.metrics.MetricsRegistrar;
+import se.uu.ub.cora.diva.indexmessenger.metrics.PipelineMetrics;
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class MetricsExpositionTest {
+	private MBeanServer mBeanServer;
+	private MetricsRegistrar registrar;
+	private MetricsExposition exposition;
+
+	@BeforeMethod
+	public void setUp() {
+		LoggerProvider.setLoggerFactory(new LoggerFactorySpy());
+		mBeanServer = MBeanServerFactory.newMBeanServer();
+		registrar = new MetricsRegistrar(mBeanServer);
+		exposition = new MetricsExposition(mBeanServer);
+	}
+
+	@Test
+	public void testInit() {
+		assertSame(exposition.getMBeanServer(), mBeanServer);
+	}
+
+	@Test
+	public void testNoMetricsRegistered() {
+		assertEquals(exposition.write(), "");
+	}
+
+	@Test
+	public void testAttributesAreWrittenAsSamplesLabelledWithName() {
+		MessageSourceMetrics sourceMetrics = new MessageSourceMetrics("drafts");
+		sourceMetrics.recordMessageReceived();
+		sourceMetrics.recordMessageReceived();
+		registrar.registerMessageSourceMetrics(sourceMetrics);
+
+		String written = exposition.write();
+
+		assertTrue(written.contains("# TYPE divaindexmessenger_message_source_messages_received"
+				+ " untyped\n"
+				+ "divaindexmessenger_message_source_messages_received{name=\"drafts\"} 2\n"));
+		assertTrue(written.contains(
+				"divaindexmessenger_message_source_work_orders_not_sent{name=\"drafts\"} 0\n"));
+		assertTrue(!written.contains("source_name"));
+	}
+
+	@Test
+	public void testSamplesOfSameMetricAreWrittenTogether() {
+		registrar.registerMessageSourceMetrics(new MessageSourceMetrics("drafts"));
+		registrar.registerMessageSourceMetrics(new MessageSourceMetrics("published"));
+
+		assertTrue(exposition.write().contains(
+				"# TYPE divaindexmessenger_message_source_work_orders_created untyped\n"
+						+ "divaindexmessenger_message_source_work_orders_created"
+						+ "{name=\"drafts\"} 0\n"
+						+ "divaindexmessenger_message_source_work_orders_created"
+						+ "{name=\"published\"} 0\n"));
+	}
+
+	@Test
+	public void testMapsAreLabelledWithKeysAndHistogramsWithBuckets() {
+		DivaMessageParser parser = new DivaMessageParser();
+		parser.parse(Map.of("pid", "authority-person:1", "methodName", "purgeObject"), "");
+		PipelineMetrics pipelineMetrics = new PipelineMetrics(parser.getParseCounters());
+		pipelineMetrics.recordParseLatency(2000);
+		registrar.registerPipelineMetrics(pipelineMetrics);
+
+		String written = exposition.write();
+
+		assertTrue(written.contains("divaindexmessenger_pipeline_messages_per_method_name"
+				+ "{key=\"purgeObject\"} 1\n"));
+		assertTrue(written.contains("divaindexmessenger_pipeline_accepted_deletes 1\n"));
+		assertTrue(written.contains(
+				"divaindexmessenger_latency_histogram_count{name=\"parse\"} 1\n"));
+		assertTrue(written.contains(
+				"divaindexmessenger_latency_histogram_buckets{name=\"parse\",le=\"1.0E-6\"} 0\n"
+						+ "divaindexmessenger_latency_histogram_buckets"
+						+ "{name=\"parse\",le=\"2.0E-6\"} 1\n"));
+		assertTrue(written.contains(
+				"divaindexmessenger_latency_histogram_buckets{name=\"parse\",le=\"+Inf\"} 1\n"));
+		assertTrue(!written.contains("bucket_counts"));
+	}
+
+	@Test
+	public void testLabelValuesAreEscaped() {
+		registrar.registerMessageSourceMetrics(new MessageSourceMetrics("a\\b"));
+
+		assertTrue(exposition.write().contains("{name=\"a\\\\b\"}"));
+	}
+
+	@Test
+	public void testToSnakeCase() {
+		assertEquals(MetricsExposition.toSnakeCase("NoOfQueuedWorkOrders"),
+				"no_of_queued_work_orders");
+		assertEquals(MetricsExposition.toSnakeCase("HttpConnectionPool"), "http_connection_pool");
+		assertEquals(MetricsExposition.toSnakeCase("Percentile99InMillis"),
+				"percentile99_in_millis");
+		assertEquals(MetricsExposition.toSnakeCase("MBean-name"), "mbean_name");
+	}
+}
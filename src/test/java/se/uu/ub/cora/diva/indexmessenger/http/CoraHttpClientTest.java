@@ -0,0 +1,195 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.http;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.ProxySelector;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class CoraHttpClientTest {
+	private static final String OK_RESPONSE = "HTTP/1.1 201 Created\r\n"
+			+ "Content-Length: 2\r\n\r\n{}";
+	private ScriptedHttpServer server;
+	private CoraHttpClient httpClient;
+	private URI uri;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		server = ScriptedHttpServer.start();
+		httpClient = new CoraHttpClient(2, 5000, 16);
+		uri = server.getUri("/therest/rest/record/workOrder");
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		server.close();
+	}
+
+	private CoraHttpResponse post() throws IOException {
+		return httpClient.post(uri, Map.of("authToken", "someToken"), "someBody");
+	}
+
+	@Test
+	public void testInit() {
+		assertEquals(httpClient.getMaxConcurrentRequests(), 2);
+		assertEquals(httpClient.getTimeoutInMillis(), 5000);
+		assertEquals(httpClient.getMaxResponseBodySizeInBytes(), 16);
+		assertEquals(httpClient.getHttpClient().connectTimeout().get(), Duration.ofMillis(5000));
+		assertEquals(httpClient.getTlsConnectionReuseRate(), 0.0);
+	}
+
+	@Test
+	public void testProxyIsTakenFromDefaultProxySelector() {
+		assertSame(httpClient.getHttpClient().proxy().get(), ProxySelector.getDefault());
+	}
+
+	@Test
+	public void testPostWritesRequest() throws Exception {
+		server.respondWith(OK_RESPONSE);
+
+		CoraHttpResponse response = post();
+
+		assertEquals(response.getStatusCode(), 201);
+		assertEquals(response.getBody(), "{}");
+		String head = server.requestHeads.get(0);
+		assertTrue(head.startsWith("POST /therest/rest/record/workOrder HTTP/1.1\r\n"));
+		assertTrue(head.toLowerCase().contains("authtoken: someToken\r\n".toLowerCase()));
+		assertTrue(head.toLowerCase().contains("content-length: 8\r\n"));
+		assertEquals(server.requestBodies.get(0), "someBody");
+		assertEquals(httpClient.getRequests(), 1);
+		assertEquals(httpClient.getTlsRequests(), 0);
+		assertEquals(httpClient.getNoOfRequestsInFlight(), 0);
+	}
+
+	@Test
+	public void testConnectionIsReused() throws Exception {
+		for (int i = 0; i < 4; i++) {
+			server.respondWith(OK_RESPONSE);
+			post();
+		}
+
+		assertEquals(server.noOfAcceptedConnections.get(), 1);
+		assertEquals(httpClient.getRequests(), 4);
+	}
+
+	@Test
+	public void testChunkedBody() throws Exception {
+		server.respondWith("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+				+ "3\r\nsom\r\n6\r\neBody!\r\n0\r\n\r\n");
+
+		assertEquals(post().getBody(), "someBody!");
+	}
+
+	@Test
+	public void testBodyOfMaxSizeIsRead() throws Exception {
+		server.respondWith("HTTP/1.1 200 OK\r\nContent-Length: 16\r\n\r\n0123456789abcdef");
+
+		assertEquals(post().getBody(), "0123456789abcdef");
+		assertEquals(httpClient.getResponsesTooLarge(), 0);
+	}
+
+	@Test
+	public void testBodyLargerThanMaxSizeFails() throws Exception {
+		server.respondWith("HTTP/1.1 200 OK\r\nContent-Length: 17\r\n\r\n0123456789abcdefg");
+
+		try {
+			post();
+			fail("a body larger than the max size should fail the request");
+		} catch (IOException exception) {
+			assertEquals(exception.getMessage(),
+					"Response body from: " + uri + " is larger than: 16 bytes");
+		}
+		assertEquals(httpClient.getResponsesTooLarge(), 1);
+		assertEquals(httpClient.getNoOfRequestsInFlight(), 0);
+	}
+
+	@Test
+	public void testPostIsNotSentAgainWhenReusedConnectionFails() throws Exception {
+		server.respondWith(OK_RESPONSE);
+		post();
+
+		try {
+			post();
+			fail("a connection closed without a response should fail the request");
+		} catch (IOException exception) {
+			// expected
+		}
+
+		assertEquals(server.requestHeads.size(), 2);
+		assertEquals(httpClient.getRequests(), 2);
+	}
+
+	@Test
+	public void testTlsConnectionsAreCounted() throws Exception {
+		try (ServerSocket closingServer = new ServerSocket(0, 50,
+				InetAddress.getLoopbackAddress())) {
+			Thread closer = new Thread(() -> acceptAndClose(closingServer));
+			closer.setDaemon(true);
+			closer.start();
+			URI httpsUri = URI.create("https://localhost:" + closingServer.getLocalPort() + "/");
+
+			try {
+				httpClient.post(httpsUri, Map.of(), "someBody");
+				fail("the handshake with a server closing the connection should fail");
+			} catch (IOException exception) {
+				// expected
+			}
+		}
+
+		assertEquals(httpClient.getTlsRequests(), 1);
+		assertEquals(httpClient.getTlsConnectionsOpened(), 1);
+		assertEquals(httpClient.getTlsConnectionReuseRate(), 0.0);
+	}
+
+	private void acceptAndClose(ServerSocket closingServer) {
+		try (Socket socket = closingServer.accept()) {
+			// closed as soon as accepted
+		} catch (IOException exception) {
+			// the test closed the server
+		}
+	}
+
+	@Test(expectedExceptions = InterruptedIOException.class, expectedExceptionsMessageRegExp = ""
+			+ "Interrupted while waiting to send request")
+	public void testInterruptedWhileWaitingToSend() throws Exception {
+		httpClient = new CoraHttpClient(0, 5000, 16);
+		Thread.currentThread().interrupt();
+
+		try {
+			post();
+		} finally {
+			assertTrue(Thread.interrupted());
+		}
+	}
+}
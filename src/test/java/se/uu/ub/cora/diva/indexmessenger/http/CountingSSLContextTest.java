@@ -0,0 +1,61 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.http;
+
+import static org.testng.Assert.assertEquals;
+
+import javax.net.ssl.SSLContext;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class CountingSSLContextTest {
+	private SSLContext delegate;
+	private CountingSSLContext sslContext;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		delegate = SSLContext.getDefault();
+		sslContext = new CountingSSLContext(delegate);
+	}
+
+	@Test
+	public void testInit() {
+		assertEquals(sslContext.getProtocol(), delegate.getProtocol());
+		assertEquals(sslContext.getProvider(), delegate.getProvider());
+		assertEquals(sslContext.getNoOfEnginesCreated(), 0);
+	}
+
+	@Test
+	public void testCreatedEnginesAreCounted() {
+		sslContext.createSSLEngine();
+		sslContext.createSSLEngine("localhost", 443);
+
+		assertEquals(sslContext.getNoOfEnginesCreated(), 2);
+	}
+
+	@Test
+	public void testParametersAreTakenFromDelegate() {
+		assertEquals(sslContext.getDefaultSSLParameters().getProtocols(),
+				delegate.getDefaultSSLParameters().getProtocols());
+		assertEquals(sslContext.getSupportedSSLParameters().getCipherSuites(),
+				delegate.getSupportedSSLParameters().getCipherSuites());
+		assertEquals(sslContext.getClientSessionContext(), delegate.getClientSessionContext());
+	}
+}
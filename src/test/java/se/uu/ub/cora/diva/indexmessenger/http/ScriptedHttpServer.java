@@ -0,0 +1,152 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.http;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ScriptedHttpServer answers each request with the next scripted raw response, closing the
+ * connection after it if the script says so. Requests are recorded with their head and body.
+ */
+class ScriptedHttpServer implements AutoCloseable {
+	private final ServerSocket serverSocket;
+	private final ConcurrentLinkedQueue<ScriptedResponse> responses = new ConcurrentLinkedQueue<>();
+	private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+	final List<String> requestHeads = new CopyOnWriteArrayList<>();
+	final List<String> requestBodies = new CopyOnWriteArrayList<>();
+	final AtomicInteger noOfAcceptedConnections = new AtomicInteger();
+
+	private ScriptedHttpServer() throws IOException {
+		serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		Thread acceptor = new Thread(this::acceptConnections, "scriptedHttpServer");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	static ScriptedHttpServer start() throws IOException {
+		return new ScriptedHttpServer();
+	}
+
+	URI getUri(String path) {
+		return URI.create("http://localhost:" + serverSocket.getLocalPort() + path);
+	}
+
+	void respondWith(String rawResponse) {
+		responses.add(new ScriptedResponse(rawResponse, false));
+	}
+
+	void respondWithAndClose(String rawResponse) {
+		responses.add(new ScriptedResponse(rawResponse, true));
+	}
+
+	private void acceptConnections() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				noOfAcceptedConnections.incrementAndGet();
+				sockets.add(socket);
+				Thread handler = new Thread(() -> handleConnection(socket), "scriptedConnection");
+				handler.setDaemon(true);
+				handler.start();
+			} catch (IOException exception) {
+				return;
+			}
+		}
+	}
+
+	private void handleConnection(Socket socket) {
+		try (socket) {
+			InputStream input = new BufferedInputStream(socket.getInputStream());
+			OutputStream output = socket.getOutputStream();
+			boolean open = true;
+			while (open) {
+				String head = readHead(input);
+				if (head == null) {
+					return;
+				}
+				requestHeads.add(head);
+				requestBodies.add(readBody(input, head));
+				ScriptedResponse response = responses.poll();
+				if (response == null) {
+					return;
+				}
+				output.write(response.rawResponse.getBytes(StandardCharsets.ISO_8859_1));
+				output.flush();
+				open = !response.closeAfter;
+			}
+		} catch (IOException exception) {
+			// the client or the test closed the connection
+		}
+	}
+
+	private String readHead(InputStream input) throws IOException {
+		ByteArrayOutputStream head = new ByteArrayOutputStream();
+		int b = input.read();
+		while (b != -1) {
+			head.write(b);
+			String soFar = head.toString(StandardCharsets.ISO_8859_1);
+			if (soFar.endsWith("\r\n\r\n")) {
+				return soFar;
+			}
+			b = input.read();
+		}
+		return null;
+	}
+
+	private String readBody(InputStream input, String head) throws IOException {
+		int length = 0;
+		for (String line : head.split("\r\n")) {
+			if (line.toLowerCase().startsWith("content-length:")) {
+				length = Integer.parseInt(line.substring(15).trim());
+			}
+		}
+		return new String(input.readNBytes(length), StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		for (Socket socket : sockets) {
+			socket.close();
+		}
+	}
+
+	private static class ScriptedResponse {
+		private final String rawResponse;
+		private final boolean closeAfter;
+
+		ScriptedResponse(String rawResponse, boolean closeAfter) {
+			this.rawResponse = rawResponse;
+			this.closeAfter = closeAfter;
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.metrics;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class LatencyHistogramTest {
+	private LatencyHistogram histogram;
+
+	@BeforeMethod
+	public void setUp() {
+		histogram = new LatencyHistogram();
+	}
+
+	@Test
+	public void testEmptyHistogram() {
+		assertEquals(histogram.getCount(), 0);
+		assertEquals(histogram.getMeanInMillis(), 0.0);
+		assertEquals(histogram.getMaxInMillis(), 0.0);
+		assertEquals(histogram.getPercentile50InMillis(), 0.0);
+		assertEquals(histogram.getPercentile99InMillis(), 0.0);
+	}
+
+	@Test
+	public void testBucketUpperBounds() {
+		long[] upperBounds = histogram.getBucketUpperBoundsInMicros();
+
+		assertEquals(upperBounds.length, 31);
+		assertEquals(upperBounds[0], 1);
+		assertEquals(upperBounds[1], 2);
+		assertEquals(upperBounds[10], 1024);
+		assertEquals(upperBounds[30], 1L << 30);
+	}
+
+	@Test
+	public void testLatenciesAreRecordedInBuckets() {
+		histogram.record(micros(1));
+		histogram.record(micros(2));
+		histogram.record(micros(3));
+		histogram.record(micros(4));
+		histogram.record(micros(1000));
+
+		long[] bucketCounts = histogram.getBucketCounts();
+		assertEquals(bucketCounts[0], 1);
+		assertEquals(bucketCounts[1], 1);
+		assertEquals(bucketCounts[2], 2);
+		assertEquals(bucketCounts[10], 1);
+		assertEquals(histogram.getCount(), 5);
+	}
+
+	private long micros(long micros) {
+		return TimeUnit.MICROSECONDS.toNanos(micros);
+	}
+
+	@Test
+	public void testVeryLongLatencyEndsUpInLastBucket() {
+		histogram.record(TimeUnit.HOURS.toNanos(1));
+
+		assertEquals(histogram.getBucketCounts()[30], 1);
+	}
+
+	@Test
+	public void testNegativeLatencyEndsUpInFirstBucket() {
+		histogram.record(-5);
+
+		assertEquals(histogram.getBucketCounts()[0], 1);
+	}
+
+	@Test
+	public void testMeanAndMax() {
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(30));
+
+		assertEquals(histogram.getMeanInMillis(), 20.0, 0.001);
+		assertEquals(histogram.getMaxInMillis(), 30.0, 0.001);
+	}
+
+	@Test
+	public void testPercentiles() {
+		for (int i = 0; i < 98; i++) {
+			histogram.record(micros(100));
+		}
+		histogram.record(micros(5000));
+		histogram.record(micros(5000));
+
+		assertEquals(histogram.getPercentile50InMillis(), 0.128, 0.0001);
+		assertEquals(histogram.getPercentile99InMillis(), 5.0, 0.0001);
+	}
+
+	@Test
+	public void testPercentileIsEstimatedAsUpperBoundOfBucket() {
+		histogram.record(micros(100));
+		histogram.record(micros(5000));
+
+		assertEquals(histogram.getPercentile50InMillis(), 0.128, 0.0001);
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.metrics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class MessageSourceMetricsTest {
+
+	@Test
+	public void testInit() {
+		MessageSourceMetrics sourceMetrics = new MessageSourceMetrics("drafts");
+
+		assertEquals(sourceMetrics.getSourceName(), "drafts");
+		assertEquals(sourceMetrics.getMessagesReceived(), 0);
+		assertEquals(sourceMetrics.getWorkOrdersCreated(), 0);
+		assertEquals(sourceMetrics.getWorkOrdersNotSent(), 0);
+		assertEquals(sourceMetrics.getMillisSinceLastMessage(), -1);
+	}
+
+	@Test
+	public void testRecord() {
+		MessageSourceMetrics sourceMetrics = new MessageSourceMetrics("drafts");
+
+		sourceMetrics.recordMessageReceived();
+		sourceMetrics.recordMessageReceived();
+		sourceMetrics.recordWorkOrderCreated();
+		sourceMetrics.recordWorkOrderNotSent();
+
+		assertEquals(sourceMetrics.getMessagesReceived(), 2);
+		assertEquals(sourceMetrics.getWorkOrdersCreated(), 1);
+		assertEquals(sourceMetrics.getWorkOrdersNotSent(), 1);
+	}
+
+	@Test
+	public void testTimeSinceLastMessage() throws Exception {
+		MessageSourceMetrics sourceMetrics = new MessageSourceMetrics("drafts");
+		sourceMetrics.recordMessageReceived();
+
+		Thread.sleep(20);
+
+		long millisSinceLastMessage = sourceMetrics.getMillisSinceLastMessage();
+		assertTrue(millisSinceLastMessage >= 20 && millisSinceLastMessage < 5000);
+		sourceMetrics.recordMessageReceived();
+		assertTrue(sourceMetrics.getMillisSinceLastMessage() < millisSinceLastMessage);
+	}
+}
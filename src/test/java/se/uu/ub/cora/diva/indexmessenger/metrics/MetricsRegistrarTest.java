@@ -0,0 +1,216 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.metrics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.diva.indexmessenger.DivaMessageParser;
+import se.uu.ub.cora.diva.indexmessenger.http.CoraHttpClient;
+import se.uu.ub.cora.diva.indexmessenger.retry.RetryScheduler;
+import se.uu.ub.cora.diva.indexmessenger.workorder.AimdConcurrencyLimiter;
+import se.uu.ub.cora.diva.indexmessenger.workorder.DeduplicationCache;
+import se.uu.ub.cora.diva.indexmessenger.workorder.ExecutorServiceSpy;
+import se.uu.ub.cora.diva.indexmessenger.workorder.PartitionedWorkOrderSender;
+import se.uu.ub.cora.diva.indexmessenger.workorder.ScheduledExecutorSpy;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrder;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSenderSpy;
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class MetricsRegistrarTest {
+	private static final String DOMAIN = "se.uu.ub.cora.diva.indexmessenger:";
+	private LoggerFactorySpy loggerFactory;
+	private String testedClassname = "MetricsRegistrar";
+	private MBeanServer mBeanServer;
+	private MetricsRegistrar registrar;
+	private DivaMessageParser parser;
+	private PipelineMetrics pipelineMetrics;
+	private PartitionedWorkOrderSender partitionedSender;
+	private RetryScheduler retryScheduler;
+	private Path directory;
+
+	@BeforeMethod
+	public void setUp() {
+		loggerFactory = new LoggerFactorySpy();
+		LoggerProvider.setLoggerFactory(loggerFactory);
+		mBeanServer = MBeanServerFactory.newMBeanServer();
+		registrar = new MetricsRegistrar(mBeanServer);
+		parser = new DivaMessageParser();
+		pipelineMetrics = new PipelineMetrics(parser.getParseCounters());
+		partitionedSender = null;
+		retryScheduler = null;
+		directory = null;
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		long now = System.nanoTime();
+		if (partitionedSender != null) {
+			partitionedSender.closeBefore(now);
+		}
+		if (retryScheduler != null) {
+			retryScheduler.closeBefore(now);
+		}
+		if (directory != null) {
+			deleteDirectory();
+		}
+	}
+
+	private void deleteDirectory() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Test
+	public void testDefaultUsesPlatformMBeanServer() {
+		assertSame(new MetricsRegistrar().getMBeanServer(),
+				ManagementFactory.getPlatformMBeanServer());
+	}
+
+	@Test
+	public void testRegisterPipelineMetrics() throws Exception {
+		parser.parse(Map.of("pid", "authority-person:1", "methodName", "purgeObject"), "");
+		pipelineMetrics.recordDispatchStarted();
+		pipelineMetrics.recordParseLatency(1000);
+
+		registrar.registerPipelineMetrics(pipelineMetrics);
+
+		ObjectName pipelineName = new ObjectName(DOMAIN + "type=Pipeline");
+		assertEquals(mBeanServer.getAttribute(pipelineName, "AcceptedDeletes"), 1L);
+		assertEquals(mBeanServer.getAttribute(pipelineName, "WorkOrdersInFlight"), 1L);
+		TabularData perMethodName = (TabularData) mBeanServer.getAttribute(pipelineName,
+				"MessagesPerMethodName");
+		assertEquals(perMethodName.size(), 1);
+		ObjectName parseLatencyName = new ObjectName(DOMAIN + "type=LatencyHistogram,name=parse");
+		assertEquals(mBeanServer.getAttribute(parseLatencyName, "Count"), 1L);
+		assertTrue(mBeanServer
+				.isRegistered(new ObjectName(DOMAIN + "type=LatencyHistogram,name=dispatch")));
+	}
+
+	@Test
+	public void testRegisterConcurrencyLimit() throws Exception {
+		registrar.registerConcurrencyLimit(new AimdConcurrencyLimiter(5, 1, 10, 100));
+
+		ObjectName limitName = new ObjectName(DOMAIN + "type=ConcurrencyLimit");
+		assertEquals(mBeanServer.getAttribute(limitName, "Limit"), 5);
+		assertEquals(mBeanServer.getAttribute(limitName, "MaxLimit"), 10);
+	}
+
+	@Test
+	public void testRegisterHttpClient() throws Exception {
+		registrar.registerHttpClient(new CoraHttpClient(20, 30000, 1048576));
+
+		ObjectName clientName = new ObjectName(DOMAIN + "type=HttpClient");
+		assertEquals(mBeanServer.getAttribute(clientName, "MaxConcurrentRequests"), 20);
+		assertEquals(mBeanServer.getAttribute(clientName, "TlsConnectionReuseRate"), 0.0);
+	}
+
+	@Test
+	public void testRegisterWorkOrderQueue() throws Exception {
+		partitionedSender = new PartitionedWorkOrderSender(new WorkOrderSenderSpy(), 2, 10,
+				Thread::new);
+
+		registrar.registerWorkOrderQueue(partitionedSender, "partitions");
+
+		ObjectName queueName = new ObjectName(DOMAIN + "type=WorkOrderQueue,name=partitions");
+		assertEquals(mBeanServer.getAttribute(queueName, "NoOfQueuedWorkOrders"), 0);
+	}
+
+	@Test
+	public void testRegisterDeduplicationCache() throws Exception {
+		DeduplicationCache deduplicationCache = new DeduplicationCache(1000, 10);
+		deduplicationCache.tryToClaim(new WorkOrder("person", "authority-person:1", "update"));
+
+		registrar.registerDeduplicationCache(deduplicationCache);
+
+		ObjectName cacheName = new ObjectName(DOMAIN + "type=DeduplicationCache");
+		assertEquals(mBeanServer.getAttribute(cacheName, "NoOfEntries"), 1);
+		assertEquals(mBeanServer.getAttribute(cacheName, "HitRate"), 0.0);
+		assertEquals(mBeanServer.getAttribute(cacheName, "MemoryInBytes"), 8L * (32 + 20));
+	}
+
+	@Test
+	public void testRegisterRetryScheduler() throws Exception {
+		directory = Files.createTempDirectory("metricsRegistrarTest");
+		retryScheduler = new RetryScheduler(directory, 4, 1000, 10000, 100, 8,
+				new ScheduledExecutorSpy(), List.of(new ExecutorServiceSpy()));
+
+		registrar.registerRetryScheduler(retryScheduler);
+
+		ObjectName retryName = new ObjectName(DOMAIN + "type=Retry");
+		assertEquals(mBeanServer.getAttribute(retryName, "NoOfPendingRetries"), 0);
+		assertEquals(mBeanServer.getAttribute(retryName, "MaxAttempts"), 4);
+	}
+
+	@Test
+	public void testRegisterMessageSourceMetrics() throws Exception {
+		MessageSourceMetrics sourceMetrics = new MessageSourceMetrics("drafts");
+		sourceMetrics.recordMessageReceived();
+
+		registrar.registerMessageSourceMetrics(sourceMetrics);
+
+		ObjectName sourceName = new ObjectName(DOMAIN + "type=MessageSource,name=drafts");
+		assertEquals(mBeanServer.getAttribute(sourceName, "SourceName"), "drafts");
+		assertEquals(mBeanServer.getAttribute(sourceName, "MessagesReceived"), 1L);
+		assertTrue((Long) mBeanServer.getAttribute(sourceName, "MillisSinceLastMessage") >= 0);
+	}
+
+	@Test
+	public void testRegisteringAgainReplacesBean() throws Exception {
+		registrar.registerPipelineMetrics(pipelineMetrics);
+		PipelineMetrics newMetrics = new PipelineMetrics(parser.getParseCounters());
+		newMetrics.recordDispatchStarted();
+
+		registrar.registerPipelineMetrics(newMetrics);
+
+		assertEquals(mBeanServer.getAttribute(new ObjectName(DOMAIN + "type=Pipeline"),
+				"WorkOrdersInFlight"), 1L);
+		assertEquals(loggerFactory.getNoOfErrorLogMessagesUsingClassName(testedClassname), 0);
+	}
+
+	@Test
+	public void testFailingRegistrationIsLogged() {
+		registrar.register("notAnMBean", "type=NotAnMBean");
+
+		assertEquals(loggerFactory.getNoOfErrorLogMessagesUsingClassName(testedClassname), 1);
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Unable to register MBean: " + DOMAIN + "type=NotAnMBean");
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.metrics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import java.util.Map;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.diva.indexmessenger.DivaMessageParser;
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class PipelineMetricsTest {
+	private DivaMessageParser parser;
+	private PipelineMetrics metrics;
+
+	@BeforeMethod
+	public void setUp() {
+		LoggerProvider.setLoggerFactory(new LoggerFactorySpy());
+		parser = new DivaMessageParser();
+		metrics = new PipelineMetrics(parser.getParseCounters());
+	}
+
+	@Test
+	public void testInit() {
+		assertSame(metrics.getParseCounters(), parser.getParseCounters());
+		assertEquals(metrics.getWorkOrdersInFlight(), 0);
+		assertEquals(metrics.getWorkOrdersSent(), 0);
+		assertEquals(metrics.getWorkOrdersFailed(), 0);
+	}
+
+	@Test
+	public void testParseCountsAreReadFromParser() {
+		parser.parse(Map.of("pid", "authority-person:1", "methodName", "addDatastream"), "");
+		parser.parse(Map.of("pid", "authority-person:1", "methodName", "purgeObject"), "");
+		parser.parse(Map.of("pid", "authority-person:1", "methodName", "modifyObject"), "");
+		parser.parse(Map.of("pid", "diva2:1", "methodName", "purgeObject"), "");
+		parser.parse(Map.of("methodName", "purgeObject"), "");
+
+		assertEquals(metrics.getAccepted(), 2);
+		assertEquals(metrics.getAcceptedUpdates(), 1);
+		assertEquals(metrics.getAcceptedDeletes(), 1);
+		assertEquals(metrics.getRejectedOnHeaders(), 2);
+		assertEquals(metrics.getRejectedOnBody(), 1);
+		assertEquals(metrics.getMessagesWithoutPid(), 1);
+		assertEquals(metrics.getMessagesPerMethodName(),
+				Map.of("addDatastream", 1L, "purgeObject", 3L, "modifyObject", 1L));
+	}
+
+	@Test
+	public void testParseLatency() {
+		metrics.recordParseLatency(1000);
+
+		assertEquals(metrics.getParseLatency().getCount(), 1);
+	}
+
+	@Test
+	public void testDispatch() {
+		metrics.recordDispatchStarted();
+		metrics.recordDispatchStarted();
+		metrics.recordDispatchStarted();
+		assertEquals(metrics.getWorkOrdersInFlight(), 3);
+
+		metrics.recordDispatchSucceeded(1000);
+		metrics.recordDispatchFailed(1000);
+
+		assertEquals(metrics.getWorkOrdersInFlight(), 1);
+		assertEquals(metrics.getWorkOrdersSent(), 1);
+		assertEquals(metrics.getWorkOrdersFailed(), 1);
+		assertEquals(metrics.getDispatchLatency().getCount(), 2);
+	}
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.outbox;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrder;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSender;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSenderSpy;
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class OutboxDrainerTest {
+	private LoggerFactorySpy loggerFactory;
+	private String testedClassname = "OutboxDrainer";
+	private Path directory;
+	private OutboxLog outboxLog;
+	private WorkOrderSenderSpy workOrderSender;
+	private OutboxDrainer drainer;
+	private WorkOrder workOrder = new WorkOrder("person", "authority-person:1", "update");
+	private AtomicLong nanoTime;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		loggerFactory = new LoggerFactorySpy();
+		LoggerProvider.setLoggerFactory(loggerFactory);
+		directory = Files.createTempDirectory("outboxDrainerTest");
+		outboxLog = OutboxLog.openInDirectory(directory, 1024, false);
+		workOrderSender = new WorkOrderSenderSpy();
+		nanoTime = new AtomicLong();
+		drainer = new OutboxDrainer(outboxLog, workOrderSender, 1, 2);
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		outboxLog.close();
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Test
+	public void testInit() {
+		assertSame(drainer.getOutboxLog(), outboxLog);
+		assertSame(drainer.getWorkOrderSender(), workOrderSender);
+		assertEquals(drainer.getRetryDelayInMillis(), 1);
+		assertEquals(drainer.getMaxRetryDelayInMillis(), 2);
+	}
+
+	@Test
+	public void testNothingToSend() throws Exception {
+		assertFalse(drainer.sendNextWorkOrder(0));
+		assertEquals(workOrderSender.sentWorkOrders.size(), 0);
+	}
+
+	@Test
+	public void testWorkOrderIsSentAndCommitted() throws Exception {
+		outboxLog.append(workOrder);
+
+		assertTrue(drainer.sendNextWorkOrder(0));
+
+		assertEquals(workOrderSender.sentWorkOrders.size(), 1);
+		assertEquals(workOrderSender.sentWorkOrders.get(0), workOrder);
+		assertEquals(outboxLog.getNoOfCommittedEntries(), 1);
+	}
+
+	@Test
+	public void testFailingWorkOrderIsRetriedUntilSentAndNotCommittedBefore() throws Exception {
+		WorkOrderSenderFailingTimes failingSender = new WorkOrderSenderFailingTimes(6);
+		drainer = new OutboxDrainer(outboxLog, failingSender, 1, 2);
+		outboxLog.append(workOrder);
+
+		assertTrue(drainer.sendNextWorkOrder(0));
+
+		assertEquals(failingSender.noOfCalls, 7);
+		assertEquals(failingSender.noOfCommittedAtEachCall, List.of(0L, 0L, 0L, 0L, 0L, 0L, 0L));
+		assertEquals(outboxLog.getNoOfCommittedEntries(), 1);
+		assertEquals(loggerFactory.getNoOfErrorLogMessagesUsingClassName(testedClassname), 6);
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Error sending work order: update person/authority-person:1, attempt: 1,"
+						+ " retrying in: 1 ms");
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 5),
+				"Error sending work order: update person/authority-person:1, attempt: 6,"
+						+ " retrying in: 2 ms");
+		assertSame(loggerFactory.getErrorLogErrorUsingClassNameAndNo(testedClassname, 0),
+				failingSender.error);
+	}
+
+	@Test
+	public void testRetryDelayDoublesUpToMax() {
+		drainer = new OutboxDrainer(outboxLog, workOrderSender, 1000, 60000);
+
+		assertEquals(drainer.calculateRetryDelayInMillis(1), 1000);
+		assertEquals(drainer.calculateRetryDelayInMillis(2), 2000);
+		assertEquals(drainer.calculateRetryDelayInMillis(6), 32000);
+		assertEquals(drainer.calculateRetryDelayInMillis(7), 60000);
+		assertEquals(drainer.calculateRetryDelayInMillis(Integer.MAX_VALUE), 60000);
+	}
+
+	@Test
+	public void testCommitsAreBatched() throws Exception {
+		drainer = new OutboxDrainer(outboxLog, workOrderSender, 1, 2, 3, 1000, nanoTime::get);
+		for (int i = 0; i < 4; i++) {
+			outboxLog.append(workOrder);
+		}
+
+		drainer.sendNextWorkOrder(0);
+		drainer.sendNextWorkOrder(0);
+		assertEquals(outboxLog.getNoOfCommittedEntries(), 0);
+		drainer.sendNextWorkOrder(0);
+		assertEquals(outboxLog.getNoOfCommittedEntries(), 3);
+		drainer.sendNextWorkOrder(0);
+
+		assertEquals(drainer.getCommitBatchSize(), 3);
+		assertEquals(drainer.getCommitIntervalInMillis(), 1000);
+		assertEquals(workOrderSender.sentWorkOrders.size(), 4);
+		assertEquals(outboxLog.getNoOfCommittedEntries(), 3);
+	}
+
+	@Test
+	public void testBatchIsCommittedWhenIntervalHasPassed() throws Exception {
+		drainer = new OutboxDrainer(outboxLog, workOrderSender, 1, 2, 100, 1000, nanoTime::get);
+		outboxLog.append(workOrder);
+		outboxLog.append(workOrder);
+
+		drainer.sendNextWorkOrder(0);
+		nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+		drainer.sendNextWorkOrder(0);
+
+		assertEquals(outboxLog.getNoOfCommittedEntries(), 2);
+	}
+
+	@Test
+	public void testBatchIsCommittedWhenOutboxIsEmpty() throws Exception {
+		drainer = new OutboxDrainer(outboxLog, workOrderSender, 1, 2, 100, 1000, nanoTime::get);
+		outboxLog.append(workOrder);
+		drainer.sendNextWorkOrder(0);
+		assertEquals(outboxLog.getNoOfCommittedEntries(), 0);
+
+		assertFalse(drainer.sendNextWorkOrder(0));
+
+		assertEquals(outboxLog.getNoOfCommittedEntries(), 1);
+	}
+
+	@Test
+	public void testWaitIsLimitedToNextCommit() throws Exception {
+		drainer = new OutboxDrainer(outboxLog, workOrderSender, 1, 2, 100, 50);
+		outboxLog.append(workOrder);
+		drainer.sendNextWorkOrder(0);
+
+		long start = System.nanoTime();
+		assertFalse(drainer.sendNextWorkOrder(10000));
+
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+		assertEquals(outboxLog.getNoOfCommittedEntries(), 1);
+	}
+
+	private class WorkOrderSenderFailingTimes extends WorkOrderSenderSpy {
+		int noOfCalls = 0;
+		List<Long> noOfCommittedAtEachCall = new ArrayList<>();
+		RuntimeException error = new RuntimeException("someError");
+		private int noOfFailures;
+
+		WorkOrderSenderFailingTimes(int noOfFailures) {
+			this.noOfFailures = noOfFailures;
+		}
+
+		@Override
+		public synchronized void send(WorkOrder workOrder) {
+			noOfCalls++;
+			noOfCommittedAtEachCall.add(outboxLog.getNoOfCommittedEntries());
+			if (noOfCalls <= noOfFailures) {
+				throw error;
+			}
+		}
+	}
+
+	@Test
+	public void testRunSendsUntilInterrupted() throws Exception {
+		Thread thread = new Thread(drainer);
+		thread.start();
+		outboxLog.append(workOrder);
+		outboxLog.append(workOrder);
+		waitUntilCommitted(2);
+
+		thread.interrupt();
+		thread.join(5000);
+
+		assertFalse(thread.isAlive());
+		assertEquals(workOrderSender.sentWorkOrders.size(), 2);
+	}
+
+	@Test
+	public void testStopBeforeSendsWhatIsLeftAndReturns() throws Exception {
+		outboxLog.append(workOrder);
+		outboxLog.append(workOrder);
+		outboxLog.append(workOrder);
+		Thread thread = new Thread(drainer);
+		thread.start();
+		waitUntilSent(1);
+
+		int left = drainer.stopBefore(System.nanoTime() + TimeUnit.SECONDS.toNanos(5));
+
+		assertEquals(left, 0);
+		thread.join(1000);
+		assertFalse(thread.isAlive());
+		assertEquals(workOrderSender.sentWorkOrders.size(), 3);
+		assertEquals(outboxLog.getNoOfCommittedEntries(), 3);
+	}
+
+	@Test
+	public void testStopBeforeInterruptsDrainerStillRunningAtDeadline() throws Exception {
+		drainer = new OutboxDrainer(outboxLog, workOrderSender, 60_000, 60_000);
+		workOrderSender.errorToThrow = new RuntimeException("someError");
+		outboxLog.append(workOrder);
+		outboxLog.append(workOrder);
+		Thread thread = new Thread(drainer);
+		thread.start();
+		waitUntilSent(1);
+
+		int left = drainer.stopBefore(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50));
+
+		assertEquals(left, 2);
+		thread.join(1000);
+		assertFalse(thread.isAlive());
+	}
+
+	@Test
+	public void testWorkOrderInterruptedWhileRetriedIsNotCommitted() throws Exception {
+		AtomicInteger noOfCalls = new AtomicInteger();
+		WorkOrderSender failingAfterFirstSender = sentWorkOrder -> {
+			if (noOfCalls.incrementAndGet() > 1) {
+				throw new RuntimeException("someError");
+			}
+		};
+		drainer = new OutboxDrainer(outboxLog, failingAfterFirstSender, 60_000, 60_000, 100,
+				60_000);
+		outboxLog.append(new WorkOrder("person", "authority-person:1", "update"));
+		outboxLog.append(new WorkOrder("person", "authority-person:2", "update"));
+		Thread thread = new Thread(drainer);
+		thread.start();
+		waitUntil(() -> noOfCalls.get() >= 2);
+
+		int left = drainer.stopBefore(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50));
+
+		thread.join(1000);
+		assertFalse(thread.isAlive());
+		assertEquals(left, 1);
+		assertEquals(outboxLog.getNoOfCommittedEntries(), 1);
+		outboxLog.close();
+		outboxLog = OutboxLog.openInDirectory(directory, 1024, false);
+		assertEquals(outboxLog.readNext(0).getRecordId(), "authority-person:2");
+	}
+
+	private void waitUntil(BooleanSupplier condition) throws InterruptedException {
+		long waitUntil = System.currentTimeMillis() + 5000;
+		while (!condition.getAsBoolean() && System.currentTimeMillis() < waitUntil) {
+			Thread.sleep(5);
+		}
+	}
+
+	@Test
+	public void testStopBeforeWithoutRunningDrainerReturnsAtOnce() throws Exception {
+		outboxLog.append(workOrder);
+
+		int left = drainer.stopBefore(System.nanoTime() + TimeUnit.SECONDS.toNanos(5));
+
+		assertEquals(left, 1);
+		assertEquals(workOrderSender.sentWorkOrders.size(), 0);
+	}
+
+	private void waitUntilSent(int noOfWorkOrders) throws InterruptedException {
+		long waitUntil = System.currentTimeMillis() + 5000;
+		while (workOrderSender.sentWorkOrders.size() < noOfWorkOrders
+				&& System.currentTimeMillis() < waitUntil) {
+			Thread.sleep(5);
+		}
+	}
+
+	private void waitUntilCommitted(int noOfEntries) throws InterruptedException {
+		long waitUntil = System.currentTimeMillis() + 5000;
+		while (outboxLog.getNoOfCommittedEntries() < noOfEntries
+				&& System.currentTimeMillis() < waitUntil) {
+			Thread.sleep(5);
+		}
+	}
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.outbox;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrder;
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class OutboxLogTest {
+	private static final String TESTED_CLASS_NAME = "OutboxLog";
+	private LoggerFactorySpy loggerFactory;
+	private Path directory;
+	private OutboxLog outboxLog;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		loggerFactory = new LoggerFactorySpy();
+		LoggerProvider.setLoggerFactory(loggerFactory);
+		directory = Files.createTempDirectory("outboxLogTest");
+		outboxLog = OutboxLog.openInDirectory(directory, 1024, false);
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		outboxLog.close();
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Test
+	public void testInit() {
+		assertEquals(outboxLog.getDirectory(), directory);
+		assertEquals(outboxLog.getSegmentSize(), 1024);
+		assertFalse(outboxLog.getForceOnAppend());
+		assertEquals(outboxLog.getNoOfSegments(), 1);
+		assertEquals(outboxLog.getNoOfAppendedEntries(), 0);
+		assertEquals(outboxLog.getNoOfCommittedEntries(), 0);
+	}
+
+	@Test
+	public void testReadNextReturnsNullWhenNothingAppended() throws Exception {
+		assertNull(outboxLog.readNext(0));
+	}
+
+	@Test
+	public void testAppendedWorkOrdersAreReadInOrder() throws Exception {
+		WorkOrder first = createWorkOrder("authority-person:1", "update");
+		WorkOrder second = createWorkOrder("authority-person:2", "delete");
+		outboxLog.append(first);
+		outboxLog.append(second);
+
+		assertEquals(outboxLog.getNoOfAppendedEntries(), 2);
+		assertEquals(outboxLog.readNext(0), first);
+		assertEquals(outboxLog.readNext(0), second);
+		assertNull(outboxLog.readNext(0));
+	}
+
+	private WorkOrder createWorkOrder(String recordId, String modificationType) {
+		return new WorkOrder("person", recordId, modificationType);
+	}
+
+	@Test
+	public void testRecordIdWithNonAsciiCharacters() throws Exception {
+		WorkOrder workOrder = createWorkOrder("authority-person:\u00e5\u00e4\u00f6", "update");
+		outboxLog.append(workOrder);
+
+		assertEquals(outboxLog.readNext(0), workOrder);
+	}
+
+	@Test
+	public void testReadNextWaitsForAppendedWorkOrder() throws Exception {
+		WorkOrder workOrder = createWorkOrder("authority-person:1", "update");
+		Thread appender = new Thread(() -> {
+			sleep(50);
+			outboxLog.append(workOrder);
+		});
+		appender.start();
+
+		assertEquals(outboxLog.readNext(5000), workOrder);
+		appender.join();
+	}
+
+	private void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Test
+	public void testCommit() throws Exception {
+		outboxLog.append(createWorkOrder("authority-person:1", "update"));
+		outboxLog.append(createWorkOrder("authority-person:2", "update"));
+		outboxLog.readNext(0);
+		outboxLog.markHandled();
+		outboxLog.commit();
+
+		assertEquals(outboxLog.getNoOfCommittedEntries(), 1);
+		assertTrue(Files.exists(directory.resolve("outbox.checkpoint")));
+	}
+
+	@Test
+	public void testReopenedLogContinuesAfterCommittedWorkOrders() throws Exception {
+		outboxLog.append(createWorkOrder("authority-person:1", "update"));
+		outboxLog.append(createWorkOrder("authority-person:2", "update"));
+		outboxLog.append(createWorkOrder("authority-person:3", "delete"));
+		outboxLog.readNext(0);
+		outboxLog.markHandled();
+		outboxLog.commit();
+		outboxLog.readNext(0);
+		outboxLog.close();
+
+		outboxLog = OutboxLog.openInDirectory(directory, 1024, false);
+
+		assertEquals(outboxLog.readNext(0), createWorkOrder("authority-person:2", "update"));
+		assertEquals(outboxLog.readNext(0), createWorkOrder("authority-person:3", "delete"));
+		assertNull(outboxLog.readNext(0));
+	}
+
+	@Test
+	public void testReopenedLogAppendsAfterExistingWorkOrders() throws Exception {
+		outboxLog.append(createWorkOrder("authority-person:1", "update"));
+		outboxLog.close();
+
+		outboxLog = OutboxLog.openInDirectory(directory, 1024, false);
+		outboxLog.append(createWorkOrder("authority-person:2", "update"));
+
+		assertEquals(outboxLog.readNext(0), createWorkOrder("authority-person:1", "update"));
+		assertEquals(outboxLog.readNext(0), createWorkOrder("authority-person:2", "update"));
+	}
+
+	@Test
+	public void testReopenedLogCountsUncommittedWorkOrders() throws Exception {
+		appendWorkOrders(3);
+		outboxLog.readNext(0);
+		outboxLog.markHandled();
+		outboxLog.commit();
+		outboxLog.readNext(0);
+		outboxLog.close();
+
+		outboxLog = OutboxLog.openInDirectory(directory, 1024, false);
+
+		assertEquals(outboxLog.getNoOfAppendedEntries(), 2);
+		assertEquals(outboxLog.getNoOfCommittedEntries(), 0);
+		outboxLog.append(createWorkOrder("authority-person:3", "update"));
+		while (outboxLog.readNext(0) != null) {
+			outboxLog.markHandled();
+			outboxLog.commit();
+		}
+		assertEquals(outboxLog.getNoOfAppendedEntries(), 3);
+		assertEquals(outboxLog.getNoOfCommittedEntries(), 3);
+	}
+
+	@Test
+	public void testReopenedLogCountsUncommittedWorkOrdersInSeveralSegments() throws Exception {
+		appendWorkOrders(100);
+		for (int i = 0; i < 30; i++) {
+			outboxLog.readNext(0);
+		}
+		outboxLog.markHandled();
+		outboxLog.commit();
+		outboxLog.close();
+
+		outboxLog = OutboxLog.openInDirectory(directory, 1024, false);
+
+		assertTrue(outboxLog.getNoOfSegments() > 1);
+		assertEquals(outboxLog.getNoOfAppendedEntries(), 70);
+		assertEquals(outboxLog.readNext(0), createWorkOrder("authority-person:30", "update"));
+	}
+
+	@Test
+	public void testCommitLeavesOutWorkOrdersNotMarkedAsHandled() throws Exception {
+		appendWorkOrders(3);
+		outboxLog.readNext(0);
+		outboxLog.markHandled();
+		outboxLog.readNext(0);
+		outboxLog.commit();
+		outboxLog.close();
+
+		outboxLog = OutboxLog.openInDirectory(directory, 1024, false);
+
+		assertEquals(outboxLog.getNoOfAppendedEntries(), 2);
+		assertEquals(outboxLog.readNext(0).getRecordId(), "authority-person:1");
+	}
+
+	@Test
+	public void testCommitReplacesCheckpointFile() throws Exception {
+		appendWorkOrders(2);
+		outboxLog.readNext(0);
+		outboxLog.markHandled();
+		outboxLog.commit();
+
+		assertEquals(Files.readString(directory.resolve("outbox.checkpoint")), "0 36");
+		assertFalse(Files.exists(directory.resolve("outbox.checkpoint.tmp")));
+	}
+
+	@Test
+	public void testEmptyCheckpointIsIgnored() throws Exception {
+		assertInvalidCheckpointIsIgnored("");
+	}
+
+	private void assertInvalidCheckpointIsIgnored(String checkpoint) throws Exception {
+		appendWorkOrders(2);
+		outboxLog.close();
+		Files.writeString(directory.resolve("outbox.checkpoint"), checkpoint);
+
+		outboxLog = OutboxLog.openInDirectory(directory, 1024, false);
+
+		assertEquals(loggerFactory.getNoOfWarnLogMessagesUsingClassName(TESTED_CLASS_NAME), 1);
+		assertEquals(loggerFactory.getWarnLogMessageUsingClassNameAndNo(TESTED_CLASS_NAME, 0),
+				"Ignoring invalid outbox checkpoint \"" + checkpoint + "\" in " + directory
+						+ ", reading from the first segment");
+		assertEquals(outboxLog.getNoOfAppendedEntries(), 2);
+		assertEquals(outboxLog.readNext(0), createWorkOrder("authority-person:0", "update"));
+		assertEquals(outboxLog.readNext(0), createWorkOrder("authority-person:1", "update"));
+		assertNull(outboxLog.readNext(0));
+	}
+
+	@Test
+	public void testTruncatedCheckpointIsIgnored() throws Exception {
+		assertInvalidCheckpointIsIgnored("0");
+	}
+
+	@Test
+	public void testCheckpointWithGarbageIsIgnored() throws Exception {
+		assertInvalidCheckpointIsIgnored("0 x26");
+	}
+
+	@Test
+	public void testCheckpointWithTooLargeNumberIsIgnored() throws Exception {
+		assertInvalidCheckpointIsIgnored("0 99999999999");
+	}
+
+	@Test
+	public void testCheckpointBetweenEntriesIsIgnored() throws Exception {
+		assertInvalidCheckpointIsIgnored("0 3");
+	}
+
+	@Test
+	public void testCheckpointInMissingSegmentIsIgnored() throws Exception {
+		assertInvalidCheckpointIsIgnored("7 0");
+	}
+
+	@Test
+	public void testValidCheckpointIsNotLogged() throws Exception {
+		appendWorkOrders(2);
+		outboxLog.readNext(0);
+		outboxLog.markHandled();
+		outboxLog.commit();
+		outboxLog.close();
+
+		outboxLog = OutboxLog.openInDirectory(directory, 1024, false);
+
+		assertEquals(loggerFactory.getNoOfWarnLogMessagesUsingClassName(TESTED_CLASS_NAME), 0);
+		assertEquals(outboxLog.readNext(0), createWorkOrder("authority-person:1", "update"));
+	}
+
+	@Test
+	public void testNewSegmentIsStartedWhenSegmentIsFull() throws Exception {
+		appendWorkOrders(100);
+
+		assertTrue(outboxLog.getNoOfSegments() > 1);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(outboxLog.readNext(0), createWorkOrder("authority-person:" + i, "update"));
+		}
+		assertNull(outboxLog.readNext(0));
+	}
+
+	private void appendWorkOrders(int noOfWorkOrders) {
+		for (int i = 0; i < noOfWorkOrders; i++) {
+			outboxLog.append(createWorkOrder("authority-person:" + i, "update"));
+		}
+	}
+
+	@Test
+	public void testCommittedSegmentsAreDeleted() throws Exception {
+		appendWorkOrders(100);
+		int noOfSegments = outboxLog.getNoOfSegments();
+		while (outboxLog.readNext(0) != null) {
+			outboxLog.markHandled();
+			outboxLog.commit();
+		}
+
+		assertEquals(outboxLog.getNoOfSegments(), 1);
+		try (Stream<Path> files = Files.list(directory)) {
+			assertEquals(files.filter(file -> file.toString().endsWith(".log")).count(), 1);
+		}
+		assertTrue(noOfSegments > 1);
+	}
+
+	@Test
+	public void testReopenedLogWithSeveralSegments() throws Exception {
+		appendWorkOrders(100);
+		outboxLog.close();
+
+		outboxLog = OutboxLog.openInDirectory(directory, 1024, false);
+		outboxLog.append(createWorkOrder("authority-person:100", "update"));
+
+		for (int i = 0; i <= 100; i++) {
+			assertEquals(outboxLog.readNext(0), createWorkOrder("authority-person:" + i, "update"));
+		}
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = ""
+			+ "Work order too large for outbox segment")
+	public void testWorkOrderLargerThanSegment() {
+		outboxLog.append(createWorkOrder("authority-person:" + "x".repeat(1024), "update"));
+	}
+
+	@Test
+	public void testUnableToOpen() throws Exception {
+		Path file = Files.createFile(directory.resolve("notADirectory"));
+		try {
+			OutboxLog.openInDirectory(file, 1024, false);
+			fail("Opening outbox in a file should fail");
+		} catch (UncheckedIOException e) {
+			assertEquals(e.getMessage(), "Unable to open outbox in: " + file);
+		}
+	}
+
+	@Test
+	public void testForceOnAppend() throws Exception {
+		OutboxLog forcedLog = OutboxLog.openInDirectory(directory.resolve("forced"), 1024, true);
+		WorkOrder workOrder = createWorkOrder("authority-person:1", "update");
+		forcedLog.append(workOrder);
+
+		assertTrue(forcedLog.getForceOnAppend());
+		assertEquals(forcedLog.getNoOfForces(), 1);
+		assertEquals(forcedLog.readNext(0), workOrder);
+		forcedLog.close();
+	}
+
+	@Test
+	public void testNoForceWithoutForceOnAppend() throws Exception {
+		outboxLog.append(createWorkOrder("authority-person:1", "update"));
+
+		assertEquals(outboxLog.getNoOfForces(), 0);
+	}
+
+	@Test
+	public void testForcedAppendsToNewSegment() throws Exception {
+		OutboxLog forcedLog = OutboxLog.openInDirectory(directory.resolve("forced"), 64, true);
+		for (int i = 0; i < 5; i++) {
+			forcedLog.append(createWorkOrder("authority-person:" + i, "update"));
+		}
+
+		assertTrue(forcedLog.getNoOfSegments() > 1);
+		assertEquals(forcedLog.getNoOfForces(), 5);
+		forcedLog.close();
+	}
+
+	@Test
+	public void testConcurrentForcedAppendsShareForces() throws Exception {
+		OutboxLog forcedLog = OutboxLog.openInDirectory(directory.resolve("forced"), 64 * 1024,
+				true);
+		int noOfThreads = 8;
+		int noOfAppendsPerThread = 50;
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < noOfThreads; t++) {
+			int threadNo = t;
+			Thread thread = new Thread(() -> {
+				awaitStart(start);
+				for (int i = 0; i < noOfAppendsPerThread; i++) {
+					forcedLog.append(createWorkOrder("authority-person:" + threadNo + "-" + i,
+							"update"));
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(forcedLog.getNoOfAppendedEntries(), noOfThreads * noOfAppendsPerThread);
+		assertTrue(forcedLog.getNoOfForces() <= noOfThreads * noOfAppendsPerThread);
+		int noOfRead = 0;
+		while (forcedLog.readNext(0) != null) {
+			noOfRead++;
+		}
+		assertEquals(noOfRead, noOfThreads * noOfAppendsPerThread);
+		forcedLog.close();
+	}
+
+	private void awaitStart(CountDownLatch start) {
+		try {
+			start.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.outbox;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrder;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSenderSpy;
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class OutboxWorkOrderSenderTest {
+	private LoggerFactorySpy loggerFactory;
+	private String testedClassname = "OutboxWorkOrderSender";
+	private Path directory;
+	private OutboxLog outboxLog;
+	private WorkOrderSenderSpy workOrderSender;
+	private OutboxDrainer drainer;
+	private OutboxWorkOrderSender outboxSender;
+	private WorkOrder workOrder = new WorkOrder("person", "authority-person:1", "update");
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		loggerFactory = new LoggerFactorySpy();
+		LoggerProvider.setLoggerFactory(loggerFactory);
+		directory = Files.createTempDirectory("outboxWorkOrderSenderTest");
+		outboxLog = OutboxLog.openInDirectory(directory, 1024, false);
+		workOrderSender = new WorkOrderSenderSpy();
+		drainer = new OutboxDrainer(outboxLog, workOrderSender, 1, 2);
+		outboxSender = new OutboxWorkOrderSender(outboxLog, drainer);
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		outboxLog.close();
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Test
+	public void testInit() {
+		assertSame(outboxSender.getOutboxLog(), outboxLog);
+		assertSame(outboxSender.getOutboxDrainer(), drainer);
+	}
+
+	@Test
+	public void testSendAppendsToOutbox() throws Exception {
+		WorkOrder workOrder = new WorkOrder("person", "authority-person:1", "update");
+		outboxSender.send(workOrder);
+
+		assertEquals(outboxLog.getNoOfAppendedEntries(), 1);
+		assertEquals(outboxSender.getNoOfQueuedWorkOrders(), 1);
+		assertEquals(outboxLog.readNext(0), workOrder);
+	}
+
+	@Test
+	public void testCloseSendsWhatIsLeftInOutboxThenClosesSenderBehind() throws Exception {
+		outboxSender.send(workOrder);
+		outboxSender.send(workOrder);
+		Thread thread = new Thread(drainer);
+		thread.start();
+		waitUntilSent(1);
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+		int notSent = outboxSender.closeBefore(deadline);
+
+		assertEquals(notSent, 0);
+		thread.join(1000);
+		assertFalse(thread.isAlive());
+		assertEquals(workOrderSender.sentWorkOrders.size(), 2);
+		assertEquals(outboxLog.getNoOfCommittedEntries(), 2);
+		assertEquals(workOrderSender.closeDeadlines, List.of(deadline));
+		assertEquals(loggerFactory.getNoOfInfoLogMessagesUsingClassname(testedClassname), 0);
+	}
+
+	@Test
+	public void testCloseKeepsWorkOrdersNotSentInOutbox() throws Exception {
+		outboxSender.send(workOrder);
+		outboxSender.send(workOrder);
+		workOrderSender.noOfNotSentOnClose = 1;
+
+		int notSent = outboxSender.closeBefore(System.nanoTime());
+
+		assertEquals(notSent, 3);
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Left: 2 work orders in outbox: " + directory + ", they are sent after restart");
+	}
+
+	private void waitUntilSent(int noOfWorkOrders) throws InterruptedException {
+		long waitUntil = System.currentTimeMillis() + 5000;
+		while (workOrderSender.sentWorkOrders.size() < noOfWorkOrders
+				&& System.currentTimeMillis() < waitUntil) {
+			Thread.sleep(5);
+		}
+	}
+}
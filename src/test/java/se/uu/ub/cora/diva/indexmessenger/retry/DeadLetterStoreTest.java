@@ -0,0 +1,115 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.retry;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrder;
+
+public class DeadLetterStoreTest {
+	private Path directory;
+	private DeadLetterStore deadLetterStore;
+	private WorkOrder workOrder = new WorkOrder("person", "authority-person:1", "update");
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("deadLetterStoreTest");
+		deadLetterStore = DeadLetterStore.openInDirectory(directory);
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		deadLetterStore.close();
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Test
+	public void testInit() {
+		assertEquals(deadLetterStore.getFile(), directory.resolve("dead-letters.log"));
+		assertEquals(deadLetterStore.getNoOfDeadLetters(), 0);
+		assertTrue(deadLetterStore.readAll().isEmpty());
+	}
+
+	@Test
+	public void testAddedDeadLetterIsRead() {
+		Instant before = Instant.now();
+
+		deadLetterStore.add(workOrder, 10, "Cora answered 500");
+
+		List<DeadLetter> deadLetters = deadLetterStore.readAll();
+		assertEquals(deadLetters.size(), 1);
+		DeadLetter deadLetter = deadLetters.get(0);
+		assertEquals(deadLetter.getWorkOrder(), workOrder);
+		assertEquals(deadLetter.getNoOfAttempts(), 10);
+		assertEquals(deadLetter.getReason(), "Cora answered 500");
+		assertTrue(!deadLetter.getGivenUpAt().isBefore(before));
+		assertEquals(deadLetterStore.getNoOfDeadLetters(), 1);
+	}
+
+	@Test
+	public void testLineIsTabSeparated() throws IOException {
+		deadLetterStore.add(workOrder, 3, "some error");
+
+		String line = Files.readAllLines(deadLetterStore.getFile(), StandardCharsets.UTF_8).get(0);
+
+		assertTrue(line.endsWith("\t3\tperson\tauthority-person:1\tupdate\tsome error"));
+	}
+
+	@Test
+	public void testTabsAndLineBreaksInReasonAreReplaced() {
+		deadLetterStore.add(workOrder, 3, "first\tsecond\r\nthird");
+
+		assertEquals(deadLetterStore.readAll().get(0).getReason(), "first second third");
+	}
+
+	@Test
+	public void testNullReasonIsWritten() {
+		deadLetterStore.add(workOrder, 3, null);
+
+		assertEquals(deadLetterStore.readAll().get(0).getReason(), "null");
+	}
+
+	@Test
+	public void testDeadLettersAreKeptWhenReopened() {
+		deadLetterStore.add(workOrder, 3, "some error");
+		deadLetterStore.close();
+
+		deadLetterStore = DeadLetterStore.openInDirectory(directory);
+		deadLetterStore.add(workOrder, 4, "other error");
+
+		assertEquals(deadLetterStore.getNoOfDeadLetters(), 2);
+		assertEquals(deadLetterStore.readAll().size(), 2);
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.retry;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrder;
+
+public class HashedTimerWheelTest {
+	private HashedTimerWheel timerWheel;
+	private long nextId;
+
+	@BeforeMethod
+	public void setUp() {
+		timerWheel = new HashedTimerWheel(100, 8, 1000);
+		nextId = 1;
+	}
+
+	@Test
+	public void testInit() {
+		assertEquals(timerWheel.getTickInMillis(), 100);
+		assertEquals(timerWheel.getNoOfBuckets(), 8);
+		assertEquals(timerWheel.size(), 0);
+	}
+
+	@Test
+	public void testNoOfBucketsIsRoundedUpToPowerOfTwo() {
+		assertEquals(new HashedTimerWheel(100, 5, 0).getNoOfBuckets(), 8);
+		assertEquals(new HashedTimerWheel(100, 1, 0).getNoOfBuckets(), 2);
+		assertEquals(new HashedTimerWheel(100, 4096, 0).getNoOfBuckets(), 4096);
+	}
+
+	@Test
+	public void testEntryIsNotExpiredBeforeDue() {
+		timerWheel.schedule(createEntryDueAt(1250));
+
+		assertTrue(timerWheel.advanceTo(1200).isEmpty());
+		assertEquals(timerWheel.size(), 1);
+	}
+
+	@Test
+	public void testEntryIsExpiredAtFirstTickAfterDue() {
+		RetryEntry entry = createEntryDueAt(1250);
+		timerWheel.schedule(entry);
+
+		List<RetryEntry> expired = timerWheel.advanceTo(1300);
+
+		assertEquals(expired, List.of(entry));
+		assertEquals(timerWheel.size(), 0);
+	}
+
+	@Test
+	public void testEntryDueAtTickIsExpiredAtThatTick() {
+		RetryEntry entry = createEntryDueAt(1300);
+		timerWheel.schedule(entry);
+
+		assertEquals(timerWheel.advanceTo(1300), List.of(entry));
+	}
+
+	@Test
+	public void testEntryAlreadyDueIsExpiredAtNextTick() {
+		RetryEntry entry = createEntryDueAt(500);
+		timerWheel.schedule(entry);
+
+		assertTrue(timerWheel.advanceTo(1099).isEmpty());
+		assertEquals(timerWheel.advanceTo(1100), List.of(entry));
+	}
+
+	@Test
+	public void testEntryMoreThanOneRoundAwayStaysInBucket() {
+		RetryEntry entry = createEntryDueAt(1000 + 8 * 100 + 100);
+		timerWheel.schedule(entry);
+
+		assertTrue(timerWheel.advanceTo(1100).isEmpty());
+		assertTrue(timerWheel.advanceTo(1800).isEmpty());
+		assertEquals(timerWheel.advanceTo(1900), List.of(entry));
+	}
+
+	@Test
+	public void testOnlyDueEntriesInBucketAreExpired() {
+		RetryEntry first = createEntryDueAt(1100);
+		RetryEntry sameBucketNextRound = createEntryDueAt(1900);
+		RetryEntry second = createEntryDueAt(1100);
+		timerWheel.schedule(first);
+		timerWheel.schedule(sameBucketNextRound);
+		timerWheel.schedule(second);
+
+		List<RetryEntry> expired = timerWheel.advanceTo(1100);
+
+		assertEquals(expired.size(), 2);
+		assertTrue(expired.containsAll(List.of(first, second)));
+		assertEquals(timerWheel.size(), 1);
+		assertEquals(timerWheel.advanceTo(1900), List.of(sameBucketNextRound));
+	}
+
+	@Test
+	public void testAdvancingMoreThanOneRoundExpiresAllDue() {
+		RetryEntry first = createEntryDueAt(1200);
+		RetryEntry second = createEntryDueAt(5000);
+		RetryEntry notDue = createEntryDueAt(9000);
+		timerWheel.schedule(first);
+		timerWheel.schedule(second);
+		timerWheel.schedule(notDue);
+
+		List<RetryEntry> expired = timerWheel.advanceTo(6000);
+
+		assertEquals(expired.size(), 2);
+		assertTrue(expired.containsAll(List.of(first, second)));
+		assertEquals(timerWheel.advanceTo(9000), List.of(notDue));
+	}
+
+	@Test
+	public void testAdvancingBackwardsExpiresNothing() {
+		timerWheel.schedule(createEntryDueAt(1100));
+
+		assertTrue(timerWheel.advanceTo(500).isEmpty());
+		assertEquals(timerWheel.advanceTo(1100).size(), 1);
+	}
+
+	@Test
+	public void testForEachVisitsAllEntries() {
+		RetryEntry first = createEntryDueAt(1100);
+		RetryEntry second = createEntryDueAt(1300);
+		timerWheel.schedule(first);
+		timerWheel.schedule(second);
+		List<RetryEntry> visited = new ArrayList<>();
+
+		timerWheel.forEach(visited::add);
+
+		assertEquals(visited.size(), 2);
+		assertTrue(visited.containsAll(List.of(first, second)));
+	}
+
+	@Test
+	public void testRemoveEntry() {
+		RetryEntry first = createEntryDueAt(1100);
+		RetryEntry sameBucketNextRound = createEntryDueAt(1900);
+		RetryEntry second = createEntryDueAt(1100);
+		timerWheel.schedule(first);
+		timerWheel.schedule(sameBucketNextRound);
+		timerWheel.schedule(second);
+
+		assertTrue(timerWheel.remove(sameBucketNextRound));
+
+		assertEquals(timerWheel.size(), 2);
+		assertEquals(timerWheel.advanceTo(2000).size(), 2);
+	}
+
+	@Test
+	public void testRemoveExpiredEntry() {
+		RetryEntry entry = createEntryDueAt(1100);
+		timerWheel.schedule(entry);
+		timerWheel.advanceTo(1100);
+
+		assertFalse(timerWheel.remove(entry));
+		assertEquals(timerWheel.size(), 0);
+	}
+
+	private RetryEntry createEntryDueAt(long dueAtMillis) {
+		WorkOrder workOrder = new WorkOrder("person", "authority-person:" + nextId, "update");
+		return new RetryEntry(nextId++, workOrder, dueAtMillis, 2);
+	}
+}
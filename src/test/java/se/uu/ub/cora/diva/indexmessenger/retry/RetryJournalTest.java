@@ -0,0 +1,180 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.retry;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrder;
+
+public class RetryJournalTest {
+	private Path directory;
+	private RetryJournal retryJournal;
+	private WorkOrder workOrder = new WorkOrder("person", "authority-person:1", "update");
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("retryJournalTest");
+		retryJournal = RetryJournal.openInDirectory(directory);
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		retryJournal.close();
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Test
+	public void testInit() {
+		assertEquals(retryJournal.getFile(), directory.resolve("retry.journal"));
+		assertTrue(Files.exists(retryJournal.getFile()));
+		assertTrue(retryJournal.getRecoveredEntries().isEmpty());
+		assertEquals(retryJournal.getNoOfLines(), 0);
+		assertEquals(retryJournal.nextId(), 1);
+		assertEquals(retryJournal.nextId(), 2);
+	}
+
+	@Test
+	public void testScheduledAndDoneAreWrittenAsLines() throws IOException {
+		RetryEntry entry = new RetryEntry(retryJournal.nextId(), workOrder, 5000, 2);
+
+		retryJournal.scheduled(entry);
+		retryJournal.done(entry);
+
+		assertEquals(readLines(), List.of("+\t1\t5000,2\tperson\tauthority-person:1\tupdate",
+				"-\t1"));
+		assertEquals(retryJournal.getNoOfLines(), 2);
+	}
+
+	@Test
+	public void testPendingEntriesAreRecoveredOnOpen() {
+		RetryEntry done = new RetryEntry(retryJournal.nextId(), workOrder, 5000, 2);
+		RetryEntry pending = new RetryEntry(retryJournal.nextId(),
+				new WorkOrder("person", "authority-person:2", "delete"), 6000, 2);
+		retryJournal.scheduled(done);
+		retryJournal.scheduled(pending);
+		retryJournal.done(done);
+
+		reopen();
+
+		List<RetryEntry> recovered = retryJournal.getRecoveredEntries();
+		assertEquals(recovered.size(), 1);
+		assertEquals(recovered.get(0).id, 2);
+		assertEquals(recovered.get(0).dueAtMillis, 6000);
+		assertEquals(recovered.get(0).attempt, 2);
+		assertEquals(recovered.get(0).getWorkOrder(),
+				new WorkOrder("person", "authority-person:2", "delete"));
+		assertEquals(retryJournal.nextId(), 3);
+	}
+
+	@Test
+	public void testRescheduledEntryIsRecoveredWithLatestDueAndAttempt() {
+		RetryEntry entry = new RetryEntry(retryJournal.nextId(), workOrder, 5000, 2);
+		retryJournal.scheduled(entry);
+		entry.attempt = 3;
+		entry.dueAtMillis = 9000;
+		retryJournal.scheduled(entry);
+
+		reopen();
+
+		List<RetryEntry> recovered = retryJournal.getRecoveredEntries();
+		assertEquals(recovered.size(), 1);
+		assertEquals(recovered.get(0).dueAtMillis, 9000);
+		assertEquals(recovered.get(0).attempt, 3);
+	}
+
+	@Test
+	public void testFileIsCompactedOnOpen() throws IOException {
+		RetryEntry done = new RetryEntry(retryJournal.nextId(), workOrder, 5000, 2);
+		RetryEntry pending = new RetryEntry(retryJournal.nextId(), workOrder, 6000, 2);
+		retryJournal.scheduled(done);
+		retryJournal.scheduled(pending);
+		retryJournal.done(done);
+
+		reopen();
+
+		assertEquals(readLines(), List.of("+\t2\t6000,2\tperson\tauthority-person:1\tupdate"));
+		assertEquals(retryJournal.getNoOfLines(), 1);
+	}
+
+	@Test
+	public void testLineWithoutLineEndIsIgnored() throws IOException {
+		retryJournal.scheduled(new RetryEntry(retryJournal.nextId(), workOrder, 5000, 2));
+		Files.writeString(retryJournal.getFile(), "+\t2\t6000,2\tperson\tauthority-person:2\tupd",
+				StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+		reopen();
+
+		assertEquals(retryJournal.getRecoveredEntries().size(), 1);
+		assertEquals(retryJournal.getRecoveredEntries().get(0).id, 1);
+	}
+
+	@Test
+	public void testMalformedLinesAreIgnored() throws IOException {
+		Files.writeString(retryJournal.getFile(),
+				"+\tnotANumber\t6000,2\tperson\tauthority-person:2\tupdate\n"
+						+ "+\t3\t6000,2\tperson\n" + "?\t4\n" + "-\n",
+				StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+		reopen();
+
+		assertTrue(retryJournal.getRecoveredEntries().isEmpty());
+	}
+
+	@Test
+	public void testRewriteKeepsOnlyGivenEntries() throws IOException {
+		RetryEntry done = new RetryEntry(retryJournal.nextId(), workOrder, 5000, 2);
+		RetryEntry pending = new RetryEntry(retryJournal.nextId(), workOrder, 6000, 3);
+		retryJournal.scheduled(done);
+		retryJournal.scheduled(pending);
+		retryJournal.done(done);
+
+		retryJournal.rewrite(List.of(pending));
+		retryJournal.done(pending);
+
+		assertEquals(readLines(),
+				List.of("+\t2\t6000,3\tperson\tauthority-person:1\tupdate", "-\t2"));
+		assertEquals(retryJournal.getNoOfLines(), 2);
+		assertEquals(retryJournal.nextId(), 3);
+	}
+
+	private void reopen() {
+		retryJournal.close();
+		retryJournal = RetryJournal.openInDirectory(directory);
+	}
+
+	private List<String> readLines() throws IOException {
+		return Files.readAllLines(retryJournal.getFile(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,569 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.retry;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.diva.indexmessenger.workorder.ExecutorServiceSpy;
+import se.uu.ub.cora.diva.indexmessenger.workorder.ScheduledExecutorSpy;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrder;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSenderSpy;
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class RetrySchedulerTest {
+	private LoggerFactorySpy loggerFactory;
+	private String testedClassname = "RetryScheduler";
+	private Path directory;
+	private ScheduledExecutorSpy ticker;
+	private List<ExecutorService> retrySenders;
+	private WorkOrderSenderSpy retryTarget;
+	private long now;
+	private double randomValue;
+	private RetryScheduler retryScheduler;
+	private WorkOrder workOrder = new WorkOrder("person", "authority-person:1", "update");
+	private WorkOrder otherWorkOrder = new WorkOrder("person", "authority-person:2", "update");
+	private RuntimeException error = new RuntimeException("Cora is down");
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		loggerFactory = new LoggerFactorySpy();
+		LoggerProvider.setLoggerFactory(loggerFactory);
+		directory = Files.createTempDirectory("retrySchedulerTest");
+		ticker = new ScheduledExecutorSpy();
+		retrySenders = List.of(new ExecutorServiceSpy());
+		retryTarget = new WorkOrderSenderSpy();
+		now = 100000;
+		randomValue = 0.5;
+		retryScheduler = createRetryScheduler(3);
+		retryScheduler.sendRetriesTo(retryTarget);
+	}
+
+	private RetryScheduler createRetryScheduler(int maxAttempts) {
+		return new RetryScheduler(directory, maxAttempts, 1000, 10000, 100, 8, ticker,
+				retrySenders, () -> now, () -> randomValue);
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		retryScheduler.closeBefore(System.nanoTime());
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Test
+	public void testInit() {
+		assertEquals(retryScheduler.getDirectory(), directory);
+		assertEquals(retryScheduler.getMaxAttempts(), 3);
+		assertEquals(retryScheduler.getInitialDelayInMillis(), 1000);
+		assertEquals(retryScheduler.getMaxDelayInMillis(), 10000);
+		assertEquals(retryScheduler.getTickInMillis(), 100);
+		assertEquals(retryScheduler.getWheelSize(), 8);
+		assertEquals(retryScheduler.getNoOfRetrySenders(), 1);
+		assertSame(retryScheduler.getRetryTarget(), retryTarget);
+		assertEquals(retryScheduler.getDeadLetterStore().getFile(),
+				directory.resolve("dead-letters.log"));
+		assertEquals(retryScheduler.getNoOfPendingRetries(), 0);
+		assertEquals(retryScheduler.getNoOfRetriesScheduled(), 0);
+		assertEquals(retryScheduler.getNoOfRetriesSucceeded(), 0);
+		assertEquals(retryScheduler.getNoOfDeadLetters(), 0);
+	}
+
+	@Test
+	public void testFromPropertiesUsesDefaults() {
+		retryScheduler.closeBefore(System.nanoTime());
+		Properties properties = new Properties();
+		properties.put("retry.directory", directory.toString());
+
+		retryScheduler = RetryScheduler.fromProperties(properties);
+
+		assertEquals(retryScheduler.getDirectory(), directory);
+		assertEquals(retryScheduler.getMaxAttempts(), 10);
+		assertEquals(retryScheduler.getInitialDelayInMillis(), 1000);
+		assertEquals(retryScheduler.getMaxDelayInMillis(), 3600000);
+		assertEquals(retryScheduler.getTickInMillis(), 100);
+		assertEquals(retryScheduler.getWheelSize(), 4096);
+		assertEquals(retryScheduler.getNoOfRetrySenders(), 4);
+		assertNull(retryScheduler.getRetryTarget());
+	}
+
+	@Test
+	public void testFromProperties() {
+		retryScheduler.closeBefore(System.nanoTime());
+		Properties properties = new Properties();
+		properties.put("retry.directory", directory.toString());
+		properties.put("retry.maxAttempts", "5");
+		properties.put("retry.initialDelayInMillis", "200");
+		properties.put("retry.maxDelayInMillis", " 60000 ");
+		properties.put("retry.tickInMillis", "50");
+		properties.put("retry.wheelSize", "1000");
+		properties.put("retry.noOfSenders", "2");
+		properties.put("retry.senderQueueCapacity", "10");
+
+		retryScheduler = RetryScheduler.fromProperties(properties);
+
+		assertEquals(retryScheduler.getMaxAttempts(), 5);
+		assertEquals(retryScheduler.getInitialDelayInMillis(), 200);
+		assertEquals(retryScheduler.getMaxDelayInMillis(), 60000);
+		assertEquals(retryScheduler.getTickInMillis(), 50);
+		assertEquals(retryScheduler.getWheelSize(), 1024);
+		assertEquals(retryScheduler.getNoOfRetrySenders(), 2);
+	}
+
+	@Test
+	public void testStartSchedulesAdvanceEachTick() {
+		retryScheduler.start();
+
+		assertEquals(ticker.scheduledCommands.size(), 1);
+		assertEquals(ticker.delaysInMillis.get(0), Long.valueOf(100));
+	}
+
+	@Test
+	public void testDelayIsExponentialWithEqualJitter() {
+		randomValue = 0;
+		assertEquals(retryScheduler.calculateDelayInMillis(1), 500);
+		assertEquals(retryScheduler.calculateDelayInMillis(2), 1000);
+		assertEquals(retryScheduler.calculateDelayInMillis(3), 2000);
+		randomValue = 0.999999;
+		assertEquals(retryScheduler.calculateDelayInMillis(1), 999);
+		assertEquals(retryScheduler.calculateDelayInMillis(3), 3999);
+	}
+
+	@Test
+	public void testDelayIsCappedAtMaxDelay() {
+		randomValue = 0;
+
+		assertEquals(retryScheduler.calculateDelayInMillis(5), 5000);
+		assertEquals(retryScheduler.calculateDelayInMillis(1000), 5000);
+	}
+
+	@Test
+	public void testScheduleRetryIsJournaledAndLogged() throws IOException {
+		retryScheduler.scheduleRetry(workOrder, error);
+
+		assertEquals(retryScheduler.getNoOfPendingRetries(), 1);
+		assertEquals(retryScheduler.getNoOfRetriesScheduled(), 1);
+		assertEquals(readJournal(), List.of("+\t1\t100750,2\tperson\tauthority-person:1\tupdate"));
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Error sending work order: update person/authority-person:1, attempt: 1 of: 3,"
+						+ " retrying in: 750 ms");
+		assertSame(loggerFactory.getErrorLogErrorUsingClassNameAndNo(testedClassname, 0), error);
+	}
+
+	@Test
+	public void testAdvanceDoesNothingWithoutRetryTarget() {
+		retryScheduler.sendRetriesTo(null);
+		retryScheduler.scheduleRetry(workOrder, error);
+		now += 1000;
+
+		retryScheduler.advance();
+
+		assertEquals(retryScheduler.getNoOfPendingRetries(), 1);
+	}
+
+	@Test
+	public void testRetryIsNotSentBeforeDue() {
+		retryScheduler.scheduleRetry(workOrder, error);
+		now += 700;
+
+		retryScheduler.advance();
+
+		assertTrue(retryTarget.sentWorkOrders.isEmpty());
+		assertEquals(retryScheduler.getNoOfPendingRetries(), 1);
+	}
+
+	@Test
+	public void testDueRetryIsSentToRetryTarget() throws IOException {
+		retryScheduler.scheduleRetry(workOrder, error);
+		now += 800;
+
+		retryScheduler.advance();
+
+		assertEquals(retryTarget.sentWorkOrders, List.of(workOrder));
+		assertEquals(retryScheduler.getNoOfPendingRetries(), 0);
+		assertEquals(retryScheduler.getNoOfRetriesSucceeded(), 1);
+	}
+
+	@Test
+	public void testDueRetriesAreHandedToRetrySenderOfTheirRecord() throws IOException {
+		retrySenders = List.of(createHoldingRetrySender(), createHoldingRetrySender());
+		restartRetryScheduler();
+		retryScheduler.scheduleRetry(workOrder, error);
+		retryScheduler.scheduleRetry(otherWorkOrder, error);
+		now += 800;
+
+		retryScheduler.advance();
+
+		assertTrue(retryTarget.sentWorkOrders.isEmpty());
+		assertEquals(retryScheduler.getNoOfPendingRetries(), 2);
+		assertEquals(readJournal().size(), 2);
+		assertEquals(getRetrySenderForRecord(workOrder).heldTasks.size()
+				+ getRetrySenderForRecord(otherWorkOrder).heldTasks.size(), 2);
+		getRetrySenderForRecord(workOrder).runHeldTask(0);
+		assertEquals(retryTarget.sentWorkOrders, List.of(workOrder));
+		assertEquals(retryScheduler.getNoOfPendingRetries(), 1);
+	}
+
+	private ExecutorServiceSpy createHoldingRetrySender() {
+		ExecutorServiceSpy retrySender = new ExecutorServiceSpy();
+		retrySender.holdTasks = true;
+		return retrySender;
+	}
+
+	private void restartRetryScheduler() {
+		retryScheduler.closeBefore(System.nanoTime());
+		retryScheduler = createRetryScheduler(3);
+		retryScheduler.sendRetriesTo(retryTarget);
+	}
+
+	private ExecutorServiceSpy getRetrySenderForRecord(WorkOrder workOrder) {
+		int index = Math.floorMod(workOrder.getRecordKey().hashCode(), retrySenders.size());
+		return (ExecutorServiceSpy) retrySenders.get(index);
+	}
+
+	@Test
+	public void testRetryRejectedByRetrySenderIsPutBackUntilNextTick() {
+		retrySenders = List.of(new ExecutorServiceSpy() {
+			@Override
+			public void execute(Runnable command) {
+				if (noOfExecutedTasks == 0) {
+					noOfExecutedTasks++;
+					throw new RejectedExecutionException("Retry sender is full");
+				}
+				super.execute(command);
+			}
+		});
+		restartRetryScheduler();
+		retryScheduler.scheduleRetry(workOrder, error);
+		now += 800;
+
+		retryScheduler.advance();
+
+		assertTrue(retryTarget.sentWorkOrders.isEmpty());
+		assertEquals(retryScheduler.getNoOfPendingRetries(), 1);
+		now += 100;
+		retryScheduler.advance();
+		assertEquals(retryTarget.sentWorkOrders, List.of(workOrder));
+	}
+
+	@Test
+	public void testRetrySupersededWhileHeldByRetrySenderIsNotSent() {
+		retrySenders = List.of(createHoldingRetrySender());
+		restartRetryScheduler();
+		retryScheduler.scheduleRetry(workOrder, error);
+		now += 800;
+		retryScheduler.advance();
+		assertFalse(getRetrySenderForRecord(workOrder).heldTasks.isEmpty());
+
+		retryScheduler.supersedePendingRetry(workOrder);
+		getRetrySenderForRecord(workOrder).runHeldTask(0);
+
+		assertTrue(retryTarget.sentWorkOrders.isEmpty());
+		assertEquals(retryScheduler.getNoOfPendingRetries(), 0);
+	}
+
+	@Test
+	public void testJournalIsEmptiedWhenNothingIsPending() throws IOException {
+		retryScheduler.scheduleRetry(workOrder, error);
+		now += 800;
+
+		retryScheduler.advance();
+
+		assertTrue(readJournal().isEmpty());
+	}
+
+	@Test
+	public void testFailedRetryIsRescheduledWithLongerDelay() throws IOException {
+		retryScheduler.scheduleRetry(workOrder, error);
+		retryTarget.errorToThrow = error;
+		now += 800;
+
+		retryScheduler.advance();
+
+		assertEquals(retryScheduler.getNoOfPendingRetries(), 1);
+		assertEquals(retryScheduler.getNoOfRetriesScheduled(), 2);
+		assertEquals(readJournal().get(1),
+				"+\t1\t102300,3\tperson\tauthority-person:1\tupdate");
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 1),
+				"Error sending work order: update person/authority-person:1, attempt: 2 of: 3,"
+						+ " retrying in: 1500 ms");
+	}
+
+	@Test
+	public void testWorkOrderIsGivenUpOnAfterMaxAttempts() throws IOException {
+		retryScheduler.scheduleRetry(workOrder, error);
+		retryTarget.errorToThrow = error;
+		now += 800;
+		retryScheduler.advance();
+		now += 1500;
+
+		retryScheduler.advance();
+
+		assertEquals(retryTarget.sentWorkOrders.size(), 2);
+		assertEquals(retryScheduler.getNoOfPendingRetries(), 0);
+		assertEquals(retryScheduler.getNoOfDeadLetters(), 1);
+		DeadLetter deadLetter = retryScheduler.getDeadLetterStore().readAll().get(0);
+		assertEquals(deadLetter.getWorkOrder(), workOrder);
+		assertEquals(deadLetter.getNoOfAttempts(), 3);
+		assertEquals(deadLetter.getReason(), "Cora is down");
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 2),
+				"Giving up on work order: update person/authority-person:1 after: 3 attempts,"
+						+ " stored in: " + directory.resolve("dead-letters.log"));
+		assertTrue(readJournal().isEmpty());
+	}
+
+	@Test
+	public void testWithOneAttemptWorkOrderIsGivenUpOnDirectly() {
+		retryScheduler.closeBefore(System.nanoTime());
+		retryScheduler = createRetryScheduler(1);
+
+		retryScheduler.scheduleRetry(workOrder, error);
+
+		assertEquals(retryScheduler.getNoOfPendingRetries(), 0);
+		assertEquals(retryScheduler.getNoOfDeadLetters(), 1);
+		assertEquals(retryScheduler.getDeadLetterStore().readAll().get(0).getNoOfAttempts(), 1);
+	}
+
+	@Test
+	public void testCloseLeavesPendingRetriesInJournal() {
+		retryScheduler.scheduleRetry(workOrder, error);
+
+		int noOfPending = retryScheduler.closeBefore(System.nanoTime() + 1000000000L);
+
+		assertEquals(noOfPending, 1);
+		assertTrue(ticker.isShutdown());
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Left: 1 work orders waiting for retry in: " + directory
+						+ ", they are retried after restart");
+	}
+
+	@Test
+	public void testPendingRetriesAreRecoveredOnRestart() {
+		retryScheduler.scheduleRetry(workOrder, error);
+		retryScheduler.closeBefore(System.nanoTime());
+		ticker = new ScheduledExecutorSpy();
+		retrySenders = List.of(new ExecutorServiceSpy());
+
+		retryScheduler = createRetryScheduler(3);
+		retryScheduler.sendRetriesTo(retryTarget);
+
+		assertEquals(retryScheduler.getNoOfPendingRetries(), 1);
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Recovered: 1 work orders waiting for retry from: " + directory);
+		now += 800;
+		retryScheduler.advance();
+		assertEquals(retryTarget.sentWorkOrders, List.of(workOrder));
+	}
+
+	@Test
+	public void testDueRetriesAreKeptWhenClosedDuringAdvance() throws Exception {
+		CountDownLatch sending = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		WorkOrderSenderSpy blockingTarget = new WorkOrderSenderSpy() {
+			@Override
+			public void send(WorkOrder workOrder) {
+				super.send(workOrder);
+				sending.countDown();
+				awaitUninterruptibly(release);
+			}
+		};
+		retryScheduler.closeBefore(System.nanoTime());
+		retryScheduler = new RetryScheduler(directory, 3, 1000, 10000, 100, 8,
+				Executors.newSingleThreadScheduledExecutor(),
+				List.of(Executors.newSingleThreadExecutor()), () -> now, () -> randomValue);
+		retryScheduler.sendRetriesTo(blockingTarget);
+		retryScheduler.scheduleRetry(workOrder, error);
+		retryScheduler.scheduleRetry(otherWorkOrder, error);
+		now += 800;
+		retryScheduler.start();
+		sending.await();
+		AtomicInteger noOfPending = new AtomicInteger(-1);
+		Thread closer = new Thread(() -> noOfPending
+				.set(retryScheduler.closeBefore(System.nanoTime() + 5000000000L)));
+		closer.start();
+		waitUntilWaiting(closer);
+
+		release.countDown();
+		closer.join(5000);
+
+		assertEquals(blockingTarget.sentWorkOrders.size(), 1);
+		assertEquals(noOfPending.get(), 1);
+	}
+
+	@Test
+	public void testSupersededRetryIsNotSent() throws IOException {
+		retryScheduler.scheduleRetry(workOrder, error);
+		retryScheduler.scheduleRetry(otherWorkOrder, error);
+
+		retryScheduler.supersedePendingRetry(new WorkOrder("person", "authority-person:1",
+				"delete"));
+
+		assertEquals(retryScheduler.getNoOfPendingRetries(), 1);
+		assertEquals(retryScheduler.getNoOfRetriesSuperseded(), 1);
+		assertEquals(readJournal().get(2), "-\t1");
+		now += 800;
+		retryScheduler.advance();
+		assertEquals(retryTarget.sentWorkOrders, List.of(otherWorkOrder));
+	}
+
+	@Test
+	public void testSupersedeWithoutPendingRetryDoesNothing() {
+		retryScheduler.scheduleRetry(otherWorkOrder, error);
+
+		retryScheduler.supersedePendingRetry(workOrder);
+
+		assertEquals(retryScheduler.getNoOfPendingRetries(), 1);
+		assertEquals(retryScheduler.getNoOfRetriesSuperseded(), 0);
+	}
+
+	@Test
+	public void testNewRetryForSameRecordReplacesPendingRetry() {
+		WorkOrder deleteWorkOrder = new WorkOrder("person", "authority-person:1", "delete");
+		retryScheduler.scheduleRetry(workOrder, error);
+
+		retryScheduler.scheduleRetry(deleteWorkOrder, error);
+
+		assertEquals(retryScheduler.getNoOfPendingRetries(), 1);
+		assertEquals(retryScheduler.getNoOfRetriesSuperseded(), 1);
+		now += 800;
+		retryScheduler.advance();
+		assertEquals(retryTarget.sentWorkOrders, List.of(deleteWorkOrder));
+	}
+
+	@Test
+	public void testSupersededRetryIsNotRecoveredOnRestart() {
+		retryScheduler.scheduleRetry(workOrder, error);
+		retryScheduler.supersedePendingRetry(workOrder);
+		retryScheduler.closeBefore(System.nanoTime());
+
+		retryScheduler = createRetryScheduler(3);
+
+		assertEquals(retryScheduler.getNoOfPendingRetries(), 0);
+	}
+
+	@Test
+	public void testSupersedingFailedRetryDropsRescheduledRetry() {
+		retryScheduler.scheduleRetry(workOrder, error);
+		retryTarget.errorToThrow = error;
+		now += 800;
+		retryScheduler.advance();
+
+		retryScheduler.supersedePendingRetry(workOrder);
+
+		assertEquals(retryScheduler.getNoOfPendingRetries(), 0);
+		now += 5000;
+		retryScheduler.advance();
+		assertEquals(retryTarget.sentWorkOrders.size(), 1);
+	}
+
+	@Test
+	public void testSupersedeWaitsForRetryOfSameRecordBeingSent() throws Exception {
+		CountDownLatch sending = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		WorkOrderSenderSpy blockingTarget = new WorkOrderSenderSpy() {
+			@Override
+			public void send(WorkOrder workOrder) {
+				super.send(workOrder);
+				sending.countDown();
+				awaitUninterruptibly(release);
+			}
+		};
+		retryScheduler.sendRetriesTo(blockingTarget);
+		retryScheduler.scheduleRetry(workOrder, error);
+		now += 800;
+		Thread timer = new Thread(retryScheduler::advance);
+		timer.start();
+		sending.await();
+		Thread superseder = new Thread(() -> retryScheduler.supersedePendingRetry(workOrder));
+		superseder.start();
+		while (superseder.getState() != Thread.State.WAITING) {
+			Thread.sleep(1);
+		}
+		retryScheduler.supersedePendingRetry(otherWorkOrder);
+
+		release.countDown();
+		superseder.join(5000);
+		timer.join(5000);
+
+		assertEquals(superseder.getState(), Thread.State.TERMINATED);
+		assertEquals(retryScheduler.getNoOfRetriesSucceeded(), 1);
+		assertEquals(retryScheduler.getNoOfRetriesSuperseded(), 0);
+	}
+
+	private void awaitUninterruptibly(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void waitUntilWaiting(Thread thread) throws InterruptedException {
+		while (thread.getState() != Thread.State.TIMED_WAITING) {
+			Thread.sleep(1);
+		}
+	}
+
+	@Test
+	public void testErrorWhileAdvancingIsLogged() {
+		retryScheduler.scheduleRetry(workOrder, error);
+		WorkOrderSenderSpy closingTarget = new WorkOrderSenderSpy() {
+			@Override
+			public synchronized void send(WorkOrder workOrder) {
+				super.send(workOrder);
+				retryScheduler.closeBefore(System.nanoTime());
+			}
+		};
+		retryScheduler.sendRetriesTo(closingTarget);
+		now += 800;
+
+		retryScheduler.advance();
+
+		assertEquals(loggerFactory.getNoOfErrorLogMessagesUsingClassName(testedClassname), 2);
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 1),
+				"Error retrying work orders");
+	}
+
+	private List<String> readJournal() throws IOException {
+		return Files.readAllLines(directory.resolve("retry.journal"), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.retry;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.diva.indexmessenger.workorder.ExecutorServiceSpy;
+import se.uu.ub.cora.diva.indexmessenger.workorder.ScheduledExecutorSpy;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrder;
+import se.uu.ub.cora.diva.indexmessenger.workorder.WorkOrderSenderSpy;
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class RetryingWorkOrderSenderTest {
+	private Path directory;
+	private WorkOrderSenderSpy workOrderSender;
+	private WorkOrderSenderSpy retryTarget;
+	private long now;
+	private RetryScheduler retryScheduler;
+	private RetryingWorkOrderSender retryingSender;
+	private WorkOrder workOrder = new WorkOrder("person", "authority-person:1", "update");
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		LoggerProvider.setLoggerFactory(new LoggerFactorySpy());
+		directory = Files.createTempDirectory("retryingWorkOrderSenderTest");
+		workOrderSender = new WorkOrderSenderSpy();
+		retryTarget = new WorkOrderSenderSpy();
+		now = 100000;
+		retryScheduler = new RetryScheduler(directory, 3, 1000, 10000, 100, 8,
+				new ScheduledExecutorSpy(), List.of(new ExecutorServiceSpy()), () -> now,
+				() -> 0.5);
+		retryScheduler.sendRetriesTo(retryTarget);
+		retryingSender = new RetryingWorkOrderSender(workOrderSender, retryScheduler);
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		retryScheduler.closeBefore(System.nanoTime());
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Test
+	public void testInit() {
+		assertSame(retryingSender.getWorkOrderSender(), workOrderSender);
+		assertSame(retryingSender.getRetryScheduler(), retryScheduler);
+	}
+
+	@Test
+	public void testSentWorkOrderIsNotRetried() {
+		retryingSender.send(workOrder);
+
+		assertEquals(workOrderSender.sentWorkOrders, List.of(workOrder));
+		assertEquals(retryScheduler.getNoOfPendingRetries(), 0);
+	}
+
+	@Test
+	public void testFailedWorkOrderIsScheduledForRetry() {
+		workOrderSender.errorToThrow = new RuntimeException("Cora is down");
+
+		retryingSender.send(workOrder);
+
+		assertEquals(retryScheduler.getNoOfPendingRetries(), 1);
+		assertEquals(retryScheduler.getNoOfRetriesScheduled(), 1);
+	}
+
+	@Test
+	public void testRetryIsDroppedWhenLaterWorkOrderForRecordIsSent() {
+		WorkOrder deleteWorkOrder = new WorkOrder("person", "authority-person:1", "delete");
+		workOrderSender.errorToThrow = new RuntimeException("Cora is down");
+		retryingSender.send(workOrder);
+		workOrderSender.errorToThrow = null;
+
+		retryingSender.send(deleteWorkOrder);
+		now += 10000;
+		retryScheduler.advance();
+
+		assertEquals(workOrderSender.sentWorkOrders, List.of(workOrder, deleteWorkOrder));
+		assertTrue(retryTarget.sentWorkOrders.isEmpty());
+		assertEquals(retryScheduler.getNoOfPendingRetries(), 0);
+		assertEquals(retryScheduler.getNoOfRetriesSuperseded(), 1);
+	}
+
+	@Test
+	public void testRetryIsReplacedWhenLaterWorkOrderForRecordFails() {
+		WorkOrder deleteWorkOrder = new WorkOrder("person", "authority-person:1", "delete");
+		workOrderSender.errorToThrow = new RuntimeException("Cora is down");
+		retryingSender.send(workOrder);
+
+		retryingSender.send(deleteWorkOrder);
+		now += 10000;
+		retryScheduler.advance();
+
+		assertEquals(retryTarget.sentWorkOrders, List.of(deleteWorkOrder));
+	}
+
+	@Test
+	public void testRetryIsKeptWhenWorkOrderForOtherRecordIsSent() {
+		WorkOrder otherWorkOrder = new WorkOrder("person", "authority-person:2", "update");
+		workOrderSender.errorToThrow = new RuntimeException("Cora is down");
+		retryingSender.send(workOrder);
+		workOrderSender.errorToThrow = null;
+
+		retryingSender.send(otherWorkOrder);
+		now += 10000;
+		retryScheduler.advance();
+
+		assertEquals(retryTarget.sentWorkOrders, List.of(workOrder));
+	}
+
+	@Test
+	public void testCloseClosesInnerSenderButNotScheduler() {
+		workOrderSender.noOfNotSentOnClose = 2;
+
+		assertEquals(retryingSender.closeBefore(123L), 2);
+
+		assertEquals(workOrderSender.closeDeadlines, List.of(123L));
+		workOrderSender.errorToThrow = new RuntimeException("Cora is down");
+		retryingSender.send(workOrder);
+		assertEquals(retryScheduler.getNoOfPendingRetries(), 1);
+	}
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class AimdConcurrencyLimiterTest {
+	private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(200);
+	private AimdConcurrencyLimiter limiter;
+	private long now;
+
+	@BeforeMethod
+	public void setUp() {
+		now = 0;
+		limiter = createLimiter(4, 2, 6);
+	}
+
+	private AimdConcurrencyLimiter createLimiter(int initialLimit, int minLimit, int maxLimit) {
+		return new AimdConcurrencyLimiter(initialLimit, minLimit, maxLimit, 100, () -> now);
+	}
+
+	@Test
+	public void testInit() {
+		assertEquals(limiter.getLimit(), 4);
+		assertEquals(limiter.getMinLimit(), 2);
+		assertEquals(limiter.getMaxLimit(), 6);
+		assertEquals(limiter.getLatencyThresholdInMillis(), 100);
+		assertEquals(limiter.getNoOfInFlight(), 0);
+		assertEquals(limiter.getAverageLatencyInMillis(), 0.0);
+	}
+
+	@Test
+	public void testInitialLimitIsKeptWithinMinAndMax() {
+		assertEquals(new AimdConcurrencyLimiter(10, 2, 6, 100).getLimit(), 6);
+		assertEquals(new AimdConcurrencyLimiter(1, 2, 6, 100).getLimit(), 2);
+	}
+
+	@Test
+	public void testAcquireAndRelease() throws Exception {
+		limiter.acquire();
+		limiter.acquire();
+		assertEquals(limiter.getNoOfInFlight(), 2);
+
+		limiter.releaseAfterSuccess(FAST);
+		assertEquals(limiter.getNoOfInFlight(), 1);
+		limiter.releaseAfterFailure();
+		assertEquals(limiter.getNoOfInFlight(), 0);
+	}
+
+	@Test
+	public void testLimitIsIncreasedOnceLimitNoOfFastCallsReturnedWhileInUse() throws Exception {
+		acquireAll();
+		limiter.releaseAfterSuccess(FAST);
+		limiter.releaseAfterSuccess(FAST);
+		limiter.releaseAfterSuccess(FAST);
+		assertEquals(limiter.getLimit(), 4);
+
+		limiter.acquire();
+		limiter.releaseAfterSuccess(FAST);
+
+		assertEquals(limiter.getLimit(), 5);
+	}
+
+	@Test
+	public void testDecreaseStartsNewWindowForIncrease() throws Exception {
+		limiter = createLimiter(10, 2, 20);
+		acquireAll();
+		for (int i = 0; i < 4; i++) {
+			limiter.releaseAfterSuccess(FAST);
+		}
+		limiter.releaseAfterFailure();
+		assertEquals(limiter.getLimit(), 9);
+
+		for (int i = 0; i < 8; i++) {
+			limiter.acquire();
+			limiter.releaseAfterSuccess(FAST);
+		}
+		assertEquals(limiter.getLimit(), 9);
+
+		limiter.acquire();
+		limiter.releaseAfterSuccess(FAST);
+
+		assertEquals(limiter.getLimit(), 10);
+	}
+
+	@Test
+	public void testFastCallWhileLimitIsNotInUseKeepsLimit() throws Exception {
+		limiter.acquire();
+		limiter.releaseAfterSuccess(FAST);
+
+		assertEquals(limiter.getLimit(), 4);
+	}
+
+	@Test
+	public void testLimitIsNotIncreasedAboveMax() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			acquireAll();
+			releaseAllAfterSuccess(FAST);
+		}
+
+		assertEquals(limiter.getLimit(), 6);
+	}
+
+	private void acquireAll() throws InterruptedException {
+		int limit = limiter.getLimit();
+		for (int i = 0; i < limit; i++) {
+			limiter.acquire();
+		}
+	}
+
+	private void releaseAllAfterSuccess(long latencyInNanos) {
+		while (limiter.getNoOfInFlight() > 0) {
+			limiter.releaseAfterSuccess(latencyInNanos);
+		}
+	}
+
+	@Test
+	public void testSlowCallDecreasesLimit() throws Exception {
+		limiter = createLimiter(20, 2, 40);
+		limiter.acquire();
+		limiter.releaseAfterSuccess(SLOW);
+
+		assertEquals(limiter.getLimit(), 18);
+	}
+
+	@Test
+	public void testFailedCallDecreasesLimit() throws Exception {
+		limiter = createLimiter(20, 2, 40);
+		limiter.acquire();
+		limiter.releaseAfterFailure();
+
+		assertEquals(limiter.getLimit(), 18);
+	}
+
+	@Test
+	public void testLimitIsNotDecreasedBelowMin() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			limiter.acquire();
+			limiter.releaseAfterFailure();
+			now += TimeUnit.SECONDS.toNanos(1);
+		}
+
+		assertEquals(limiter.getLimit(), 2);
+	}
+
+	@Test
+	public void testSlowCallsDecreaseLimitOncePerAverageLatency() throws Exception {
+		limiter = createLimiter(20, 2, 40);
+		acquireAll();
+		releaseAllAfterSuccess(SLOW);
+		assertEquals(limiter.getLimit(), 18);
+
+		now += SLOW - 1;
+		limiter.acquire();
+		limiter.releaseAfterSuccess(SLOW);
+		assertEquals(limiter.getLimit(), 18);
+
+		now += 1;
+		limiter.acquire();
+		limiter.releaseAfterSuccess(SLOW);
+		assertEquals(limiter.getLimit(), 16);
+	}
+
+	@Test
+	public void testFailedCallsDecreaseLimitOncePerLatencyThresholdWithoutLatency()
+			throws Exception {
+		limiter = createLimiter(20, 2, 40);
+		for (int i = 0; i < 10; i++) {
+			limiter.acquire();
+			limiter.releaseAfterFailure();
+		}
+		assertEquals(limiter.getLimit(), 18);
+
+		now += TimeUnit.MILLISECONDS.toNanos(100);
+		limiter.acquire();
+		limiter.releaseAfterFailure();
+
+		assertEquals(limiter.getLimit(), 16);
+	}
+
+	@Test
+	public void testManyConcurrentSlowCallsDecreaseLimitOnce() throws Exception {
+		limiter = createLimiter(40, 2, 40);
+		acquireAll();
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 40; i++) {
+			Thread thread = new Thread(() -> awaitAndReleaseAfterSlowSuccess(start));
+			thread.start();
+			threads.add(thread);
+		}
+
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(limiter.getNoOfInFlight(), 0);
+		assertEquals(limiter.getLimit(), 36);
+	}
+
+	private void awaitAndReleaseAfterSlowSuccess(CountDownLatch start) {
+		try {
+			start.await();
+			limiter.releaseAfterSuccess(SLOW);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Test
+	public void testAverageLatency() throws Exception {
+		limiter.acquire();
+		limiter.releaseAfterSuccess(FAST);
+		assertEquals(limiter.getAverageLatencyInMillis(), 10.0, 0.001);
+
+		limiter.acquire();
+		limiter.releaseAfterSuccess(SLOW);
+		assertEquals(limiter.getAverageLatencyInMillis(), 48.0, 0.001);
+	}
+
+	@Test
+	public void testAcquireBlocksWhileLimitIsReached() throws Exception {
+		acquireAll();
+		CountDownLatch acquired = new CountDownLatch(1);
+		Thread thread = new Thread(() -> acquireAndCountDown(acquired));
+		thread.start();
+
+		assertFalse(acquired.await(50, TimeUnit.MILLISECONDS));
+		limiter.releaseAfterSuccess(FAST);
+		assertTrue(acquired.await(5, TimeUnit.SECONDS));
+		thread.join();
+	}
+
+	private void acquireAndCountDown(CountDownLatch acquired) {
+		try {
+			limiter.acquire();
+			acquired.countDown();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
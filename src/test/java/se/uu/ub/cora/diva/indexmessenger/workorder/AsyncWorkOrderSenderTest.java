@@ -0,0 +1,202 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class AsyncWorkOrderSenderTest {
+	private LoggerFactorySpy loggerFactory;
+	private String testedClassname = "AsyncWorkOrderSender";
+	private BlockingWorkOrderSenderSpy workOrderSender;
+	private ExecutorService executor;
+	private AsyncWorkOrderSender asyncSender;
+
+	@BeforeMethod
+	public void setUp() {
+		loggerFactory = new LoggerFactorySpy();
+		LoggerProvider.setLoggerFactory(loggerFactory);
+		workOrderSender = new BlockingWorkOrderSenderSpy();
+		executor = Executors.newCachedThreadPool();
+		asyncSender = new AsyncWorkOrderSender(workOrderSender, executor, 2);
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		workOrderSender.release.countDown();
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testInit() {
+		assertSame(asyncSender.getWorkOrderSender(), workOrderSender);
+		assertSame(asyncSender.getExecutor(), executor);
+		assertEquals(asyncSender.getMaxInFlight(), 2);
+		assertEquals(asyncSender.getNoOfWorkOrdersInFlight(), 0);
+	}
+
+	@Test
+	public void testSendReturnsBeforeWorkOrderIsSent() throws Exception {
+		asyncSender.send(createWorkOrder("1"));
+
+		assertEquals(asyncSender.getNoOfWorkOrdersInFlight(), 1);
+		workOrderSender.release.countDown();
+		waitForNoOfWorkOrdersInFlight(0);
+		assertEquals(workOrderSender.sentWorkOrders.size(), 1);
+	}
+
+	private WorkOrder createWorkOrder(String number) {
+		return new WorkOrder("person", "authority-person:" + number, "update");
+	}
+
+	private void waitForNoOfWorkOrdersInFlight(int expected) throws InterruptedException {
+		long waitUntil = System.currentTimeMillis() + 5000;
+		while (asyncSender.getNoOfWorkOrdersInFlight() != expected
+				&& System.currentTimeMillis() < waitUntil) {
+			Thread.sleep(5);
+		}
+		assertEquals(asyncSender.getNoOfWorkOrdersInFlight(), expected);
+	}
+
+	@Test
+	public void testSendBlocksWhenMaxInFlightIsReached() throws Exception {
+		asyncSender.send(createWorkOrder("1"));
+		asyncSender.send(createWorkOrder("2"));
+		CountDownLatch thirdSent = new CountDownLatch(1);
+		Thread sendingThread = new Thread(() -> {
+			asyncSender.send(createWorkOrder("3"));
+			thirdSent.countDown();
+		});
+		sendingThread.start();
+
+		assertEquals(thirdSent.await(50, TimeUnit.MILLISECONDS), false);
+		workOrderSender.release.countDown();
+		assertEquals(thirdSent.await(5, TimeUnit.SECONDS), true);
+		waitForNoOfWorkOrdersInFlight(0);
+		assertEquals(workOrderSender.sentWorkOrders.size(), 3);
+	}
+
+	@Test
+	public void testWorkOrdersForSameRecordAreSentInOrder() throws Exception {
+		asyncSender = new AsyncWorkOrderSender(workOrderSender, executor, 100);
+		List<WorkOrder> expected = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			WorkOrder workOrder = new WorkOrder("person", "authority-person:1",
+					i % 2 == 0 ? "update" : "delete");
+			expected.add(workOrder);
+			asyncSender.send(workOrder);
+		}
+		workOrderSender.release.countDown();
+
+		waitForNoOfWorkOrdersInFlight(0);
+		assertEquals(workOrderSender.sentWorkOrders, expected);
+	}
+
+	@Test
+	public void testErrorWhenSendingIsLoggedAndPermitReleased() throws Exception {
+		workOrderSender.release.countDown();
+		workOrderSender.errorToThrow = new RuntimeException("some error");
+
+		asyncSender.send(createWorkOrder("1"));
+
+		waitForNoOfWorkOrdersInFlight(0);
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Error sending work order: update person/authority-person:1");
+	}
+
+	@Test
+	public void testCloseWaitsForWorkOrdersInFlight() throws Exception {
+		asyncSender.send(createWorkOrder("1"));
+		asyncSender.send(createWorkOrder("2"));
+		releaseAfterMillis(50);
+
+		int notSent = asyncSender.closeBefore(System.nanoTime() + TimeUnit.SECONDS.toNanos(5));
+
+		assertEquals(notSent, 0);
+		assertEquals(workOrderSender.sentWorkOrders.size(), 2);
+		assertTrue(executor.isTerminated());
+		assertEquals(workOrderSender.closeDeadlines.size(), 1);
+	}
+
+	private void releaseAfterMillis(long millis) {
+		new Thread(() -> {
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			workOrderSender.release.countDown();
+		}).start();
+	}
+
+	@Test
+	public void testCloseCountsWorkOrdersInFlightAtDeadline() {
+		asyncSender.send(createWorkOrder("1"));
+
+		int notSent = asyncSender
+				.closeBefore(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50));
+
+		assertEquals(notSent, 1);
+		assertTrue(executor.isShutdown());
+		assertEquals(workOrderSender.closeDeadlines.size(), 1);
+	}
+
+	private static class BlockingWorkOrderSenderSpy implements WorkOrderSender {
+		CountDownLatch release = new CountDownLatch(1);
+		List<WorkOrder> sentWorkOrders = new ArrayList<>();
+		RuntimeException errorToThrow;
+		List<Long> closeDeadlines = new ArrayList<>();
+
+		@Override
+		public void send(WorkOrder workOrder) {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			synchronized (this) {
+				sentWorkOrders.add(workOrder);
+			}
+			if (errorToThrow != null) {
+				throw errorToThrow;
+			}
+		}
+
+		@Override
+		public int closeBefore(long deadlineInNanos) {
+			closeDeadlines.add(deadlineInNanos);
+			return 0;
+		}
+	}
+}
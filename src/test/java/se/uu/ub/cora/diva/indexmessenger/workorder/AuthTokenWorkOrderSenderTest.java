@@ -0,0 +1,192 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import se.uu.ub.cora.diva.indexmessenger.authtoken.AuthTokenCache;
+import se.uu.ub.cora.diva.indexmessenger.authtoken.AuthTokenFetcherSpy;
+import se.uu.ub.cora.diva.indexmessenger.http.CoraHttpClient;
+import se.uu.ub.cora.indexmessenger.IndexMessageException;
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class AuthTokenWorkOrderSenderTest {
+	private HttpServer server;
+	private CoraHttpClient httpClient;
+	private AuthTokenFetcherSpy authTokenFetcher;
+	private ScheduledExecutorSpy scheduler;
+	private AuthTokenCache authTokenCache;
+	private AuthTokenWorkOrderSender sender;
+	private WorkOrder workOrder = new WorkOrder("person", "authority-person:1", "update");
+	private List<Integer> responseCodes;
+	private List<String> authTokens;
+	private List<String> requestedBodies;
+	private String requestedPath;
+	private String requestedContentType;
+	private String requestedAccept;
+	private Set<InetSocketAddress> clientAddresses;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		LoggerProvider.setLoggerFactory(new LoggerFactorySpy());
+		responseCodes = new ArrayList<>();
+		authTokens = new ArrayList<>();
+		requestedBodies = new ArrayList<>();
+		clientAddresses = new HashSet<>();
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/therest/rest/", this::handleRequest);
+		server.start();
+		httpClient = new CoraHttpClient(2, 5000, 1024);
+		authTokenFetcher = new AuthTokenFetcherSpy();
+		scheduler = new ScheduledExecutorSpy();
+		authTokenCache = new AuthTokenCache(authTokenFetcher, 60000, 5000, scheduler);
+		sender = new AuthTokenWorkOrderSender(httpClient, getBaseUrl(), authTokenCache);
+	}
+
+	private String getBaseUrl() {
+		return "http://localhost:" + server.getAddress().getPort() + "/therest/rest/";
+	}
+
+	private void handleRequest(HttpExchange exchange) throws IOException {
+		requestedPath = exchange.getRequestURI().getPath();
+		clientAddresses.add(exchange.getRemoteAddress());
+		requestedContentType = exchange.getRequestHeaders().getFirst("Content-Type");
+		requestedAccept = exchange.getRequestHeaders().getFirst("Accept");
+		authTokens.add(exchange.getRequestHeaders().getFirst("authToken"));
+		try (InputStream body = exchange.getRequestBody()) {
+			requestedBodies.add(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+		}
+		int responseCode = responseCodes.isEmpty() ? 201 : responseCodes.remove(0);
+		byte[] response = "{}".getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(responseCode, response.length);
+		try (OutputStream body = exchange.getResponseBody()) {
+			body.write(response);
+		}
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void testInit() {
+		assertSame(sender.getHttpClient(), httpClient);
+		assertEquals(sender.getBaseUrl(), getBaseUrl());
+		assertSame(sender.getAuthTokenCache(), authTokenCache);
+	}
+
+	@Test
+	public void testSendUsesSharedAuthToken() {
+		sender.send(workOrder);
+		sender.send(workOrder);
+
+		assertEquals(authTokenFetcher.noOfFetches, 1);
+		assertEquals(authTokens, List.of("someAuthToken1", "someAuthToken1"));
+		assertEquals(requestedPath, "/therest/rest/record/workOrder");
+		assertEquals(requestedContentType, "application/vnd.uub.record+json");
+		assertEquals(requestedAccept, "application/vnd.uub.record+json");
+		assertEquals(requestedBodies.get(0), CoraWorkOrderSender.createWorkOrderJson(workOrder));
+	}
+
+	@Test
+	public void testSendReusesConnection() {
+		sender.send(workOrder);
+		sender.send(workOrder);
+
+		assertEquals(clientAddresses.size(), 1);
+		assertEquals(httpClient.getRequests(), 2);
+	}
+
+	@Test
+	public void testUnauthorizedIsRetriedOnceWithNewAuthToken() {
+		responseCodes.add(401);
+
+		sender.send(workOrder);
+
+		assertEquals(authTokenFetcher.noOfFetches, 2);
+		assertEquals(authTokens, List.of("someAuthToken1", "someAuthToken2"));
+		assertEquals(requestedBodies.size(), 2);
+	}
+
+	@Test(expectedExceptions = IndexMessageException.class, expectedExceptionsMessageRegExp = ""
+			+ "Could not create work order: .*\\. Response code: 401")
+	public void testUnauthorizedTwiceIsThrown() {
+		responseCodes.add(401);
+		responseCodes.add(401);
+
+		try {
+			sender.send(workOrder);
+		} finally {
+			assertEquals(requestedBodies.size(), 2);
+		}
+	}
+
+	@Test(expectedExceptions = IndexMessageException.class, expectedExceptionsMessageRegExp = ""
+			+ "Could not create work order: .*\\. Response code: 500")
+	public void testOtherErrorsAreThrownWithoutRetry() {
+		responseCodes.add(500);
+
+		try {
+			sender.send(workOrder);
+		} finally {
+			assertEquals(authTokenFetcher.noOfFetches, 1);
+			assertEquals(requestedBodies.size(), 1);
+		}
+	}
+
+	@Test(expectedExceptions = UncheckedIOException.class, expectedExceptionsMessageRegExp = ""
+			+ "Could not create work order at: http://localhost:\\d+/therest/rest/record/workOrder")
+	public void testServerNotAvailable() {
+		server.stop(0);
+
+		sender.send(workOrder);
+	}
+
+	@Test
+	public void testCloseStopsRefreshing() {
+		sender.send(workOrder);
+
+		int notSent = sender.closeBefore(System.nanoTime());
+
+		assertEquals(notSent, 0);
+		assertTrue(scheduler.isShutdown());
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class BatchingWorkOrderSenderTest {
+	private WorkOrderBatchSenderSpy batchSender;
+	private ScheduledExecutorSpy scheduler;
+	private BatchingWorkOrderSender batchingSender;
+
+	@BeforeMethod
+	public void setUp() {
+		batchSender = new WorkOrderBatchSenderSpy();
+		scheduler = new ScheduledExecutorSpy();
+		batchingSender = new BatchingWorkOrderSender(batchSender, 3, 100, scheduler);
+	}
+
+	@Test
+	public void testInit() {
+		assertSame(batchingSender.getBatchSender(), batchSender);
+		assertEquals(batchingSender.getBatchSize(), 3);
+		assertEquals(batchingSender.getLingerInMillis(), 100);
+	}
+
+	@Test
+	public void testFullBatchIsSentDirectly() {
+		WorkOrder first = createWorkOrder("1");
+		WorkOrder second = createWorkOrder("2");
+		WorkOrder third = createWorkOrder("3");
+		batchingSender.send(first);
+		batchingSender.send(second);
+		assertEquals(batchSender.sentBatches.size(), 0);
+
+		batchingSender.send(third);
+
+		assertEquals(batchSender.sentBatches.size(), 1);
+		assertEquals(batchSender.sentBatches.get(0), List.of(first, second, third));
+	}
+
+	private WorkOrder createWorkOrder(String number) {
+		return new WorkOrder("person", "authority-person:" + number, "update");
+	}
+
+	@Test
+	public void testLingerIsScheduledForFirstWorkOrderInBatch() {
+		batchingSender.send(createWorkOrder("1"));
+		batchingSender.send(createWorkOrder("2"));
+
+		assertEquals(scheduler.scheduledCommands.size(), 1);
+		assertEquals(scheduler.delaysInMillis.get(0), Long.valueOf(100));
+	}
+
+	@Test
+	public void testLingeringBatchIsSentWhenLingerEnds() {
+		WorkOrder first = createWorkOrder("1");
+		batchingSender.send(first);
+
+		scheduler.runScheduledCommand(0);
+
+		assertEquals(batchSender.sentBatches.get(0), List.of(first));
+	}
+
+	@Test
+	public void testLingerForAlreadySentBatchDoesNothing() {
+		batchingSender.send(createWorkOrder("1"));
+		batchingSender.send(createWorkOrder("2"));
+		batchingSender.send(createWorkOrder("3"));
+		WorkOrder fourth = createWorkOrder("4");
+		batchingSender.send(fourth);
+
+		scheduler.runScheduledCommand(0);
+		assertEquals(batchSender.sentBatches.size(), 1);
+
+		scheduler.runScheduledCommand(1);
+		assertEquals(batchSender.sentBatches.size(), 2);
+		assertEquals(batchSender.sentBatches.get(1), List.of(fourth));
+	}
+
+	@Test
+	public void testFlushSendsCurrentBatch() {
+		WorkOrder first = createWorkOrder("1");
+		batchingSender.send(first);
+
+		batchingSender.flush();
+
+		assertEquals(batchSender.sentBatches.get(0), List.of(first));
+		scheduler.runScheduledCommand(0);
+		assertEquals(batchSender.sentBatches.size(), 1);
+	}
+
+	@Test
+	public void testFlushWithEmptyBatchSendsNothing() {
+		batchingSender.flush();
+
+		assertEquals(batchSender.sentBatches.size(), 0);
+	}
+
+	@Test
+	public void testBatchesAreSentOneAtATimeInOrder() throws Exception {
+		CountDownLatch firstBatchStarted = new CountDownLatch(1);
+		CountDownLatch releaseFirstBatch = new CountDownLatch(1);
+		List<List<WorkOrder>> sentBatches = new CopyOnWriteArrayList<>();
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicInteger maxInFlight = new AtomicInteger();
+		batchingSender = new BatchingWorkOrderSender(workOrders -> {
+			maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+			if (sentBatches.isEmpty()) {
+				firstBatchStarted.countDown();
+				awaitUninterruptibly(releaseFirstBatch);
+			}
+			sentBatches.add(workOrders);
+			inFlight.decrementAndGet();
+			return List.of();
+		}, 1, 100, scheduler);
+		WorkOrder first = createWorkOrder("1");
+		WorkOrder second = createWorkOrder("1");
+		Thread firstSender = new Thread(() -> batchingSender.send(first));
+		firstSender.start();
+		assertTrue(firstBatchStarted.await(5, TimeUnit.SECONDS));
+		Thread secondSender = new Thread(() -> batchingSender.send(second));
+		secondSender.start();
+
+		secondSender.join(50);
+		assertTrue(secondSender.isAlive());
+		releaseFirstBatch.countDown();
+		firstSender.join();
+		secondSender.join();
+
+		assertEquals(sentBatches, List.of(List.of(first), List.of(second)));
+		assertEquals(maxInFlight.get(), 1);
+	}
+
+	private void awaitUninterruptibly(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Test
+	public void testFailedBatchLetsNextBatchBeSent() {
+		WorkOrder first = createWorkOrder("1");
+		WorkOrder second = createWorkOrder("2");
+		List<List<WorkOrder>> sentBatches = new ArrayList<>();
+		batchingSender = new BatchingWorkOrderSender(workOrders -> {
+			sentBatches.add(workOrders);
+			if (workOrders.contains(first)) {
+				throw new RuntimeException("some error");
+			}
+			return List.of();
+		}, 1, 100, scheduler);
+		try {
+			batchingSender.send(first);
+		} catch (RuntimeException exception) {
+			// expected
+		}
+
+		batchingSender.send(second);
+
+		assertEquals(sentBatches, List.of(List.of(first), List.of(second)));
+	}
+
+	@Test
+	public void testCloseSendsCurrentBatchAndClosesBatchSender() {
+		WorkOrder first = createWorkOrder("1");
+		batchingSender.send(first);
+
+		int notSent = batchingSender.closeBefore(System.nanoTime() + 1_000_000_000L);
+
+		assertEquals(notSent, 0);
+		assertEquals(batchSender.sentBatches, List.of(List.of(first)));
+		assertEquals(batchSender.closeDeadlines.size(), 1);
+		assertTrue(scheduler.isTerminated());
+	}
+
+	@Test
+	public void testCloseLeavesCurrentBatchUnsentWhenEarlierBatchIsSentPastDeadline()
+			throws Exception {
+		CountDownLatch firstBatchStarted = new CountDownLatch(1);
+		CountDownLatch releaseFirstBatch = new CountDownLatch(1);
+		List<List<WorkOrder>> sentBatches = new CopyOnWriteArrayList<>();
+		batchingSender = new BatchingWorkOrderSender(workOrders -> {
+			if (sentBatches.isEmpty()) {
+				firstBatchStarted.countDown();
+				awaitUninterruptibly(releaseFirstBatch);
+			}
+			sentBatches.add(workOrders);
+			return List.of();
+		}, 2, 100, scheduler);
+		WorkOrder first = createWorkOrder("1");
+		WorkOrder second = createWorkOrder("2");
+		Thread firstSender = new Thread(() -> {
+			batchingSender.send(first);
+			batchingSender.send(second);
+		});
+		firstSender.start();
+		assertTrue(firstBatchStarted.await(5, TimeUnit.SECONDS));
+		batchingSender.send(createWorkOrder("3"));
+
+		int notSent = batchingSender.closeBefore(System.nanoTime() + 50_000_000L);
+
+		releaseFirstBatch.countDown();
+		firstSender.join();
+		assertEquals(notSent, 1);
+		assertEquals(sentBatches, List.of(List.of(first, second)));
+	}
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class CoalescingWorkOrderSenderTest {
+	private WorkOrderSenderSpy workOrderSender;
+	private LoggerFactorySpy loggerFactory;
+	private String testedClassName = "CoalescingWorkOrderSender";
+	private ScheduledExecutorSpy scheduler;
+	private ExecutorServiceSpy sendExecutor;
+	private CoalescingWorkOrderSender coalescingSender;
+
+	@BeforeMethod
+	public void setUp() {
+		loggerFactory = new LoggerFactorySpy();
+		LoggerProvider.setLoggerFactory(loggerFactory);
+		workOrderSender = new WorkOrderSenderSpy();
+		scheduler = new ScheduledExecutorSpy();
+		sendExecutor = new ExecutorServiceSpy();
+		coalescingSender = new CoalescingWorkOrderSender(workOrderSender, 50, scheduler,
+				sendExecutor);
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void testInit() {
+		assertSame(coalescingSender.getWorkOrderSender(), workOrderSender);
+		assertEquals(coalescingSender.getWindowInMillis(), 50);
+		assertSame(coalescingSender.getSendExecutor(), sendExecutor);
+		assertEquals(coalescingSender.getNoOfPendingWorkOrders(), 0);
+		assertEquals(coalescingSender.getNoOfFailedWorkOrders(), 0);
+	}
+
+	@Test
+	public void testWorkOrderIsSentWhenWindowEnds() {
+		WorkOrder workOrder = new WorkOrder("person", "authority-person:1", "update");
+		coalescingSender.send(workOrder);
+
+		assertEquals(workOrderSender.sentWorkOrders.size(), 0);
+		assertEquals(coalescingSender.getNoOfPendingWorkOrders(), 1);
+		assertEquals(coalescingSender.getNoOfQueuedWorkOrders(), 1);
+		assertEquals(scheduler.delaysInMillis.get(0), Long.valueOf(50));
+
+		scheduler.runScheduledCommand(0);
+
+		assertEquals(sendExecutor.noOfExecutedTasks, 1);
+		assertSame(workOrderSender.sentWorkOrders.get(0), workOrder);
+		assertEquals(coalescingSender.getNoOfPendingWorkOrders(), 0);
+	}
+
+	@Test
+	public void testSendIsHandedToSendExecutor() {
+		sendExecutor.holdTasks = true;
+		coalescingSender.send(new WorkOrder("person", "authority-person:1", "update"));
+
+		scheduler.runScheduledCommand(0);
+
+		assertEquals(sendExecutor.heldTasks.size(), 1);
+		assertTrue(workOrderSender.sentWorkOrders.isEmpty());
+		sendExecutor.runHeldTask(0);
+		assertEquals(workOrderSender.sentWorkOrders.size(), 1);
+	}
+
+	@Test
+	public void testNextWorkOrderForRecordWaitsForPreviousSend() {
+		sendExecutor.holdTasks = true;
+		coalescingSender.send(new WorkOrder("person", "authority-person:1", "update"));
+		scheduler.runScheduledCommand(0);
+		coalescingSender.send(new WorkOrder("person", "authority-person:1", "delete"));
+		coalescingSender.send(new WorkOrder("person", "authority-person:2", "update"));
+		scheduler.runScheduledCommand(1);
+		scheduler.runScheduledCommand(2);
+
+		assertEquals(sendExecutor.heldTasks.size(), 2);
+		sendExecutor.runHeldTask(1);
+		assertEquals(workOrderSender.sentWorkOrders.get(0).getRecordId(), "authority-person:2");
+		sendExecutor.runHeldTask(0);
+		sendExecutor.runHeldTask(2);
+
+		assertEquals(workOrderSender.sentWorkOrders.get(1).getModificationType(), "update");
+		assertEquals(workOrderSender.sentWorkOrders.get(2).getModificationType(), "delete");
+	}
+
+	@Test
+	public void testFailedSendIsLoggedAndCounted() {
+		RuntimeException error = new RuntimeException("Cora is down");
+		workOrderSender.errorToThrow = error;
+		coalescingSender.send(new WorkOrder("person", "authority-person:1", "update"));
+
+		scheduler.runScheduledCommand(0);
+
+		assertEquals(coalescingSender.getNoOfFailedWorkOrders(), 1);
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassName, 0),
+				"Error sending work order: update person/authority-person:1");
+		assertSame(loggerFactory.getErrorLogErrorUsingClassNameAndNo(testedClassName, 0), error);
+	}
+
+	@Test
+	public void testRejectedSendIsLoggedAndCounted() {
+		coalescingSender.send(new WorkOrder("person", "authority-person:1", "update"));
+		sendExecutor.shutdown();
+
+		scheduler.runScheduledCommand(0);
+
+		assertEquals(coalescingSender.getNoOfFailedWorkOrders(), 1);
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassName, 0),
+				"Error sending work order: update person/authority-person:1");
+	}
+
+	@Test
+	public void testRejectedSendWaitingForPreviousSendIsLoggedAndCounted() {
+		sendExecutor.holdTasks = true;
+		coalescingSender.send(new WorkOrder("person", "authority-person:1", "update"));
+		scheduler.runScheduledCommand(0);
+		coalescingSender.send(new WorkOrder("person", "authority-person:1", "delete"));
+		scheduler.runScheduledCommand(1);
+		sendExecutor.shutdown();
+
+		sendExecutor.runHeldTask(0);
+
+		assertEquals(workOrderSender.sentWorkOrders.size(), 1);
+		assertEquals(coalescingSender.getNoOfFailedWorkOrders(), 1);
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassName, 0),
+				"Error sending work order: delete person/authority-person:1");
+		assertTrue(loggerFactory.getErrorLogErrorUsingClassNameAndNo(testedClassName,
+				0) instanceof RejectedExecutionException);
+	}
+
+	@Test
+	public void testWorkOrdersForSameRecordAreSentOnce() {
+		coalescingSender.send(new WorkOrder("person", "authority-person:1", "update"));
+		coalescingSender.send(new WorkOrder("person", "authority-person:1", "update"));
+		coalescingSender.send(new WorkOrder("person", "authority-person:1", "update"));
+
+		assertEquals(scheduler.scheduledCommands.size(), 1);
+		scheduler.runScheduledCommand(0);
+
+		assertEquals(workOrderSender.sentWorkOrders.size(), 1);
+	}
+
+	@Test
+	public void testDeleteWinsOverUpdate() {
+		coalescingSender.send(new WorkOrder("person", "authority-person:1", "update"));
+		coalescingSender.send(new WorkOrder("person", "authority-person:1", "delete"));
+		coalescingSender.send(new WorkOrder("person", "authority-person:1", "update"));
+
+		scheduler.runScheduledCommand(0);
+
+		assertEquals(workOrderSender.sentWorkOrders.size(), 1);
+		assertEquals(workOrderSender.sentWorkOrders.get(0).getModificationType(), "delete");
+	}
+
+	@Test
+	public void testWorkOrdersForDifferentRecordsAreSentSeparately() {
+		coalescingSender.send(new WorkOrder("person", "authority-person:1", "update"));
+		coalescingSender.send(new WorkOrder("person", "authority-person:2", "delete"));
+
+		scheduler.runScheduledCommand(1);
+		scheduler.runScheduledCommand(0);
+
+		assertEquals(workOrderSender.sentWorkOrders.size(), 2);
+		assertEquals(workOrderSender.sentWorkOrders.get(0).getRecordId(), "authority-person:2");
+		assertEquals(workOrderSender.sentWorkOrders.get(1).getRecordId(), "authority-person:1");
+	}
+
+	@Test
+	public void testNewWindowStartsAfterWorkOrderIsSent() {
+		coalescingSender.send(new WorkOrder("person", "authority-person:1", "delete"));
+		scheduler.runScheduledCommand(0);
+		coalescingSender.send(new WorkOrder("person", "authority-person:1", "update"));
+		scheduler.runScheduledCommand(1);
+
+		assertEquals(workOrderSender.sentWorkOrders.size(), 2);
+		assertEquals(workOrderSender.sentWorkOrders.get(1).getModificationType(), "update");
+	}
+
+	@Test
+	public void testAlreadySentWindowDoesNotSendAgain() {
+		coalescingSender.send(new WorkOrder("person", "authority-person:1", "update"));
+		scheduler.runScheduledCommand(0);
+		scheduler.runScheduledCommand(0);
+
+		assertEquals(workOrderSender.sentWorkOrders.size(), 1);
+	}
+
+	@Test
+	public void testCloseSendsPendingWorkOrdersAndClosesWrappedSender() {
+		WorkOrder workOrder = new WorkOrder("person", "authority-person:1", "update");
+		coalescingSender.send(workOrder);
+
+		int notSent = coalescingSender.closeBefore(System.nanoTime() + 1_000_000_000L);
+
+		assertEquals(notSent, 0);
+		assertEquals(workOrderSender.sentWorkOrders, List.of(workOrder));
+		assertEquals(coalescingSender.getNoOfPendingWorkOrders(), 0);
+		assertEquals(workOrderSender.closeDeadlines.size(), 1);
+		assertTrue(scheduler.isTerminated());
+	}
+
+	@Test
+	public void testCloseSendsRemainingPendingWorkOrdersWhenOneFails() {
+		coalescingSender.send(new WorkOrder("person", "authority-person:1", "update"));
+		coalescingSender.send(new WorkOrder("person", "authority-person:2", "update"));
+		coalescingSender.send(new WorkOrder("person", "authority-person:3", "update"));
+		workOrderSender.errorToThrow = new RuntimeException("Cora is down");
+
+		int notSent = coalescingSender.closeBefore(System.nanoTime() + 1_000_000_000L);
+
+		assertEquals(notSent, 0);
+		assertEquals(workOrderSender.sentWorkOrders.size(), 3);
+		assertEquals(coalescingSender.getNoOfFailedWorkOrders(), 3);
+		assertEquals(coalescingSender.getNoOfPendingWorkOrders(), 0);
+	}
+
+	@Test
+	public void testCloseWaitsForSendWaitingForPreviousSendOfSameRecord() throws Exception {
+		CountDownLatch firstSendStarted = new CountDownLatch(1);
+		CountDownLatch releaseFirstSend = new CountDownLatch(1);
+		List<WorkOrder> sentWorkOrders = new CopyOnWriteArrayList<>();
+		ExecutorService realSendExecutor = Executors.newSingleThreadExecutor();
+		coalescingSender = new CoalescingWorkOrderSender(
+				createSenderHoldingFirstSend(firstSendStarted, releaseFirstSend, sentWorkOrders),
+				50, scheduler, realSendExecutor);
+		coalescingSender.send(new WorkOrder("person", "authority-person:1", "update"));
+		scheduler.runScheduledCommand(0);
+		firstSendStarted.await();
+		coalescingSender.send(new WorkOrder("person", "authority-person:1", "delete"));
+		scheduler.runScheduledCommand(1);
+		Thread releasingThread = new Thread(() -> {
+			sleep(50);
+			releaseFirstSend.countDown();
+		});
+		releasingThread.start();
+
+		int notSent = coalescingSender.closeBefore(System.nanoTime() + 5_000_000_000L);
+
+		releasingThread.join();
+		assertEquals(notSent, 0);
+		assertEquals(sentWorkOrders.size(), 2);
+		assertEquals(sentWorkOrders.get(1).getModificationType(), "delete");
+		assertEquals(coalescingSender.getNoOfFailedWorkOrders(), 0);
+		assertTrue(realSendExecutor.isTerminated());
+	}
+
+	private WorkOrderSender createSenderHoldingFirstSend(CountDownLatch firstSendStarted,
+			CountDownLatch releaseFirstSend, List<WorkOrder> sentWorkOrders) {
+		return workOrder -> {
+			if (sentWorkOrders.isEmpty()) {
+				firstSendStarted.countDown();
+				awaitUninterruptibly(releaseFirstSend);
+			}
+			sentWorkOrders.add(workOrder);
+		};
+	}
+
+	private void awaitUninterruptibly(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Test
+	public void testCloseCountsSendsNotDoneBeforeDeadline() {
+		sendExecutor.holdTasks = true;
+		sendExecutor.terminateOnShutdown = false;
+		workOrderSender.noOfNotSentOnClose = 1;
+		coalescingSender.send(new WorkOrder("person", "authority-person:1", "update"));
+		coalescingSender.send(new WorkOrder("person", "authority-person:2", "update"));
+
+		int notSent = coalescingSender.closeBefore(System.nanoTime());
+
+		assertEquals(notSent, 3);
+		assertTrue(sendExecutor.isShutdown());
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class CompactRecordKeysTest {
+	private CompactRecordKeys recordKeys;
+
+	@BeforeMethod
+	public void setUp() {
+		recordKeys = new CompactRecordKeys();
+	}
+
+	@Test
+	public void testNumberedPidIsEncodedExactly() {
+		long key = encode("person", "authority-person:123");
+
+		assertEquals(key, (1L << 47) | 123);
+		assertEquals(recordKeys.getNoOfPrefixes(), 1);
+	}
+
+	@Test
+	public void testSamePrefixGetsSameIndex() {
+		long first = encode("person", "authority-person:1");
+		long second = encode("person", "authority-person:2");
+
+		assertEquals(second - first, 1);
+		assertEquals(recordKeys.getNoOfPrefixes(), 1);
+	}
+
+	@Test
+	public void testRecordTypeIsPartOfKey() {
+		long person = encode("person", "authority-person:1");
+		long otherType = encode("otherType", "authority-person:1");
+
+		assertEquals(otherType, (2L << 47) | 1);
+		assertNotEquals(person, otherType);
+	}
+
+	@Test
+	public void testNumberZeroIsEncodedExactly() {
+		assertEquals(encode("person", "authority-person:0"), 1L << 47);
+	}
+
+	@Test
+	public void testOtherPidsAreHashedWithHighestBitSet() {
+		assertTrue(encode("person", "authority-person:abc") < 0);
+		assertTrue(encode("person", "noNamespace") < 0);
+		assertTrue(encode("person", "authority-person:") < 0);
+		assertTrue(encode("person", "authority-person:0123") < 0);
+		assertTrue(encode("person", "authority-person:123456789012345") < 0);
+		assertEquals(recordKeys.getNoOfPrefixes(), 0);
+	}
+
+	@Test
+	public void testLongestNumberIsEncodedExactly() {
+		assertEquals(encode("person", "authority-person:99999999999999"),
+				(1L << 47) | 99999999999999L);
+	}
+
+	@Test
+	public void testHashIsStableAndDiffersPerRecord() {
+		long first = encode("person", "authority-person:abc");
+
+		assertEquals(encode("person", "authority-person:abc"), first);
+		assertNotEquals(encode("person", "authority-person:abd"), first);
+		assertNotEquals(encode("otherType", "authority-person:abc"), first);
+	}
+
+	@Test
+	public void testMixSpreadsNeighbouringKeys() {
+		long first = CompactRecordKeys.mix(1);
+		long second = CompactRecordKeys.mix(2);
+
+		assertTrue(Long.bitCount(first ^ second) > 16);
+	}
+
+	private long encode(String recordType, String recordId) {
+		return recordKeys.encode(new WorkOrder(recordType, recordId, "update"));
+	}
+}
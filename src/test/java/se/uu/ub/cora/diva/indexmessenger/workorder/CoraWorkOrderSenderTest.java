@@ -0,0 +1,75 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.indexmessenger.CoraCredentials;
+import se.uu.ub.cora.javaclient.cora.CoraClientFactory;
+import se.uu.ub.cora.javaclient.cora.CoraClientFactoryImp;
+
+public class CoraWorkOrderSenderTest {
+
+	@Test
+	public void testInit() {
+		CoraClientFactory coraClientFactory = CoraClientFactoryImp
+				.usingAppTokenVerifierUrlAndBaseUrl("someAppTokenVerifierUrl", "someBaseUrl");
+		CoraCredentials credentials = new CoraCredentials("someUserId", "someAppToken");
+		CoraWorkOrderSender sender = new CoraWorkOrderSender(coraClientFactory, credentials);
+
+		assertSame(sender.getCoraClientFactory(), coraClientFactory);
+		assertSame(sender.getCredentials(), credentials);
+	}
+
+	@Test
+	public void testWorkOrderJsonForUpdate() {
+		String json = CoraWorkOrderSender
+				.createWorkOrderJson(new WorkOrder("person", "authority-person:1", "update"));
+
+		assertEquals(json, "{\"name\":\"workOrder\",\"children\":[{\"name\":\"recordType\","
+				+ "\"children\":[{\"name\":\"linkedRecordType\",\"value\":\"recordType\"},"
+				+ "{\"name\":\"linkedRecordId\",\"value\":\"person\"}]},"
+				+ "{\"name\":\"recordId\",\"value\":\"authority-person:1\"},"
+				+ "{\"name\":\"type\",\"value\":\"index\"}]}");
+	}
+
+	@Test
+	public void testWorkOrderJsonForDelete() {
+		String json = CoraWorkOrderSender
+				.createWorkOrderJson(new WorkOrder("person", "authority-person:1", "delete"));
+
+		assertEquals(json, "{\"name\":\"workOrder\",\"children\":[{\"name\":\"recordType\","
+				+ "\"children\":[{\"name\":\"linkedRecordType\",\"value\":\"recordType\"},"
+				+ "{\"name\":\"linkedRecordId\",\"value\":\"person\"}]},"
+				+ "{\"name\":\"recordId\",\"value\":\"authority-person:1\"},"
+				+ "{\"name\":\"type\",\"value\":\"removeFromIndex\"}]}");
+	}
+
+	@Test
+	public void testWorkOrderJsonIsEscaped() {
+		String json = CoraWorkOrderSender
+				.createWorkOrderJson(new WorkOrder("person", "a\"b\\c", "update"));
+
+		assertEquals(json.substring(json.indexOf("\"recordId\""), json.indexOf("{\"name\":\"type")),
+				"\"recordId\",\"value\":\"a\\\"b\\\\c\"},");
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class DeduplicatingWorkOrderSenderTest {
+	private WorkOrderSenderSpy workOrderSender;
+	private DeduplicationCache deduplicationCache;
+	private DeduplicatingWorkOrderSender deduplicatingSender;
+	private WorkOrder workOrder = new WorkOrder("person", "authority-person:1", "update");
+
+	@BeforeMethod
+	public void setUp() {
+		workOrderSender = new WorkOrderSenderSpy();
+		deduplicationCache = new DeduplicationCache(60000, 100);
+		deduplicatingSender = new DeduplicatingWorkOrderSender(workOrderSender,
+				deduplicationCache);
+	}
+
+	@Test
+	public void testInit() {
+		assertSame(deduplicatingSender.getWorkOrderSender(), workOrderSender);
+		assertSame(deduplicatingSender.getDeduplicationCache(), deduplicationCache);
+	}
+
+	@Test
+	public void testDuplicateIsLeftOut() {
+		deduplicatingSender.send(workOrder);
+		deduplicatingSender.send(new WorkOrder("person", "authority-person:1", "update"));
+
+		assertEquals(workOrderSender.sentWorkOrders, List.of(workOrder));
+		assertEquals(deduplicationCache.getNoOfHits(), 1);
+	}
+
+	@Test
+	public void testOtherModificationTypeIsSent() {
+		WorkOrder delete = new WorkOrder("person", "authority-person:1", "delete");
+
+		deduplicatingSender.send(workOrder);
+		deduplicatingSender.send(delete);
+
+		assertEquals(workOrderSender.sentWorkOrders, List.of(workOrder, delete));
+	}
+
+	@Test
+	public void testFailedWorkOrderIsSentAgainWhenRepeated() {
+		RuntimeException error = new RuntimeException("Cora is down");
+		workOrderSender.errorToThrow = error;
+		try {
+			deduplicatingSender.send(workOrder);
+			fail("The error should be thrown");
+		} catch (RuntimeException exception) {
+			assertSame(exception, error);
+		}
+		workOrderSender.errorToThrow = null;
+
+		deduplicatingSender.send(workOrder);
+
+		assertEquals(workOrderSender.sentWorkOrders, List.of(workOrder, workOrder));
+	}
+
+	@Test
+	public void testWorkOrderFailingInAsyncStageIsSentAgainWhenRepeated() {
+		LoggerProvider.setLoggerFactory(new LoggerFactorySpy());
+		workOrderSender.errorToThrow = new RuntimeException("Cora is down");
+		AsyncWorkOrderSender asyncSender = new AsyncWorkOrderSender(
+				new DeduplicationReleasingWorkOrderSender(workOrderSender, deduplicationCache),
+				Executors.newSingleThreadExecutor(), 4);
+		deduplicatingSender = new DeduplicatingWorkOrderSender(asyncSender, deduplicationCache);
+
+		deduplicatingSender.send(workOrder);
+		deduplicatingSender.closeBefore(System.nanoTime() + TimeUnit.SECONDS.toNanos(5));
+
+		assertEquals(workOrderSender.sentWorkOrders, List.of(workOrder));
+		assertTrue(deduplicationCache.tryToClaim(workOrder));
+		assertEquals(deduplicationCache.getNoOfHits(), 0);
+	}
+
+	@Test
+	public void testDuplicateIsLeftOutOnlyUntilEarlierWorkOrderIsSent() {
+		LoggerProvider.setLoggerFactory(new LoggerFactorySpy());
+		ExecutorServiceSpy executor = new ExecutorServiceSpy();
+		executor.holdTasks = true;
+		AsyncWorkOrderSender asyncSender = new AsyncWorkOrderSender(
+				new DeduplicationReleasingWorkOrderSender(workOrderSender, deduplicationCache),
+				executor, 4);
+		deduplicatingSender = new DeduplicatingWorkOrderSender(asyncSender, deduplicationCache);
+
+		deduplicatingSender.send(workOrder);
+		deduplicatingSender.send(workOrder);
+		executor.runHeldTask(0);
+		deduplicatingSender.send(workOrder);
+
+		assertEquals(executor.heldTasks.size(), 2);
+		assertEquals(workOrderSender.sentWorkOrders, List.of(workOrder));
+		assertEquals(deduplicationCache.getNoOfHits(), 1);
+	}
+
+	@Test
+	public void testCloseClosesInnerSender() {
+		workOrderSender.noOfNotSentOnClose = 2;
+
+		assertEquals(deduplicatingSender.closeBefore(123L), 2);
+
+		assertEquals(workOrderSender.closeDeadlines, List.of(123L));
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class DeduplicationCacheTest {
+	private long nowInNanos;
+	private DeduplicationCache cache;
+	private WorkOrder update = new WorkOrder("person", "authority-person:1", "update");
+	private WorkOrder delete = new WorkOrder("person", "authority-person:1", "delete");
+
+	@BeforeMethod
+	public void setUp() {
+		nowInNanos = 1000000;
+		cache = new DeduplicationCache(1000, 4, () -> nowInNanos);
+	}
+
+	@Test
+	public void testInit() {
+		assertEquals(cache.getWindowInMillis(), 1000);
+		assertEquals(cache.getMaxEntries(), 4);
+		assertEquals(cache.getNoOfEntries(), 0);
+		assertEquals(cache.getNoOfHits(), 0);
+		assertEquals(cache.getNoOfMisses(), 0);
+		assertEquals(cache.getHitRate(), 0.0);
+		assertEquals(cache.getNoOfEvictedBeforeExpiry(), 0);
+	}
+
+	@Test
+	public void testMemoryIsTableAndRing() {
+		assertEquals(cache.getMemoryInBytes(), 8L * (8 + 8 + 4 + 4));
+		DeduplicationCache largeCache = new DeduplicationCache(1000, 1000000);
+		assertEquals(largeCache.getMemoryInBytes(), 8L * (2 * 2097152 + 2 * 1000000));
+	}
+
+	@Test
+	public void testFirstWorkOrderIsClaimed() {
+		assertTrue(cache.tryToClaim(update));
+
+		assertEquals(cache.getNoOfEntries(), 1);
+		assertEquals(cache.getNoOfMisses(), 1);
+	}
+
+	@Test
+	public void testDuplicateWithinWindowIsNotClaimed() {
+		cache.tryToClaim(update);
+		advanceMillis(999);
+
+		assertFalse(cache.tryToClaim(new WorkOrder("person", "authority-person:1", "update")));
+
+		assertEquals(cache.getNoOfHits(), 1);
+		assertEquals(cache.getHitRate(), 0.5);
+	}
+
+	@Test
+	public void testDuplicateAfterWindowIsClaimed() {
+		cache.tryToClaim(update);
+		advanceMillis(1000);
+
+		assertTrue(cache.tryToClaim(update));
+		assertEquals(cache.getNoOfEntries(), 1);
+	}
+
+	@Test
+	public void testWindowStartsWithFirstClaim() {
+		cache.tryToClaim(update);
+		advanceMillis(600);
+		cache.tryToClaim(update);
+		advanceMillis(600);
+
+		assertTrue(cache.tryToClaim(update));
+	}
+
+	@Test
+	public void testOtherModificationTypeReplacesEntry() {
+		cache.tryToClaim(update);
+
+		assertTrue(cache.tryToClaim(delete));
+		assertTrue(cache.tryToClaim(update));
+		assertFalse(cache.tryToClaim(update));
+		assertEquals(cache.getNoOfEntries(), 1);
+	}
+
+	@Test
+	public void testOtherRecordsAreNotDuplicates() {
+		cache.tryToClaim(update);
+
+		assertTrue(cache.tryToClaim(new WorkOrder("person", "authority-person:2", "update")));
+		assertTrue(cache.tryToClaim(new WorkOrder("otherType", "authority-person:1", "update")));
+		assertTrue(cache.tryToClaim(new WorkOrder("person", "authority-person:x", "update")));
+		assertEquals(cache.getNoOfEntries(), 4);
+	}
+
+	@Test
+	public void testEntriesExpireWhenWindowEnds() {
+		cache.tryToClaim(update);
+		advanceMillis(500);
+		cache.tryToClaim(new WorkOrder("person", "authority-person:2", "update"));
+		advanceMillis(500);
+
+		assertEquals(cache.getNoOfEntries(), 1);
+		advanceMillis(500);
+		assertEquals(cache.getNoOfEntries(), 0);
+	}
+
+	@Test
+	public void testOldestEntryIsEvictedWhenFull() {
+		for (int i = 1; i <= 5; i++) {
+			cache.tryToClaim(new WorkOrder("person", "authority-person:" + i, "update"));
+		}
+
+		assertEquals(cache.getNoOfEntries(), 4);
+		assertEquals(cache.getNoOfEvictedBeforeExpiry(), 1);
+		assertTrue(cache.tryToClaim(update));
+		assertFalse(cache.tryToClaim(new WorkOrder("person", "authority-person:5", "update")));
+	}
+
+	@Test
+	public void testReplacedEntryIsNotEvictedByItsEarlierRingSlot() {
+		cache.tryToClaim(update);
+		advanceMillis(1);
+		cache.tryToClaim(delete);
+		cache.tryToClaim(new WorkOrder("person", "authority-person:2", "update"));
+		cache.tryToClaim(new WorkOrder("person", "authority-person:3", "update"));
+
+		cache.tryToClaim(new WorkOrder("person", "authority-person:4", "update"));
+
+		assertEquals(cache.getNoOfEvictedBeforeExpiry(), 0);
+		assertEquals(cache.getNoOfEntries(), 4);
+		assertFalse(cache.tryToClaim(delete));
+	}
+
+	@Test
+	public void testReleasedWorkOrderIsClaimedAgain() {
+		cache.tryToClaim(update);
+
+		cache.release(update);
+
+		assertEquals(cache.getNoOfEntries(), 0);
+		assertTrue(cache.tryToClaim(update));
+	}
+
+	@Test
+	public void testReleaseLeavesOtherModificationType() {
+		cache.tryToClaim(update);
+
+		cache.release(delete);
+		cache.release(new WorkOrder("person", "authority-person:1", "unknownType"));
+
+		assertFalse(cache.tryToClaim(update));
+	}
+
+	@Test
+	public void testManyEntriesAreKeptAndRemovedCorrectly() {
+		DeduplicationCache largeCache = new DeduplicationCache(1000, 100000, () -> nowInNanos);
+		for (int i = 0; i < 100000; i++) {
+			assertTrue(largeCache.tryToClaim(createWorkOrder(i)));
+		}
+		for (int i = 0; i < 100000; i += 2) {
+			largeCache.release(createWorkOrder(i));
+		}
+
+		assertEquals(largeCache.getNoOfEntries(), 50000);
+		for (int i = 0; i < 100000; i++) {
+			assertEquals(largeCache.tryToClaim(createWorkOrder(i)), i % 2 == 0);
+		}
+	}
+
+	private WorkOrder createWorkOrder(int i) {
+		String recordId = i % 3 == 0 ? "diva2:x" + i : "authority-person:" + i;
+		return new WorkOrder("person", recordId, "update");
+	}
+
+	private void advanceMillis(long millis) {
+		nowInNanos += TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class DeduplicationReleasingWorkOrderSenderTest {
+	private WorkOrderSenderSpy workOrderSender;
+	private DeduplicationCache deduplicationCache;
+	private DeduplicationReleasingWorkOrderSender releasingSender;
+	private WorkOrder workOrder = new WorkOrder("person", "authority-person:1", "update");
+
+	@BeforeMethod
+	public void setUp() {
+		workOrderSender = new WorkOrderSenderSpy();
+		deduplicationCache = new DeduplicationCache(60000, 100);
+		releasingSender = new DeduplicationReleasingWorkOrderSender(workOrderSender,
+				deduplicationCache);
+	}
+
+	@Test
+	public void testInit() {
+		assertSame(releasingSender.getWorkOrderSender(), workOrderSender);
+		assertSame(releasingSender.getDeduplicationCache(), deduplicationCache);
+	}
+
+	@Test
+	public void testClaimIsHeldUntilSent() {
+		deduplicationCache.tryToClaim(workOrder);
+		WorkOrderSender checkingSender = new WorkOrderSenderSpy() {
+			@Override
+			public void send(WorkOrder workOrder) {
+				assertFalse(deduplicationCache.tryToClaim(workOrder));
+				super.send(workOrder);
+			}
+		};
+		releasingSender = new DeduplicationReleasingWorkOrderSender(checkingSender,
+				deduplicationCache);
+
+		releasingSender.send(workOrder);
+
+		assertTrue(deduplicationCache.tryToClaim(workOrder));
+		assertEquals(deduplicationCache.getNoOfHits(), 1);
+	}
+
+	@Test
+	public void testClaimIsReleasedWhenSendFails() {
+		RuntimeException error = new RuntimeException("Cora is down");
+		workOrderSender.errorToThrow = error;
+		deduplicationCache.tryToClaim(workOrder);
+		try {
+			releasingSender.send(workOrder);
+			fail("The error should be thrown");
+		} catch (RuntimeException exception) {
+			assertSame(exception, error);
+		}
+
+		assertTrue(deduplicationCache.tryToClaim(workOrder));
+	}
+
+	@Test
+	public void testCloseClosesInnerSender() {
+		workOrderSender.noOfNotSentOnClose = 2;
+
+		assertEquals(releasingSender.closeBefore(123L), 2);
+
+		assertEquals(workOrderSender.closeDeadlines, List.of(123L));
+	}
+}
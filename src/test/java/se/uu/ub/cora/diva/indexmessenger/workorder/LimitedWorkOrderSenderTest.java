@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.indexmessenger.IndexMessageException;
+
+public class LimitedWorkOrderSenderTest {
+	private WorkOrderSenderSpy workOrderSender;
+	private AimdConcurrencyLimiter limiter;
+	private long[] clockValues;
+	private int clockCalls;
+	private LimitedWorkOrderSender limitedSender;
+	private WorkOrder workOrder = new WorkOrder("person", "authority-person:1", "update");
+
+	@BeforeMethod
+	public void setUp() {
+		workOrderSender = new WorkOrderSenderSpy();
+		limiter = new AimdConcurrencyLimiter(20, 1, 40, 100);
+		clockValues = new long[] { 0, TimeUnit.MILLISECONDS.toNanos(10) };
+		clockCalls = 0;
+		limitedSender = new LimitedWorkOrderSender(workOrderSender, limiter,
+				() -> clockValues[clockCalls++]);
+	}
+
+	@Test
+	public void testInit() {
+		limitedSender = new LimitedWorkOrderSender(workOrderSender, limiter);
+		assertSame(limitedSender.getWorkOrderSender(), workOrderSender);
+		assertSame(limitedSender.getLimiter(), limiter);
+	}
+
+	@Test
+	public void testSendReportsLatencyToLimiter() {
+		limitedSender.send(workOrder);
+
+		assertEquals(workOrderSender.sentWorkOrders.get(0), workOrder);
+		assertEquals(limiter.getNoOfInFlight(), 0);
+		assertEquals(limiter.getAverageLatencyInMillis(), 10.0, 0.001);
+		assertEquals(limiter.getLimit(), 20);
+	}
+
+	@Test
+	public void testSlowSendDecreasesLimit() {
+		clockValues[1] = TimeUnit.MILLISECONDS.toNanos(500);
+
+		limitedSender.send(workOrder);
+
+		assertEquals(limiter.getLimit(), 18);
+	}
+
+	@Test
+	public void testFailedSendDecreasesLimitAndIsRethrown() {
+		RuntimeException error = new RuntimeException("someError");
+		workOrderSender.errorToThrow = error;
+		try {
+			limitedSender.send(workOrder);
+			fail("Error should be rethrown");
+		} catch (RuntimeException e) {
+			assertSame(e, error);
+		}
+		assertEquals(limiter.getNoOfInFlight(), 0);
+		assertEquals(limiter.getLimit(), 18);
+	}
+
+	@Test
+	public void testInterruptedWhileWaitingForPermit() throws Exception {
+		limiter = new AimdConcurrencyLimiter(1, 1, 1, 100);
+		limiter.acquire();
+		limitedSender = new LimitedWorkOrderSender(workOrderSender, limiter);
+		Thread.currentThread().interrupt();
+		try {
+			limitedSender.send(workOrder);
+			fail("Interrupt should be reported");
+		} catch (IndexMessageException e) {
+			assertEquals(e.getMessage(),
+					"Interrupted while sending work order: update person/authority-person:1");
+		}
+		assertTrue(Thread.interrupted());
+		assertEquals(workOrderSender.sentWorkOrders.size(), 0);
+	}
+
+	@Test
+	public void testCloseClosesWrappedSender() {
+		workOrderSender.noOfNotSentOnClose = 2;
+
+		int notSent = limitedSender.closeBefore(1234L);
+
+		assertEquals(workOrderSender.closeDeadlines, List.of(1234L));
+		assertEquals(notSent, 2);
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.diva.indexmessenger.ParseCounters;
+import se.uu.ub.cora.diva.indexmessenger.metrics.PipelineMetrics;
+
+public class MeasuredWorkOrderSenderTest {
+	private WorkOrderSenderSpy workOrderSender;
+	private PipelineMetrics pipelineMetrics;
+	private long[] clockValues;
+	private int clockCalls;
+	private MeasuredWorkOrderSender measuredSender;
+	private WorkOrder workOrder = new WorkOrder("person", "authority-person:1", "update");
+
+	@BeforeMethod
+	public void setUp() {
+		workOrderSender = new WorkOrderSenderSpy();
+		pipelineMetrics = new PipelineMetrics(new ParseCounters());
+		clockValues = new long[] { 1_000_000, 3_000_000 };
+		clockCalls = 0;
+		measuredSender = new MeasuredWorkOrderSender(workOrderSender, pipelineMetrics,
+				() -> clockValues[clockCalls++]);
+	}
+
+	@Test
+	public void testInit() {
+		measuredSender = new MeasuredWorkOrderSender(workOrderSender, pipelineMetrics);
+		assertSame(measuredSender.getWorkOrderSender(), workOrderSender);
+		assertSame(measuredSender.getPipelineMetrics(), pipelineMetrics);
+	}
+
+	@Test
+	public void testSendIsMeasured() {
+		measuredSender.send(workOrder);
+
+		assertEquals(workOrderSender.sentWorkOrders.get(0), workOrder);
+		assertEquals(pipelineMetrics.getWorkOrdersSent(), 1);
+		assertEquals(pipelineMetrics.getWorkOrdersInFlight(), 0);
+		assertEquals(pipelineMetrics.getDispatchLatency().getMaxInMillis(), 2.0, 0.001);
+	}
+
+	@Test
+	public void testFailedSendIsMeasuredAndRethrown() {
+		RuntimeException error = new RuntimeException("someError");
+		workOrderSender.errorToThrow = error;
+		try {
+			measuredSender.send(workOrder);
+			fail("Error should be rethrown");
+		} catch (RuntimeException e) {
+			assertSame(e, error);
+		}
+		assertEquals(pipelineMetrics.getWorkOrdersFailed(), 1);
+		assertEquals(pipelineMetrics.getWorkOrdersInFlight(), 0);
+		assertEquals(pipelineMetrics.getDispatchLatency().getCount(), 1);
+	}
+
+	@Test
+	public void testCloseClosesWrappedSender() {
+		workOrderSender.noOfNotSentOnClose = 2;
+
+		int notSent = measuredSender.closeBefore(1234L);
+
+		assertEquals(workOrderSender.closeDeadlines, List.of(1234L));
+		assertEquals(notSent, 2);
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class ParallelWorkOrderBatchSenderTest {
+	private LoggerFactorySpy loggerFactory;
+	private String testedClassname = "ParallelWorkOrderBatchSender";
+	private WorkOrderSenderSpy workOrderSender;
+	private ExecutorService executor;
+	private ParallelWorkOrderBatchSender batchSender;
+
+	@BeforeMethod
+	public void setUp() {
+		loggerFactory = new LoggerFactorySpy();
+		LoggerProvider.setLoggerFactory(loggerFactory);
+		workOrderSender = new WorkOrderSenderSpy();
+		executor = Executors.newFixedThreadPool(2);
+		batchSender = new ParallelWorkOrderBatchSender(workOrderSender, executor);
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testInit() {
+		assertSame(batchSender.getWorkOrderSender(), workOrderSender);
+		assertSame(batchSender.getExecutor(), executor);
+	}
+
+	@Test
+	public void testAllWorkOrdersAreSentBeforeReturning() {
+		WorkOrder first = new WorkOrder("person", "authority-person:1", "update");
+		WorkOrder second = new WorkOrder("person", "authority-person:2", "delete");
+		WorkOrder third = new WorkOrder("person", "authority-person:3", "update");
+
+		batchSender.sendBatch(List.of(first, second, third));
+
+		assertEquals(workOrderSender.sentWorkOrders.size(), 3);
+		assertTrue(workOrderSender.sentWorkOrders.containsAll(List.of(first, second, third)));
+	}
+
+	@Test
+	public void testWorkOrdersForSameRecordAreSentInBatchOrder() {
+		WorkOrder first = new WorkOrder("person", "authority-person:1", "update");
+		WorkOrder second = new WorkOrder("person", "authority-person:1", "delete");
+		WorkOrder third = new WorkOrder("person", "authority-person:1", "update");
+		List<WorkOrder> batch = List.of(first, second, third);
+
+		for (int i = 0; i < 20; i++) {
+			workOrderSender.sentWorkOrders.clear();
+			batchSender.sendBatch(batch);
+			assertEquals(workOrderSender.sentWorkOrders, batch);
+		}
+	}
+
+	@Test
+	public void testFailedWorkOrdersAreLogged() {
+		executor.shutdownNow();
+		executor = Executors.newSingleThreadExecutor();
+		batchSender = new ParallelWorkOrderBatchSender(workOrderSender, executor);
+		RuntimeException error = new RuntimeException("some error");
+		workOrderSender.errorToThrow = error;
+
+		List<WorkOrder> batch = List.of(new WorkOrder("person", "authority-person:1", "update"),
+				new WorkOrder("person", "authority-person:2", "delete"));
+
+		List<WorkOrder> failedWorkOrders = batchSender.sendBatch(batch);
+
+		assertEquals(failedWorkOrders, batch);
+		assertEquals(loggerFactory.getNoOfErrorLogMessagesUsingClassName(testedClassname), 2);
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Error sending work order: update person/authority-person:1");
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 1),
+				"Error sending work order: delete person/authority-person:2");
+		assertSame(loggerFactory.getErrorLogErrorUsingClassNameAndNo(testedClassname, 0), error);
+	}
+
+	@Test
+	public void testCloseShutsDownExecutorAndClosesWrappedSender() {
+		workOrderSender.noOfNotSentOnClose = 1;
+
+		int notSent = batchSender.closeBefore(System.nanoTime() + 1_000_000_000L);
+
+		assertEquals(notSent, 1);
+		assertTrue(executor.isTerminated());
+		assertEquals(workOrderSender.closeDeadlines.size(), 1);
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class PartitionedWorkOrderSenderTest {
+	private LoggerFactorySpy loggerFactory;
+	private String testedClassname = "PartitionedWorkOrderSender";
+	private WorkOrderSenderSpy workOrderSender;
+	private List<Thread> createdThreads;
+	private PartitionedWorkOrderSender partitionedSender;
+
+	@BeforeMethod
+	public void setUp() {
+		loggerFactory = new LoggerFactorySpy();
+		LoggerProvider.setLoggerFactory(loggerFactory);
+		workOrderSender = new WorkOrderSenderSpy();
+		createdThreads = new ArrayList<>();
+		partitionedSender = new PartitionedWorkOrderSender(workOrderSender, 3, 10,
+				createThreadFactory());
+	}
+
+	private ThreadFactory createThreadFactory() {
+		return runnable -> {
+			Thread thread = new Thread(runnable);
+			thread.setDaemon(true);
+			createdThreads.add(thread);
+			return thread;
+		};
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		for (Thread thread : createdThreads) {
+			thread.interrupt();
+		}
+	}
+
+	@Test
+	public void testInit() {
+		assertSame(partitionedSender.getWorkOrderSender(), workOrderSender);
+		assertEquals(partitionedSender.getNoOfPartitions(), 3);
+		assertEquals(partitionedSender.getQueueCapacity(), 10);
+		assertEquals(createdThreads.size(), 3);
+		for (Thread thread : createdThreads) {
+			assertTrue(thread.isAlive());
+		}
+	}
+
+	@Test
+	public void testSameRecordAlwaysInSamePartition() {
+		WorkOrder update = new WorkOrder("person", "authority-person:1", "update");
+		WorkOrder delete = new WorkOrder("person", "authority-person:1", "delete");
+
+		assertEquals(partitionedSender.getPartitionForWorkOrder(update),
+				partitionedSender.getPartitionForWorkOrder(delete));
+	}
+
+	@Test
+	public void testRecordsAreSpreadOverPartitions() {
+		int partitionForFirst = partitionedSender
+				.getPartitionForWorkOrder(new WorkOrder("person", "authority-person:1", "update"));
+		int partitionForSecond = partitionedSender
+				.getPartitionForWorkOrder(new WorkOrder("person", "authority-person:2", "update"));
+
+		assertNotEquals(partitionForFirst, partitionForSecond);
+	}
+
+	@Test
+	public void testWorkOrdersAreSent() throws Exception {
+		for (int i = 0; i < 30; i++) {
+			partitionedSender.send(new WorkOrder("person", "authority-person:" + i, "update"));
+		}
+
+		waitForNoOfSentWorkOrders(30);
+		assertEquals(partitionedSender.getNoOfQueuedWorkOrders(), 0);
+	}
+
+	private void waitForNoOfSentWorkOrders(int expected) throws InterruptedException {
+		long waitUntil = System.currentTimeMillis() + 5000;
+		while (noOfSentWorkOrders() < expected && System.currentTimeMillis() < waitUntil) {
+			Thread.sleep(5);
+		}
+		assertEquals(noOfSentWorkOrders(), expected);
+	}
+
+	private int noOfSentWorkOrders() {
+		synchronized (workOrderSender) {
+			return workOrderSender.sentWorkOrders.size();
+		}
+	}
+
+	@Test
+	public void testWorkOrdersForSameRecordAreSentInArrivalOrder() throws Exception {
+		List<WorkOrder> expected = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			String modificationType = i % 3 == 0 ? "delete" : "update";
+			WorkOrder workOrder = new WorkOrder("person", "authority-person:same",
+					modificationType);
+			expected.add(workOrder);
+			partitionedSender.send(workOrder);
+			partitionedSender.send(new WorkOrder("person", "authority-person:" + i, "update"));
+		}
+
+		waitForNoOfSentWorkOrders(400);
+		List<WorkOrder> sentForRecord = new ArrayList<>();
+		for (WorkOrder sent : workOrderSender.sentWorkOrders) {
+			if ("authority-person:same".equals(sent.getRecordId())) {
+				sentForRecord.add(sent);
+			}
+		}
+		assertEquals(sentForRecord, expected);
+	}
+
+	@Test
+	public void testErrorWhenSendingIsLoggedAndWorkerContinues() throws Exception {
+		workOrderSender.errorToThrow = new RuntimeException("some error");
+
+		partitionedSender.send(new WorkOrder("person", "authority-person:1", "update"));
+		partitionedSender.send(new WorkOrder("person", "authority-person:1", "delete"));
+
+		waitForNoOfSentWorkOrders(2);
+		Thread.sleep(20);
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Error sending work order: update person/authority-person:1");
+		assertEquals(loggerFactory.getErrorLogMessageUsingClassNameAndNo(testedClassname, 1),
+				"Error sending work order: delete person/authority-person:1");
+	}
+
+	@Test
+	public void testCloseSendsQueuedWorkOrdersAndStopsWorkers() {
+		for (int i = 0; i < 30; i++) {
+			partitionedSender.send(new WorkOrder("person", "authority-person:" + i, "update"));
+		}
+
+		int notSent = partitionedSender.closeBefore(System.nanoTime() + 5_000_000_000L);
+
+		assertEquals(notSent, 0);
+		assertEquals(noOfSentWorkOrders(), 30);
+		for (Thread thread : createdThreads) {
+			assertFalse(thread.isAlive());
+		}
+		assertEquals(workOrderSender.closeDeadlines.size(), 1);
+	}
+
+	@Test
+	public void testCloseCountsWorkOrdersLeftAtDeadline() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		WorkOrderSender blockingSender = workOrder -> awaitRelease(release);
+		partitionedSender = new PartitionedWorkOrderSender(blockingSender, 1, 10,
+				createThreadFactory());
+		for (int i = 0; i < 3; i++) {
+			partitionedSender.send(new WorkOrder("person", "authority-person:" + i, "update"));
+		}
+
+		int notSent = partitionedSender.closeBefore(System.nanoTime() + 50_000_000L);
+
+		assertEquals(notSent, 2);
+		release.countDown();
+	}
+
+	private void awaitRelease(CountDownLatch release) {
+		try {
+			release.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ReloadableWorkOrderSenderTest {
+	private WorkOrderSenderSpy firstChain;
+	private WorkOrderSenderSpy secondChain;
+	private ReloadableWorkOrderSender reloadableSender;
+	private WorkOrder workOrder = new WorkOrder("person", "authority-person:1", "update");
+
+	@BeforeMethod
+	public void setUp() {
+		firstChain = new WorkOrderSenderSpy();
+		secondChain = new WorkOrderSenderSpy();
+		reloadableSender = new ReloadableWorkOrderSender(firstChain);
+	}
+
+	@Test
+	public void testInit() {
+		assertSame(reloadableSender.getWorkOrderSender(), firstChain);
+	}
+
+	@Test
+	public void testSendUsesCurrentChain() {
+		reloadableSender.send(workOrder);
+
+		assertEquals(firstChain.sentWorkOrders, List.of(workOrder));
+	}
+
+	@Test
+	public void testReplaceSendsToNewChainAndClosesReplacedChain() {
+		firstChain.noOfNotSentOnClose = 3;
+
+		int notSent = reloadableSender.replaceAndCloseBefore(secondChain, 1234L);
+		reloadableSender.send(workOrder);
+
+		assertEquals(notSent, 3);
+		assertEquals(firstChain.closeDeadlines, List.of(1234L));
+		assertEquals(secondChain.closeDeadlines.size(), 0);
+		assertEquals(firstChain.sentWorkOrders.size(), 0);
+		assertEquals(secondChain.sentWorkOrders, List.of(workOrder));
+		assertSame(reloadableSender.getWorkOrderSender(), secondChain);
+	}
+
+	@Test
+	public void testReplacedChainIsClosedAfterSendsInProgress() throws Exception {
+		CountDownLatch sendStarted = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		BlockingChain blockingChain = new BlockingChain(sendStarted, release);
+		reloadableSender = new ReloadableWorkOrderSender(blockingChain);
+		new Thread(() -> reloadableSender.send(workOrder)).start();
+		assertTrue(sendStarted.await(5, TimeUnit.SECONDS));
+		new Thread(() -> sleepThenCountDown(release)).start();
+
+		reloadableSender.replaceAndCloseBefore(secondChain,
+				System.nanoTime() + TimeUnit.SECONDS.toNanos(5));
+
+		assertTrue(blockingChain.sendReturnedBeforeClose);
+	}
+
+	private void sleepThenCountDown(CountDownLatch latch) {
+		try {
+			Thread.sleep(50);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		latch.countDown();
+	}
+
+	@Test
+	public void testReplacedChainIsClosedAtDeadlineIfSendDoesNotReturn() throws Exception {
+		CountDownLatch sendStarted = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		BlockingChain blockingChain = new BlockingChain(sendStarted, release);
+		reloadableSender = new ReloadableWorkOrderSender(blockingChain);
+		new Thread(() -> reloadableSender.send(workOrder)).start();
+		assertTrue(sendStarted.await(5, TimeUnit.SECONDS));
+
+		reloadableSender.replaceAndCloseBefore(secondChain,
+				System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(20));
+
+		assertTrue(blockingChain.closed);
+		assertFalse(blockingChain.sendReturnedBeforeClose);
+		release.countDown();
+	}
+
+	@Test
+	public void testCloseClosesCurrentChain() {
+		secondChain.noOfNotSentOnClose = 2;
+		reloadableSender.replaceAndCloseBefore(secondChain, 1234L);
+
+		int notSent = reloadableSender.closeBefore(5678L);
+
+		assertEquals(notSent, 2);
+		assertEquals(secondChain.closeDeadlines, List.of(5678L));
+	}
+
+	private static class BlockingChain implements WorkOrderSender {
+		private CountDownLatch sendStarted;
+		private CountDownLatch release;
+		private volatile boolean sendReturned = false;
+		private volatile boolean sendReturnedBeforeClose = false;
+		private volatile boolean closed = false;
+
+		BlockingChain(CountDownLatch sendStarted, CountDownLatch release) {
+			this.sendStarted = sendStarted;
+			this.release = release;
+		}
+
+		@Override
+		public void send(WorkOrder workOrder) {
+			sendStarted.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			sendReturned = true;
+		}
+
+		@Override
+		public int closeBefore(long deadlineInNanos) {
+			sendReturnedBeforeClose = sendReturned;
+			closed = true;
+			return 0;
+		}
+	}
+}
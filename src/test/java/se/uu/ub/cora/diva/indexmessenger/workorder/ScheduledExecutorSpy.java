@@ -0,0 +1,54 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class ScheduledExecutorSpy extends ScheduledThreadPoolExecutor {
+
+	public List<Runnable> scheduledCommands = new ArrayList<>();
+	public List<Long> delaysInMillis = new ArrayList<>();
+
+	public ScheduledExecutorSpy() {
+		super(1);
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		scheduledCommands.add(command);
+		delaysInMillis.add(unit.toMillis(delay));
+		return null;
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay,
+			long delay, TimeUnit unit) {
+		scheduledCommands.add(command);
+		delaysInMillis.add(unit.toMillis(delay));
+		return null;
+	}
+
+	public void runScheduledCommand(int commandNo) {
+		scheduledCommands.get(commandNo).run();
+	}
+}
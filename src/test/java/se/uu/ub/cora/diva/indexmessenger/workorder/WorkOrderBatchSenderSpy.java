@@ -0,0 +1,48 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class WorkOrderBatchSenderSpy implements WorkOrderBatchSender {
+
+	public List<List<WorkOrder>> sentBatches = new ArrayList<>();
+	public List<Long> closeDeadlines = new ArrayList<>();
+	public List<WorkOrder> failedWorkOrders = new ArrayList<>();
+
+	@Override
+	public List<WorkOrder> sendBatch(List<WorkOrder> workOrders) {
+		sentBatches.add(workOrders);
+		List<WorkOrder> failedInBatch = new ArrayList<>();
+		for (WorkOrder workOrder : workOrders) {
+			if (failedWorkOrders.contains(workOrder)) {
+				failedInBatch.add(workOrder);
+			}
+		}
+		return failedInBatch;
+	}
+
+	@Override
+	public int closeBefore(long deadlineInNanos) {
+		closeDeadlines.add(deadlineInNanos);
+		return 0;
+	}
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+public class WorkOrderExecutorsTest {
+
+	@Test
+	public void testConstructorIsPrivate() throws Exception {
+		Constructor<WorkOrderExecutors> constructor = WorkOrderExecutors.class
+				.getDeclaredConstructor();
+		assertTrue(Modifier.isPrivate(constructor.getModifiers()));
+		constructor.setAccessible(true);
+		constructor.newInstance();
+	}
+
+	@Test
+	public void testDaemonThreadFactory() {
+		ThreadFactory threadFactory = WorkOrderExecutors.createDaemonThreadFactory("someName");
+
+		Thread first = threadFactory.newThread(() -> {
+		});
+		Thread second = threadFactory.newThread(() -> {
+		});
+
+		assertTrue(first.isDaemon());
+		assertEquals(first.getName(), "someName-1");
+		assertEquals(second.getName(), "someName-2");
+	}
+
+	@Test
+	public void testThreadPerTaskExecutor() throws Exception {
+		ExecutorService executor = WorkOrderExecutors.createThreadPerTaskExecutor("someName");
+
+		Future<Boolean> daemonOrVirtual = executor.submit(() -> Thread.currentThread().isDaemon());
+
+		assertTrue(daemonOrVirtual.get());
+		executor.shutdown();
+	}
+
+	@Test
+	public void testShutdownAndAwaitTerminationBefore() {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		executor.submit(() -> sleep(20));
+
+		boolean terminated = WorkOrderExecutors.shutdownAndAwaitTerminationBefore(executor,
+				System.nanoTime() + TimeUnit.SECONDS.toNanos(5));
+
+		assertTrue(terminated);
+		assertTrue(executor.isTerminated());
+	}
+
+	private void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Test
+	public void testShutdownAndAwaitTerminationBeforeInterruptsAtDeadline() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<?> task = executor.submit(() -> sleep(5000));
+
+		boolean terminated = WorkOrderExecutors.shutdownAndAwaitTerminationBefore(executor,
+				System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(20));
+
+		assertFalse(terminated);
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		assertTrue(task.isDone());
+	}
+
+	@Test
+	public void testJoinBefore() {
+		Thread thread = new Thread(() -> sleep(20));
+		thread.start();
+
+		assertTrue(WorkOrderExecutors.joinBefore(thread,
+				System.nanoTime() + TimeUnit.SECONDS.toNanos(5)));
+	}
+
+	@Test
+	public void testJoinBeforeReturnsAtDeadline() {
+		Thread thread = new Thread(() -> sleep(5000));
+		thread.start();
+
+		assertFalse(WorkOrderExecutors.joinBefore(thread,
+				System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(20)));
+		thread.interrupt();
+	}
+
+	@Test
+	public void testNanosUntil() {
+		assertEquals(WorkOrderExecutors.nanosUntil(System.nanoTime() - 1000), 0);
+		assertTrue(WorkOrderExecutors.nanosUntil(System.nanoTime() + 1_000_000_000L) > 0);
+	}
+}
@@ -0,0 +1,633 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.stream.Stream;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.diva.indexmessenger.ParseCounters;
+import se.uu.ub.cora.diva.indexmessenger.authtoken.AppTokenVerifierClient;
+import se.uu.ub.cora.diva.indexmessenger.authtoken.AuthTokenCache;
+import se.uu.ub.cora.diva.indexmessenger.http.CoraHttpClient;
+import se.uu.ub.cora.diva.indexmessenger.metrics.MetricsRegistrar;
+import se.uu.ub.cora.diva.indexmessenger.metrics.PipelineMetrics;
+import se.uu.ub.cora.diva.indexmessenger.outbox.OutboxDrainer;
+import se.uu.ub.cora.diva.indexmessenger.outbox.OutboxLog;
+import se.uu.ub.cora.diva.indexmessenger.outbox.OutboxWorkOrderSender;
+import se.uu.ub.cora.diva.indexmessenger.retry.RetryScheduler;
+import se.uu.ub.cora.diva.indexmessenger.retry.RetryingWorkOrderSender;
+import se.uu.ub.cora.indexmessenger.CoraCredentials;
+import se.uu.ub.cora.indexmessenger.IndexMessageException;
+import se.uu.ub.cora.indexmessenger.log.LoggerFactorySpy;
+import se.uu.ub.cora.javaclient.cora.CoraClientFactory;
+import se.uu.ub.cora.javaclient.cora.CoraClientFactoryImp;
+import se.uu.ub.cora.logger.LoggerProvider;
+
+public class WorkOrderSenderFactoryTest {
+	private LoggerFactorySpy loggerFactory;
+	private String testedClassname = "WorkOrderSenderFactory";
+	private Properties properties;
+	private CoraClientFactory coraClientFactory;
+	private CoraCredentials credentials;
+	private PipelineMetrics pipelineMetrics;
+	private MBeanServer mBeanServer;
+	private MetricsRegistrar metricsRegistrar;
+	private WorkOrderSender factoredSender;
+	private WorkOrderBatchSender factoredBatchSender;
+	private RetryScheduler retryScheduler;
+	private Path directory;
+
+	@BeforeMethod
+	public void setUp() {
+		loggerFactory = new LoggerFactorySpy();
+		LoggerProvider.setLoggerFactory(loggerFactory);
+		properties = new Properties();
+		coraClientFactory = CoraClientFactoryImp
+				.usingAppTokenVerifierUrlAndBaseUrl("someAppTokenVerifierUrl", "someBaseUrl");
+		credentials = new CoraCredentials("someUserId", "someAppToken");
+		pipelineMetrics = new PipelineMetrics(new ParseCounters());
+		mBeanServer = MBeanServerFactory.newMBeanServer();
+		metricsRegistrar = new MetricsRegistrar(mBeanServer);
+		factoredSender = null;
+		factoredBatchSender = null;
+		retryScheduler = null;
+		directory = null;
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		long now = System.nanoTime();
+		if (factoredSender != null) {
+			factoredSender.closeBefore(now);
+		}
+		if (factoredBatchSender != null) {
+			factoredBatchSender.closeBefore(now);
+		}
+		if (retryScheduler != null) {
+			retryScheduler.closeBefore(now);
+		}
+		if (directory != null) {
+			deleteDirectory();
+		}
+	}
+
+	private void deleteDirectory() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Test
+	public void testInit() {
+		WorkOrderSenderFactory factory = new WorkOrderSenderFactory(properties, pipelineMetrics,
+				metricsRegistrar);
+		assertSame(factory.getProperties(), properties);
+		assertSame(factory.getPipelineMetrics(), pipelineMetrics);
+		assertSame(factory.getMetricsRegistrar(), metricsRegistrar);
+	}
+
+	@Test
+	public void testNoWorkOrderPropertiesSendsDirectlyToCora() {
+		WorkOrderSender workOrderSender = factor();
+
+		MeasuredWorkOrderSender measuredSender = (MeasuredWorkOrderSender) workOrderSender;
+		assertSame(measuredSender.getPipelineMetrics(), pipelineMetrics);
+		CoraWorkOrderSender coraSender = (CoraWorkOrderSender) measuredSender
+				.getWorkOrderSender();
+		assertSame(coraSender.getCoraClientFactory(), coraClientFactory);
+		assertSame(coraSender.getCredentials(), credentials);
+		assertEquals(loggerFactory.getNoOfInfoLogMessagesUsingClassname(testedClassname), 0);
+	}
+
+	private WorkOrderSender factor() {
+		factoredSender = new WorkOrderSenderFactory(properties, pipelineMetrics, metricsRegistrar)
+				.factor(coraClientFactory, credentials);
+		return factoredSender;
+	}
+
+	@Test
+	public void testStagesTurnedOffByDefaultValues() {
+		properties.put("workOrder.maxInFlight", "0");
+		properties.put("workOrder.batchSize", "1");
+		properties.put("workOrder.coalescingWindowInMillis", "0");
+		properties.put("workOrder.concurrency", "1");
+
+		assertTrue(factor() instanceof MeasuredWorkOrderSender);
+	}
+
+	@Test
+	public void testAsyncSender() {
+		properties.put("workOrder.maxInFlight", " 500 ");
+
+		AsyncWorkOrderSender asyncSender = (AsyncWorkOrderSender) factor();
+
+		assertEquals(asyncSender.getMaxInFlight(), 500);
+		assertTrue(asyncSender.getWorkOrderSender() instanceof MeasuredWorkOrderSender);
+		String threadType = WorkOrderExecutors.virtualThreadsAreAvailable() ? "virtual"
+				: "platform";
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Sending at most: 500 work orders at once on " + threadType + " threads");
+	}
+
+	@Test
+	public void testBatchingSender() {
+		properties.put("workOrder.batchSize", "10");
+
+		BatchingWorkOrderSender batchingSender = (BatchingWorkOrderSender) factor();
+
+		assertEquals(batchingSender.getBatchSize(), 10);
+		assertEquals(batchingSender.getLingerInMillis(), 100);
+		ParallelWorkOrderBatchSender batchSender = (ParallelWorkOrderBatchSender) batchingSender
+				.getBatchSender();
+		assertTrue(batchSender.getWorkOrderSender() instanceof MeasuredWorkOrderSender);
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Sending work orders in batches of: 10 lingering at most: 100 ms");
+	}
+
+	@Test
+	public void testBatchingSenderWithLinger() {
+		properties.put("workOrder.batchSize", "10");
+		properties.put("workOrder.batchLingerInMillis", "50");
+
+		BatchingWorkOrderSender batchingSender = (BatchingWorkOrderSender) factor();
+
+		assertEquals(batchingSender.getLingerInMillis(), 50);
+	}
+
+	@Test
+	public void testCoalescingSender() throws Exception {
+		properties.put("workOrder.coalescingWindowInMillis", "200");
+
+		CoalescingWorkOrderSender coalescingSender = (CoalescingWorkOrderSender) factor();
+
+		assertEquals(coalescingSender.getWindowInMillis(), 200);
+		assertTrue(coalescingSender.getWorkOrderSender() instanceof MeasuredWorkOrderSender);
+		ThreadPoolExecutor sendExecutor = (ThreadPoolExecutor) coalescingSender.getSendExecutor();
+		assertEquals(sendExecutor.getMaximumPoolSize(), 1);
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Coalescing work orders per record during: 200 ms, sending on: 1 threads");
+		assertWorkOrderQueueIsRegistered("coalescing");
+	}
+
+	@Test
+	public void testCoalescingSenderSendsOnAsManyThreadsAsConcurrency() {
+		properties.put("workOrder.coalescingWindowInMillis", "200");
+		properties.put("workOrder.concurrency", "4");
+
+		PartitionedWorkOrderSender partitionedSender = (PartitionedWorkOrderSender) factor();
+
+		CoalescingWorkOrderSender coalescingSender = (CoalescingWorkOrderSender) partitionedSender
+				.getWorkOrderSender();
+		ThreadPoolExecutor sendExecutor = (ThreadPoolExecutor) coalescingSender.getSendExecutor();
+		assertEquals(sendExecutor.getMaximumPoolSize(), 4);
+	}
+
+	private void assertWorkOrderQueueIsRegistered(String queueName) throws Exception {
+		assertTrue(mBeanServer.isRegistered(new ObjectName(
+				"se.uu.ub.cora.diva.indexmessenger:type=WorkOrderQueue,name=" + queueName)));
+	}
+
+	@Test
+	public void testPartitionedSender() throws Exception {
+		properties.put("workOrder.concurrency", "4");
+
+		PartitionedWorkOrderSender partitionedSender = (PartitionedWorkOrderSender) factor();
+
+		assertEquals(partitionedSender.getNoOfPartitions(), 4);
+		assertEquals(partitionedSender.getQueueCapacity(), 1000);
+		assertTrue(partitionedSender.getWorkOrderSender() instanceof MeasuredWorkOrderSender);
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Handling work orders using: 4 workers with queues of: 1000");
+		assertWorkOrderQueueIsRegistered("partitions");
+	}
+
+	@Test
+	public void testAdaptiveLimit() throws Exception {
+		properties.put("workOrder.adaptiveLimit.max", "50");
+		properties.put("workOrder.adaptiveLimit.min", "2");
+		properties.put("workOrder.adaptiveLimit.initial", "5");
+		properties.put("workOrder.adaptiveLimit.latencyThresholdInMillis", "300");
+
+		LimitedWorkOrderSender limitedSender = (LimitedWorkOrderSender) factor();
+
+		AimdConcurrencyLimiter limiter = limitedSender.getLimiter();
+		assertEquals(limiter.getMaxLimit(), 50);
+		assertEquals(limiter.getMinLimit(), 2);
+		assertEquals(limiter.getLimit(), 5);
+		assertEquals(limiter.getLatencyThresholdInMillis(), 300);
+		assertTrue(limitedSender.getWorkOrderSender() instanceof MeasuredWorkOrderSender);
+		assertTrue(mBeanServer.isRegistered(new ObjectName(
+				"se.uu.ub.cora.diva.indexmessenger:type=ConcurrencyLimit")));
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Limiting work orders in flight to Cora between: 2 and: 50 starting at: 5"
+						+ " with latency threshold: 300 ms");
+	}
+
+	@Test
+	public void testAdaptiveLimitDefaultValues() {
+		properties.put("workOrder.adaptiveLimit.max", "5");
+
+		AimdConcurrencyLimiter limiter = ((LimitedWorkOrderSender) factor()).getLimiter();
+
+		assertEquals(limiter.getMinLimit(), 1);
+		assertEquals(limiter.getLimit(), 5);
+		assertEquals(limiter.getLatencyThresholdInMillis(), 1000);
+	}
+
+	@Test
+	public void testAllStagesInOrder() {
+		properties.put("workOrder.maxInFlight", "500");
+		properties.put("workOrder.batchSize", "10");
+		properties.put("workOrder.coalescingWindowInMillis", "200");
+		properties.put("workOrder.concurrency", "4");
+		properties.put("workOrder.queueCapacity", "50");
+		properties.put("workOrder.adaptiveLimit.max", "50");
+
+		PartitionedWorkOrderSender partitionedSender = (PartitionedWorkOrderSender) factor();
+		assertEquals(partitionedSender.getQueueCapacity(), 50);
+		CoalescingWorkOrderSender coalescingSender = (CoalescingWorkOrderSender) partitionedSender
+				.getWorkOrderSender();
+		BatchingWorkOrderSender batchingSender = (BatchingWorkOrderSender) coalescingSender
+				.getWorkOrderSender();
+		ParallelWorkOrderBatchSender batchSender = (ParallelWorkOrderBatchSender) batchingSender
+				.getBatchSender();
+		AsyncWorkOrderSender asyncSender = (AsyncWorkOrderSender) batchSender
+				.getWorkOrderSender();
+		LimitedWorkOrderSender limitedSender = (LimitedWorkOrderSender) asyncSender
+				.getWorkOrderSender();
+		assertTrue(limitedSender.getWorkOrderSender() instanceof MeasuredWorkOrderSender);
+	}
+
+	@Test
+	public void testDeduplicatingSender() throws Exception {
+		properties.put("workOrder.deduplicationWindowInMillis", "30000");
+		properties.put("workOrder.deduplicationMaxEntries", "1000");
+
+		DeduplicatingWorkOrderSender deduplicatingSender = (DeduplicatingWorkOrderSender) factor();
+
+		DeduplicationCache deduplicationCache = deduplicatingSender.getDeduplicationCache();
+		assertEquals(deduplicationCache.getWindowInMillis(), 30000);
+		assertEquals(deduplicationCache.getMaxEntries(), 1000);
+		assertReleasingSenderInFrontOfCoraSender(
+				(DeduplicationReleasingWorkOrderSender) deduplicatingSender.getWorkOrderSender(),
+				deduplicationCache);
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Leaving out work orders repeated before sent, for at most: 30000 ms,"
+						+ " remembering at most: 1000 work orders in: 48768 bytes");
+		ObjectName cacheName = new ObjectName(
+				"se.uu.ub.cora.diva.indexmessenger:type=DeduplicationCache");
+		assertEquals(mBeanServer.getAttribute(cacheName, "MaxEntries"), 1000);
+	}
+
+	@Test
+	public void testDeduplicatingSenderDefaultMaxEntries() {
+		properties.put("workOrder.deduplicationWindowInMillis", "30000");
+
+		DeduplicatingWorkOrderSender deduplicatingSender = (DeduplicatingWorkOrderSender) factor();
+
+		assertEquals(deduplicatingSender.getDeduplicationCache().getMaxEntries(), 500000);
+	}
+
+	@Test
+	public void testDeduplicatingSenderIsInFrontOfOtherStages() {
+		properties.put("workOrder.deduplicationWindowInMillis", "30000");
+		properties.put("workOrder.concurrency", "4");
+
+		DeduplicatingWorkOrderSender deduplicatingSender = (DeduplicatingWorkOrderSender) factor();
+
+		WorkOrderSender innerSender = deduplicatingSender.getWorkOrderSender();
+		assertTrue(innerSender instanceof PartitionedWorkOrderSender);
+	}
+
+	@Test
+	public void testClaimIsReleasedInFrontOfCoraSenderBehindAsyncStage() {
+		properties.put("workOrder.deduplicationWindowInMillis", "30000");
+		properties.put("workOrder.maxInFlight", "10");
+
+		DeduplicatingWorkOrderSender deduplicatingSender = (DeduplicatingWorkOrderSender) factor();
+
+		AsyncWorkOrderSender asyncSender = (AsyncWorkOrderSender) deduplicatingSender
+				.getWorkOrderSender();
+		assertReleasingSenderInFrontOfCoraSender(
+				(DeduplicationReleasingWorkOrderSender) asyncSender.getWorkOrderSender(),
+				deduplicatingSender.getDeduplicationCache());
+	}
+
+	private void assertReleasingSenderInFrontOfCoraSender(
+			DeduplicationReleasingWorkOrderSender releasingSender,
+			DeduplicationCache deduplicationCache) {
+		assertSame(releasingSender.getDeduplicationCache(), deduplicationCache);
+		assertTrue(releasingSender.getWorkOrderSender() instanceof MeasuredWorkOrderSender);
+	}
+
+	@Test
+	public void testRetryingSender() throws Exception {
+		createRetryScheduler();
+		WorkOrderSenderFactory factory = new WorkOrderSenderFactory(properties, pipelineMetrics,
+				metricsRegistrar, retryScheduler);
+
+		RetryingWorkOrderSender retryingSender = (RetryingWorkOrderSender) factory
+				.factor(coraClientFactory, credentials);
+		factoredSender = retryingSender;
+
+		assertSame(factory.getRetryScheduler(), retryScheduler);
+		assertSame(retryingSender.getRetryScheduler(), retryScheduler);
+		assertTrue(retryingSender.getWorkOrderSender() instanceof MeasuredWorkOrderSender);
+		assertSame(retryScheduler.getRetryTarget(), retryingSender.getWorkOrderSender());
+	}
+
+	private void createRetryScheduler() throws IOException {
+		directory = Files.createTempDirectory("workOrderSenderFactoryTest");
+		Properties retryProperties = new Properties();
+		retryProperties.put("retry.directory", directory.toString());
+		retryScheduler = RetryScheduler.fromProperties(retryProperties);
+	}
+
+	@Test
+	public void testRetryingSenderIsInsideOtherStages() throws Exception {
+		properties.put("workOrder.maxInFlight", "500");
+		properties.put("workOrder.adaptiveLimit.max", "50");
+		createRetryScheduler();
+
+		AsyncWorkOrderSender asyncSender = (AsyncWorkOrderSender) new WorkOrderSenderFactory(
+				properties, pipelineMetrics, metricsRegistrar, retryScheduler)
+						.factor(coraClientFactory, credentials);
+		factoredSender = asyncSender;
+
+		RetryingWorkOrderSender retryingSender = (RetryingWorkOrderSender) asyncSender
+				.getWorkOrderSender();
+		assertTrue(retryingSender.getWorkOrderSender() instanceof LimitedWorkOrderSender);
+	}
+
+	@Test
+	public void testRetriesAreSentToLatestChain() throws Exception {
+		createRetryScheduler();
+		WorkOrderSenderFactory factory = new WorkOrderSenderFactory(properties, pipelineMetrics,
+				metricsRegistrar, retryScheduler);
+		factory.factorWithoutOutbox(coraClientFactory, credentials);
+
+		RetryingWorkOrderSender latestSender = (RetryingWorkOrderSender) factory
+				.factorWithoutOutbox(coraClientFactory, credentials);
+
+		assertSame(retryScheduler.getRetryTarget(), latestSender.getWorkOrderSender());
+	}
+
+	@Test
+	public void testBatchSenderDoesNotRetry() throws Exception {
+		createRetryScheduler();
+		WorkOrderSenderFactory factory = new WorkOrderSenderFactory(properties, pipelineMetrics,
+				metricsRegistrar, retryScheduler);
+
+		ParallelWorkOrderBatchSender batchSender = (ParallelWorkOrderBatchSender) factory
+				.factorBatchSender(coraClientFactory, credentials, 2);
+		factoredBatchSender = batchSender;
+
+		assertTrue(batchSender.getWorkOrderSender() instanceof MeasuredWorkOrderSender);
+		assertNull(retryScheduler.getRetryTarget());
+	}
+
+	@Test
+	public void testOutbox() throws Exception {
+		directory = Files.createTempDirectory("workOrderSenderFactoryTest");
+		properties.put("outbox.directory", directory.toString());
+		properties.put("outbox.segmentSizeInBytes", "4096");
+		properties.put("outbox.forceOnAppend", "true");
+		properties.put("outbox.maxRetryDelayInMillis", "700");
+		properties.put("outbox.retryDelayInMillis", "20");
+
+		OutboxWorkOrderSender outboxSender = (OutboxWorkOrderSender) factor();
+
+		OutboxLog outboxLog = outboxSender.getOutboxLog();
+		assertEquals(outboxLog.getDirectory(), directory);
+		assertEquals(outboxLog.getSegmentSize(), 4096);
+		assertTrue(outboxLog.getForceOnAppend());
+		OutboxDrainer drainer = outboxSender.getOutboxDrainer();
+		assertSame(drainer.getOutboxLog(), outboxLog);
+		assertEquals(drainer.getMaxRetryDelayInMillis(), 700);
+		assertEquals(drainer.getRetryDelayInMillis(), 20);
+		assertTrue(drainer.getWorkOrderSender() instanceof MeasuredWorkOrderSender);
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Storing work orders in outbox: " + directory);
+		assertWorkOrderQueueIsRegistered("outbox");
+	}
+
+	@Test
+	public void testFactorWithoutOutboxLeavesOutboxOut() throws Exception {
+		directory = Files.createTempDirectory("workOrderSenderFactoryTest");
+		properties.put("outbox.directory", directory.toString());
+		WorkOrderSenderFactory factory = new WorkOrderSenderFactory(properties, pipelineMetrics,
+				metricsRegistrar);
+
+		WorkOrderSender senderChain = factory.factorWithoutOutbox(coraClientFactory,
+				credentials);
+
+		assertTrue(senderChain instanceof MeasuredWorkOrderSender);
+		assertEquals(loggerFactory.getNoOfInfoLogMessagesUsingClassname(testedClassname), 0);
+	}
+
+	@Test
+	public void testOutboxPutInFrontOfGivenSender() throws Exception {
+		directory = Files.createTempDirectory("workOrderSenderFactoryTest");
+		properties.put("outbox.directory", directory.toString());
+		WorkOrderSenderSpy senderChain = new WorkOrderSenderSpy();
+		WorkOrderSenderFactory factory = new WorkOrderSenderFactory(properties, pipelineMetrics,
+				metricsRegistrar);
+
+		OutboxWorkOrderSender outboxSender = (OutboxWorkOrderSender) factory
+				.possiblyPutOutboxInFront(senderChain);
+		factoredSender = outboxSender;
+
+		assertSame(outboxSender.getOutboxDrainer().getWorkOrderSender(), senderChain);
+	}
+
+	@Test
+	public void testOutboxDefaultValues() throws Exception {
+		directory = Files.createTempDirectory("workOrderSenderFactoryTest");
+		properties.put("outbox.directory", directory.toString());
+
+		OutboxWorkOrderSender outboxSender = (OutboxWorkOrderSender) factor();
+
+		assertEquals(outboxSender.getOutboxLog().getSegmentSize(), 16 * 1024 * 1024);
+		assertFalse(outboxSender.getOutboxLog().getForceOnAppend());
+		assertEquals(outboxSender.getOutboxDrainer().getMaxRetryDelayInMillis(), 60000);
+		assertEquals(outboxSender.getOutboxDrainer().getRetryDelayInMillis(), 1000);
+		assertEquals(outboxSender.getOutboxDrainer().getCommitBatchSize(), 1);
+		assertEquals(outboxSender.getOutboxDrainer().getCommitIntervalInMillis(), 1000);
+	}
+
+	@Test
+	public void testOutboxWithBatchedCommits() throws Exception {
+		directory = Files.createTempDirectory("workOrderSenderFactoryTest");
+		properties.put("outbox.directory", directory.toString());
+		properties.put("outbox.commitBatchSize", "100");
+		properties.put("outbox.commitIntervalInMillis", "250");
+
+		OutboxWorkOrderSender outboxSender = (OutboxWorkOrderSender) factor();
+
+		OutboxDrainer drainer = outboxSender.getOutboxDrainer();
+		assertEquals(drainer.getCommitBatchSize(), 100);
+		assertEquals(drainer.getCommitIntervalInMillis(), 250);
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Committing outbox after: 100 work orders or: 250 ms");
+	}
+
+	@Test
+	public void testBatchSender() {
+		ParallelWorkOrderBatchSender batchSender = (ParallelWorkOrderBatchSender) factorBatchSender(
+				6);
+
+		ThreadPoolExecutor executor = (ThreadPoolExecutor) batchSender.getExecutor();
+		assertEquals(executor.getCorePoolSize(), 6);
+		MeasuredWorkOrderSender measuredSender = (MeasuredWorkOrderSender) batchSender
+				.getWorkOrderSender();
+		assertSame(measuredSender.getPipelineMetrics(), pipelineMetrics);
+		assertTrue(measuredSender.getWorkOrderSender() instanceof CoraWorkOrderSender);
+	}
+
+	private WorkOrderBatchSender factorBatchSender(int concurrency) {
+		factoredBatchSender = new WorkOrderSenderFactory(properties, pipelineMetrics,
+				metricsRegistrar).factorBatchSender(coraClientFactory, credentials, concurrency);
+		return factoredBatchSender;
+	}
+
+	@Test
+	public void testBatchSenderUsesAdaptiveLimitButNoOtherStages() {
+		properties.put("workOrder.adaptiveLimit.max", "50");
+		properties.put("workOrder.maxInFlight", "10");
+		properties.put("workOrder.concurrency", "4");
+
+		ParallelWorkOrderBatchSender batchSender = (ParallelWorkOrderBatchSender) factorBatchSender(
+				2);
+
+		assertTrue(batchSender.getWorkOrderSender() instanceof LimitedWorkOrderSender);
+	}
+
+	@Test
+	public void testSharedAuthToken() {
+		properties.put("authToken.shared", "true");
+		properties.put("appTokenVerifierUrl", "someAppTokenVerifierUrl");
+		properties.put("baseUrl", "someBaseUrl");
+		properties.put("authToken.refreshMarginInMillis", "30000");
+		properties.put("authToken.retryDelayInMillis", "2000");
+
+		MeasuredWorkOrderSender measuredSender = (MeasuredWorkOrderSender) factor();
+
+		AuthTokenWorkOrderSender authTokenSender = (AuthTokenWorkOrderSender) measuredSender
+				.getWorkOrderSender();
+		assertEquals(authTokenSender.getBaseUrl(), "someBaseUrl");
+		AuthTokenCache authTokenCache = authTokenSender.getAuthTokenCache();
+		assertEquals(authTokenCache.getRefreshMarginInMillis(), 30000);
+		assertEquals(authTokenCache.getRetryDelayInMillis(), 2000);
+		AppTokenVerifierClient appTokenVerifierClient = (AppTokenVerifierClient) authTokenCache
+				.getAuthTokenFetcher();
+		assertEquals(appTokenVerifierClient.getAppTokenVerifierUrl(), "someAppTokenVerifierUrl");
+		assertSame(appTokenVerifierClient.getCredentials(), credentials);
+		assertSame(appTokenVerifierClient.getHttpClient(), authTokenSender.getHttpClient());
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 1),
+				"Sharing one authToken for all work orders, refreshed: 30000 ms before it expires");
+	}
+
+	@Test
+	public void testSharedAuthTokenDefaultValues() {
+		properties.put("authToken.shared", "true");
+		properties.put("appTokenVerifierUrl", "someAppTokenVerifierUrl");
+		properties.put("baseUrl", "someBaseUrl");
+
+		MeasuredWorkOrderSender measuredSender = (MeasuredWorkOrderSender) factor();
+
+		AuthTokenWorkOrderSender authTokenSender = (AuthTokenWorkOrderSender) measuredSender
+				.getWorkOrderSender();
+		AuthTokenCache authTokenCache = authTokenSender.getAuthTokenCache();
+		assertEquals(authTokenCache.getRefreshMarginInMillis(), 60000);
+		assertEquals(authTokenCache.getRetryDelayInMillis(), 5000);
+		CoraHttpClient httpClient = authTokenSender.getHttpClient();
+		assertEquals(httpClient.getMaxConcurrentRequests(), 20);
+		assertEquals(httpClient.getTimeoutInMillis(), 30000);
+		assertEquals(httpClient.getMaxResponseBodySizeInBytes(), 1048576);
+		assertEquals(loggerFactory.getInfoLogMessageUsingClassNameAndNo(testedClassname, 0),
+				"Sending to Cora with at most: 20 requests in flight, timing out after: 30000 ms");
+	}
+
+	@Test
+	public void testHttpClient() throws Exception {
+		properties.put("authToken.shared", "true");
+		properties.put("appTokenVerifierUrl", "someAppTokenVerifierUrl");
+		properties.put("baseUrl", "someBaseUrl");
+		properties.put("http.maxConnections", "8");
+		properties.put("http.timeoutInMillis", "1000");
+		properties.put("http.maxResponseBodySizeInBytes", "4096");
+
+		MeasuredWorkOrderSender measuredSender = (MeasuredWorkOrderSender) factor();
+
+		CoraHttpClient httpClient = ((AuthTokenWorkOrderSender) measuredSender
+				.getWorkOrderSender()).getHttpClient();
+		assertEquals(httpClient.getMaxConcurrentRequests(), 8);
+		assertEquals(httpClient.getTimeoutInMillis(), 1000);
+		assertEquals(httpClient.getMaxResponseBodySizeInBytes(), 4096);
+		ObjectName clientName = new ObjectName(
+				"se.uu.ub.cora.diva.indexmessenger:type=HttpClient");
+		assertEquals(mBeanServer.getAttribute(clientName, "MaxConcurrentRequests"), 8);
+	}
+
+	@Test
+	public void testSharedAuthTokenTurnedOff() {
+		properties.put("authToken.shared", "false");
+
+		MeasuredWorkOrderSender measuredSender = (MeasuredWorkOrderSender) factor();
+
+		assertTrue(measuredSender.getWorkOrderSender() instanceof CoraWorkOrderSender);
+	}
+
+	@Test(expectedExceptions = IndexMessageException.class, expectedExceptionsMessageRegExp = ""
+			+ "Property with name appTokenVerifierUrl not found in properties")
+	public void testSharedAuthTokenWithoutAppTokenVerifierUrl() {
+		properties.put("authToken.shared", "true");
+		properties.put("baseUrl", "someBaseUrl");
+
+		factor();
+	}
+
+	@Test(expectedExceptions = IndexMessageException.class, expectedExceptionsMessageRegExp = ""
+			+ "Property with name baseUrl not found in properties")
+	public void testSharedAuthTokenWithoutBaseUrl() {
+		properties.put("authToken.shared", "true");
+		properties.put("appTokenVerifierUrl", "someAppTokenVerifierUrl");
+
+		factor();
+	}
+}
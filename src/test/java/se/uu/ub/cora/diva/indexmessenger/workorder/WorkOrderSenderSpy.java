@@ -0,0 +1,45 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class WorkOrderSenderSpy implements WorkOrderSender {
+
+	public List<WorkOrder> sentWorkOrders = new ArrayList<>();
+	public RuntimeException errorToThrow;
+	public List<Long> closeDeadlines = new ArrayList<>();
+	public int noOfNotSentOnClose = 0;
+
+	@Override
+	public synchronized void send(WorkOrder workOrder) {
+		sentWorkOrders.add(workOrder);
+		if (errorToThrow != null) {
+			throw errorToThrow;
+		}
+	}
+
+	@Override
+	public synchronized int closeBefore(long deadlineInNanos) {
+		closeDeadlines.add(deadlineInNanos);
+		return noOfNotSentOnClose;
+	}
+
+}
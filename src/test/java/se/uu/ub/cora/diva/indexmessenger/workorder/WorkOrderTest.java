@@ -0,0 +1,57 @@
+/*
+ * Copyright 2021 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.diva.indexmessenger.workorder;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class WorkOrderTest {
+
+	private WorkOrder workOrder = new WorkOrder("person", "authority-person:1", "update");
+
+	@Test
+	public void testInit() {
+		assertEquals(workOrder.getRecordType(), "person");
+		assertEquals(workOrder.getRecordId(), "authority-person:1");
+		assertEquals(workOrder.getModificationType(), "update");
+		assertFalse(workOrder.isDelete());
+		assertEquals(workOrder.getRecordKey(), "person/authority-person:1");
+		assertEquals(workOrder.toString(), "update person/authority-person:1");
+	}
+
+	@Test
+	public void testIsDelete() {
+		assertTrue(new WorkOrder("person", "authority-person:1", "delete").isDelete());
+	}
+
+	@Test
+	public void testEquals() {
+		WorkOrder sameWorkOrder = new WorkOrder("person", "authority-person:1", "update");
+		assertEquals(sameWorkOrder, workOrder);
+		assertEquals(sameWorkOrder.hashCode(), workOrder.hashCode());
+		assertNotEquals(new WorkOrder("place", "authority-person:1", "update"), workOrder);
+		assertNotEquals(new WorkOrder("person", "authority-person:2", "update"), workOrder);
+		assertNotEquals(new WorkOrder("person", "authority-person:1", "delete"), workOrder);
+		assertNotEquals(workOrder, "update person/authority-person:1");
+	}
+}
@@ -46,6 +46,15 @@ public class LoggerFactorySpy implements LoggerFactory {
 		return infoMessages.get(messageNo);
 	}
 
+	public String getWarnLogMessageUsingClassNameAndNo(String className, int messageNo) {
+		List<String> warnMessages = (createdLoggers.get(className)).warnMessages;
+		return warnMessages.get(messageNo);
+	}
+
+	public int getNoOfWarnLogMessagesUsingClassName(String testedClassname) {
+		return ((createdLoggers.get(testedClassname)).warnMessages).size();
+	}
+
 	public String getErrorLogMessageUsingClassNameAndNo(String className, int messageNo) {
 		List<String> errorMessages = (createdLoggers.get(className)).errorMessages;
 		return errorMessages.get(messageNo);
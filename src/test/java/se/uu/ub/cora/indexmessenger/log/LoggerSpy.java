@@ -30,6 +30,7 @@ public class LoggerSpy implements Logger {
 	public List<String> fatalMessages = new ArrayList<>();
 	public List<String> errorMessages = new ArrayList<>();
 	public List<String> infoMessages = new ArrayList<>();
+	public List<String> warnMessages = new ArrayList<>();
 	public List<Exception> errorExceptions = new ArrayList<>();
 	public List<Exception> fatalExceptions = new ArrayList<>();
 
@@ -58,14 +59,12 @@ public class LoggerSpy implements Logger {
 
 	@Override
 	public void logWarnUsingMessage(String message) {
-		// TODO Auto-generated method stub
-
+		warnMessages.add(message);
 	}
 
 	@Override
 	public void logWarnUsingMessageAndException(String message, Exception exception) {
-		// TODO Auto-generated method stub
-
+		warnMessages.add(message);
 	}
 
 	@Override
@@ -100,6 +99,7 @@ public class LoggerSpy implements Logger {
 	public void resetLogs() {
 		fatalMessages = new ArrayList<>();
 		infoMessages = new ArrayList<>();
+		warnMessages = new ArrayList<>();
 		errorMessages = new ArrayList<>();
 		errorExceptions = new ArrayList<>();
 		fatalExceptions = new ArrayList<>();